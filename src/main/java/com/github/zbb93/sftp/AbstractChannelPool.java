@@ -19,28 +19,78 @@
 package com.github.zbb93.sftp;
 
 import com.diffplug.common.base.Errors;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Queues;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This implementation of ChannelPool contains no logic related to actually obtaining the channels from the remote
  * server. It is responsible solely for maintaining the channel pool.
+ *
+ * The session and every channel are granted by a ResourceGovernor. The pool opens its first channel when it is
+ * initialized and as many of the remaining channels as the governor grants. Further channels are opened on demand
+ * while every open channel is in use, and channels are closed again when the governor needs their capacity for another
+ * pool. The pool never gives up its last channel.
  */
 public abstract class AbstractChannelPool implements ChannelPool {
 	private final int poolSize;
+
+	/**
+	 * Idle channels.
+	 */
 	private final @NotNull BlockingQueue<Channel> channelPool;
+
+	/**
+	 * Number of open channels, idle or in use.
+	 */
+	private final @NotNull AtomicInteger openChannels = new AtomicInteger();
+
+	/**
+	 * Host and port of the session, used to apply the per-host limits of the governor.
+	 */
+	private final @NotNull String host;
+
+	private final @NotNull ResourceGovernor governor;
+
+	/**
+	 * Session and channels granted by the governor. Null until the pool has been initialized.
+	 */
+	private volatile @Nullable ResourceGovernor.Lease lease;
+
 	private @NotNull String workingDirectory;
 
+	/**
+	 * Capabilities of the remote server, probed on the first channel when the pool is initialized.
+	 */
+	private volatile @NotNull ServerCapabilities serverCapabilities = ServerCapabilities.NONE;
+
+	/**
+	 * Time a thread waits for an idle channel before asking the governor for a new channel again.
+	 */
+	private static final long CHANNEL_RETRY_MILLIS = 100;
+
 	private static final @NotNull Logger LOGGER = Logger.getLogger(AbstractChannelPool.class.getName());
 	private static final byte NULL_BYTE = (byte) '\0';
 	@SuppressWarnings("HardcodedFileSeparator")
 	private static final char UNIX_FILE_SEPARATOR = '/';
 
-	protected AbstractChannelPool(final int poolSize) {
+	/**
+	 * @param poolSize maximum number of channels to open.
+	 * @param host host and port of the session.
+	 * @param governor grants the session and the channels of the pool.
+	 */
+	protected AbstractChannelPool(final int poolSize, final @NotNull String host,
+																final @NotNull ResourceGovernor governor) {
 		this.poolSize = poolSize;
+		this.host = host;
+		this.governor = governor;
 		workingDirectory = "";
 		channelPool = Queues.newLinkedBlockingQueue(poolSize);
 	}
@@ -48,20 +98,59 @@ public abstract class AbstractChannelPool implements ChannelPool {
 	@Override
 	public void initialize() throws SSHException {
 		LOGGER.info("Initializing connection pool...");
-		connect();
-		initializeChannels();
+		final ResourceGovernor.Lease newLease;
+		try {
+			newLease = governor.openSession(host, poolSize, this::releaseIdleChannel);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SSHException(e);
+		}
+		lease = newLease;
+		try {
+			connect();
+			initializeChannels(newLease);
+		} catch (final SSHException | RuntimeException e) {
+			newLease.close();
+			throw e;
+		}
 		LOGGER.info("Connection pool initialized successfully.");
 	}
 
 	protected abstract void connect() throws SSHException;
 
-	private void initializeChannels() throws SSHException {
-		Channel channel = getChannel();
+	private void initializeChannels(final @NotNull ResourceGovernor.Lease lease) throws SSHException {
+		try {
+			lease.acquireChannel();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SSHException(e);
+		}
+		final Channel channel = openChannel(lease);
 		workingDirectory = channel.pwd();
-		do {
-			channelPool.add(channel);
-			channel = getChannel();
-		} while (channelPool.remainingCapacity() > 0);
+		serverCapabilities = channel.getServerCapabilities();
+		LOGGER.info("Remote server capabilities: " + serverCapabilities);
+		channelPool.add(channel);
+		while (openChannels.get() < poolSize && lease.tryAcquireChannel()) {
+			channelPool.add(openChannel(lease));
+		}
+		if (openChannels.get() < poolSize) {
+			LOGGER.info("Opened " + openChannels.get() + " of " + poolSize + " channels, the remaining channels will be " +
+									"opened when they are needed and granted.");
+		}
+	}
+
+	/**
+	 * Opens a channel that has been granted by the governor, giving the grant back if the channel cannot be opened.
+	 */
+	private @NotNull Channel openChannel(final @NotNull ResourceGovernor.Lease lease) throws SSHException {
+		try {
+			final Channel channel = getChannel();
+			openChannels.incrementAndGet();
+			return channel;
+		} catch (final SSHException | RuntimeException e) {
+			lease.releaseChannel();
+			throw e;
+		}
 	}
 
 	protected abstract Channel getChannel() throws SSHException;
@@ -69,19 +158,152 @@ public abstract class AbstractChannelPool implements ChannelPool {
 	@Override
 	public @NotNull Channel getNextAvailableChannel() throws SSHException, InterruptedException {
 		LOGGER.info("Waiting on next available channel...");
-		// TODO add timeout option for time to wait for channel
-		final Channel channel = channelPool.take();
+		final Channel channel = awaitChannel(Long.MAX_VALUE);
+		//noinspection ConstantConditions the wait is unbounded
+		return handOut(channel);
+	}
+
+	@Override
+	public @Nullable Channel getNextAvailableChannel(final long timeout, final @NotNull TimeUnit unit)
+			throws SSHException, InterruptedException {
+		LOGGER.info("Waiting up to " + unit.toMillis(timeout) + " ms on next available channel...");
+		final Channel channel = awaitChannel(unit.toNanos(timeout));
+		if (channel == null) {
+			LOGGER.info("No channel became available in time.");
+			return null;
+		}
+		return handOut(channel);
+	}
+
+	/**
+	 * Takes an idle channel, or opens a new one if the governor grants it, waiting at most the given time.
+	 *
+	 * @param timeoutNanos maximum time to wait or Long.MAX_VALUE to wait until a channel is available.
+	 * @return channel or null if none became available in time.
+	 */
+	private @Nullable Channel awaitChannel(final long timeoutNanos) throws SSHException, InterruptedException {
+		Channel channel = channelPool.poll();
+		if (channel != null) {
+			return channel;
+		}
+		final long start = System.nanoTime();
+		final ResourceGovernor.Lease currentLease = getLease();
+		currentLease.setWaiting(true);
+		try {
+			while (channel == null) {
+				final long remaining = timeoutNanos - (System.nanoTime() - start);
+				if (timeoutNanos != Long.MAX_VALUE && remaining <= 0) {
+					return null;
+				}
+				if (openChannels.get() < poolSize && currentLease.tryAcquireChannel()) {
+					channel = openChannel(currentLease);
+				} else {
+					channel = channelPool.poll(Math.min(TimeUnit.MILLISECONDS.toNanos(CHANNEL_RETRY_MILLIS), remaining),
+																		 TimeUnit.NANOSECONDS);
+				}
+			}
+		} finally {
+			currentLease.setWaiting(false);
+		}
+		return channel;
+	}
+
+	private @NotNull Channel handOut(final @NotNull Channel channel) throws SSHException {
+		prepareChannel(channel);
 		// TODO track working directory on the Channel and update when it is returned if it does not match channel pool.
 		channel.cd(workingDirectory);
 		LOGGER.info("Successfully obtained channel.");
 		return channel;
 	}
 
+	/**
+	 * Called before a channel is handed out, while nothing else is using it. Implementations that change the settings of
+	 * their channels apply them here rather than to channels that may be in the middle of a transfer. Does nothing by
+	 * default.
+	 *
+	 * @param channel channel about to be handed out.
+	 */
+	protected void prepareChannel(final @NotNull Channel channel) { }
+
+	/**
+	 * Returns the channel to the pool, or closes it if the governor needs its capacity for another pool.
+	 */
 	@Override
 	public void returnChannel(final @NotNull Channel channel) {
+		final ResourceGovernor.Lease currentLease = lease;
+		if (currentLease != null && currentLease.shouldReleaseChannel() && tryRemoveChannel()) {
+			LOGGER.info("Closing channel so that another pool can use its capacity.");
+			closeChannel(channel, currentLease);
+			return;
+		}
 		channelPool.add(channel);
 	}
 
+	/**
+	 * Removes an idle channel on behalf of the governor and gives back its grant. The governor is locked at this point,
+	 * so the channel is only closed by the returned action.
+	 *
+	 * @return action that closes the channel or null if no channel was removed.
+	 */
+	private @Nullable Runnable releaseIdleChannel() {
+		final ResourceGovernor.Lease currentLease = lease;
+		if (currentLease == null || !tryRemoveChannel()) {
+			return null;
+		}
+		final Channel channel = channelPool.poll();
+		if (channel == null) {
+			openChannels.incrementAndGet();
+			return null;
+		}
+		currentLease.releaseChannel();
+		return () -> closeChannel(channel);
+	}
+
+	/**
+	 * Decrements the number of open channels unless only one channel is open.
+	 *
+	 * @return true if the number was decremented and a channel must be closed.
+	 */
+	private boolean tryRemoveChannel() {
+		while (true) {
+			final int open = openChannels.get();
+			if (open <= 1) {
+				return false;
+			}
+			if (openChannels.compareAndSet(open, open - 1)) {
+				return true;
+			}
+		}
+	}
+
+	private static void closeChannel(final @NotNull Channel channel, final @NotNull ResourceGovernor.Lease lease) {
+		try {
+			closeChannel(channel);
+		} finally {
+			lease.releaseChannel();
+		}
+	}
+
+	private static void closeChannel(final @NotNull Channel channel) {
+		try {
+			channel.close();
+		} catch (final RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Unable to close channel.", e);
+		}
+	}
+
+	private @NotNull ResourceGovernor.Lease getLease() {
+		final ResourceGovernor.Lease currentLease = lease;
+		Preconditions.checkState(currentLease != null, "Channel pool has not been initialized.");
+		return currentLease;
+	}
+
+	/**
+	 * This implementation does not use transfer measurements.
+	 */
+	@Override
+	public void reportTransfer(final long bytes, final long nanos) { }
+
 	@Override
 	public void setWorkingDirectory(final @NotNull String targetDirectory) {
 		if (isAbsolute(targetDirectory)) {
@@ -99,6 +321,11 @@ public abstract class AbstractChannelPool implements ChannelPool {
 		return workingDirectory;
 	}
 
+	@Override
+	public @NotNull ServerCapabilities getServerCapabilities() {
+		return serverCapabilities;
+	}
+
 	private boolean isAbsolute(final @NotNull CharSequence targetDirectory) {
 		return targetDirectory.charAt(0) == UNIX_FILE_SEPARATOR;
 	}
@@ -110,10 +337,17 @@ public abstract class AbstractChannelPool implements ChannelPool {
 	@Override
 	public void close() throws SSHException {
 		LOGGER.info("Disconnecting from remote server...");
-		channelPool.forEach(
-				Errors.rethrow()
-							.wrap(AutoCloseable::close)
-		);
+		try {
+			channelPool.forEach(
+					Errors.rethrow()
+								.wrap(AutoCloseable::close)
+			);
+		} finally {
+			final ResourceGovernor.Lease currentLease = lease;
+			if (currentLease != null) {
+				currentLease.close();
+			}
+		}
 		LOGGER.info("Successfully disconnected from remote server.");
 	}
 
@@ -0,0 +1,204 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Limits the number of transfers that run concurrently and adjusts the limit to the link using additive increase and
+ * multiplicative decrease. Completed transfers are aggregated into fixed length windows. At the end of each window in
+ * which the limit was actually reached the aggregate throughput and the time spent per byte are compared with the
+ * previous window:
+ * <ul>
+ *     <li>a failed transfer halves the limit,</li>
+ *     <li>throughput that improved by more than the tolerance increases the limit by one,</li>
+ *     <li>throughput that dropped by more than the tolerance, or time per byte that has more than doubled since the
+ *     best window without a throughput gain, reduces the limit by a tenth,</li>
+ *     <li>anything else leaves the limit unchanged.</li>
+ * </ul>
+ * The limit therefore climbs while additional transfers still add throughput and settles where they stop doing so.
+ */
+class AdaptiveConcurrencyLimit {
+	/**
+	 * Length of a measurement window.
+	 */
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Relative change in throughput that is treated as noise.
+	 */
+	private static final double TOLERANCE = 0.05;
+
+	private static final double DECREASE_FACTOR = 0.9;
+	private static final double FAILURE_DECREASE_FACTOR = 0.5;
+
+	private final int minLimit;
+	private final int maxLimit;
+
+	/**
+	 * Source of the time used to measure windows.
+	 */
+	private final @NotNull Ticker ticker;
+
+	private final @NotNull Lock lock = new ReentrantLock();
+	private final @NotNull Condition permitReleased = lock.newCondition();
+
+	// The following fields are guarded by lock.
+	private int limit;
+	private int inFlight;
+	private boolean saturated;
+	private long windowStart;
+	private long windowBytes;
+	private long windowTransferNanos;
+	private int windowFailures;
+	private double previousThroughput;
+	private double bestNanosPerByte = Double.MAX_VALUE;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(AdaptiveConcurrencyLimit.class.getName());
+
+	/**
+	 * @param minLimit lowest number of concurrent transfers the limit may be reduced to. This is also the initial limit.
+	 * @param maxLimit highest number of concurrent transfers the limit may be increased to.
+	 * @throws IllegalArgumentException if minLimit is not greater than zero or is greater than maxLimit.
+	 */
+	AdaptiveConcurrencyLimit(final int minLimit, final int maxLimit) {
+		this(minLimit, maxLimit, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param minLimit lowest number of concurrent transfers the limit may be reduced to. This is also the initial limit.
+	 * @param maxLimit highest number of concurrent transfers the limit may be increased to.
+	 * @param ticker source of the time used to measure windows.
+	 * @throws IllegalArgumentException if minLimit is not greater than zero or is greater than maxLimit.
+	 */
+	AdaptiveConcurrencyLimit(final int minLimit, final int maxLimit, final @NotNull Ticker ticker) {
+		Preconditions.checkArgument(minLimit > 0 && minLimit <= maxLimit,
+																"Minimum limit must be greater than zero and not greater than the maximum limit.");
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.ticker = ticker;
+		limit = minLimit;
+		windowStart = ticker.read();
+	}
+
+	/**
+	 * Blocks until fewer transfers than the current limit are running and then registers a new transfer.
+	 *
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	void acquire() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (inFlight >= limit) {
+				saturated = true;
+				permitReleased.await();
+			}
+			inFlight++;
+			if (inFlight == limit) {
+				saturated = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Registers the completion of a transfer started with acquire.
+	 *
+	 * @param bytes number of bytes transferred.
+	 * @param transferNanos time the transfer took.
+	 * @param successful false if the transfer failed.
+	 */
+	void release(final long bytes, final long transferNanos, final boolean successful) {
+		lock.lock();
+		try {
+			inFlight--;
+			windowBytes += bytes;
+			windowTransferNanos += transferNanos;
+			if (!successful) {
+				windowFailures++;
+			}
+			final long now = ticker.read();
+			if (now - windowStart >= WINDOW_NANOS) {
+				adjustLimit(now);
+			}
+			permitReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of transfers that are currently allowed to run concurrently.
+	 */
+	int getLimit() {
+		lock.lock();
+		try {
+			return limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void adjustLimit(final long now) {
+		final double throughput = windowBytes * (double) TimeUnit.SECONDS.toNanos(1) / (now - windowStart);
+		final double nanosPerByte = windowBytes == 0 ? Double.MAX_VALUE : (double) windowTransferNanos / windowBytes;
+		final int previousLimit = limit;
+		if (windowFailures > 0) {
+			limit = Math.max(minLimit, (int) (limit * FAILURE_DECREASE_FACTOR));
+		} else if (saturated) {
+			if (throughput > previousThroughput * (1 + TOLERANCE)) {
+				limit = Math.min(maxLimit, limit + 1);
+			} else if (throughput < previousThroughput * (1 - TOLERANCE) || nanosPerByte > 2 * bestNanosPerByte) {
+				limit = Math.max(minLimit, Math.min(limit - 1, (int) (limit * DECREASE_FACTOR)));
+			}
+		}
+		if (limit != previousLimit) {
+			LOGGER.info(String.format("Adjusted concurrent transfer limit from %d to %d. Throughput: %.0f bytes/s",
+																previousLimit, limit, throughput));
+		}
+		if (saturated || windowFailures > 0) {
+			previousThroughput = throughput;
+		}
+		bestNanosPerByte = Math.min(bestNanosPerByte, nanosPerByte);
+		windowStart = now;
+		windowBytes = 0;
+		windowTransferNanos = 0;
+		windowFailures = 0;
+		saturated = inFlight >= limit;
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "AdaptiveConcurrencyLimit{" +
+					 "minLimit=" + minLimit +
+					 ", maxLimit=" + maxLimit +
+					 ", limit=" + getLimit() +
+					 '}';
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * POJO containing the algorithms a Connection prefers during SSH key exchange, in order of preference. An empty list
+ * leaves the defaults of the provider in place. This class is created by ConnectionParameters.Builder.
+ */
+@SuppressWarnings("ClassWithoutLogger") // POJO does not need logger
+public class AlgorithmPreferences {
+
+	/**
+	 * Name of the delayed zlib compression method, which only starts compressing after authentication.
+	 */
+	public static final @NotNull String ZLIB_OPENSSH = "zlib@openssh.com";
+
+	/**
+	 * Preferred ciphers, for example aes128-ctr.
+	 */
+	private final @NotNull ImmutableList<String> ciphers;
+
+	/**
+	 * Preferred message authentication codes, for example hmac-sha1.
+	 */
+	private final @NotNull ImmutableList<String> macs;
+
+	/**
+	 * Preferred key exchange algorithms, for example diffie-hellman-group14-sha1.
+	 */
+	private final @NotNull ImmutableList<String> keyExchanges;
+
+	/**
+	 * Whether zlib@openssh.com compression is requested.
+	 */
+	private final boolean compression;
+
+	/**
+	 * Compression level from 1 (fastest) to 9 (smallest) or zero for the default of the provider.
+	 */
+	private final int compressionLevel;
+
+	AlgorithmPreferences(final @NotNull List<String> ciphers, final @NotNull List<String> macs,
+											 final @NotNull List<String> keyExchanges, final boolean compression,
+											 final int compressionLevel) {
+		this.ciphers = ImmutableList.copyOf(ciphers);
+		this.macs = ImmutableList.copyOf(macs);
+		this.keyExchanges = ImmutableList.copyOf(keyExchanges);
+		this.compression = compression;
+		this.compressionLevel = compressionLevel;
+	}
+
+	public @NotNull List<String> getCiphers() {
+		return ciphers;
+	}
+
+	public @NotNull List<String> getMacs() {
+		return macs;
+	}
+
+	public @NotNull List<String> getKeyExchanges() {
+		return keyExchanges;
+	}
+
+	public boolean isCompression() {
+		return compression;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "AlgorithmPreferences{" +
+					 "ciphers=" + ciphers +
+					 ", macs=" + macs +
+					 ", keyExchanges=" + keyExchanges +
+					 ", compression=" + compression +
+					 ", compressionLevel=" + compressionLevel +
+					 '}';
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Measures the throughput of the ciphers, MACs and compression that can be negotiated with a remote server and
+ * recommends the fastest combination. Each candidate is measured on its own connection by uploading a sample file and
+ * downloading it again, so the sample should be representative of the data that is usually transferred. Candidates
+ * that cannot be negotiated with the remote server are skipped.
+ */
+public class AlgorithmProbe {
+
+	/**
+	 * Ciphers supported by JSch, in the order they are probed.
+	 */
+	public static final @NotNull List<String> CANDIDATE_CIPHERS = ImmutableList.of(
+			"aes128-ctr", "aes192-ctr", "aes256-ctr", "aes128-cbc", "aes192-cbc", "aes256-cbc", "3des-ctr", "3des-cbc",
+			"blowfish-cbc");
+
+	/**
+	 * MACs supported by JSch, in the order they are probed.
+	 */
+	public static final @NotNull List<String> CANDIDATE_MACS = ImmutableList.of(
+			"hmac-sha2-256", "hmac-sha1", "hmac-sha1-96", "hmac-md5", "hmac-md5-96");
+
+	/**
+	 * Number of times each candidate transfers the sample. The fastest round is used so that warm up does not count
+	 * against the first candidate.
+	 */
+	private static final int ROUNDS = 2;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(AlgorithmProbe.class.getName());
+
+	/**
+	 * Creates a new Builder for every probe connection because a Builder can only be used once.
+	 */
+	private final @NotNull Supplier<ConnectionParameters.Builder> builderSupplier;
+
+	/**
+	 * Local file that is transferred to measure throughput.
+	 */
+	private final @NotNull Path sample;
+
+	/**
+	 * Remote path the sample is uploaded to. It is removed after each measurement.
+	 */
+	private final @NotNull String remotePath;
+
+	/**
+	 * @param builderSupplier creates Builders for the remote server to probe, one per connection.
+	 * @param sample local file to transfer. A few megabytes are usually enough.
+	 * @param remotePath remote path that the sample can be uploaded to.
+	 */
+	public AlgorithmProbe(final @NotNull Supplier<ConnectionParameters.Builder> builderSupplier,
+												final @NotNull Path sample, final @NotNull String remotePath) {
+		this.builderSupplier = builderSupplier;
+		this.sample = sample;
+		this.remotePath = remotePath;
+	}
+
+	/**
+	 * Probes every candidate cipher, then every candidate MAC using the fastest cipher, then compression using the
+	 * fastest cipher and MAC.
+	 *
+	 * @return throughput of every candidate that could be negotiated and the recommended configuration.
+	 * @throws SSHException if none of the candidate ciphers or MACs can be negotiated with the remote server.
+	 */
+	public @NotNull Result probe() throws SSHException {
+		final Map<String, Double> cipherThroughput = new LinkedHashMap<>();
+		for (final String cipher : CANDIDATE_CIPHERS) {
+			measure(builder -> builder.setCiphers(cipher)).ifPresent(throughput -> cipherThroughput.put(cipher, throughput));
+		}
+		final String cipher = fastest(cipherThroughput);
+		if (cipher == null) {
+			throw new SSHException("None of the candidate ciphers can be negotiated with the remote server.");
+		}
+		final Map<String, Double> macThroughput = new LinkedHashMap<>();
+		for (final String mac : CANDIDATE_MACS) {
+			measure(builder -> {
+				builder.setCiphers(cipher);
+				builder.setMacs(mac);
+			}).ifPresent(throughput -> macThroughput.put(mac, throughput));
+		}
+		final String mac = fastest(macThroughput);
+		if (mac == null) {
+			throw new SSHException("None of the candidate MACs can be negotiated with the remote server.");
+		}
+		final double compressed = measure(builder -> {
+			builder.setCiphers(cipher);
+			builder.setMacs(mac);
+			builder.setCompression(true);
+		}).orElse(0.0);
+		final double uncompressed = macThroughput.get(mac);
+		return new Result(cipherThroughput, macThroughput, compressed, uncompressed);
+	}
+
+	/**
+	 * Connects with the given configuration and measures the throughput of uploading and downloading the sample.
+	 *
+	 * @param configuration applies the algorithms to probe to a Builder.
+	 * @return throughput in bytes per second or an empty Optional if the configuration could not be negotiated.
+	 */
+	private @NotNull Optional<Double> measure(final @NotNull Consumer<ConnectionParameters.Builder> configuration) {
+		final ConnectionParameters.Builder builder = builderSupplier.get();
+		builder.setChannelPoolSize(1);
+		configuration.accept(builder);
+		final ConnectionParameters parameters = builder.build();
+		try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(parameters)) {
+			final long size = Files.size(sample);
+			long shortest = Long.MAX_VALUE;
+			for (int i = 0; i < ROUNDS; i++) {
+				final long start = System.nanoTime();
+				connection.put(sample, remotePath);
+				connection.get(remotePath, ByteStreams.nullOutputStream());
+				shortest = Math.min(shortest, System.nanoTime() - start);
+			}
+			connection.rm(remotePath);
+			return Optional.of(2 * size * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, shortest));
+		} catch (final Exception e) {
+			LOGGER.warning(String.format("Unable to probe %s: %s", parameters.getAlgorithmPreferences(), e.getMessage()));
+			return Optional.empty();
+		}
+	}
+
+	private static @Nullable String fastest(final @NotNull Map<String, Double> throughput) {
+		return throughput.entrySet().stream()
+				.max(Map.Entry.comparingByValue())
+				.map(Map.Entry::getKey)
+				.orElse(null);
+	}
+
+	/**
+	 * Outcome of a probe. Throughput is measured in bytes per second.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	public static final class Result {
+
+		private final @NotNull ImmutableMap<String, Double> cipherThroughput;
+
+		private final @NotNull ImmutableMap<String, Double> macThroughput;
+
+		private final double compressedThroughput;
+
+		private final double uncompressedThroughput;
+
+		Result(final @NotNull Map<String, Double> cipherThroughput, final @NotNull Map<String, Double> macThroughput,
+					 final double compressedThroughput, final double uncompressedThroughput) {
+			this.cipherThroughput = ImmutableMap.copyOf(cipherThroughput);
+			this.macThroughput = ImmutableMap.copyOf(macThroughput);
+			this.compressedThroughput = compressedThroughput;
+			this.uncompressedThroughput = uncompressedThroughput;
+		}
+
+		/**
+		 * @return throughput of every cipher that could be negotiated, in the order they were probed.
+		 */
+		public @NotNull Map<String, Double> getCipherThroughput() {
+			return cipherThroughput;
+		}
+
+		/**
+		 * @return throughput of every MAC that could be negotiated, in the order they were probed.
+		 */
+		public @NotNull Map<String, Double> getMacThroughput() {
+			return macThroughput;
+		}
+
+		/**
+		 * @return throughput with compression enabled or zero if compression could not be negotiated.
+		 */
+		public double getCompressedThroughput() {
+			return compressedThroughput;
+		}
+
+		/**
+		 * @return throughput of the recommended cipher and MAC without compression.
+		 */
+		public double getUncompressedThroughput() {
+			return uncompressedThroughput;
+		}
+
+		public @NotNull String getRecommendedCipher() {
+			//noinspection ConstantConditions probe() guarantees that at least one cipher was measured
+			return fastest(cipherThroughput);
+		}
+
+		public @NotNull String getRecommendedMac() {
+			//noinspection ConstantConditions probe() guarantees that at least one MAC was measured
+			return fastest(macThroughput);
+		}
+
+		public boolean isCompressionRecommended() {
+			return compressedThroughput > uncompressedThroughput;
+		}
+
+		/**
+		 * Configures a Builder with the recommended algorithms. The remaining ciphers and MACs that could be negotiated
+		 * are offered as fallbacks, fastest first.
+		 *
+		 * @param builder Builder to configure.
+		 */
+		public void apply(final @NotNull ConnectionParameters.Builder builder) {
+			builder.setCiphers(byThroughput(cipherThroughput));
+			builder.setMacs(byThroughput(macThroughput));
+			builder.setCompression(isCompressionRecommended());
+		}
+
+		private static @NotNull String[] byThroughput(final @NotNull Map<String, Double> throughput) {
+			return throughput.entrySet().stream()
+					.sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+					.map(Map.Entry::getKey)
+					.toArray(String[]::new);
+		}
+
+		@Override
+		@SuppressWarnings("MagicCharacter")
+		public String toString() {
+			return "Result{" +
+						 "cipherThroughput=" + cipherThroughput +
+						 ", macThroughput=" + macThroughput +
+						 ", compressedThroughput=" + compressedThroughput +
+						 ", uncompressedThroughput=" + uncompressedThroughput +
+						 '}';
+		}
+	}
+}
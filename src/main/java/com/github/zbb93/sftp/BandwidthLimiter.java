@@ -0,0 +1,212 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket that limits the rate at which bytes are transferred. The rate can be changed at any time, including
+ * while transfers are in progress, and a rate of zero disables the limit.
+ *
+ * Transfers acquire permission to send bytes in small quanta through a fair lock, so concurrent transfers that share a
+ * limiter take turns and each receive an equal share of the bandwidth instead of the first transfer starving the rest.
+ * A limiter may have a parent, in which case bytes must be acquired from both. Every Connection has its own limiter
+ * whose parent is the global limiter shared by all Connections in the JVM.
+ */
+public class BandwidthLimiter {
+	/**
+	 * Limiter shared by all Connections in the JVM. Unlimited until a rate is set.
+	 */
+	private static final @NotNull BandwidthLimiter GLOBAL = new BandwidthLimiter(0, null);
+
+	/**
+	 * Largest number of bytes a transfer may acquire before other transfers waiting on the limiter get a turn.
+	 */
+	private static final int QUANTUM = 16 * 1024;
+
+	/**
+	 * Longest time a transfer waits for tokens before the rate is read again, so that a lowered limit does not keep
+	 * transfers waiting for the wait computed from the old rate.
+	 */
+	private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * Bytes per second that tokens are added to the bucket at, or zero if the limiter is disabled.
+	 */
+	private volatile long bytesPerSecond;
+
+	/**
+	 * Limiter that must also grant every acquisition or null if this is the root limiter.
+	 */
+	private final @Nullable BandwidthLimiter parent;
+
+	/**
+	 * Fair lock so that waiting transfers are granted quanta in the order in which they asked for them.
+	 */
+	private final @NotNull Lock lock = new ReentrantLock(true);
+
+	/**
+	 * Guards rateChanged. Separate from lock so that changing the rate never waits for a transfer that is waiting for
+	 * tokens.
+	 */
+	private final @NotNull Lock rateLock = new ReentrantLock();
+
+	/**
+	 * Signalled when the rate changes, waking the transfer that is waiting for tokens.
+	 */
+	private final @NotNull Condition rateChanged = rateLock.newCondition();
+
+	/**
+	 * Bytes that may be sent without waiting. Guarded by lock.
+	 */
+	private double tokens;
+
+	/**
+	 * Time, in nanoseconds, at which tokens were last added to the bucket. Guarded by lock.
+	 */
+	private long lastRefill;
+
+	/**
+	 * @param bytesPerSecond maximum transfer rate or zero for no limit.
+	 * @param parent limiter that must also grant every acquisition or null if there is none.
+	 */
+	public BandwidthLimiter(final long bytesPerSecond, final @Nullable BandwidthLimiter parent) {
+		setBytesPerSecond(bytesPerSecond);
+		this.parent = parent;
+		lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * @return limiter shared by all Connections in the JVM.
+	 */
+	public static @NotNull BandwidthLimiter getGlobal() {
+		return GLOBAL;
+	}
+
+	/**
+	 * @return maximum transfer rate in bytes per second or zero if there is no limit.
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Changes the maximum transfer rate. Transfers in progress are affected from their next acquisition.
+	 *
+	 * @param bytesPerSecond maximum transfer rate or zero for no limit.
+	 * @throws IllegalArgumentException if the rate is negative.
+	 */
+	public void setBytesPerSecond(final long bytesPerSecond) {
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException("Transfer rate must not be negative.");
+		}
+		this.bytesPerSecond = bytesPerSecond;
+		rateLock.lock();
+		try {
+			rateChanged.signalAll();
+		} finally {
+			rateLock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks until the provided number of bytes may be transferred according to this limiter and all of its parents.
+	 *
+	 * @param bytes number of bytes about to be transferred.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void acquire(final int bytes) throws InterruptedException {
+		int remaining = bytes;
+		while (remaining > 0) {
+			final int quantum = Math.min(remaining, QUANTUM);
+			acquireTokens(quantum);
+			if (parent != null) {
+				parent.acquire(quantum);
+			}
+			remaining -= quantum;
+		}
+	}
+
+	private void acquireTokens(final int bytes) throws InterruptedException {
+		long rate = bytesPerSecond;
+		if (rate == 0) {
+			return;
+		}
+		lock.lockInterruptibly();
+		try {
+			refill(rate);
+			// The lock is held while waiting so that waiting transfers are served in order. The wait is cut short when the
+			// rate changes and the rate is read again after every slice, so a new rate applies to the waiting transfer.
+			while (tokens < bytes) {
+				final long waitNanos = (long) ((bytes - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+				awaitRateChange(rate, Math.min(waitNanos, MAX_WAIT_NANOS));
+				rate = bytesPerSecond;
+				if (rate == 0) {
+					return;
+				}
+				refill(rate);
+			}
+			tokens -= bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the rate differs from the provided rate or the provided time has passed.
+	 */
+	private void awaitRateChange(final long rate, final long nanos) throws InterruptedException {
+		rateLock.lockInterruptibly();
+		try {
+			long remaining = nanos;
+			while (remaining > 0 && bytesPerSecond == rate) {
+				remaining = rateChanged.awaitNanos(remaining);
+			}
+		} finally {
+			rateLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the tokens accumulated since the last refill. The bucket holds at most a tenth of a second worth of tokens,
+	 * which bounds the burst that follows an idle period.
+	 */
+	private void refill(final long rate) {
+		final long now = System.nanoTime();
+		final double capacity = Math.max(QUANTUM, rate / 10.0);
+		final double accumulated = (now - lastRefill) * (double) rate / TimeUnit.SECONDS.toNanos(1);
+		tokens = Math.min(capacity, tokens + accumulated);
+		lastRefill = now;
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "BandwidthLimiter{" +
+					 "bytesPerSecond=" + bytesPerSecond +
+					 ", parent=" + parent +
+					 '}';
+	}
+}
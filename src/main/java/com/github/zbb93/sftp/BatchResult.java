@@ -0,0 +1,98 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Outcome of a batch operation. Every item of the batch is either present in the results or in the failures, so a
+ * single failing item never hides the outcome of the rest of the batch. Both maps preserve the order in which the items
+ * were provided.
+ *
+ * @param <T> type of the value produced for each successful item. Operations that do not produce a value use Void.
+ */
+@SuppressWarnings("ClassWithoutLogger") // POJO that does not need logging.
+public class BatchResult<T> {
+	/**
+	 * Values produced by the items that succeeded, keyed by item.
+	 */
+	private final @NotNull Map<String, T> results;
+
+	/**
+	 * Exceptions thrown by the items that failed, keyed by item.
+	 */
+	private final @NotNull Map<String, SSHException> failures;
+
+	BatchResult(final @NotNull Map<String, T> results, final @NotNull Map<String, SSHException> failures) {
+		// ImmutableMap does not permit null values which are used by operations that do not produce a value.
+		this.results = Collections.unmodifiableMap(results);
+		this.failures = ImmutableMap.copyOf(failures);
+	}
+
+	/**
+	 * @return true if every item of the batch succeeded.
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * @return the items that succeeded.
+	 */
+	public @NotNull Set<String> getSucceeded() {
+		return results.keySet();
+	}
+
+	/**
+	 * @param item item of the batch.
+	 * @return value produced by the item or null if the item failed or does not produce a value.
+	 */
+	public @Nullable T getResult(final @NotNull String item) {
+		return results.get(item);
+	}
+
+	/**
+	 * @return values produced by the items that succeeded, keyed by item.
+	 */
+	public @NotNull Map<String, T> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return exceptions thrown by the items that failed, keyed by item.
+	 */
+	public @NotNull Map<String, SSHException> getFailures() {
+		return failures;
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "BatchResult{" +
+					 "succeeded=" + results.size() +
+					 ", failures=" + failures.keySet() +
+					 '}';
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of ByteBuffers used by transfers to avoid allocating a new buffer for every chunk. Buffers are grouped
+ * into power of two size classes from MIN_BUFFER_SIZE to MAX_BUFFER_SIZE and a request is served from the smallest
+ * class that fits. Requests larger than MAX_BUFFER_SIZE are allocated without pooling. The pool retains at most a fixed
+ * number of bytes of released buffers; buffers released beyond that are left to the garbage collector.
+ *
+ * A pool hands out either heap or direct buffers. Heap buffers are used when the data is passed to streams, which need
+ * an array, while direct buffers avoid a copy when the data is passed to channels. The pool keeps track of the pooled
+ * buffers it has handed out, so releasing a buffer that was not acquired from it, or releasing a buffer twice, fails
+ * instead of handing the buffer to two users at once. A buffer must not be used after it has been released.
+ */
+public class BufferPool {
+
+	/**
+	 * Capacity of the smallest size class.
+	 */
+	public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+	/**
+	 * Capacity of the largest size class.
+	 */
+	public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Bytes retained by each of the shared pools.
+	 */
+	private static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+	private static final @NotNull BufferPool HEAP = new BufferPool(false, DEFAULT_MAX_RETAINED_BYTES);
+
+	/**
+	 * Whether this pool hands out direct buffers.
+	 */
+	private final boolean direct;
+
+	/**
+	 * Largest number of bytes of released buffers that the pool keeps.
+	 */
+	private final long maxRetainedBytes;
+
+	/**
+	 * Released buffers of each size class, smallest class first.
+	 */
+	private final @NotNull List<Queue<ByteBuffer>> sizeClasses;
+
+	/**
+	 * Pooled buffers that have been acquired but not released, compared by identity because the equality of a
+	 * ByteBuffer depends on its contents.
+	 */
+	private final @NotNull Set<ByteBuffer> outstanding = Collections.synchronizedSet(Sets.newIdentityHashSet());
+
+	private final @NotNull AtomicLong retainedBytes = new AtomicLong();
+	private final @NotNull AtomicLong hits = new AtomicLong();
+	private final @NotNull AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param direct whether the pool hands out direct buffers.
+	 * @param maxRetainedBytes largest number of bytes of released buffers that the pool keeps.
+	 * @throws IllegalArgumentException if maxRetainedBytes is negative.
+	 */
+	public BufferPool(final boolean direct, final long maxRetainedBytes) {
+		Preconditions.checkArgument(maxRetainedBytes >= 0, "Retained bytes must not be negative.");
+		this.direct = direct;
+		this.maxRetainedBytes = maxRetainedBytes;
+		final ImmutableList.Builder<Queue<ByteBuffer>> classes = ImmutableList.builder();
+		for (int size = MIN_BUFFER_SIZE; size <= MAX_BUFFER_SIZE; size <<= 1) {
+			classes.add(Queues.newConcurrentLinkedQueue());
+		}
+		sizeClasses = classes.build();
+	}
+
+	/**
+	 * @return pool of heap buffers shared by all Connections in the JVM.
+	 */
+	public static @NotNull BufferPool getHeapPool() {
+		return HEAP;
+	}
+
+	/**
+	 * Obtains a buffer with room for at least the requested number of bytes. The buffer is cleared and its limit is set
+	 * to the requested size, but its capacity may be larger.
+	 *
+	 * @param size number of bytes required.
+	 * @return buffer whose position is zero and whose limit is size.
+	 * @throws IllegalArgumentException if size is negative.
+	 */
+	public @NotNull ByteBuffer acquire(final int size) {
+		Preconditions.checkArgument(size >= 0, "Buffer size must not be negative.");
+		final int sizeClass = getSizeClass(size);
+		if (sizeClass < 0) {
+			misses.incrementAndGet();
+			return allocate(size);
+		}
+		ByteBuffer buffer = sizeClasses.get(sizeClass).poll();
+		if (buffer == null) {
+			misses.incrementAndGet();
+			buffer = allocate(MIN_BUFFER_SIZE << sizeClass);
+		} else {
+			hits.incrementAndGet();
+			retainedBytes.addAndGet(-buffer.capacity());
+		}
+		outstanding.add(buffer);
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers larger than MAX_BUFFER_SIZE, which were not pooled, and buffers that would
+	 * exceed the retained bytes of the pool are discarded.
+	 *
+	 * @param buffer buffer obtained from acquire.
+	 * @throws IllegalArgumentException if the buffer was not acquired from this pool or has already been released.
+	 */
+	public void release(final @NotNull ByteBuffer buffer) {
+		final int capacity = buffer.capacity();
+		if (capacity > MAX_BUFFER_SIZE) {
+			return;
+		}
+		Preconditions.checkArgument(outstanding.remove(buffer),
+																"Buffer was not acquired from this pool or has already been released.");
+		if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-capacity);
+			return;
+		}
+		sizeClasses.get(getSizeClass(capacity)).offer(buffer);
+	}
+
+	/**
+	 * @return snapshot of the hit rate and buffer counts of this pool.
+	 */
+	public @NotNull Statistics getStatistics() {
+		return new Statistics(hits.get(), misses.get(), outstanding.size(), retainedBytes.get());
+	}
+
+	/**
+	 * @param size number of bytes required.
+	 * @return index of the smallest size class that fits size or -1 if size is larger than MAX_BUFFER_SIZE.
+	 */
+	private static int getSizeClass(final int size) {
+		if (size > MAX_BUFFER_SIZE) {
+			return -1;
+		}
+		int sizeClass = 0;
+		while ((MIN_BUFFER_SIZE << sizeClass) < size) {
+			sizeClass++;
+		}
+		return sizeClass;
+	}
+
+	private @NotNull ByteBuffer allocate(final int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "BufferPool{" +
+					 "direct=" + direct +
+					 ", maxRetainedBytes=" + maxRetainedBytes +
+					 ", statistics=" + getStatistics() +
+					 '}';
+	}
+
+	/**
+	 * Snapshot of the usage of a BufferPool.
+	 */
+	@SuppressWarnings("ClassWithoutLogger") // POJO that does not need logging.
+	public static final class Statistics {
+		private final long hits;
+		private final long misses;
+		private final long outstanding;
+		private final long retainedBytes;
+
+		Statistics(final long hits, final long misses, final long outstanding, final long retainedBytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.outstanding = outstanding;
+			this.retainedBytes = retainedBytes;
+		}
+
+		/**
+		 * @return number of acquisitions served by a released buffer.
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * @return number of acquisitions that allocated a new buffer.
+		 */
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * @return fraction of acquisitions served by a released buffer or zero if nothing has been acquired.
+		 */
+		public double getHitRate() {
+			final long acquisitions = hits + misses;
+			return acquisitions == 0 ? 0 : (double) hits / acquisitions;
+		}
+
+		/**
+		 * @return number of pooled buffers that have been acquired but not released.
+		 */
+		public long getOutstanding() {
+			return outstanding;
+		}
+
+		/**
+		 * @return bytes of released buffers currently kept by the pool.
+		 */
+		public long getRetainedBytes() {
+			return retainedBytes;
+		}
+
+		@Override
+		@SuppressWarnings("MagicCharacter")
+		public String toString() {
+			return "Statistics{" +
+						 "hits=" + hits +
+						 ", misses=" + misses +
+						 ", outstanding=" + outstanding +
+						 ", retainedBytes=" + retainedBytes +
+						 '}';
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Connection that serves downloads from a DownloadCache. Every get checks the size and modification time of the remote
+ * file with a single stat and serves the cached copy if they are unchanged, so a repeated download costs one round trip
+ * and a local read. Files modified or deleted through this Connection are removed from the cache.
+ *
+ * The cache is keyed by the absolute remote path, so a cache directory should only be used for a single remote
+ * server.
+ */
+public class CachingConnection extends ForwardingConnection {
+	private final @NotNull Connection connection;
+
+	private final @NotNull DownloadCache cache;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(CachingConnection.class.getName());
+
+	/**
+	 * @param connection Connection that operations are forwarded to. Closing this Connection closes it.
+	 * @param cache cache that downloads are served from.
+	 */
+	public CachingConnection(final @NotNull Connection connection, final @NotNull DownloadCache cache) {
+		this.connection = connection;
+		this.cache = cache;
+	}
+
+	@Override
+	protected @NotNull Connection delegate() {
+		return connection;
+	}
+
+	@Override
+	public void get(final @NotNull String source, final @NotNull OutputStream outputStream) throws SSHException,
+			InterruptedException {
+		final String path = resolve(source);
+		final BatchResult<RemoteFile> stat = connection.statAll(Collections.singletonList(path));
+		final RemoteFile file = stat.getResult(path);
+		if (file == null) {
+			cache.invalidate(path);
+			final SSHException failure = stat.getFailures().get(path);
+			throw failure == null ? new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No file exists at " + path) : failure;
+		}
+		LOGGER.info("Obtaining " + path + " through the download cache.");
+		cache.get(path, file.getSize(), file.getModificationTime(), target -> connection.get(path, target), outputStream);
+	}
+
+	@Override
+	public void put(final @NotNull Path source, final @NotNull String destination) throws SSHException,
+			InterruptedException {
+		try {
+			connection.put(source, destination);
+		} finally {
+			cache.invalidate(resolve(destination));
+		}
+	}
+
+	@Override
+	public void copy(final @NotNull String source, final @NotNull String destination) throws SSHException,
+			InterruptedException {
+		try {
+			connection.copy(source, destination);
+		} finally {
+			cache.invalidate(resolve(destination));
+		}
+	}
+
+	@Override
+	public @NotNull UploadSubscriber upload(final @NotNull String destination) {
+		cache.invalidate(resolve(destination));
+		return connection.upload(destination);
+	}
+
+	@Override
+	public void rm(final @NotNull String path) throws SSHException, InterruptedException {
+		try {
+			connection.rm(path);
+		} finally {
+			cache.invalidate(resolve(path));
+		}
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> rmAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException {
+		try {
+			return connection.rmAll(paths);
+		} finally {
+			invalidateAll(paths);
+		}
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> renameAll(final @NotNull Map<String, String> renames)
+			throws SSHException, InterruptedException {
+		try {
+			return connection.renameAll(renames);
+		} finally {
+			invalidateAll(renames.keySet());
+			invalidateAll(renames.values());
+		}
+	}
+
+	private void invalidateAll(final @NotNull Collection<String> paths) {
+		for (final String path : paths) {
+			cache.invalidate(resolve(path));
+		}
+	}
+
+	private @NotNull String resolve(final @NotNull String path) {
+		return RemotePaths.resolve(connection.pwd(), path);
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "CachingConnection{" +
+					 "connection=" + connection +
+					 ", cache=" + cache +
+					 '}';
+	}
+}
@@ -19,7 +19,9 @@
 package com.github.zbb93.sftp;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -30,10 +32,69 @@ import java.util.Collection;
 public interface Channel extends AutoCloseable{
 	void connect() throws SSHException;
 	@NotNull Collection<RemoteFile> ls(final @NotNull String path) throws SSHException;
+	/**
+	 * Reads a directory listing and passes each entry to a visitor as soon as it has been received, without collecting
+	 * the entries first.
+	 *
+	 * @param path path to the directory to list.
+	 * @param visitor receives every entry of the directory.
+	 * @throws SSHException if an error occurs while obtaining the directory listing.
+	 */
+	void ls(final @NotNull String path, final @NotNull ListingVisitor visitor) throws SSHException;
+
 	void put(final @NotNull Path source, final @NotNull String dest) throws SSHException;
+	void put(final @NotNull InputStream source, final @NotNull String dest) throws SSHException;
 	void rm(final @NotNull String path) throws SSHException;
+	void rename(final @NotNull String source, final @NotNull String destination) throws SSHException;
 	void get(final @NotNull String source, final @NotNull OutputStream outputStream) throws SSHException;
+	/**
+	 * Opens a stream that reads a remote file starting at the provided offset. The channel must not be used for
+	 * anything else until the stream has been closed.
+	 *
+	 * @param path path of the remote file.
+	 * @param offset number of bytes at the start of the file to skip.
+	 * @return stream of the contents of the remote file.
+	 * @throws SSHException if the file cannot be opened.
+	 */
+	@NotNull InputStream openInputStream(final @NotNull String path, final long offset) throws SSHException;
+
+	/**
+	 * Opens a stream that writes a remote file, replacing the file if it already exists. The channel must not be used
+	 * for anything else until the stream has been closed.
+	 *
+	 * @param path path of the remote file.
+	 * @return stream that writes to the remote file.
+	 * @throws SSHException if the file cannot be opened.
+	 */
+	@NotNull OutputStream openOutputStream(final @NotNull String path) throws SSHException;
+
 	void mkdir(final @NotNull String path) throws SSHException;
+
+	/**
+	 * Removes an empty directory.
+	 *
+	 * @param path path of the directory on the remote server.
+	 * @throws SSHException if the directory does not exist, is not empty or cannot be removed.
+	 */
+	void rmdir(final @NotNull String path) throws SSHException;
+
+	/**
+	 * Obtains the attributes of a single file without listing its parent directory.
+	 *
+	 * @param path path to the file on the remote server.
+	 * @return the file at the provided path or null if no such file exists.
+	 * @throws SSHException if an error other than a missing file occurs while communicating with the remote server.
+	 */
+	@Nullable RemoteFile stat(final @NotNull String path) throws SSHException;
+
+	/**
+	 * Obtains the SFTP protocol version and the extensions the server announced when this channel was opened. Only the
+	 * extensions listed in ServerCapabilities#KNOWN_EXTENSIONS are reported.
+	 *
+	 * @return capabilities of the remote server.
+	 * @throws SSHException if the channel is not connected.
+	 */
+	@NotNull ServerCapabilities getServerCapabilities() throws SSHException;
 	String pwd() throws SSHException;
 	void cd(final @NotNull String targetDirectory) throws SSHException;
 	@Override
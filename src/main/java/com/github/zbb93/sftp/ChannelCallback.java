@@ -0,0 +1,40 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A unit of work that is performed using a single Channel obtained from a Connection. Any number of operations may be
+ * performed on the Channel, which saves obtaining a Channel from the channel pool for each of them.
+ *
+ * @param <T> type of the value produced by the unit of work.
+ */
+@FunctionalInterface
+public interface ChannelCallback<T> {
+	/**
+	 * Performs the unit of work. The Channel is positioned in the working directory of the Connection and must not be
+	 * closed or used after this method returns.
+	 *
+	 * @param channel channel used to communicate with the remote server.
+	 * @return value produced by the unit of work.
+	 * @throws SSHException if an error occurs while communicating with the remote server.
+	 */
+	T doWithChannel(final @NotNull Channel channel) throws SSHException;
+}
@@ -19,6 +19,9 @@
 package com.github.zbb93.sftp;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Maintains a thread safe pool of channels that can be used to interact with a remote server.
@@ -41,6 +44,19 @@ public interface ChannelPool extends AutoCloseable {
 	 */
 	@NotNull Channel getNextAvailableChannel() throws SSHException, InterruptedException;
 
+	/**
+	 * Obtains the next available channel from the channel queue, waiting at most the given time for a channel to become
+	 * available.
+	 *
+	 * @param timeout maximum time to wait.
+	 * @param unit unit of the timeout.
+	 * @return channel from the channel queue or null if no channel became available in time.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 * @throws SSHException if an error occurs communicating with the remote server.
+	 */
+	@Nullable Channel getNextAvailableChannel(final long timeout, final @NotNull TimeUnit unit)
+			throws SSHException, InterruptedException;
+
 	/**
 	 * Returns the provided channel to the channel pool.
 	 *
@@ -48,6 +64,15 @@ public interface ChannelPool extends AutoCloseable {
 	 */
 	void returnChannel(final @NotNull Channel channel);
 
+	/**
+	 * Informs the pool of a completed upload or download so that implementations which tune their channels to the link
+	 * can use the observed throughput.
+	 *
+	 * @param bytes number of bytes transferred.
+	 * @param nanos time the transfer took in nanoseconds.
+	 */
+	void reportTransfer(final long bytes, final long nanos);
+
 	/**
 	 * Updates the current working directory on the remote server. This will not affect any channels until the next time
 	 * they are removed from the pool.
@@ -61,6 +86,12 @@ public interface ChannelPool extends AutoCloseable {
 	 */
 	String getWorkingDirectory();
 
+	/**
+	 * @return capabilities of the remote server probed when the pool was initialized, or ServerCapabilities#NONE if the
+	 * pool has not been initialized.
+	 */
+	@NotNull ServerCapabilities getServerCapabilities();
+
 	/**
 	 * Disconnects all channels in the channel pool.
 	 *
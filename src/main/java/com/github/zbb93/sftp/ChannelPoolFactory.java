@@ -65,6 +65,11 @@ public class ChannelPoolFactory {
 		final String user = params.getUser();
 		final byte[] password = params.getPassword();
 		final int poolSize = params.getChannelPoolSize();
-		return new JschChannelPool(host, user, password, poolSize);
+		final TransferTuning transferTuning = params.getTransferTuning();
+		final AlgorithmPreferences algorithmPreferences = params.getAlgorithmPreferences();
+		final SocketOptions socketOptions = params.getSocketOptions();
+		final ResourceGovernor resourceGovernor = params.getResourceGovernor();
+		return new JschChannelPool(host, user, password, poolSize, transferTuning, algorithmPreferences, socketOptions,
+															 resourceGovernor);
 	}
 }
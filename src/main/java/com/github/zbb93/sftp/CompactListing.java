@@ -0,0 +1,287 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directory listing that stores its entries in columns of primitive arrays instead of one RemoteFile per entry. Sizes,
+ * modification times and flags are kept in arrays indexed by entry, owners and groups are stored as indexes into a
+ * dictionary of the distinct values, and all names share one UTF-8 encoded byte array. A listing of a million files
+ * therefore needs a few dozen megabytes instead of several hundred.
+ *
+ * Entries are accessed by index. RemoteFile views are created on demand by get and by the List returned by asList; they
+ * are not retained by the listing.
+ */
+@SuppressWarnings("ClassWithoutLogger") // Immutable data structure that does not need logging.
+public final class CompactListing {
+
+	/**
+	 * Flag bit set for entries that are directories.
+	 */
+	private static final byte DIRECTORY = 1;
+
+	private final int entryCount;
+
+	/**
+	 * UTF-8 encoded names of all entries, one after another.
+	 */
+	private final @NotNull byte[] names;
+
+	/**
+	 * Start of the name of each entry in names. Has one extra element holding the end of the last name.
+	 */
+	private final @NotNull int[] nameOffsets;
+
+	private final @NotNull long[] sizes;
+
+	/**
+	 * Modification times as unsigned 32 bit seconds since the epoch, the resolution SFTP provides.
+	 */
+	private final @NotNull int[] modificationTimes;
+
+	private final @NotNull byte[] flags;
+
+	/**
+	 * Index of the owner of each entry in the dictionary.
+	 */
+	private final @NotNull int[] owners;
+
+	/**
+	 * Index of the group of each entry in the dictionary.
+	 */
+	private final @NotNull int[] groups;
+
+	/**
+	 * Distinct owner and group names.
+	 */
+	private final @NotNull String[] dictionary;
+
+	@SuppressWarnings("ConstructorWithTooManyParameters")
+	private CompactListing(final int entryCount, final @NotNull byte[] names, final @NotNull int[] nameOffsets,
+												 final @NotNull long[] sizes, final @NotNull int[] modificationTimes,
+												 final @NotNull byte[] flags, final @NotNull int[] owners, final @NotNull int[] groups,
+												 final @NotNull String[] dictionary) {
+		this.entryCount = entryCount;
+		this.names = names;
+		this.nameOffsets = nameOffsets;
+		this.sizes = sizes;
+		this.modificationTimes = modificationTimes;
+		this.flags = flags;
+		this.owners = owners;
+		this.groups = groups;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * @return number of entries in the listing.
+	 */
+	public int size() {
+		return entryCount;
+	}
+
+	public @NotNull String getName(final int index) {
+		checkIndex(index);
+		final int start = nameOffsets[index];
+		return new String(names, start, nameOffsets[index + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	public @NotNull String getOwner(final int index) {
+		checkIndex(index);
+		return dictionary[owners[index]];
+	}
+
+	public @NotNull String getGroup(final int index) {
+		checkIndex(index);
+		return dictionary[groups[index]];
+	}
+
+	public long getSize(final int index) {
+		checkIndex(index);
+		return sizes[index];
+	}
+
+	/**
+	 * @param index index of the entry.
+	 * @return time of the last modification in seconds since the epoch.
+	 */
+	public long getModificationTime(final int index) {
+		checkIndex(index);
+		return Integer.toUnsignedLong(modificationTimes[index]);
+	}
+
+	public boolean isDirectory(final int index) {
+		checkIndex(index);
+		return (flags[index] & DIRECTORY) != 0;
+	}
+
+	/**
+	 * @param index index of the entry.
+	 * @return new RemoteFile containing the attributes of the entry.
+	 */
+	public @NotNull RemoteFile get(final int index) {
+		return RemoteFile.fromAttributes(getName(index), getOwner(index), getGroup(index), getSize(index),
+																		 isDirectory(index), getModificationTime(index));
+	}
+
+	/**
+	 * @return read-only List view of the listing that creates a RemoteFile for every element that is accessed.
+	 */
+	public @NotNull List<RemoteFile> asList() {
+		return new AbstractList<RemoteFile>() {
+			@Override
+			public RemoteFile get(final int index) {
+				return CompactListing.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return entryCount;
+			}
+		};
+	}
+
+	/**
+	 * @return approximate number of bytes of heap used by the arrays of this listing.
+	 */
+	public long getEstimatedSize() {
+		long dictionarySize = 0;
+		for (final String value : dictionary) {
+			dictionarySize += value.length() * 2L;
+		}
+		return names.length + nameOffsets.length * 4L + sizes.length * 8L + modificationTimes.length * 4L + flags.length +
+					 owners.length * 4L + groups.length * 4L + dictionarySize;
+	}
+
+	/**
+	 * @param index index of the entry.
+	 * @return true if the entry is '.' or '..'.
+	 */
+	boolean isSelfOrParent(final int index) {
+		checkIndex(index);
+		final int start = nameOffsets[index];
+		final int length = nameOffsets[index + 1] - start;
+		return (length == 1 || length == 2) && names[start] == '.' && names[start + length - 1] == '.';
+	}
+
+	/**
+	 * Compares the names of two entries by their unsigned UTF-8 bytes without decoding them.
+	 */
+	static int compareNames(final @NotNull CompactListing first, final int firstIndex,
+													final @NotNull CompactListing second, final int secondIndex) {
+		int i = first.nameOffsets[firstIndex];
+		final int firstEnd = first.nameOffsets[firstIndex + 1];
+		int j = second.nameOffsets[secondIndex];
+		final int secondEnd = second.nameOffsets[secondIndex + 1];
+		while (i < firstEnd && j < secondEnd) {
+			final int difference = (first.names[i++] & 0xFF) - (second.names[j++] & 0xFF);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return (firstEnd - i) - (secondEnd - j);
+	}
+
+	private void checkIndex(final int index) {
+		Preconditions.checkElementIndex(index, entryCount);
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "CompactListing{" +
+					 "size=" + entryCount +
+					 ", estimatedSize=" + getEstimatedSize() +
+					 '}';
+	}
+
+	/**
+	 * Collects the entries of a listing as they are visited. The arrays grow geometrically and are trimmed to size by
+	 * build.
+	 */
+	@SuppressWarnings("ClassHasNoToStringMethod")
+	public static class Builder implements ListingVisitor {
+		private static final int INITIAL_CAPACITY = 64;
+
+		private int entryCount;
+		private @NotNull byte[] names = new byte[INITIAL_CAPACITY * 16];
+		private int namesLength;
+		private @NotNull int[] nameOffsets = new int[INITIAL_CAPACITY + 1];
+		private @NotNull long[] sizes = new long[INITIAL_CAPACITY];
+		private @NotNull int[] modificationTimes = new int[INITIAL_CAPACITY];
+		private @NotNull byte[] flags = new byte[INITIAL_CAPACITY];
+		private @NotNull int[] owners = new int[INITIAL_CAPACITY];
+		private @NotNull int[] groups = new int[INITIAL_CAPACITY];
+		private final @NotNull Map<String, Integer> dictionaryIndexes = Maps.newLinkedHashMap();
+
+		@Override
+		public void visit(final @NotNull String name, final @NotNull String owner, final @NotNull String group,
+											final long size, final long modificationTime, final boolean directory) {
+			if (entryCount == sizes.length) {
+				grow();
+			}
+			final byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+			if (namesLength + encodedName.length > names.length) {
+				names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + encodedName.length));
+			}
+			System.arraycopy(encodedName, 0, names, namesLength, encodedName.length);
+			nameOffsets[entryCount] = namesLength;
+			namesLength += encodedName.length;
+			nameOffsets[entryCount + 1] = namesLength;
+			sizes[entryCount] = size;
+			modificationTimes[entryCount] = (int) modificationTime;
+			flags[entryCount] = directory ? DIRECTORY : 0;
+			owners[entryCount] = getDictionaryIndex(owner);
+			groups[entryCount] = getDictionaryIndex(group);
+			entryCount++;
+		}
+
+		private int getDictionaryIndex(final @NotNull String value) {
+			return dictionaryIndexes.computeIfAbsent(value, key -> dictionaryIndexes.size());
+		}
+
+		private void grow() {
+			final int capacity = sizes.length * 2;
+			nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+			sizes = Arrays.copyOf(sizes, capacity);
+			modificationTimes = Arrays.copyOf(modificationTimes, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			owners = Arrays.copyOf(owners, capacity);
+			groups = Arrays.copyOf(groups, capacity);
+		}
+
+		/**
+		 * @return listing containing every visited entry, in the order they were visited.
+		 */
+		public @NotNull CompactListing build() {
+			final String[] dictionary = dictionaryIndexes.keySet().toArray(new String[0]);
+			return new CompactListing(entryCount, Arrays.copyOf(names, namesLength),
+																Arrays.copyOf(nameOffsets, entryCount + 1), Arrays.copyOf(sizes, entryCount),
+																Arrays.copyOf(modificationTimes, entryCount), Arrays.copyOf(flags, entryCount),
+																Arrays.copyOf(owners, entryCount), Arrays.copyOf(groups, entryCount), dictionary);
+		}
+	}
+}
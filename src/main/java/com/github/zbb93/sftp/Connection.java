@@ -18,10 +18,14 @@
 package com.github.zbb93.sftp;
 
 import org.jetbrains.annotations.NotNull;
+import org.reactivestreams.Publisher;
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Implementations of this class are responsible for interacting with an SSH server and performing operations
@@ -30,7 +34,8 @@ import java.util.Collection;
 public interface Connection extends AutoCloseable {
 
 	/**
-	 * Obtains the directory listing of the a directory. Use '.' to list the working directory.
+	 * Obtains the directory listing of the a directory. Use '.' to list the working directory. Concurrent calls for the
+	 * same directory share a single request to the remote server.
 	 *
 	 * @param path path to the directory to list.
 	 * @return Collection of Strings where each string corresponds to a file in the directory.
@@ -42,7 +47,20 @@ public interface Connection extends AutoCloseable {
 	Collection<RemoteFile> ls(final @NotNull String path) throws SSHException, InterruptedException;
 
 	/**
-	 * Uploads a file to the remote server.
+	 * Obtains the directory listing of a directory in a compact form that is suitable for directories with a very large
+	 * number of files. Entries are added to the listing as they are received instead of being collected as RemoteFiles
+	 * first. Unlike ls, owners and groups are the numeric ids reported by the remote server.
+	 *
+	 * @param path path to the directory to list.
+	 * @return listing of every entry in the directory.
+	 * @throws SSHException if an error occurs while obtaining the directory listing.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	@NotNull CompactListing lsCompact(final @NotNull String path) throws SSHException, InterruptedException;
+
+	/**
+	 * Uploads a file to the remote server. If the destination is an existing directory, the file is uploaded into it
+	 * under the name of the local file.
 	 *
 	 * @param source path to file to upload.
 	 * @param destination path on remote server to upload file to.
@@ -53,9 +71,47 @@ public interface Connection extends AutoCloseable {
 
 	void rm(final @NotNull String path) throws SSHException, InterruptedException;
 
+	/**
+	 * Removes many files from the remote server. The files are spread across a small number of channels that are each
+	 * obtained from the channel pool once for the whole batch.
+	 *
+	 * @param paths paths to the files to remove.
+	 * @return result containing every path that was removed and the exception for every path that was not.
+	 * @throws SSHException if no channel could be used to process the batch.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	@NotNull BatchResult<Void> rmAll(final @NotNull Collection<String> paths) throws SSHException, InterruptedException;
+
+	/**
+	 * Obtains the attributes of many files on the remote server. The files are spread across a small number of channels
+	 * that are each obtained from the channel pool once for the whole batch.
+	 *
+	 * @param paths paths to the files to obtain the attributes of.
+	 * @return result containing the attributes of every file that exists and the exception for every file that does not
+	 * or could not be read.
+	 * @throws SSHException if no channel could be used to process the batch.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	@NotNull BatchResult<RemoteFile> statAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException;
+
+	/**
+	 * Renames many files on the remote server. The renames are spread across a small number of channels that are each
+	 * obtained from the channel pool once for the whole batch, so the renames must not depend on each other.
+	 *
+	 * @param renames map from the current path of each file to its new path.
+	 * @return result keyed by current path containing every file that was renamed and the exception for every file that
+	 * was not.
+	 * @throws SSHException if no channel could be used to process the batch.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	@NotNull BatchResult<Void> renameAll(final @NotNull Map<String, String> renames)
+			throws SSHException, InterruptedException;
+
 	/**
 	 * Downloads a file from the remote server and writes the output to the provided OutputStream. The OutputStream is
-	 * flushed but not closed before the method returns.
+	 * flushed but not closed before the method returns. Concurrent calls for the same small file share a single download
+	 * from the remote server.
 	 *
 	 * @param source path to file to download from remote server.
 	 * @param outputStream OutputStream to write downloaded file to.
@@ -65,6 +121,34 @@ public interface Connection extends AutoCloseable {
 	void get(final @NotNull String source, final @NotNull OutputStream outputStream)
 			throws SSHException, InterruptedException;
 
+	/**
+	 * Copies a file to another path on the same remote server, replacing the destination if it exists. The file is read
+	 * over one channel and written over another at the same time, passing through a bounded number of buffers in memory,
+	 * so nothing is staged on local disk and the copy takes about as long as the slower of the two directions. The copy
+	 * counts against the bandwidth limit in both directions.
+	 *
+	 * @param source path of the file to copy.
+	 * @param destination path of the copy.
+	 * @throws SSHException if the source cannot be read, the destination cannot be written or both paths refer to the
+	 * same file.
+	 * @throws InterruptedException if interrupted while waiting for a channel or for the copy. The destination is left
+	 * with whatever was written so far.
+	 */
+	void copy(final @NotNull String source, final @NotNull String destination) throws SSHException, InterruptedException;
+
+	/**
+	 * Opens a remote file for random access without downloading it. The returned channel is read only and fetches the
+	 * regions that are read in blocks using channels from the pool, which are returned as soon as each fetch completes.
+	 * Recently read blocks are kept in memory and sequential reads fetch increasingly many blocks ahead, so formats that
+	 * seek to headers, footers or indexes of large files can be read cheaply.
+	 *
+	 * @param source path to the file on the remote server.
+	 * @return channel that reads the file. Its size is the size of the file when it was opened.
+	 * @throws SSHException if the file does not exist or is a directory.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	@NotNull SeekableByteChannel openSeekable(final @NotNull String source) throws SSHException, InterruptedException;
+
 	/**
 	 * Creates a new directory on the remote server. Note that this method is not able to create multiple
 	 * directories at once.
@@ -76,6 +160,75 @@ public interface Connection extends AutoCloseable {
 	// todo validate input to make sure that it does not contain file separators?
 	void mkdir(final @NotNull String name) throws SSHException, InterruptedException;
 
+	/**
+	 * Creates a directory on the remote server along with any of its ancestors that do not exist yet. Directories that
+	 * already exist are not treated as an error. Directories that this Connection has already confirmed are remembered
+	 * so repeated calls for the same path do not communicate with the remote server.
+	 *
+	 * @param path absolute path or path relative to the working directory of the directory to create.
+	 * @throws SSHException if a directory cannot be created or a path component exists but is not a directory.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	void mkdirs(final @NotNull String path) throws SSHException, InterruptedException;
+
+	/**
+	 * Obtains a single Channel from the channel pool and uses it to perform a sequence of operations. The Channel is
+	 * returned to the channel pool when the callback completes, even if it throws an exception.
+	 *
+	 * @param callback unit of work to perform using the Channel.
+	 * @param <T> type of the value produced by the callback.
+	 * @return value produced by the callback.
+	 * @throws SSHException if an error occurs while performing the unit of work.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	<T> T withChannel(final @NotNull ChannelCallback<T> callback) throws SSHException, InterruptedException;
+
+	/**
+	 * Creates a Publisher that downloads a remote file as a sequence of ByteBuffers. Each subscription obtains its own
+	 * channel from the pool once data is first requested and returns it when the file has been read, the subscription
+	 * is cancelled or an error occurs. Data is only read from the remote server while the subscriber has outstanding
+	 * demand, so a slow subscriber throttles the download. The subscriber owns the buffers it receives. A
+	 * PooledBufferSubscriber receives pooled buffers and must release them to the pool it is given; any other subscriber
+	 * receives buffers that are not pooled.
+	 *
+	 * @param source path of the file on the remote server.
+	 * @return Publisher of the contents of the file.
+	 */
+	@NotNull Publisher<ByteBuffer> download(final @NotNull String source);
+
+	/**
+	 * Creates a Subscriber that uploads the ByteBuffers it receives to a remote file, replacing the file if it exists.
+	 * The subscriber obtains a channel from the pool once it is subscribed and returns it when the upload has finished.
+	 * Only a small number of buffers is requested ahead of the upload, so a slow upload throttles the publisher.
+	 *
+	 * @param destination path of the file on the remote server.
+	 * @return Subscriber whose completion future completes once the upload has finished.
+	 */
+	@NotNull UploadSubscriber upload(final @NotNull String destination);
+
+	/**
+	 * Obtains the limiter applied to every upload and download performed by this Connection. The rate of the limiter
+	 * can be changed at any time to throttle transfers that are already in progress. Transfers are additionally limited
+	 * by BandwidthLimiter#getGlobal.
+	 *
+	 * @return bandwidth limiter of this Connection.
+	 */
+	@NotNull BandwidthLimiter getBandwidthLimiter();
+
+	/**
+	 * @return snapshot of the requests this Connection did not send to the remote server because a concurrent
+	 * identical request was already in flight.
+	 */
+	@NotNull ConnectionStatistics getStatistics();
+
+	/**
+	 * Obtains the SFTP protocol version and extensions of the remote server. The capabilities are probed once when the
+	 * Connection is established, so calling this method does not communicate with the server.
+	 *
+	 * @return capabilities of the remote server.
+	 */
+	@NotNull ServerCapabilities getServerCapabilities();
+
 	/**
 	 * @return absolute path of the working directory on the remote server.
 	 */
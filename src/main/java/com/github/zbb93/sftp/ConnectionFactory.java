@@ -17,8 +17,14 @@
  */
 package com.github.zbb93.sftp;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -33,6 +39,11 @@ public class ConnectionFactory {
 
 	private static final @NotNull Logger LOGGER = Logger.getLogger(ConnectionFactory.class.getName());
 
+	/**
+	 * Connections handed out by getSharedConnection.
+	 */
+	private final @NotNull ConnectionRegistry registry = new ConnectionRegistry(this::getConnection);
+
 	/**
 	 * This object should not be instantiated directly. Use the singleton instead.
 	 */
@@ -51,4 +62,66 @@ public class ConnectionFactory {
 		LOGGER.info(String.format("Obtaining connection for %s@%s", user, url));
 		return new ConnectionImpl(connectionParameters, ChannelPoolFactory.INSTANCE);
 	}
+
+	/**
+	 * Obtains a Connection that is shared with every other caller that requested a shared Connection with the same
+	 * provider, host, port, user and credentials, so that they use a single session and channel pool. The remaining
+	 * settings of the ConnectionParameters are those of the caller that opened the shared Connection. Changing the
+	 * working directory affects every user of the shared Connection.
+	 *
+	 * Closing the returned Connection releases the caller's reference. The shared Connection is closed once every
+	 * reference has been released and the grace period has passed.
+	 * @param connectionParameters parameters used to open the shared Connection if it is not open yet.
+	 * @return reference to the shared Connection.
+	 * @throws SSHException if the shared Connection cannot be opened.
+	 */
+	public Connection getSharedConnection(final @NotNull ConnectionParameters connectionParameters) throws SSHException {
+		return registry.acquire(connectionParameters);
+	}
+
+	/**
+	 * Sets the time a shared Connection is kept open after its last reference has been released, so that a caller that
+	 * requests it again shortly afterwards does not have to open a new session. Defaults to zero.
+	 * @param gracePeriod time to keep unused shared Connections open.
+	 * @param unit unit of the grace period.
+	 * @throws IllegalArgumentException if the grace period is negative.
+	 */
+	public void setSharedConnectionGracePeriod(final long gracePeriod, final @NotNull TimeUnit unit) {
+		registry.setGracePeriod(gracePeriod, unit);
+	}
+
+	/**
+	 * Builds a Connection that routes operations across replicated mirrors of the same remote tree. Connections to every
+	 * mirror are opened immediately.
+	 * @param mirrors parameters used to connect to each mirror. The first mirror is preferred when mirrors are equally
+	 *                loaded.
+	 * @param hedgeDelay time a download may run without producing bytes before it is hedged on another mirror.
+	 * @param unit unit of the hedge delay.
+	 * @return Connection that distributes operations across the mirrors.
+	 * @throws SSHException if a connection to one of the mirrors cannot be opened.
+	 */
+	public Connection getMirroredConnection(final @NotNull Collection<ConnectionParameters> mirrors,
+																					final long hedgeDelay, final @NotNull TimeUnit unit) throws SSHException {
+		Preconditions.checkArgument(!mirrors.isEmpty(), "At least one mirror is required.");
+		final List<Connection> connections = Lists.newArrayListWithCapacity(mirrors.size());
+		try {
+			for (final ConnectionParameters mirror : mirrors) {
+				connections.add(getConnection(mirror));
+			}
+		} catch (final SSHException | RuntimeException e) {
+			closeAll(connections);
+			throw e;
+		}
+		return new MirroredConnection(connections, hedgeDelay, unit);
+	}
+
+	private static void closeAll(final @NotNull Collection<Connection> connections) {
+		for (final Connection connection : connections) {
+			try {
+				connection.close();
+			} catch (final SSHException e) {
+				LOGGER.log(Level.WARNING, "Unable to close connection to mirror.", e);
+			}
+		}
+	}
 }
@@ -17,11 +17,42 @@
  */
 package com.github.zbb93.sftp;
 
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.logging.Logger;
 
 /**
@@ -34,6 +65,75 @@ class ConnectionImpl implements Connection {
 	 */
 	private final @NotNull ChannelPool channelPool;
 
+	/**
+	 * Absolute paths of directories that are known to exist on the remote server. Used by mkdirs to avoid checking the
+	 * same directories on every call.
+	 */
+	private final @NotNull Cache<String, Boolean> knownDirectories;
+
+	/**
+	 * Maximum number of directories remembered by the known directories cache.
+	 */
+	private static final int KNOWN_DIRECTORIES_CACHE_SIZE = 1024;
+
+	/**
+	 * Runs work that this Connection performs on behalf of the caller in parallel, for example batch operations.
+	 */
+	private final @NotNull ExecutorService executor;
+
+	/**
+	 * Number of channels maintained by the channel pool.
+	 */
+	private final int channelPoolSize;
+
+	/**
+	 * Maximum number of channels a single batch operation will use at once.
+	 */
+	private static final int MAX_BATCH_CHANNELS = 4;
+
+	/**
+	 * Minimum number of items of a batch operation that justify using an additional channel.
+	 */
+	private static final int MIN_BATCH_ITEMS_PER_CHANNEL = 32;
+
+	/**
+	 * Limits the rate of every upload and download performed by this Connection.
+	 */
+	private final @NotNull BandwidthLimiter bandwidthLimiter;
+
+	/**
+	 * Adapts the number of concurrent uploads and downloads to the link or null if adaptive concurrency is disabled.
+	 */
+	private final @Nullable AdaptiveConcurrencyLimit concurrencyLimit;
+
+	/**
+	 * Shares the listing of a directory between concurrent ls calls for the same absolute path.
+	 */
+	private final @NotNull SingleFlight<String, Collection<RemoteFile>> listings = new SingleFlight<>();
+
+	/**
+	 * Shares the contents of a file between concurrent get calls for the same absolute path.
+	 */
+	private final @NotNull SingleFlight<String, byte[]> downloads = new SingleFlight<>();
+
+	/**
+	 * Largest file whose contents are buffered so they can be shared between concurrent get calls. Callers waiting for
+	 * a larger file download it themselves.
+	 */
+	private static final int MAX_COALESCED_DOWNLOAD_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Time a copy waits for its second channel before failing.
+	 */
+	private static final long COPY_CHANNEL_TIMEOUT_SECONDS = 30;
+
+	/**
+	 * Limits the number of concurrent copies so that every copy can obtain the two channels it holds at once. Without
+	 * the limit, copies that each hold the channel of their source could wait forever for the channel of their
+	 * destination.
+	 */
+	private final @NotNull Semaphore copyPermits;
+
 	private static final @NotNull Logger LOGGER = Logger.getLogger(ConnectionImpl.class.getName());
 
 	/**
@@ -44,15 +144,40 @@ class ConnectionImpl implements Connection {
 	ConnectionImpl(final @NotNull ConnectionParameters connectionParameters,
 								 final ChannelPoolFactory channelPoolFactory) throws SSHException {
 		channelPool = channelPoolFactory.getChannelPool(connectionParameters);
+		knownDirectories = CacheBuilder.newBuilder()
+																	 .maximumSize(KNOWN_DIRECTORIES_CACHE_SIZE)
+																	 .build();
+		channelPoolSize = connectionParameters.getChannelPoolSize();
+		bandwidthLimiter = new BandwidthLimiter(connectionParameters.getMaxBytesPerSecond(), BandwidthLimiter.getGlobal());
+		final int minConcurrentTransfers = connectionParameters.getMinConcurrentTransfers();
+		concurrencyLimit = minConcurrentTransfers > 0 ?
+											 new AdaptiveConcurrencyLimit(minConcurrentTransfers,
+																										Math.max(minConcurrentTransfers, channelPoolSize)) :
+											 null;
+		copyPermits = new Semaphore(Math.max(1, channelPoolSize / 2));
+		executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+																																			 .setNameFormat("sftp-connection-%d")
+																																			 .build());
 	}
 
 	@Override
 	public @NotNull Collection<RemoteFile> ls(final @NotNull String path) throws SSHException, InterruptedException {
 		LOGGER.info("Obtaining directory listing for directory: " + path);
-		final Channel channel = channelPool.getNextAvailableChannel();
-		final Collection<RemoteFile> listing = channel.ls(path);
-		returnChannel(channel);
+		final Collection<RemoteFile> listing = listings.execute(resolve(path), () -> withChannel(channel -> channel.ls(path)));
 		LOGGER.info("Successfully obtained directory listing.");
+		// Every caller receives its own copy because the listing may be shared.
+		return Lists.newArrayList(listing);
+	}
+
+	@Override
+	public @NotNull CompactListing lsCompact(final @NotNull String path) throws SSHException, InterruptedException {
+		LOGGER.info("Obtaining compact directory listing for directory: " + path);
+		final CompactListing listing = withChannel(channel -> {
+			final CompactListing.Builder builder = new CompactListing.Builder();
+			channel.ls(path, builder);
+			return builder.build();
+		});
+		LOGGER.info("Successfully obtained directory listing of " + listing.size() + " entries.");
 		return listing;
 	}
 
@@ -61,38 +186,596 @@ class ConnectionImpl implements Connection {
 			InterruptedException {
 		LOGGER.info(String.format("Uploading file. \nSource: %s\nDestination: %s", source.toString(),
 															destination));
-		final Channel channel = channelPool.getNextAvailableChannel();
-		channel.put(source, destination);
-		returnChannel(channel);
+		try (final CountingInputStream inputStream =
+						 new CountingInputStream(new ThrottledInputStream(Files.newInputStream(source), bandwidthLimiter))) {
+			runTransfer(inputStream::getCount, () -> withChannel(channel -> {
+				channel.put(inputStream, getUploadPath(channel, source, destination));
+				return null;
+			}));
+		} catch (final IOException e) {
+			LOGGER.severe("Unable to read file " + source + ": " + e.getMessage());
+			throw new SSHException(e);
+		}
 		LOGGER.info("File uploaded successfully.");
 	}
 
+	/**
+	 * Uploads into a destination directory under the name of the local file, as JSch does when it is given the path of
+	 * the local file rather than a stream.
+	 *
+	 * @return path of the remote file to write.
+	 */
+	private @NotNull String getUploadPath(final @NotNull Channel channel, final @NotNull Path source,
+																				final @NotNull String destination) throws SSHException {
+		final RemoteFile target = channel.stat(destination);
+		final Path fileName = source.getFileName();
+		if (target == null || !target.isDirectory() || fileName == null) {
+			return destination;
+		}
+		return RemotePaths.resolve(resolve(destination), fileName.toString());
+	}
+
 	@Override
 	public void rm(final @NotNull String path) throws SSHException, InterruptedException {
-		final Channel channel = channelPool.getNextAvailableChannel();
-		channel.rm(path);
-		returnChannel(channel);
+		withChannel(channel -> {
+			channel.rm(path);
+			return null;
+		});
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> rmAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException {
+		LOGGER.info("Removing " + paths.size() + " files.");
+		return executeBatch(paths, Function.identity(), (channel, path) -> {
+			channel.rm(path);
+			return null;
+		});
+	}
+
+	@Override
+	public @NotNull BatchResult<RemoteFile> statAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException {
+		LOGGER.info("Obtaining attributes of " + paths.size() + " files.");
+		return executeBatch(paths, Function.identity(), (channel, path) -> {
+			final RemoteFile file = channel.stat(path);
+			if (file == null) {
+				throw new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No file exists at " + path);
+			}
+			return file;
+		});
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> renameAll(final @NotNull Map<String, String> renames)
+			throws SSHException, InterruptedException {
+		LOGGER.info("Renaming " + renames.size() + " files.");
+		return executeBatch(renames.entrySet(), Map.Entry::getKey, (channel, rename) -> {
+			channel.rename(rename.getKey(), rename.getValue());
+			return null;
+		});
+	}
+
+	/**
+	 * An operation performed for every item of a batch.
+	 *
+	 * @param <I> type of the items of the batch.
+	 * @param <T> type of the value produced for each item.
+	 */
+	@FunctionalInterface
+	private interface BatchOperation<I, T> {
+		@Nullable T execute(final @NotNull Channel channel, final @NotNull I item) throws SSHException;
+	}
+
+	/**
+	 * Performs an operation for every item of a batch. The items are placed in a shared queue that is drained by up to
+	 * MAX_BATCH_CHANNELS workers, each of which obtains a channel from the pool once and keeps it until the queue is
+	 * empty. The calling thread acts as one of the workers. An exception thrown for a single item is recorded in the
+	 * result and does not stop the batch.
+	 *
+	 * @param items items of the batch.
+	 * @param keyFunction obtains the key that identifies an item in the result.
+	 * @param operation operation to perform for every item.
+	 * @return result containing the outcome of every item.
+	 * @throws SSHException if some items could not be processed because no channel could be obtained.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	private <I, T> @NotNull BatchResult<T> executeBatch(final @NotNull Collection<I> items,
+																										 final @NotNull Function<I, String> keyFunction,
+																										 final @NotNull BatchOperation<I, T> operation)
+			throws SSHException, InterruptedException {
+		final List<I> batch = ImmutableList.copyOf(items);
+		final Object[] values = new Object[batch.size()];
+		final SSHException[] failures = new SSHException[batch.size()];
+		final boolean[] succeeded = new boolean[batch.size()];
+		final Queue<Integer> pending = Queues.newConcurrentLinkedQueue();
+		for (int i = 0; i < batch.size(); i++) {
+			pending.add(i);
+		}
+
+		final List<Future<SSHException>> helpers = Lists.newArrayList();
+		for (int i = 1; i < getBatchChannelCount(batch.size()); i++) {
+			helpers.add(executor.submit(() -> runBatchWorker(batch, pending, operation, values, failures, succeeded)));
+		}
+		SSHException channelException = runBatchWorker(batch, pending, operation, values, failures, succeeded);
+		for (final Future<SSHException> helper : helpers) {
+			try {
+				final SSHException helperException = helper.get();
+				if (channelException == null) {
+					channelException = helperException;
+				}
+			} catch (final ExecutionException e) {
+				throw new SSHException(e.getCause());
+			}
+		}
+
+		final Map<String, T> results = Maps.newLinkedHashMap();
+		final Map<String, SSHException> failed = Maps.newLinkedHashMap();
+		for (int i = 0; i < batch.size(); i++) {
+			final String key = keyFunction.apply(batch.get(i));
+			if (succeeded[i]) {
+				@SuppressWarnings("unchecked") final T value = (T) values[i];
+				results.put(key, value);
+			} else if (failures[i] != null) {
+				failed.put(key, failures[i]);
+			} else if (channelException != null) {
+				throw channelException;
+			}
+		}
+		LOGGER.info(String.format("Batch completed. %d succeeded, %d failed.", results.size(), failed.size()));
+		return new BatchResult<>(results, failed);
+	}
+
+	/**
+	 * Obtains a channel and uses it to process items from the pending queue until the queue is empty.
+	 *
+	 * @return the exception thrown while obtaining a channel or null if a channel was obtained.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	private <I, T> @Nullable SSHException runBatchWorker(final @NotNull List<I> batch,
+																											final @NotNull Queue<Integer> pending,
+																											final @NotNull BatchOperation<I, T> operation,
+																											final @NotNull Object[] values,
+																											final @NotNull SSHException[] failures,
+																											final @NotNull boolean[] succeeded)
+			throws InterruptedException {
+		if (pending.isEmpty()) {
+			return null;
+		}
+		final Channel channel;
+		try {
+			channel = channelPool.getNextAvailableChannel();
+		} catch (final SSHException e) {
+			LOGGER.warning("Unable to obtain a channel for batch operation: " + e.getMessage());
+			return e;
+		}
+		try {
+			Integer index;
+			while ((index = pending.poll()) != null) {
+				try {
+					values[index] = operation.execute(channel, batch.get(index));
+					succeeded[index] = true;
+				} catch (final SSHException e) {
+					failures[index] = e;
+				}
+			}
+		} finally {
+			returnChannel(channel);
+		}
+		return null;
+	}
+
+	/**
+	 * @param itemCount number of items in the batch.
+	 * @return number of channels that should be used to process a batch of the provided size.
+	 */
+	private int getBatchChannelCount(final int itemCount) {
+		final int channelsForItems = (itemCount + MIN_BATCH_ITEMS_PER_CHANNEL - 1) / MIN_BATCH_ITEMS_PER_CHANNEL;
+		return Math.max(1, Math.min(Math.min(MAX_BATCH_CHANNELS, channelPoolSize), channelsForItems));
 	}
 
 	@Override
 	public void get(final @NotNull String source, final @NotNull OutputStream outputStream) throws SSHException,
 			InterruptedException {
 		LOGGER.info("Initializing download of file " + source);
-		final Channel channel = channelPool.getNextAvailableChannel();
-		channel.get(source, outputStream);
-		returnChannel(channel);
+		final SharedDownloadOutputStream sharedOutputStream =
+				new SharedDownloadOutputStream(outputStream, MAX_COALESCED_DOWNLOAD_SIZE);
+		final AtomicBoolean downloaded = new AtomicBoolean();
+		final byte[] contents = downloads.execute(resolve(source), () -> {
+			downloaded.set(true);
+			download(source, sharedOutputStream);
+			return sharedOutputStream.getContents();
+		}, sharedOutputStream::share);
+		if (downloaded.get()) {
+			sharedOutputStream.checkTarget();
+		} else if (contents == null) {
+			LOGGER.info("Unable to share the contents of a concurrent download, downloading the file separately.");
+			download(source, outputStream);
+		} else {
+			LOGGER.info("Sharing the contents of a concurrent download.");
+			try {
+				outputStream.write(contents);
+				outputStream.flush();
+			} catch (final IOException e) {
+				throw new SSHException(e);
+			}
+		}
 		LOGGER.info("Download initialized successfully.");
 	}
 
+	private void download(final @NotNull String source, final @NotNull OutputStream outputStream) throws SSHException,
+			InterruptedException {
+		// The wrapping streams are not closed because closing them would close the caller's OutputStream.
+		final CountingOutputStream countingOutputStream =
+				new CountingOutputStream(new ThrottledOutputStream(outputStream, bandwidthLimiter));
+		runTransfer(countingOutputStream::getCount, () -> withChannel(channel -> {
+			channel.get(source, countingOutputStream);
+			return null;
+		}));
+	}
+
+	/**
+	 * The server is not asked to copy the file with the copy-data extension because JSch cannot send extended requests
+	 * that it does not implement itself. Instead the file is downloaded and uploaded at the same time by connecting a
+	 * DownloadPublisher to an UploadSubscriber, whose bounded demand keeps only a few chunks in memory. The copy counts
+	 * as a single transfer towards the adaptive concurrency limit, because waiting for a second permit while holding the
+	 * first could wait forever. For the same reason both channels are taken before the transfer starts, and the copy
+	 * fails if the second one does not become available in time, which happens when the resource governor only grants
+	 * this connection a single channel.
+	 */
+	@Override
+	public void copy(final @NotNull String source, final @NotNull String destination) throws SSHException,
+			InterruptedException {
+		LOGGER.info(String.format("Copying remote file. \nSource: %s\nDestination: %s", source, destination));
+		if (resolve(source).equals(resolve(destination))) {
+			throw new SSHException("Cannot copy " + resolve(source) + " onto itself.");
+		}
+		if (channelPoolSize < 2) {
+			throw new SSHException("Copying a file requires a channel pool of at least two channels.");
+		}
+		// The destination is opened as soon as the copy starts, so a missing source must not get that far.
+		final RemoteFile file = withChannel(channel -> channel.stat(source));
+		if (file == null || file.isDirectory()) {
+			throw new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No file exists at " + resolve(source));
+		}
+		final AtomicLong copied = new AtomicLong();
+		copyPermits.acquire();
+		final AtomicReference<Channel> sourceChannel = new AtomicReference<>();
+		final AtomicReference<Channel> destinationChannel = new AtomicReference<>();
+		try {
+			sourceChannel.set(channelPool.getNextAvailableChannel());
+			destinationChannel.set(channelPool.getNextAvailableChannel(COPY_CHANNEL_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			if (destinationChannel.get() == null) {
+				throw new SSHException("A second channel did not become available within " + COPY_CHANNEL_TIMEOUT_SECONDS
+															 + " seconds. The resource governor may limit this connection to a single channel.");
+			}
+			runTransfer(copied::get, () -> {
+				final UploadSubscriber subscriber = new UploadSubscriber(
+						() -> openCopyDestination(destination, take(destinationChannel)), executor, BufferPool.getHeapPool());
+				new DownloadPublisher(() -> openCopySource(source, take(sourceChannel), copied), executor,
+															BufferPool.getHeapPool()).subscribe(subscriber);
+				subscriber.await();
+			});
+		} finally {
+			// Channels that were never handed to a stream, because the copy failed before opening it, are returned here.
+			returnIfHeld(sourceChannel);
+			returnIfHeld(destinationChannel);
+			copyPermits.release();
+		}
+		LOGGER.info("Copied " + copied.get() + " bytes.");
+	}
+
+	private static @NotNull Channel take(final @NotNull AtomicReference<Channel> holder) {
+		final Channel channel = holder.getAndSet(null);
+		Preconditions.checkState(channel != null, "The channel of the copy was already taken.");
+		return channel;
+	}
+
+	private void returnIfHeld(final @NotNull AtomicReference<Channel> holder) {
+		final Channel channel = holder.getAndSet(null);
+		if (channel != null) {
+			returnChannel(channel);
+		}
+	}
+
+	/**
+	 * Opens a stream that reads the source of a copy over the given channel. Closing the stream returns the channel and
+	 * records the number of bytes read.
+	 */
+	private @NotNull InputStream openCopySource(final @NotNull String source, final @NotNull Channel channel,
+																							final @NotNull AtomicLong copied) throws SSHException {
+		try {
+			final InputStream in = new ThrottledInputStream(channel.openInputStream(source, 0), bandwidthLimiter);
+			return new TransferInputStream(in, (bytes, successful) -> {
+				returnChannel(channel);
+				copied.set(bytes);
+			});
+		} catch (final SSHException | RuntimeException e) {
+			returnChannel(channel);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a stream that writes the destination of a copy over the given channel. Closing the stream returns the
+	 * channel.
+	 */
+	private @NotNull TransferOutputStream openCopyDestination(final @NotNull String destination, final @NotNull Channel channel)
+			throws SSHException {
+		try {
+			final OutputStream out = new ThrottledOutputStream(channel.openOutputStream(destination), bandwidthLimiter);
+			return new TransferOutputStream(out, (bytes, successful) -> returnChannel(channel));
+		} catch (final SSHException | RuntimeException e) {
+			returnChannel(channel);
+			throw e;
+		}
+	}
+
+	@Override
+	public @NotNull SeekableByteChannel openSeekable(final @NotNull String source)
+			throws SSHException, InterruptedException {
+		LOGGER.info("Opening file " + source + " for random access.");
+		final String path = resolve(source);
+		final RemoteFile file = withChannel(channel -> channel.stat(path));
+		if (file == null) {
+			throw new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No file exists at " + path);
+		}
+		if (file.isDirectory()) {
+			throw new RemoteFileException(RemoteFileException.Reason.WRONG_TYPE, path + " is a directory.");
+		}
+		return new RemoteSeekableByteChannel(this, path, file.getSize());
+	}
+
+	private @NotNull String resolve(final @NotNull String path) {
+		return RemotePaths.resolve(channelPool.getWorkingDirectory(), path);
+	}
+
+	@Override
+	public @NotNull Publisher<ByteBuffer> download(final @NotNull String source) {
+		LOGGER.info("Creating download publisher for file " + source);
+		return new DownloadPublisher(() -> openDownloadStream(source), executor, BufferPool.getHeapPool());
+	}
+
+	@Override
+	public @NotNull UploadSubscriber upload(final @NotNull String destination) {
+		LOGGER.info("Creating upload subscriber for file " + destination);
+		return new UploadSubscriber(() -> openUploadStream(destination), executor, BufferPool.getHeapPool());
+	}
+
+	/**
+	 * Opens a stream that downloads a remote file over a channel from the pool. Closing the stream returns the channel
+	 * and reports the transfer in the same way as runTransfer.
+	 */
+	private @NotNull InputStream openDownloadStream(final @NotNull String source)
+			throws SSHException, InterruptedException {
+		final long start = startTransfer();
+		final Channel channel = getChannelForStream(start);
+		try {
+			final InputStream in = new ThrottledInputStream(channel.openInputStream(source, 0), bandwidthLimiter);
+			return new TransferInputStream(in, (bytes, successful) -> {
+				returnChannel(channel);
+				finishTransfer(start, bytes, successful);
+			});
+		} catch (final SSHException | RuntimeException e) {
+			returnChannel(channel);
+			finishTransfer(start, 0, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a stream that uploads a remote file over a channel from the pool. Closing the stream returns the channel and
+	 * reports the transfer in the same way as runTransfer.
+	 */
+	private @NotNull TransferOutputStream openUploadStream(final @NotNull String destination)
+			throws SSHException, InterruptedException {
+		final long start = startTransfer();
+		final Channel channel = getChannelForStream(start);
+		try {
+			final OutputStream out = new ThrottledOutputStream(channel.openOutputStream(destination), bandwidthLimiter);
+			return new TransferOutputStream(out, (bytes, successful) -> {
+				returnChannel(channel);
+				finishTransfer(start, bytes, successful);
+			});
+		} catch (final SSHException | RuntimeException e) {
+			returnChannel(channel);
+			finishTransfer(start, 0, false);
+			throw e;
+		}
+	}
+
+	private @NotNull Channel getChannelForStream(final long start) throws SSHException, InterruptedException {
+		try {
+			return channelPool.getNextAvailableChannel();
+		} catch (final SSHException | InterruptedException | RuntimeException e) {
+			finishTransfer(start, 0, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * An upload or download.
+	 */
+	@FunctionalInterface
+	private interface Transfer {
+		void run() throws SSHException, InterruptedException;
+	}
+
+	/**
+	 * Runs a transfer once the adaptive concurrency limit permits it and reports its outcome back to the limit and the
+	 * channel pool.
+	 *
+	 * @param bytesTransferred obtains the number of bytes the transfer moved once it has completed.
+	 * @param transfer the transfer to run.
+	 * @throws SSHException if the transfer fails.
+	 * @throws InterruptedException if interrupted while waiting for the limit or a channel.
+	 */
+	private void runTransfer(final @NotNull LongSupplier bytesTransferred, final @NotNull Transfer transfer)
+			throws SSHException, InterruptedException {
+		final long start = startTransfer();
+		boolean successful = false;
+		try {
+			transfer.run();
+			successful = true;
+		} finally {
+			finishTransfer(start, bytesTransferred.getAsLong(), successful);
+		}
+	}
+
+	/**
+	 * Waits until the adaptive concurrency limit permits another transfer.
+	 *
+	 * @return start time of the transfer, to be passed to finishTransfer.
+	 * @throws InterruptedException if interrupted while waiting for the limit.
+	 */
+	private long startTransfer() throws InterruptedException {
+		if (concurrencyLimit != null) {
+			concurrencyLimit.acquire();
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Reports the outcome of a transfer started by startTransfer back to the limit and the channel pool.
+	 *
+	 * @param start start time returned by startTransfer.
+	 * @param bytes number of bytes the transfer moved.
+	 * @param successful whether the transfer completed without errors.
+	 */
+	private void finishTransfer(final long start, final long bytes, final boolean successful) {
+		final long nanos = System.nanoTime() - start;
+		if (concurrencyLimit != null) {
+			concurrencyLimit.release(bytes, nanos, successful);
+		}
+		if (successful) {
+			channelPool.reportTransfer(bytes, nanos);
+		}
+	}
+
 	@Override
 	public void mkdir(final @NotNull String name) throws SSHException, InterruptedException {
 		LOGGER.info("Creating directory " + name);
-		final Channel channel = channelPool.getNextAvailableChannel();
-		channel.mkdir(name);
-		returnChannel(channel);
+		withChannel(channel -> {
+			channel.mkdir(name);
+			return null;
+		});
 		LOGGER.info("Directory created successfully.");
 	}
 
+	@Override
+	public void mkdirs(final @NotNull String path) throws SSHException, InterruptedException {
+		final String absolutePath = RemotePaths.resolve(channelPool.getWorkingDirectory(), path);
+		final List<String> directories = RemotePaths.getAncestors(absolutePath);
+		final int firstUnknownDirectory = getFirstUnknownDirectory(directories);
+		if (firstUnknownDirectory == directories.size()) {
+			LOGGER.info("Directory " + absolutePath + " is already known to exist.");
+			return;
+		}
+		LOGGER.info("Creating directory " + absolutePath + " and any missing parent directories.");
+		withChannel(channel -> {
+			createMissingDirectories(channel, directories.subList(firstUnknownDirectory, directories.size()));
+			return null;
+		});
+		LOGGER.info("Directories created successfully.");
+	}
+
+	/**
+	 * @param directories absolute paths of directories ordered from the shallowest to the deepest.
+	 * @return index of the first directory after the deepest directory that is known to exist.
+	 */
+	private int getFirstUnknownDirectory(final @NotNull List<String> directories) {
+		int firstUnknownDirectory = directories.size();
+		while (firstUnknownDirectory > 0 && !isKnownDirectory(directories.get(firstUnknownDirectory - 1))) {
+			firstUnknownDirectory--;
+		}
+		return firstUnknownDirectory;
+	}
+
+	/**
+	 * Creates any of the provided directories that do not exist. The deepest directory is checked first because in the
+	 * common case it already exists and no further round trips are required. Otherwise the directories are checked from
+	 * the shallowest to the deepest until a missing directory is found, after which the remaining directories are
+	 * created without being checked.
+	 *
+	 * @param channel channel used to communicate with the remote server.
+	 * @param directories absolute paths of the directories to create ordered from the shallowest to the deepest.
+	 * @throws SSHException if a directory cannot be created or one of the paths exists but is not a directory.
+	 */
+	private void createMissingDirectories(final @NotNull Channel channel, final @NotNull List<String> directories)
+			throws SSHException {
+		final int deepest = directories.size() - 1;
+		if (checkDirectory(channel, directories.get(deepest))) {
+			directories.forEach(this::rememberDirectory);
+			return;
+		}
+		int missing = 0;
+		while (missing < deepest && checkDirectory(channel, directories.get(missing))) {
+			rememberDirectory(directories.get(missing));
+			missing++;
+		}
+		for (final String directory : directories.subList(missing, directories.size())) {
+			try {
+				channel.mkdir(directory);
+			} catch (final SSHException e) {
+				// Another client may have created the directory since it was checked.
+				if (!checkDirectory(channel, directory)) {
+					throw e;
+				}
+			}
+			rememberDirectory(directory);
+		}
+	}
+
+	/**
+	 * @param channel channel used to communicate with the remote server.
+	 * @param path absolute path to check.
+	 * @return true if a directory exists at the provided path and false if nothing exists at the path.
+	 * @throws SSHException if the path exists but is not a directory.
+	 */
+	private boolean checkDirectory(final @NotNull Channel channel, final @NotNull String path) throws SSHException {
+		final RemoteFile file = channel.stat(path);
+		if (file == null) {
+			return false;
+		}
+		if (!file.isDirectory()) {
+			throw new SSHException(path + " exists but is not a directory.");
+		}
+		return true;
+	}
+
+	private boolean isKnownDirectory(final @NotNull String path) {
+		return knownDirectories.getIfPresent(path) != null;
+	}
+
+	private void rememberDirectory(final @NotNull String path) {
+		knownDirectories.put(path, Boolean.TRUE);
+	}
+
+	@Override
+	public <T> T withChannel(final @NotNull ChannelCallback<T> callback) throws SSHException, InterruptedException {
+		final Channel channel = channelPool.getNextAvailableChannel();
+		try {
+			return callback.doWithChannel(channel);
+		} finally {
+			returnChannel(channel);
+		}
+	}
+
+	@Override
+	public @NotNull BandwidthLimiter getBandwidthLimiter() {
+		return bandwidthLimiter;
+	}
+
+	@Override
+	public @NotNull ConnectionStatistics getStatistics() {
+		return new ConnectionStatistics(listings.getSharedCount(), downloads.getSharedCount());
+	}
+
+	@Override
+	public @NotNull ServerCapabilities getServerCapabilities() {
+		return channelPool.getServerCapabilities();
+	}
+
 	@Override
 	public @NotNull String pwd() {
 		LOGGER.info("Obtaining working directory.");
@@ -118,6 +801,7 @@ class ConnectionImpl implements Connection {
 	@Override
 	public void close() throws SSHException {
 		LOGGER.info("Disconnecting from remote server...");
+		executor.shutdown();
 		channelPool.close();
 		LOGGER.info("Successfully disconnected from remote server.");
 	}
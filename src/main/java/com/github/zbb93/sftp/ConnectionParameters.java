@@ -18,9 +18,14 @@
 package com.github.zbb93.sftp;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import javax.net.SocketFactory;
+import java.net.InetAddress;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Contains parameters that are used to obtain a connection to the remote server. This class should be instantiated
@@ -111,20 +116,86 @@ public class ConnectionParameters {
 	 */
 	private static final int DEFAULT_CHANNEL_POOL_SIZE = 10;
 
+	/**
+	 * Smallest maximum packet size that can be configured.
+	 */
+	private static final int MIN_PACKET_SIZE = 1024;
+
+	/**
+	 * Largest maximum packet size that can be configured. Servers are only required to accept packets of 32 KiB and
+	 * commonly reject anything beyond 256 KiB.
+	 */
+	private static final int MAX_PACKET_SIZE = 256 * 1024;
+
+	/**
+	 * Maximum combined rate, in bytes per second, of all transfers performed by the Connection. Zero means unlimited.
+	 */
+	private final long maxBytesPerSecond;
+
+	/**
+	 * Lowest number of concurrent transfers an adaptive Connection will reduce to, or zero if the number of concurrent
+	 * transfers is only limited by the channel pool size.
+	 */
+	private final int minConcurrentTransfers;
+
+	/**
+	 * Window, packet and request settings of the Connection.
+	 */
+	private final @NotNull TransferTuning transferTuning;
+
+	/**
+	 * Cipher, MAC, key exchange and compression preferences of the Connection.
+	 */
+	private final @NotNull AlgorithmPreferences algorithmPreferences;
+
+	/**
+	 * Options applied to the TCP socket of the Connection.
+	 */
+	private final @NotNull SocketOptions socketOptions;
+
+	/**
+	 * Grants the session and channels of the Connection.
+	 */
+	private final @NotNull ResourceGovernor resourceGovernor;
+
+	/**
+	 * Highest compression level supported by zlib.
+	 */
+	private static final int MAX_COMPRESSION_LEVEL = 9;
+
 	/**
 	 * @param provider method the ChannelPool will use to obtain channels.
 	 * @param remoteHost the host to connect to.
 	 * @param user username for the remote user.
 	 * @param password password for the remote user.
+	 * @param channelPoolSize number of channels to maintain.
+	 * @param maxBytesPerSecond maximum transfer rate of the connection or zero for no limit.
+	 * @param minConcurrentTransfers lower bound of the adaptive concurrency limit or zero to disable it.
+	 * @param transferTuning window, packet and request settings.
+	 * @param algorithmPreferences cipher, MAC, key exchange and compression preferences.
+	 * @param socketOptions options applied to the TCP socket.
+	 * @param resourceGovernor grants the session and channels.
 	 */
+	@SuppressWarnings("ConstructorWithTooManyParameters")
 	private ConnectionParameters(final @NotNull Provider provider, final @NotNull RemoteHost remoteHost,
-															 final @NotNull String user, final @NotNull byte[] password, final int channelPoolSize) {
+															 final @NotNull String user, final @NotNull byte[] password, final int channelPoolSize,
+															 final long maxBytesPerSecond, final int minConcurrentTransfers,
+															 final @NotNull TransferTuning transferTuning,
+															 final @NotNull AlgorithmPreferences algorithmPreferences,
+															 final @NotNull SocketOptions socketOptions,
+															 final @NotNull ResourceGovernor resourceGovernor) {
 		this.provider = provider;
 		this.remoteHost = remoteHost;
 		this.user = user;
 		this.password = password;
 		authenticationMode = AuthenticationMode.PASSWORD;
 		this.channelPoolSize = channelPoolSize;
+		this.maxBytesPerSecond = maxBytesPerSecond;
+		this.minConcurrentTransfers = minConcurrentTransfers;
+		this.transferTuning = transferTuning;
+		this.algorithmPreferences = algorithmPreferences;
+		this.socketOptions = socketOptions;
+		this.resourceGovernor = resourceGovernor;
 	}
 
 	/**
@@ -141,6 +212,48 @@ public class ConnectionParameters {
 		return channelPoolSize;
 	}
 
+	/**
+	 * @return maximum transfer rate, in bytes per second, of the Connection or zero if there is no limit.
+	 */
+	long getMaxBytesPerSecond() {
+		return maxBytesPerSecond;
+	}
+
+	/**
+	 * @return lower bound of the adaptive concurrency limit or zero if the number of concurrent transfers is not adapted.
+	 */
+	int getMinConcurrentTransfers() {
+		return minConcurrentTransfers;
+	}
+
+	/**
+	 * @return window, packet and request settings of the Connection.
+	 */
+	@NotNull TransferTuning getTransferTuning() {
+		return transferTuning;
+	}
+
+	/**
+	 * @return cipher, MAC, key exchange and compression preferences of the Connection.
+	 */
+	@NotNull AlgorithmPreferences getAlgorithmPreferences() {
+		return algorithmPreferences;
+	}
+
+	/**
+	 * @return options applied to the TCP socket of the Connection.
+	 */
+	@NotNull SocketOptions getSocketOptions() {
+		return socketOptions;
+	}
+
+	/**
+	 * @return governor that grants the session and channels of the Connection.
+	 */
+	@NotNull ResourceGovernor getResourceGovernor() {
+		return resourceGovernor;
+	}
+
 	/**
 	 * @return method of authentication for this connection.
 	 */
@@ -217,6 +330,93 @@ public class ConnectionParameters {
 		 */
 		private int channelPoolSize;
 
+		/**
+		 * Maximum combined rate, in bytes per second, of all transfers performed by the connection. Zero, the default,
+		 * means unlimited.
+		 */
+		private long maxBytesPerSecond;
+
+		/**
+		 * Lowest number of concurrent transfers an adaptive connection will reduce to. Zero, the default, disables adaptive
+		 * concurrency.
+		 */
+		private int minConcurrentTransfers;
+
+		/**
+		 * SSH channel window size in bytes. Zero, the default, uses the default of the provider.
+		 */
+		private int windowSize;
+
+		/**
+		 * Maximum SSH packet size in bytes. Zero, the default, uses the default of the provider.
+		 */
+		private int maxPacketSize;
+
+		/**
+		 * Number of outstanding read requests per download. Zero, the default, uses the default of the provider.
+		 */
+		private int bulkRequests;
+
+		/**
+		 * TCP send buffer size in bytes. Zero, the default, uses the default of the operating system.
+		 */
+		private int socketSendBufferSize;
+
+		/**
+		 * TCP receive buffer size in bytes. Zero, the default, uses the default of the operating system.
+		 */
+		private int socketReceiveBufferSize;
+
+		/**
+		 * Whether TCP keepalive probes are sent. Disabled by default.
+		 */
+		private boolean keepAlive;
+
+		/**
+		 * Local address to bind the socket to. Null, the default, lets the operating system choose.
+		 */
+		private @Nullable InetAddress localAddress;
+
+		/**
+		 * Factory that creates the socket. Null, the default, creates plain sockets.
+		 */
+		private @Nullable SocketFactory socketFactory;
+
+		/**
+		 * Governor that grants the session and channels. Defaults to the global governor.
+		 */
+		private @NotNull ResourceGovernor resourceGovernor = ResourceGovernor.getGlobal();
+
+		/**
+		 * Whether the window size and bulk requests are grown to match the measured bandwidth-delay product.
+		 */
+		private boolean autoTune;
+
+		/**
+		 * Preferred ciphers. Empty, the default, uses the preferences of the provider.
+		 */
+		private @NotNull List<String> ciphers = ImmutableList.of();
+
+		/**
+		 * Preferred message authentication codes. Empty, the default, uses the preferences of the provider.
+		 */
+		private @NotNull List<String> macs = ImmutableList.of();
+
+		/**
+		 * Preferred key exchange algorithms. Empty, the default, uses the preferences of the provider.
+		 */
+		private @NotNull List<String> keyExchanges = ImmutableList.of();
+
+		/**
+		 * Whether zlib@openssh.com compression is requested. Compression is disabled by default.
+		 */
+		private boolean compression;
+
+		/**
+		 * zlib compression level. Zero, the default, uses the default of the provider.
+		 */
+		private int compressionLevel;
+
 		/**
 		 * @param host the URL of the remote server.
 		 * @param user username of the account to authenticate with.
@@ -262,6 +462,191 @@ public class ConnectionParameters {
 			this.channelPoolSize = channelPoolSize;
 		}
 
+		/**
+		 * Sets the maximum combined transfer rate of the ConnectionParameters Object being built. The rate can be changed
+		 * later through Connection#getBandwidthLimiter.
+		 *
+		 * @param maxBytesPerSecond maximum transfer rate in bytes per second or zero for no limit.
+		 * @throws IllegalArgumentException if the rate is negative.
+		 */
+		public void setMaxBytesPerSecond(final long maxBytesPerSecond) {
+			Preconditions.checkArgument(maxBytesPerSecond >= 0, "Transfer rate must not be negative.");
+			this.maxBytesPerSecond = maxBytesPerSecond;
+		}
+
+		/**
+		 * Enables adaptive concurrency for the ConnectionParameters Object being built. The connection measures the
+		 * throughput and latency of its uploads and downloads and adjusts the number that may run concurrently between the
+		 * provided minimum and the channel pool size.
+		 *
+		 * @param minConcurrentTransfers lowest number of concurrent transfers, which is also the initial number.
+		 * @throws IllegalArgumentException if minConcurrentTransfers is not greater than zero.
+		 */
+		public void setAdaptiveConcurrency(final int minConcurrentTransfers) {
+			Preconditions.checkArgument(minConcurrentTransfers > 0,
+																	"Minimum concurrent transfers must be an integer value greater than zero.");
+			this.minConcurrentTransfers = minConcurrentTransfers;
+		}
+
+		/**
+		 * Sets the SSH channel window size, which is the number of bytes the remote server may send on a channel before it
+		 * has to wait for the window to be adjusted. Throughput of a single download cannot exceed the window size divided
+		 * by the round trip time, so long links with high bandwidth need large windows.
+		 *
+		 * @param windowSize window size in bytes.
+		 * @throws IllegalArgumentException if windowSize is not greater than zero.
+		 */
+		public void setWindowSize(final int windowSize) {
+			Preconditions.checkArgument(windowSize > 0, "Window size must be an integer value greater than zero.");
+			this.windowSize = windowSize;
+		}
+
+		/**
+		 * Sets the largest SSH packet the remote server may send on a channel.
+		 *
+		 * @param maxPacketSize maximum packet size in bytes.
+		 * @throws IllegalArgumentException if maxPacketSize is not between 1 KiB and 256 KiB.
+		 */
+		public void setMaxPacketSize(final int maxPacketSize) {
+			Preconditions.checkArgument(maxPacketSize >= MIN_PACKET_SIZE && maxPacketSize <= MAX_PACKET_SIZE,
+																	"Maximum packet size must be between 1 KiB and 256 KiB.");
+			this.maxPacketSize = maxPacketSize;
+		}
+
+		/**
+		 * Sets the number of read requests that a download keeps outstanding at once. Each request asks for roughly one
+		 * packet worth of data, so this value multiplied by the packet size should cover the bandwidth-delay product.
+		 *
+		 * @param bulkRequests number of outstanding read requests.
+		 * @throws IllegalArgumentException if bulkRequests is not greater than zero.
+		 */
+		public void setBulkRequests(final int bulkRequests) {
+			Preconditions.checkArgument(bulkRequests > 0, "Bulk requests must be an integer value greater than zero.");
+			this.bulkRequests = bulkRequests;
+		}
+
+		/**
+		 * Sets the buffer sizes of the TCP socket used to communicate with the remote server.
+		 *
+		 * @param sendBufferSize send buffer size in bytes or zero for the operating system default.
+		 * @param receiveBufferSize receive buffer size in bytes or zero for the operating system default.
+		 * @throws IllegalArgumentException if either size is negative.
+		 */
+		public void setSocketBufferSizes(final int sendBufferSize, final int receiveBufferSize) {
+			Preconditions.checkArgument(sendBufferSize >= 0 && receiveBufferSize >= 0,
+																	"Socket buffer sizes must not be negative.");
+			socketSendBufferSize = sendBufferSize;
+			socketReceiveBufferSize = receiveBufferSize;
+		}
+
+		/**
+		 * Enables TCP keepalive probes so that idle connections through firewalls and NAT devices are not dropped silently
+		 * and dead connections are eventually detected.
+		 *
+		 * @param keepAlive whether to enable SO_KEEPALIVE.
+		 */
+		public void setKeepAlive(final boolean keepAlive) {
+			this.keepAlive = keepAlive;
+		}
+
+		/**
+		 * Binds the socket to a local address before connecting, which selects the network interface used on hosts with
+		 * more than one.
+		 *
+		 * @param localAddress local address to bind to.
+		 */
+		public void setLocalAddress(final @NotNull InetAddress localAddress) {
+			this.localAddress = localAddress;
+		}
+
+		/**
+		 * Sets the factory used to create the socket, for example to route connections through a proxy. The factory only
+		 * has to create an unconnected socket; the remaining socket options are applied to it and it is connected
+		 * afterwards.
+		 *
+		 * @param socketFactory factory that creates unconnected sockets.
+		 */
+		public void setSocketFactory(final @NotNull SocketFactory socketFactory) {
+			this.socketFactory = socketFactory;
+		}
+
+		/**
+		 * Sets the governor that limits the sessions and channels of the connection together with those of every other
+		 * connection using the same governor. Connections use ResourceGovernor#getGlobal unless another governor is set.
+		 *
+		 * @param resourceGovernor governor that grants the session and channels.
+		 */
+		public void setResourceGovernor(final @NotNull ResourceGovernor resourceGovernor) {
+			this.resourceGovernor = resourceGovernor;
+		}
+
+		/**
+		 * Enables auto-tuning. The connection measures the round trip time to the remote server when it is established
+		 * and, whenever a download proves to be limited by the window, doubles the window size and the number of bulk
+		 * requests of every channel. Values set explicitly are used as the starting point.
+		 *
+		 * @param autoTune whether to auto-tune the window size and bulk requests.
+		 */
+		public void setAutoTune(final boolean autoTune) {
+			this.autoTune = autoTune;
+		}
+
+		/**
+		 * Sets the ciphers offered during key exchange, most preferred first. The first cipher that the remote server also
+		 * supports is used. On hardware with AES instructions the AES counter mode ciphers are usually the fastest.
+		 *
+		 * @param ciphers cipher names, for example aes128-ctr.
+		 * @throws IllegalArgumentException if no ciphers are provided.
+		 */
+		public void setCiphers(final @NotNull String... ciphers) {
+			Preconditions.checkArgument(ciphers.length > 0, "At least one cipher must be provided.");
+			this.ciphers = ImmutableList.copyOf(ciphers);
+		}
+
+		/**
+		 * Sets the message authentication codes offered during key exchange, most preferred first.
+		 *
+		 * @param macs MAC names, for example hmac-sha1.
+		 * @throws IllegalArgumentException if no MACs are provided.
+		 */
+		public void setMacs(final @NotNull String... macs) {
+			Preconditions.checkArgument(macs.length > 0, "At least one MAC must be provided.");
+			this.macs = ImmutableList.copyOf(macs);
+		}
+
+		/**
+		 * Sets the key exchange algorithms offered when connecting, most preferred first.
+		 *
+		 * @param keyExchanges key exchange algorithm names, for example diffie-hellman-group14-sha1.
+		 * @throws IllegalArgumentException if no key exchange algorithms are provided.
+		 */
+		public void setKeyExchanges(final @NotNull String... keyExchanges) {
+			Preconditions.checkArgument(keyExchanges.length > 0, "At least one key exchange algorithm must be provided.");
+			this.keyExchanges = ImmutableList.copyOf(keyExchanges);
+		}
+
+		/**
+		 * Requests zlib@openssh.com compression in both directions. The connection falls back to no compression when the
+		 * remote server does not support it. Compression helps text-heavy transfers on slow links but costs CPU time.
+		 *
+		 * @param compression whether to request compression.
+		 */
+		public void setCompression(final boolean compression) {
+			this.compression = compression;
+		}
+
+		/**
+		 * Sets the zlib compression level used when compression is enabled.
+		 *
+		 * @param compressionLevel level from 1 (fastest) to 9 (smallest).
+		 * @throws IllegalArgumentException if compressionLevel is not between 1 and 9.
+		 */
+		public void setCompressionLevel(final int compressionLevel) {
+			Preconditions.checkArgument(compressionLevel > 0 && compressionLevel <= MAX_COMPRESSION_LEVEL,
+																	"Compression level must be between 1 and 9.");
+			this.compressionLevel = compressionLevel;
+		}
+
 		/**
 		 * @param provider method that will be used to interact with the remote server.
 		 */
@@ -277,7 +662,14 @@ public class ConnectionParameters {
 			final ConnectionParameters parameters;
 			final RemoteHost remoteHost = new RemoteHost(host, port, timeout);
 			if (authenticationMode == AuthenticationMode.PASSWORD) {
-				parameters = new ConnectionParameters(provider, remoteHost, user, password, channelPoolSize);
+				final TransferTuning transferTuning = new TransferTuning(windowSize, maxPacketSize, bulkRequests, autoTune);
+				final SocketOptions socketOptions = new SocketOptions(socketSendBufferSize, socketReceiveBufferSize, keepAlive,
+																															localAddress, socketFactory);
+				final AlgorithmPreferences algorithmPreferences = new AlgorithmPreferences(ciphers, macs, keyExchanges,
+																																									 compression, compressionLevel);
+				parameters = new ConnectionParameters(provider, remoteHost, user, password, channelPoolSize,
+																							maxBytesPerSecond, minConcurrentTransfers, transferTuning,
+																							algorithmPreferences, socketOptions, resourceGovernor);
 			} else {
 				throw new IllegalStateException("Unrecognized authentication mode: " + authenticationMode);
 			}
@@ -295,6 +687,12 @@ public class ConnectionParameters {
 					 ", password=" + Arrays.toString(password) +
 					 ", authenticationMode=" + authenticationMode +
 					 ", channelPoolSize=" + channelPoolSize +
+					 ", maxBytesPerSecond=" + maxBytesPerSecond +
+					 ", minConcurrentTransfers=" + minConcurrentTransfers +
+					 ", transferTuning=" + transferTuning +
+					 ", algorithmPreferences=" + algorithmPreferences +
+					 ", socketOptions=" + socketOptions +
+					 ", resourceGovernor=" + resourceGovernor +
 					 '}';
 	}
 }
@@ -0,0 +1,307 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out shared Connections for identical ConnectionParameters. ConnectionParameters are identical if they use
+ * the same provider, host, port, user and credentials. The first caller for a set of parameters opens the Connection
+ * and every later caller shares it, so settings such as the channel pool size are those of the first caller.
+ *
+ * Every Connection handed out holds a reference to the shared Connection that is released when it is closed. The
+ * shared Connection is closed once its last reference has been released and the grace period has passed without it
+ * being requested again.
+ */
+class ConnectionRegistry {
+
+	/**
+	 * Opens the Connection that is shared for a set of parameters.
+	 */
+	@FunctionalInterface
+	interface Opener {
+		@NotNull Connection open(@NotNull ConnectionParameters connectionParameters) throws SSHException;
+	}
+
+	private final @NotNull Opener opener;
+
+	/**
+	 * Shared Connections keyed by the parameters they were opened with. Guarded by this.
+	 */
+	private final @NotNull Map<Key, Entry> entries = Maps.newHashMap();
+
+	/**
+	 * Closes unused Connections once their grace period has passed.
+	 */
+	private final @NotNull ScheduledExecutorService scheduler =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+																																 .setNameFormat("sftp-registry-%d")
+																																 .build());
+
+	/**
+	 * Time an unused Connection is kept open in case it is requested again.
+	 */
+	private volatile long gracePeriodNanos;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(ConnectionRegistry.class.getName());
+
+	ConnectionRegistry(final @NotNull Opener opener) {
+		this.opener = opener;
+	}
+
+	/**
+	 * @param gracePeriod time an unused Connection is kept open. Zero closes Connections as soon as they are released.
+	 * @param unit unit of the grace period.
+	 */
+	void setGracePeriod(final long gracePeriod, final @NotNull TimeUnit unit) {
+		Preconditions.checkArgument(gracePeriod >= 0, "Grace period must not be negative.");
+		gracePeriodNanos = unit.toNanos(gracePeriod);
+	}
+
+	/**
+	 * @param connectionParameters parameters of the Connection.
+	 * @return Connection sharing the Connection opened for identical parameters. Closing it releases the reference.
+	 * @throws SSHException if the shared Connection cannot be opened.
+	 */
+	@NotNull Connection acquire(final @NotNull ConnectionParameters connectionParameters) throws SSHException {
+		final Key key = new Key(connectionParameters);
+		final Entry entry;
+		final boolean opening;
+		synchronized (this) {
+			final Entry existing = entries.get(key);
+			opening = existing == null;
+			entry = opening ? new Entry(key) : existing;
+			if (opening) {
+				entries.put(key, entry);
+			}
+			entry.references++;
+			entry.cancelScheduledClose();
+		}
+		if (opening) {
+			open(entry, connectionParameters);
+		}
+		try {
+			return new SharedConnection(entry, entry.connection.join());
+		} catch (final CompletionException e) {
+			throw e.getCause() instanceof SSHException ? (SSHException) e.getCause() : new SSHException(e.getCause());
+		}
+	}
+
+	/**
+	 * Opens the Connection of a new entry outside of the lock so that other hosts are not blocked by the handshake.
+	 */
+	private void open(final @NotNull Entry entry, final @NotNull ConnectionParameters connectionParameters) {
+		LOGGER.info("Opening shared connection for " + entry.key);
+		try {
+			entry.connection.complete(opener.open(connectionParameters));
+		} catch (final SSHException | RuntimeException e) {
+			synchronized (this) {
+				entries.remove(entry.key, entry);
+			}
+			entry.connection.completeExceptionally(e);
+		}
+	}
+
+	private void release(final @NotNull Entry entry) {
+		final long gracePeriod = gracePeriodNanos;
+		synchronized (this) {
+			entry.references--;
+			if (entry.references > 0) {
+				return;
+			}
+			if (gracePeriod > 0) {
+				entry.scheduledClose = scheduler.schedule(() -> closeIfUnused(entry), gracePeriod, TimeUnit.NANOSECONDS);
+				return;
+			}
+			entries.remove(entry.key, entry);
+		}
+		close(entry);
+	}
+
+	private void closeIfUnused(final @NotNull Entry entry) {
+		synchronized (this) {
+			if (entry.references > 0 || !entries.remove(entry.key, entry)) {
+				return;
+			}
+		}
+		close(entry);
+	}
+
+	private static void close(final @NotNull Entry entry) {
+		LOGGER.info("Closing shared connection for " + entry.key);
+		try {
+			entry.connection.join().close();
+		} catch (final SSHException e) {
+			LOGGER.log(Level.WARNING, "Unable to close shared connection for " + entry.key, e);
+		}
+	}
+
+	/**
+	 * @return number of shared Connections that are open or being opened.
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public synchronized String toString() {
+		return "ConnectionRegistry{" +
+					 "entries=" + entries.keySet() +
+					 ", gracePeriodNanos=" + gracePeriodNanos +
+					 '}';
+	}
+
+	/**
+	 * A shared Connection and the number of references to it.
+	 */
+	private static final class Entry {
+		private final @NotNull Key key;
+
+		private final @NotNull CompletableFuture<Connection> connection = new CompletableFuture<>();
+
+		/**
+		 * Guarded by the registry.
+		 */
+		private int references;
+
+		/**
+		 * Pending close of the unused Connection or null. Guarded by the registry.
+		 */
+		private @Nullable ScheduledFuture<?> scheduledClose;
+
+		private Entry(final @NotNull Key key) {
+			this.key = key;
+		}
+
+		private void cancelScheduledClose() {
+			if (scheduledClose != null) {
+				scheduledClose.cancel(false);
+				scheduledClose = null;
+			}
+		}
+	}
+
+	/**
+	 * Identifies the remote account a Connection is authenticated to.
+	 */
+	private static final class Key {
+		private final @NotNull ConnectionParameters.Provider provider;
+		private final @NotNull String url;
+		private final int port;
+		private final @NotNull String user;
+		private final @NotNull ConnectionParameters.AuthenticationMode authenticationMode;
+		private final @NotNull byte[] password;
+
+		private Key(final @NotNull ConnectionParameters connectionParameters) {
+			provider = connectionParameters.getProvider();
+			url = connectionParameters.getRemoteHost().getUrl();
+			port = connectionParameters.getRemoteHost().getPort();
+			user = connectionParameters.getUser();
+			authenticationMode = connectionParameters.getAuthenticationMode();
+			password = connectionParameters.getPassword().clone();
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			final Key key = (Key) o;
+			return port == key.port &&
+						 provider == key.provider &&
+						 url.equals(key.url) &&
+						 user.equals(key.user) &&
+						 authenticationMode == key.authenticationMode &&
+						 Arrays.equals(password, key.password);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(provider, url, port, user);
+		}
+
+		@SuppressWarnings("MagicCharacter")
+		@Override
+		public String toString() {
+			return provider + ":" + user + '@' + url + ':' + port;
+		}
+	}
+
+	/**
+	 * Reference to a shared Connection. Closing it releases the reference; the shared Connection is closed by the
+	 * registry. Operations fail with an IllegalStateException once the reference has been released.
+	 */
+	private final class SharedConnection extends ForwardingConnection {
+		private final @NotNull Entry entry;
+
+		private final @NotNull Connection connection;
+
+		private volatile boolean released;
+
+		private SharedConnection(final @NotNull Entry entry, final @NotNull Connection connection) {
+			this.entry = entry;
+			this.connection = connection;
+		}
+
+		@Override
+		protected @NotNull Connection delegate() {
+			Preconditions.checkState(!released, "Shared connection has been released.");
+			return connection;
+		}
+
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			release(entry);
+		}
+
+		@SuppressWarnings("MagicCharacter")
+		@Override
+		public String toString() {
+			return "SharedConnection{" +
+						 "key=" + entry.key +
+						 ", released=" + released +
+						 '}';
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+/**
+ * Snapshot of the work a Connection avoided by sharing the results of concurrent identical requests.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+public final class ConnectionStatistics {
+	private final long coalescedListings;
+
+	private final long coalescedDownloads;
+
+	/**
+	 * @param coalescedListings number of ls calls that shared the listing of a concurrent identical call.
+	 * @param coalescedDownloads number of get calls that shared the contents downloaded by a concurrent identical call.
+	 */
+	public ConnectionStatistics(final long coalescedListings, final long coalescedDownloads) {
+		this.coalescedListings = coalescedListings;
+		this.coalescedDownloads = coalescedDownloads;
+	}
+
+	public long getCoalescedListings() {
+		return coalescedListings;
+	}
+
+	public long getCoalescedDownloads() {
+		return coalescedDownloads;
+	}
+
+	/**
+	 * @return the number of requests that were not sent to the server because their result was shared.
+	 */
+	public long getSavedRequests() {
+		return coalescedListings + coalescedDownloads;
+	}
+
+	/**
+	 * @return statistics combining this snapshot and the provided one.
+	 */
+	public ConnectionStatistics plus(final ConnectionStatistics other) {
+		return new ConnectionStatistics(coalescedListings + other.coalescedListings,
+																		coalescedDownloads + other.coalescedDownloads);
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "ConnectionStatistics{" +
+					 "coalescedListings=" + coalescedListings +
+					 ", coalescedDownloads=" + coalescedDownloads +
+					 '}';
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A change to an entry of a watched remote directory detected by a RemoteDirectoryWatcher.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+public final class DirectoryEvent {
+
+	public enum Kind {
+		/**
+		 * The entry did not exist when the directory was last polled.
+		 */
+		CREATED,
+		/**
+		 * The size, modification time or type of the entry changed since the directory was last polled.
+		 */
+		MODIFIED,
+		/**
+		 * The entry no longer exists. The attributes of the event are the last attributes that were observed.
+		 */
+		DELETED
+	}
+
+	private final @NotNull Kind kind;
+
+	private final @NotNull String directory;
+
+	private final @NotNull String name;
+
+	private final long size;
+
+	private final long modificationTime;
+
+	private final boolean isDirectory;
+
+	DirectoryEvent(final @NotNull Kind kind, final @NotNull String directory, final @NotNull String name,
+								 final long size, final long modificationTime, final boolean isDirectory) {
+		this.kind = kind;
+		this.directory = directory;
+		this.name = name;
+		this.size = size;
+		this.modificationTime = modificationTime;
+		this.isDirectory = isDirectory;
+	}
+
+	public @NotNull Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return absolute path of the watched directory.
+	 */
+	public @NotNull String getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return name of the entry within the directory.
+	 */
+	public @NotNull String getName() {
+		return name;
+	}
+
+	/**
+	 * @return absolute path of the entry.
+	 */
+	public @NotNull String getPath() {
+		return RemotePaths.resolve(directory, name);
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return modification time of the entry in seconds since the epoch.
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	public boolean isDirectory() {
+		return isDirectory;
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "DirectoryEvent{" +
+					 "kind=" + kind +
+					 ", path='" + getPath() + '\'' +
+					 ", size=" + size +
+					 ", modificationTime=" + modificationTime +
+					 '}';
+	}
+}
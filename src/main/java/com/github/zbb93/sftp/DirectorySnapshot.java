@@ -0,0 +1,139 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Names, sizes and modification times of the entries of a remote directory at one point in time. The entries are kept
+ * in a CompactListing along with their order by the unsigned bytes of their UTF-8 encoded names, so two snapshots of
+ * the same directory are compared with a single merge in time linear in the number of entries. The '.' and '..'
+ * entries are ignored.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+final class DirectorySnapshot {
+
+	private final @NotNull CompactListing listing;
+
+	/**
+	 * Indexes of the entries of the listing other than '.' and '..', ordered by name.
+	 */
+	private final @NotNull int[] order;
+
+	/**
+	 * @param listing listing of the directory.
+	 */
+	DirectorySnapshot(final @NotNull CompactListing listing) {
+		this.listing = listing;
+		order = sortByName(listing);
+	}
+
+	int size() {
+		return order.length;
+	}
+
+	/**
+	 * Compares the changes between an earlier snapshot of the same directory and this one.
+	 *
+	 * @param previous earlier snapshot of the directory.
+	 * @param directory absolute path of the directory, used in the events.
+	 * @return an event for every entry that was created, modified or deleted, ordered by name.
+	 */
+	@NotNull List<DirectoryEvent> diff(final @NotNull DirectorySnapshot previous, final @NotNull String directory) {
+		final List<DirectoryEvent> events = Lists.newArrayList();
+		int before = 0;
+		int after = 0;
+		while (before < previous.order.length || after < order.length) {
+			final int comparison;
+			if (before == previous.order.length) {
+				comparison = 1;
+			} else if (after == order.length) {
+				comparison = -1;
+			} else {
+				comparison = CompactListing.compareNames(previous.listing, previous.order[before], listing, order[after]);
+			}
+			if (comparison < 0) {
+				events.add(previous.toEvent(DirectoryEvent.Kind.DELETED, directory, previous.order[before++]));
+			} else if (comparison > 0) {
+				events.add(toEvent(DirectoryEvent.Kind.CREATED, directory, order[after++]));
+			} else {
+				final int previousEntry = previous.order[before++];
+				final int entry = order[after++];
+				if (previous.listing.getSize(previousEntry) != listing.getSize(entry) ||
+						previous.listing.getModificationTime(previousEntry) != listing.getModificationTime(entry) ||
+						previous.listing.isDirectory(previousEntry) != listing.isDirectory(entry)) {
+					events.add(toEvent(DirectoryEvent.Kind.MODIFIED, directory, entry));
+				}
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * @param entry index of the entry in the listing.
+	 */
+	private @NotNull DirectoryEvent toEvent(final @NotNull DirectoryEvent.Kind kind, final @NotNull String directory,
+																					final int entry) {
+		return new DirectoryEvent(kind, directory, listing.getName(entry), listing.getSize(entry),
+															listing.getModificationTime(entry), listing.isDirectory(entry));
+	}
+
+	/**
+	 * @return indexes of the entries other than '.' and '..', ordered by name. Listings are usually sorted already, in
+	 * which case no sorting is done.
+	 */
+	private static @NotNull int[] sortByName(final @NotNull CompactListing listing) {
+		final int[] entries = new int[listing.size()];
+		int count = 0;
+		boolean sorted = true;
+		for (int i = 0; i < listing.size(); i++) {
+			if (listing.isSelfOrParent(i)) {
+				continue;
+			}
+			if (count > 0 && CompactListing.compareNames(listing, entries[count - 1], listing, i) > 0) {
+				sorted = false;
+			}
+			entries[count++] = i;
+		}
+		if (sorted) {
+			return Arrays.copyOf(entries, count);
+		}
+		final Integer[] boxed = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			boxed[i] = entries[i];
+		}
+		Arrays.sort(boxed, (first, second) -> CompactListing.compareNames(listing, first, listing, second));
+		final int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = boxed[i];
+		}
+		return order;
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "DirectorySnapshot{" +
+					 "entryCount=" + order.length +
+					 '}';
+	}
+}
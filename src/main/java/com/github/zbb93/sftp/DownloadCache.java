@@ -0,0 +1,441 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stores downloaded files in a local directory so that repeated downloads of an unchanged remote file are served from
+ * disk. Each cached file is stored together with the size and modification time the remote file had when it was
+ * downloaded, and is only served while the remote file still has the same size and modification time.
+ *
+ * The total size of the cached files is bounded. Once it is exceeded the least recently used files are evicted. The
+ * cache survives restarts: files found in the directory when the cache is created are used, ordered by the time they
+ * were last used.
+ *
+ * Concurrent readers and writers within the JVM are coordinated with a read-write lock per remote file: any number of
+ * threads may read a cached file while a file that is being replaced or evicted is locked exclusively. Files are
+ * downloaded to a temporary file without holding the lock, which is only taken to install the download. The directory
+ * must not be shared with another process.
+ */
+public class DownloadCache {
+
+	/**
+	 * Number of locks shared by the cached files.
+	 */
+	private static final int LOCK_STRIPES = 64;
+
+	/**
+	 * Names of cached files: hash of the remote path, remote size and remote modification time.
+	 */
+	private static final @NotNull Pattern FILE_NAME = Pattern.compile("([0-9a-f]{64})-(\\d+)-(-?\\d+)");
+
+	private static final @NotNull String TEMPORARY_SUFFIX = ".tmp";
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(DownloadCache.class.getName());
+
+	private final @NotNull Path directory;
+
+	private final long maxBytes;
+
+	private final @NotNull Striped<ReadWriteLock> locks = Striped.readWriteLock(LOCK_STRIPES);
+
+	/**
+	 * Downloads in flight keyed by the name of the file they produce, so that concurrent misses for the same version of
+	 * a remote file share a download.
+	 */
+	private final @NotNull SingleFlight<String, Entry> downloads = new SingleFlight<>();
+
+	/**
+	 * Cached files keyed by the hash of their remote path, least recently used first. Guarded by this.
+	 */
+	private final @NotNull LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Total size of the cached files. Guarded by this.
+	 */
+	private long totalBytes;
+
+	private final @NotNull AtomicLong hits = new AtomicLong();
+
+	private final @NotNull AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param directory directory the cached files are stored in. Created if it does not exist.
+	 * @param maxBytes maximum total size of the cached files.
+	 * @throws IOException if the directory cannot be created or read.
+	 * @throws IllegalArgumentException if maxBytes is not greater than zero.
+	 */
+	public DownloadCache(final @NotNull Path directory, final long maxBytes) throws IOException {
+		Preconditions.checkArgument(maxBytes > 0, "Maximum bytes must be greater than zero.");
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		load();
+	}
+
+	/**
+	 * Indexes the files left in the directory by an earlier cache, least recently used first, and deletes incomplete
+	 * downloads.
+	 */
+	private void load() throws IOException {
+		final List<Path> files;
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			files = StreamSupport.stream(stream.spliterator(), false).collect(Collectors.toList());
+		}
+		files.sort(Comparator.comparing(DownloadCache::getLastModifiedTime));
+		for (final Path file : files) {
+			final Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+			if (matcher.matches()) {
+				final Entry entry = new Entry(file, Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)));
+				entries.put(matcher.group(1), entry);
+				totalBytes += entry.size;
+			} else if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+				Files.deleteIfExists(file);
+			}
+		}
+		evict(null);
+		LOGGER.info("Loaded " + entries.size() + " cached files totalling " + totalBytes + " bytes from " + directory);
+	}
+
+	private static @NotNull FileTime getLastModifiedTime(final @NotNull Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (final IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	/**
+	 * Writes the remote file to the OutputStream, from the cache if it holds the file with the given size and
+	 * modification time and otherwise by downloading it with the loader and caching the result. Concurrent misses for
+	 * the same file share a single download.
+	 *
+	 * @param path absolute path of the remote file.
+	 * @param size current size of the remote file.
+	 * @param modificationTime current modification time of the remote file.
+	 * @param loader downloads the remote file.
+	 * @param outputStream OutputStream to write the file to. It is not closed.
+	 * @throws SSHException if the download fails or the cache cannot be read or written.
+	 * @throws InterruptedException if interrupted while downloading.
+	 */
+	void get(final @NotNull String path, final long size, final long modificationTime, final @NotNull Loader loader,
+					 final @NotNull OutputStream outputStream) throws SSHException, InterruptedException {
+		final String key = hash(path);
+		if (copyIfFresh(key, size, modificationTime, outputStream)) {
+			hits.incrementAndGet();
+			return;
+		}
+		if (size > maxBytes) {
+			misses.incrementAndGet();
+			loader.load(outputStream);
+			return;
+		}
+		final AtomicBoolean downloaded = new AtomicBoolean();
+		final Entry entry = downloads.execute(key + '-' + size + '-' + modificationTime, () -> {
+			// Another caller may have installed the file since it was looked up.
+			final Entry cached = getFresh(key, size, modificationTime);
+			if (cached != null) {
+				return cached;
+			}
+			downloaded.set(true);
+			return download(key, size, modificationTime, loader, outputStream);
+		});
+		if (entry == null && downloaded.get()) {
+			misses.incrementAndGet();
+			return;
+		}
+		if (entry != null && copyIfFresh(key, size, modificationTime, outputStream)) {
+			(downloaded.get() ? misses : hits).incrementAndGet();
+			evict(key);
+			return;
+		}
+		// The remote file changed while another caller downloaded it, or the download was evicted before it was copied.
+		misses.incrementAndGet();
+		loader.load(outputStream);
+	}
+
+	/**
+	 * Copies the cached file to the OutputStream if it matches the size and modification time of the remote file.
+	 *
+	 * @return true if the file was copied.
+	 */
+	private boolean copyIfFresh(final @NotNull String key, final long size, final long modificationTime,
+															final @NotNull OutputStream outputStream) throws SSHException {
+		final ReadWriteLock lock = locks.get(key);
+		lock.readLock().lock();
+		try {
+			final Entry entry = getFresh(key, size, modificationTime);
+			if (entry == null) {
+				return false;
+			}
+			copy(entry.file, outputStream);
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Downloads the file to a temporary file and installs it in the cache. The download runs without holding a lock so
+	 * that other files are not blocked by it; the write lock of the key is only taken to install the file.
+	 *
+	 * @return the new entry or null if the download did not match the expected size, in which case it has already been
+	 * written to the OutputStream and is not cached.
+	 */
+	private @Nullable Entry download(final @NotNull String key, final long size, final long modificationTime,
+																	 final @NotNull Loader loader, final @NotNull OutputStream outputStream)
+			throws SSHException, InterruptedException {
+		Path temporary = null;
+		try {
+			temporary = Files.createTempFile(directory, key, TEMPORARY_SUFFIX);
+			try (final OutputStream fileStream = Files.newOutputStream(temporary)) {
+				loader.load(fileStream);
+			}
+			if (Files.size(temporary) != size) {
+				LOGGER.info("Remote file changed while it was downloaded, not caching it.");
+				copy(temporary, outputStream);
+				return null;
+			}
+			final Path file = directory.resolve(key + '-' + size + '-' + modificationTime);
+			final ReadWriteLock lock = locks.get(key);
+			lock.writeLock().lock();
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				temporary = null;
+				return install(key, new Entry(file, size, modificationTime));
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} catch (final IOException e) {
+			throw new SSHException(e);
+		} finally {
+			deleteQuietly(temporary);
+		}
+	}
+
+	private synchronized @NotNull Entry install(final @NotNull String key, final @NotNull Entry entry) {
+		final Entry previous = entries.put(key, entry);
+		totalBytes += entry.size;
+		if (previous != null) {
+			totalBytes -= previous.size;
+			if (!previous.file.equals(entry.file)) {
+				deleteQuietly(previous.file);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the entry of the key if it matches the size and modification time of the remote file, marking it as
+	 * recently used.
+	 */
+	private synchronized @Nullable Entry getFresh(final @NotNull String key, final long size,
+																								final long modificationTime) {
+		final Entry entry = entries.get(key);
+		if (entry == null || entry.size != size || entry.modificationTime != modificationTime) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Evicts least recently used files until the cache fits its budget. Files that are in use are skipped.
+	 *
+	 * @param retain key of a file that must not be evicted or null.
+	 */
+	private void evict(final @Nullable String retain) {
+		synchronized (this) {
+			if (totalBytes <= maxBytes) {
+				return;
+			}
+		}
+		for (final Map.Entry<String, Entry> candidate : getEvictionCandidates(retain)) {
+			final ReadWriteLock lock = locks.get(candidate.getKey());
+			if (!lock.writeLock().tryLock()) {
+				continue;
+			}
+			try {
+				synchronized (this) {
+					if (totalBytes <= maxBytes) {
+						return;
+					}
+					if (!entries.remove(candidate.getKey(), candidate.getValue())) {
+						continue;
+					}
+					totalBytes -= candidate.getValue().size;
+				}
+				deleteQuietly(candidate.getValue().file);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private synchronized @NotNull List<Map.Entry<String, Entry>> getEvictionCandidates(final @Nullable String retain) {
+		final List<Map.Entry<String, Entry>> candidates = Lists.newArrayList();
+		long excess = totalBytes - maxBytes;
+		final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext() && excess > 0) {
+			final Map.Entry<String, Entry> entry = iterator.next();
+			if (!entry.getKey().equals(retain)) {
+				candidates.add(Maps.immutableEntry(entry.getKey(), entry.getValue()));
+				excess -= entry.getValue().size;
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Removes the cached copy of the remote file, for example because it has been modified or deleted.
+	 *
+	 * @param path absolute path of the remote file.
+	 */
+	void invalidate(final @NotNull String path) {
+		final String key = hash(path);
+		final ReadWriteLock lock = locks.get(key);
+		lock.writeLock().lock();
+		try {
+			final Entry entry;
+			synchronized (this) {
+				entry = entries.remove(key);
+				if (entry != null) {
+					totalBytes -= entry.size;
+				}
+			}
+			if (entry != null) {
+				deleteQuietly(entry.file);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static void copy(final @NotNull Path file, final @NotNull OutputStream outputStream) throws SSHException {
+		try {
+			Files.copy(file, outputStream);
+			outputStream.flush();
+			// Records the use so that the order of use survives a restart.
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (final IOException e) {
+			throw new SSHException(e);
+		}
+	}
+
+	private static void deleteQuietly(final @Nullable Path file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (final IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to delete cached file " + file, e);
+		}
+	}
+
+	private static @NotNull String hash(final @NotNull String path) {
+		return Hashing.sha256().hashString(path, StandardCharsets.UTF_8).toString();
+	}
+
+	/**
+	 * @return total size of the cached files in bytes.
+	 */
+	public synchronized long getSize() {
+		return totalBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return number of downloads served from the cache.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of downloads that had to be fetched from the remote server.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public synchronized String toString() {
+		return "DownloadCache{" +
+					 "directory=" + directory +
+					 ", maxBytes=" + maxBytes +
+					 ", totalBytes=" + totalBytes +
+					 ", files=" + entries.size() +
+					 '}';
+	}
+
+	/**
+	 * Downloads a remote file.
+	 */
+	@FunctionalInterface
+	interface Loader {
+		void load(@NotNull OutputStream outputStream) throws SSHException, InterruptedException;
+	}
+
+	/**
+	 * A cached file along with the size and modification time of the remote file it was downloaded from.
+	 */
+	private static final class Entry {
+		private final @NotNull Path file;
+		private final long size;
+		private final long modificationTime;
+
+		private Entry(final @NotNull Path file, final long size, final long modificationTime) {
+			this.file = file;
+			this.size = size;
+			this.modificationTime = modificationTime;
+		}
+	}
+}
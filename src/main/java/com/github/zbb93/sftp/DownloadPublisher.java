@@ -0,0 +1,242 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.io.ByteStreams;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Publisher that streams a remote file as a sequence of ByteBuffers. Every subscription opens its own stream, and
+ * therefore holds its own channel, once data is first requested. Chunks are only read from the remote server while the
+ * subscriber has outstanding demand, so a slow subscriber slows down the download instead of causing data to be
+ * buffered. Reads are performed on the provided executor and no thread is occupied while there is no demand.
+ *
+ * Chunks are heap buffers owned by the subscriber. A PooledBufferSubscriber receives chunks acquired from a BufferPool
+ * and releases each of them to the pool once it has been consumed, so that it can be reused for later chunks. Other
+ * subscribers receive chunks that are not pooled, because the pool could not tell whether they are still in use.
+ */
+class DownloadPublisher implements Publisher<ByteBuffer> {
+
+	/**
+	 * Maximum number of bytes in each published chunk. Matches the amount of data JSch requests at once.
+	 */
+	static final int CHUNK_SIZE = 32 * 1024;
+
+	private final @NotNull StreamOpener<InputStream> opener;
+
+	private final @NotNull Executor executor;
+
+	private final @NotNull BufferPool bufferPool;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(DownloadPublisher.class.getName());
+
+	DownloadPublisher(final @NotNull StreamOpener<InputStream> opener, final @NotNull Executor executor,
+										final @NotNull BufferPool bufferPool) {
+		this.opener = opener;
+		this.executor = executor;
+		this.bufferPool = bufferPool;
+	}
+
+	@Override
+	public void subscribe(final @NotNull Subscriber<? super ByteBuffer> subscriber) {
+		//noinspection ConstantConditions rule 1.9 of the specification requires a NullPointerException
+		if (subscriber == null) {
+			throw new NullPointerException("Subscriber must not be null.");
+		}
+		final BufferPool chunkPool;
+		if (subscriber instanceof PooledBufferSubscriber) {
+			chunkPool = bufferPool;
+			((PooledBufferSubscriber) subscriber).releaseBuffersTo(chunkPool);
+		} else {
+			chunkPool = null;
+		}
+		subscriber.onSubscribe(new DownloadSubscription(subscriber, chunkPool));
+	}
+
+	/**
+	 * Subscription of a single subscriber. All signals to the subscriber and all access to the stream happen inside
+	 * drain, which is never run by more than one thread at a time.
+	 */
+	private final class DownloadSubscription implements Subscription {
+
+		private final @NotNull Subscriber<? super ByteBuffer> subscriber;
+
+		/**
+		 * Pool the chunks are acquired from or null if the subscriber does not release them.
+		 */
+		private final @Nullable BufferPool chunkPool;
+
+		/**
+		 * Number of chunks requested by the subscriber that have not been published yet.
+		 */
+		private final @NotNull AtomicLong demand = new AtomicLong();
+
+		/**
+		 * Number of times drain has been scheduled since it last finished. Drain is only submitted to the executor when
+		 * this changes from zero.
+		 */
+		private final @NotNull AtomicInteger pendingDrains = new AtomicInteger();
+
+		private volatile boolean cancelled;
+
+		/**
+		 * Set if the subscriber requested a non-positive number of chunks.
+		 */
+		private volatile @Nullable IllegalArgumentException invalidRequest;
+
+		/**
+		 * Whether a terminal signal has been sent or the subscription has been cancelled. Only accessed by drain.
+		 */
+		private boolean done;
+
+		/**
+		 * Stream of the remote file, opened by the first drain. Only accessed by drain.
+		 */
+		private @Nullable InputStream stream;
+
+		DownloadSubscription(final @NotNull Subscriber<? super ByteBuffer> subscriber,
+												 final @Nullable BufferPool chunkPool) {
+			this.subscriber = subscriber;
+			this.chunkPool = chunkPool;
+		}
+
+		@Override
+		public void request(final long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("Requested " + n + " chunks, must be greater than zero.");
+			} else {
+				demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+			}
+			scheduleDrain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			scheduleDrain();
+		}
+
+		private void scheduleDrain() {
+			if (pendingDrains.getAndIncrement() == 0) {
+				executor.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			int missed = 1;
+			do {
+				drainOnce();
+				missed = pendingDrains.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drainOnce() {
+			if (done) {
+				return;
+			}
+			if (cancelled) {
+				finish();
+				return;
+			}
+			final IllegalArgumentException invalid = invalidRequest;
+			if (invalid != null) {
+				finish();
+				subscriber.onError(invalid);
+				return;
+			}
+			try {
+				while (demand.get() > 0 && !cancelled) {
+					final ByteBuffer chunk = readChunk();
+					if (chunk == null) {
+						finish();
+						subscriber.onComplete();
+						return;
+					}
+					demand.decrementAndGet();
+					subscriber.onNext(chunk);
+				}
+				if (cancelled) {
+					finish();
+				}
+			} catch (final IOException | SSHException | RuntimeException e) {
+				finish();
+				subscriber.onError(e);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				finish();
+				subscriber.onError(e);
+			}
+		}
+
+		/**
+		 * @return the next chunk of the file or null if the end of the file has been reached.
+		 */
+		private @Nullable ByteBuffer readChunk() throws IOException, SSHException, InterruptedException {
+			if (stream == null) {
+				stream = opener.open();
+			}
+			final ByteBuffer chunk = chunkPool == null ? ByteBuffer.allocate(CHUNK_SIZE) : chunkPool.acquire(CHUNK_SIZE);
+			final int read;
+			try {
+				read = ByteStreams.read(stream, chunk.array(), chunk.arrayOffset(), CHUNK_SIZE);
+			} catch (final IOException | RuntimeException e) {
+				releaseChunk(chunk);
+				throw e;
+			}
+			if (read == 0) {
+				releaseChunk(chunk);
+				return null;
+			}
+			chunk.limit(read);
+			return chunk;
+		}
+
+		private void releaseChunk(final @NotNull ByteBuffer chunk) {
+			if (chunkPool != null) {
+				chunkPool.release(chunk);
+			}
+		}
+
+		/**
+		 * Marks the subscription as done and closes the stream, which returns its channel to the pool.
+		 */
+		private void finish() {
+			done = true;
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (final IOException e) {
+					LOGGER.warning("Unable to close download stream: " + e.getMessage());
+				}
+				stream = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Uploads one local file to many Connections while reading it from disk once. The file is memory-mapped one region at
+ * a time and every destination receives read-only views of the mapped regions, so the amount of disk I/O does not grow
+ * with the number of destinations. A region is mapped when the first destination reaches it and dropped once every
+ * destination that reached it has moved on, so only the regions in use are mapped. Each destination is uploaded
+ * through Connection#upload, which applies the bandwidth limit and channel pool of its Connection.
+ *
+ * At most a fixed number of destinations are uploaded at the same time. A failing destination does not affect the
+ * others; its exception is reported in the BatchResult of the upload. Closing the FanOutUpload closes the file.
+ */
+public class FanOutUpload implements AutoCloseable {
+
+	/**
+	 * Size of the views of the file passed to each destination.
+	 */
+	static final int CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * Size of each mapped region of the file. A multiple of the chunk size so that no chunk spans two regions.
+	 */
+	private static final int REGION_SIZE = 4096 * CHUNK_SIZE;
+
+	private final @NotNull Path source;
+
+	private final @NotNull String destination;
+
+	private final int maxConcurrentUploads;
+
+	private final long size;
+
+	private final @NotNull FileChannel channel;
+
+	/**
+	 * Read-only mappings of the regions of the file that are in use by an upload, keyed by the index of the region.
+	 * Guarded by itself.
+	 */
+	private final @NotNull Map<Integer, MappedRegion> regions = Maps.newHashMap();
+
+	/**
+	 * Bytes passed to the upload of each host, keyed by host.
+	 */
+	private final @NotNull Map<String, AtomicLong> progress = new ConcurrentHashMap<>();
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(FanOutUpload.class.getName());
+
+	/**
+	 * @param source local file to upload. The file must not be modified while it is being uploaded.
+	 * @param destination path of the file on every remote server.
+	 * @param maxConcurrentUploads maximum number of destinations that are uploaded at the same time.
+	 * @throws SSHException if the local file cannot be opened.
+	 * @throws IllegalArgumentException if maxConcurrentUploads is not greater than zero.
+	 */
+	public FanOutUpload(final @NotNull Path source, final @NotNull String destination, final int maxConcurrentUploads)
+			throws SSHException {
+		Preconditions.checkArgument(maxConcurrentUploads > 0,
+																"Maximum concurrent uploads must be an integer value greater than zero.");
+		this.source = source;
+		this.destination = destination;
+		this.maxConcurrentUploads = maxConcurrentUploads;
+		try {
+			channel = FileChannel.open(source, StandardOpenOption.READ);
+		} catch (final IOException e) {
+			throw new SSHException(e);
+		}
+		try {
+			size = channel.size();
+		} catch (final IOException e) {
+			close();
+			throw new SSHException(e);
+		}
+	}
+
+	/**
+	 * Uploads the file to every host and waits until every upload has finished.
+	 *
+	 * @param hosts Connections to upload the file to, keyed by a name that identifies the host in the progress and the
+	 *              result.
+	 * @return result keyed by host containing every host the file was uploaded to and the exception for every host it
+	 * was not.
+	 * @throws InterruptedException if interrupted while waiting for the uploads. Uploads that are still running are
+	 * aborted.
+	 */
+	public @NotNull BatchResult<Void> uploadTo(final @NotNull Map<String, ? extends Connection> hosts)
+			throws InterruptedException {
+		LOGGER.info("Uploading " + source + " to " + hosts.size() + " hosts.");
+		final Semaphore permits = new Semaphore(maxConcurrentUploads);
+		final Map<String, CompletableFuture<Void>> uploads = Maps.newLinkedHashMap();
+		final List<RegionSubscription> subscriptions = new CopyOnWriteArrayList<>();
+		try {
+			for (final Map.Entry<String, ? extends Connection> host : hosts.entrySet()) {
+				permits.acquire();
+				final AtomicLong uploaded = new AtomicLong();
+				progress.put(host.getKey(), uploaded);
+				CompletableFuture<Void> completion;
+				try {
+					final UploadSubscriber subscriber = host.getValue().upload(destination);
+					completion = subscriber.getCompletion();
+					new MappedFilePublisher(uploaded, subscriptions).subscribe(subscriber);
+				} catch (final RuntimeException e) {
+					completion = new CompletableFuture<>();
+					completion.completeExceptionally(e);
+				}
+				completion.whenComplete((result, e) -> permits.release());
+				uploads.put(host.getKey(), completion);
+			}
+			for (final CompletableFuture<Void> upload : uploads.values()) {
+				try {
+					upload.get();
+				} catch (final ExecutionException ignored) {
+					// Reported in the result.
+				}
+			}
+		} catch (final InterruptedException e) {
+			for (final RegionSubscription subscription : subscriptions) {
+				subscription.abort(e);
+			}
+			throw e;
+		}
+		return collectResult(uploads);
+	}
+
+	private @NotNull BatchResult<Void> collectResult(final @NotNull Map<String, CompletableFuture<Void>> uploads) {
+		final Map<String, Void> results = Maps.newLinkedHashMap();
+		final Map<String, SSHException> failures = Maps.newLinkedHashMap();
+		for (final Map.Entry<String, CompletableFuture<Void>> upload : uploads.entrySet()) {
+			try {
+				upload.getValue().join();
+				results.put(upload.getKey(), null);
+			} catch (final RuntimeException e) {
+				final Throwable cause = e.getCause() == null ? e : e.getCause();
+				LOGGER.warning("Upload to " + upload.getKey() + " failed: " + cause.getMessage());
+				failures.put(upload.getKey(), cause instanceof SSHException ? (SSHException) cause : new SSHException(cause));
+			}
+		}
+		LOGGER.info("Uploaded " + source + " to " + results.size() + " of " + uploads.size() + " hosts.");
+		return new BatchResult<>(results, failures);
+	}
+
+	/**
+	 * @return size of the file in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @param host name of a host passed to uploadTo.
+	 * @return number of bytes passed to the upload of the host. The upload may run a few chunks behind this value until
+	 * it completes. Zero if the host has not started.
+	 */
+	public long getUploadedBytes(final @NotNull String host) {
+		final AtomicLong uploaded = progress.get(host);
+		return uploaded == null ? 0L : uploaded.get();
+	}
+
+	/**
+	 * @return number of bytes passed to the upload of every host that has started, keyed by host.
+	 */
+	public @NotNull Map<String, Long> getProgress() {
+		final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+		progress.forEach((host, uploaded) -> builder.put(host, uploaded.get()));
+		return builder.build();
+	}
+
+	/**
+	 * Closes the file. Regions that are still mapped are unmapped once the views passed to the uploads are garbage
+	 * collected.
+	 *
+	 * @throws SSHException if the file cannot be closed.
+	 */
+	@Override
+	public void close() throws SSHException {
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			throw new SSHException(e);
+		}
+	}
+
+	/**
+	 * @return number of regions of the file that are currently mapped.
+	 */
+	int getMappedRegionCount() {
+		synchronized (regions) {
+			return regions.size();
+		}
+	}
+
+	/**
+	 * Maps the region if no upload is using it yet and registers another user of it.
+	 *
+	 * @return read-only mapping of the region. Must be passed to releaseRegion once it is no longer used.
+	 */
+	private @NotNull ByteBuffer acquireRegion(final int index) throws IOException {
+		synchronized (regions) {
+			MappedRegion region = regions.get(index);
+			if (region == null) {
+				final long position = (long) index * REGION_SIZE;
+				region = new MappedRegion(channel.map(FileChannel.MapMode.READ_ONLY, position,
+																							Math.min(REGION_SIZE, size - position)));
+				regions.put(index, region);
+			}
+			region.users++;
+			return region.buffer;
+		}
+	}
+
+	/**
+	 * Drops the mapping of the region once its last user has released it.
+	 */
+	private void releaseRegion(final int index) {
+		synchronized (regions) {
+			final MappedRegion region = regions.get(index);
+			if (region != null && --region.users == 0) {
+				regions.remove(index);
+			}
+		}
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "FanOutUpload{" +
+					 "source=" + source +
+					 ", destination='" + destination + '\'' +
+					 ", maxConcurrentUploads=" + maxConcurrentUploads +
+					 ", size=" + size +
+					 '}';
+	}
+
+	/**
+	 * Mapping of a region along with the number of uploads using it. Guarded by the regions map.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	private static final class MappedRegion {
+		private final @NotNull ByteBuffer buffer;
+
+		private int users;
+
+		private MappedRegion(final @NotNull ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Publishes the chunks of the mapped file to a single destination.
+	 */
+	private final class MappedFilePublisher implements Publisher<ByteBuffer> {
+		private final @NotNull AtomicLong uploaded;
+
+		private final @NotNull List<RegionSubscription> subscriptions;
+
+		private MappedFilePublisher(final @NotNull AtomicLong uploaded,
+																final @NotNull List<RegionSubscription> subscriptions) {
+			this.uploaded = uploaded;
+			this.subscriptions = subscriptions;
+		}
+
+		@Override
+		public void subscribe(final @NotNull Subscriber<? super ByteBuffer> subscriber) {
+			final RegionSubscription subscription = new RegionSubscription(subscriber, uploaded);
+			subscriptions.add(subscription);
+			subscriber.onSubscribe(subscription);
+		}
+	}
+
+	/**
+	 * Emits chunks while the subscriber has outstanding demand. Signals are serialized by the wip counter so that
+	 * requests made from within onNext do not recurse.
+	 */
+	private final class RegionSubscription implements Subscription {
+		private final @NotNull Subscriber<? super ByteBuffer> subscriber;
+
+		private final @NotNull AtomicLong uploaded;
+
+		private final @NotNull AtomicLong demand = new AtomicLong();
+
+		private final @NotNull AtomicInteger wip = new AtomicInteger();
+
+		private volatile boolean cancelled;
+
+		private volatile @Nullable Throwable error;
+
+		/**
+		 * Offset of the next chunk. Only accessed by drain.
+		 */
+		private long offset;
+
+		/**
+		 * Whether a terminal signal has been sent. Only accessed by drain.
+		 */
+		private boolean terminated;
+
+		/**
+		 * Mapping of the region the next chunk is read from or null if no region is held. Only accessed by drain.
+		 */
+		private @Nullable ByteBuffer region;
+
+		/**
+		 * Index of the held region. Only accessed by drain.
+		 */
+		private int regionIndex;
+
+		private RegionSubscription(final @NotNull Subscriber<? super ByteBuffer> subscriber,
+															 final @NotNull AtomicLong uploaded) {
+			this.subscriber = subscriber;
+			this.uploaded = uploaded;
+		}
+
+		@Override
+		public void request(final long n) {
+			if (n <= 0) {
+				abort(new IllegalArgumentException("Requested demand must be positive (rule 3.9)."));
+				return;
+			}
+			demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+
+		/**
+		 * Signals the error to the subscriber, which aborts its upload.
+		 */
+		private void abort(final @NotNull Throwable throwable) {
+			error = throwable;
+			drain();
+		}
+
+		private void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				emit();
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void emit() {
+			if (terminated || cancelled) {
+				releaseHeldRegion();
+				return;
+			}
+			final Throwable currentError = error;
+			if (currentError != null) {
+				terminate();
+				subscriber.onError(currentError);
+				return;
+			}
+			try {
+				while (offset < size && demand.get() > 0 && !cancelled && error == null) {
+					final ByteBuffer chunk = chunk(offset);
+					offset += chunk.remaining();
+					demand.decrementAndGet();
+					uploaded.addAndGet(chunk.remaining());
+					subscriber.onNext(chunk);
+				}
+			} catch (final IOException e) {
+				terminate();
+				subscriber.onError(e);
+				return;
+			}
+			if (offset >= size && error == null && !cancelled) {
+				terminate();
+				subscriber.onComplete();
+			}
+		}
+
+		private void terminate() {
+			terminated = true;
+			releaseHeldRegion();
+		}
+
+		/**
+		 * @return view of the chunk of the file starting at the offset. Independent of every other view.
+		 * @throws IOException if the region of the chunk cannot be mapped.
+		 */
+		private @NotNull ByteBuffer chunk(final long offset) throws IOException {
+			final int index = (int) (offset / REGION_SIZE);
+			if (region == null || regionIndex != index) {
+				releaseHeldRegion();
+				region = acquireRegion(index);
+				regionIndex = index;
+			}
+			//noinspection ConstantConditions the region was acquired above
+			final ByteBuffer view = region.duplicate();
+			final int position = (int) (offset % REGION_SIZE);
+			view.position(position);
+			view.limit(Math.min(position + CHUNK_SIZE, view.capacity()));
+			return view.slice();
+		}
+
+		private void releaseHeldRegion() {
+			if (region != null) {
+				region = null;
+				releaseRegion(regionIndex);
+			}
+		}
+	}
+}
@@ -0,0 +1,476 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Follows a remote file that is being appended to, like tail -f, and delivers only the bytes that were appended since
+ * the last poll. Every poll borrows a single channel from the Connection to check the size of the file and read the
+ * appended range, and returns it before the data is delivered, so a slow Handler does not hold a channel.
+ *
+ * The first bytes of the file that have been delivered are remembered along with the offset. If the file becomes
+ * shorter than the offset, its first bytes change or its modification time goes backwards, the file is assumed to have
+ * been truncated or replaced by log rotation and is delivered again from the start. A replacement that is at least as
+ * long as the offset, starts with the same bytes and is not older than the previous file is not detected, and only
+ * its bytes beyond the offset are delivered.
+ *
+ * The position is saved to an OffsetStore once SAVE_INTERVAL_BYTES have been delivered or SAVE_INTERVAL_NANOS have
+ * passed since it was last saved, and when the follower is closed, so a follower created later for the same file
+ * resumes where this one stopped. The bytes delivered since the last save are delivered again if the process stops
+ * without closing the follower.
+ */
+public class FileFollower implements AutoCloseable {
+
+	/**
+	 * Number of leading bytes of the file that are compared to detect rotation.
+	 */
+	static final int HEAD_SIZE = 64;
+
+	/**
+	 * Size of the chunks passed to the Handler.
+	 */
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Largest number of bytes read while holding a channel. Polls read more in several steps.
+	 */
+	private static final int MAX_READ_SIZE = 16 * CHUNK_SIZE;
+
+	/**
+	 * Number of delivered bytes after which the position is saved.
+	 */
+	static final long SAVE_INTERVAL_BYTES = MAX_READ_SIZE;
+
+	/**
+	 * Time after which a position that has changed is saved, even if fewer than SAVE_INTERVAL_BYTES were delivered.
+	 */
+	static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	/**
+	 * Receives the bytes appended to a followed file.
+	 */
+	public interface Handler {
+
+		/**
+		 * Receives the next chunk of the file.
+		 *
+		 * @param chunk bytes of the file, which the handler may keep.
+		 * @param offset offset of the first byte of the chunk in the file.
+		 * @throws IOException if the chunk cannot be processed. The chunk is delivered again by the next poll.
+		 */
+		void onData(final @NotNull ByteBuffer chunk, final long offset) throws IOException;
+
+		/**
+		 * Called when the file was truncated or rotated, before it is delivered again from the start.
+		 *
+		 * @param previousOffset offset up to which the previous file had been delivered.
+		 */
+		default void onReset(final long previousOffset) { }
+
+		/**
+		 * Called when a poll started by start fails. Polling continues at the next interval.
+		 *
+		 * @param e the failure.
+		 */
+		default void onError(final @NotNull Exception e) { }
+	}
+
+	/**
+	 * Offset up to which a file has been delivered and the first bytes of the file, which identify it.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	public static final class Position {
+		private final long offset;
+		private final @NotNull byte[] head;
+
+		/**
+		 * @param offset number of bytes of the file that have been delivered.
+		 * @param head the first min(HEAD_SIZE, offset) bytes of the file.
+		 */
+		public Position(final long offset, final @NotNull byte[] head) {
+			Preconditions.checkArgument(offset >= 0, "Offset must not be negative.");
+			Preconditions.checkArgument(head.length == Math.min(HEAD_SIZE, offset),
+																	"Head must contain the first min(%s, offset) bytes.", HEAD_SIZE);
+			this.offset = offset;
+			this.head = head.clone();
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public @NotNull byte[] getHead() {
+			return head.clone();
+		}
+
+		@SuppressWarnings("MagicCharacter")
+		@Override
+		public String toString() {
+			return "Position{" +
+						 "offset=" + offset +
+						 '}';
+		}
+	}
+
+	private final @NotNull Connection connection;
+
+	/**
+	 * Absolute path of the followed file.
+	 */
+	private final @NotNull String path;
+
+	private final @NotNull OffsetStore offsetStore;
+
+	private final @NotNull Handler handler;
+
+	private final @NotNull Ticker ticker;
+
+	private long offset;
+
+	private @NotNull byte[] head;
+
+	/**
+	 * Size and modification time of the file when the follower last caught up with it, used to skip reading when
+	 * nothing has changed.
+	 */
+	private long lastSize = -1;
+	private long lastModificationTime = -1;
+
+	/**
+	 * Offset that was last saved to the OffsetStore and the time at which it was saved.
+	 */
+	private long savedOffset;
+	private long savedAt;
+
+	private boolean closed;
+
+	private @Nullable ScheduledExecutorService scheduler;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(FileFollower.class.getName());
+
+	/**
+	 * Creates a follower whose position is only kept in memory.
+	 *
+	 * @param connection Connection used to read the file.
+	 * @param path path of the remote file.
+	 * @param fromOffset offset of the first byte to deliver.
+	 * @param handler receives the appended bytes.
+	 * @throws IOException never, the in-memory store cannot fail.
+	 */
+	public FileFollower(final @NotNull Connection connection, final @NotNull String path, final long fromOffset,
+											final @NotNull Handler handler) throws IOException {
+		this(connection, path, fromOffset, new MemoryOffsetStore(), handler);
+	}
+
+	/**
+	 * @param connection Connection used to read the file.
+	 * @param path path of the remote file.
+	 * @param fromOffset offset of the first byte to deliver if the store does not contain a position for the file.
+	 * @param offsetStore store that the position is loaded from and saved to.
+	 * @param handler receives the appended bytes.
+	 * @throws IOException if the position cannot be loaded from the store.
+	 */
+	public FileFollower(final @NotNull Connection connection, final @NotNull String path, final long fromOffset,
+											final @NotNull OffsetStore offsetStore, final @NotNull Handler handler) throws IOException {
+		this(connection, path, fromOffset, offsetStore, handler, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param connection Connection used to read the file.
+	 * @param path path of the remote file.
+	 * @param fromOffset offset of the first byte to deliver if the store does not contain a position for the file.
+	 * @param offsetStore store that the position is loaded from and saved to.
+	 * @param handler receives the appended bytes.
+	 * @param ticker source of the time used to decide when to save the position.
+	 * @throws IOException if the position cannot be loaded from the store.
+	 */
+	FileFollower(final @NotNull Connection connection, final @NotNull String path, final long fromOffset,
+							 final @NotNull OffsetStore offsetStore, final @NotNull Handler handler, final @NotNull Ticker ticker)
+			throws IOException {
+		Preconditions.checkArgument(fromOffset >= 0, "Offset must not be negative.");
+		this.connection = connection;
+		this.path = RemotePaths.resolve(connection.pwd(), path);
+		this.offsetStore = offsetStore;
+		this.handler = handler;
+		this.ticker = ticker;
+		final Position position = offsetStore.load(this.path);
+		if (position == null) {
+			offset = fromOffset;
+			// The head of a file that is followed from an offset is read by the first poll.
+			head = new byte[0];
+		} else {
+			LOGGER.info("Resuming " + this.path + " at offset " + position.getOffset());
+			offset = position.getOffset();
+			head = position.getHead();
+		}
+		savedOffset = offset;
+		savedAt = ticker.read();
+	}
+
+	/**
+	 * Creates a Handler that writes every chunk to an OutputStream and flushes it.
+	 *
+	 * @param outputStream stream that receives the bytes of the file. It is not closed by the follower.
+	 * @return handler writing to the stream.
+	 */
+	public static @NotNull Handler toOutputStream(final @NotNull OutputStream outputStream) {
+		return (chunk, chunkOffset) -> {
+			outputStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+			outputStream.flush();
+		};
+	}
+
+	/**
+	 * Polls the file at a fixed delay on a background thread until the follower is closed. Failures are passed to
+	 * Handler#onError.
+	 *
+	 * @param delay delay between the end of one poll and the start of the next.
+	 * @param unit unit of the delay.
+	 */
+	public synchronized void start(final long delay, final @NotNull TimeUnit unit) {
+		Preconditions.checkState(scheduler == null, "Follower has already been started.");
+		Preconditions.checkArgument(delay > 0, "Delay must be positive.");
+		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sftp-follow-%d").build());
+		executor.scheduleWithFixedDelay(this::pollAndReport, 0, delay, unit);
+		scheduler = executor;
+	}
+
+	private void pollAndReport() {
+		try {
+			poll();
+		} catch (final SSHException | IOException | RuntimeException e) {
+			LOGGER.warning("Unable to poll " + path + ": " + e.getMessage());
+			handler.onError(e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Delivers everything appended to the file since the last poll. Does nothing if the file does not exist, which
+	 * happens briefly during log rotation.
+	 *
+	 * @return number of bytes delivered.
+	 * @throws SSHException if the file cannot be read.
+	 * @throws IOException if the Handler or the OffsetStore fails.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	public long poll() throws SSHException, IOException, InterruptedException {
+		synchronized (this) {
+			long delivered = 0;
+			Read read;
+			do {
+				read = connection.withChannel(this::read);
+				if (read == null) {
+					break;
+				}
+				if (read.reset) {
+					LOGGER.info(path + " was truncated or rotated, following it from the start.");
+					final long previousOffset = offset;
+					offset = 0;
+					head = new byte[0];
+					savePosition();
+					handler.onReset(previousOffset);
+				}
+				if (read.head != null) {
+					head = read.head;
+				}
+				delivered += deliver(read.data);
+				if (offset >= read.size) {
+					lastSize = read.size;
+					lastModificationTime = read.modificationTime;
+				}
+			} while (read.data.length == MAX_READ_SIZE);
+			savePositionIfDue();
+			return delivered;
+		}
+	}
+
+	/**
+	 * Reads up to MAX_READ_SIZE bytes appended to the file after the current offset.
+	 *
+	 * @return the bytes that were read or null if the file does not exist or has not changed.
+	 */
+	private @Nullable Read read(final @NotNull Channel channel) throws SSHException {
+		final RemoteFile file = channel.stat(path);
+		if (file == null) {
+			LOGGER.fine(path + " does not exist.");
+			return null;
+		}
+		final long size = file.getSize();
+		if (size == lastSize && file.getModificationTime() == lastModificationTime) {
+			return null;
+		}
+		try {
+			// A modification time that goes backwards means that an older file has been moved in place of the followed one.
+			boolean reset = size < offset || file.getModificationTime() < lastModificationTime;
+			byte[] currentHead = null;
+			if (!reset && (head.length > 0 || offset > 0)) {
+				currentHead = readFully(channel, 0, (int) Math.min(HEAD_SIZE, offset));
+				reset = head.length > 0 && !Arrays.equals(currentHead, head);
+				if (reset) {
+					currentHead = null;
+				}
+			}
+			final long start = reset ? 0 : offset;
+			final byte[] data = readFully(channel, start, (int) Math.min(MAX_READ_SIZE, size - start));
+			return new Read(reset, currentHead, data, size, file.getModificationTime());
+		} catch (final IOException e) {
+			throw new SSHException(e);
+		}
+	}
+
+	private byte[] readFully(final @NotNull Channel channel, final long start, final int length)
+			throws SSHException, IOException {
+		if (length == 0) {
+			return new byte[0];
+		}
+		try (final InputStream in = new ThrottledInputStream(channel.openInputStream(path, start),
+																												 connection.getBandwidthLimiter())) {
+			final byte[] bytes = new byte[length];
+			final int read = ByteStreams.read(in, bytes, 0, length);
+			return read == length ? bytes : Arrays.copyOf(bytes, read);
+		}
+	}
+
+	/**
+	 * Passes the data to the Handler in chunks and saves the position whenever it is due.
+	 */
+	private long deliver(final @NotNull byte[] data) throws IOException {
+		for (int start = 0; start < data.length; start += CHUNK_SIZE) {
+			final int length = Math.min(CHUNK_SIZE, data.length - start);
+			handler.onData(ByteBuffer.wrap(Arrays.copyOfRange(data, start, start + length)), offset);
+			if (offset < HEAD_SIZE) {
+				final byte[] extended = Arrays.copyOf(head, (int) Math.min(HEAD_SIZE, offset + length));
+				System.arraycopy(data, start, extended, head.length, extended.length - head.length);
+				head = extended;
+			}
+			offset += length;
+			savePositionIfDue();
+		}
+		return data.length;
+	}
+
+	/**
+	 * Saves the position if it has changed and SAVE_INTERVAL_BYTES have been delivered or SAVE_INTERVAL_NANOS have
+	 * passed since it was last saved, or the follower has been closed.
+	 */
+	private void savePositionIfDue() throws IOException {
+		if (offset != savedOffset && (closed || Math.abs(offset - savedOffset) >= SAVE_INTERVAL_BYTES ||
+																	ticker.read() - savedAt >= SAVE_INTERVAL_NANOS)) {
+			savePosition();
+		}
+	}
+
+	private void savePosition() throws IOException {
+		offsetStore.save(path, new Position(offset, head));
+		savedOffset = offset;
+		savedAt = ticker.read();
+	}
+
+	/**
+	 * @return offset of the next byte that will be delivered.
+	 */
+	public synchronized long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Stops polling and saves the position. A poll that is in progress is allowed to finish.
+	 *
+	 * @throws IOException if the position cannot be saved.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+		closed = true;
+		savePositionIfDue();
+	}
+
+	/**
+	 * Result of reading the file while holding a channel.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	private static final class Read {
+		final boolean reset;
+		/**
+		 * First min(HEAD_SIZE, offset) bytes of the file, or null if they were not read.
+		 */
+		final @Nullable byte[] head;
+		final @NotNull byte[] data;
+		final long size;
+		final long modificationTime;
+
+		Read(final boolean reset, final @Nullable byte[] head, final @NotNull byte[] data, final long size,
+				 final long modificationTime) {
+			this.reset = reset;
+			this.head = head;
+			this.data = data;
+			this.size = size;
+			this.modificationTime = modificationTime;
+		}
+	}
+
+	/**
+	 * OffsetStore that only keeps positions in memory.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	private static final class MemoryOffsetStore implements OffsetStore {
+		private final @NotNull Map<String, Position> positions = Maps.newConcurrentMap();
+
+		@Override
+		public @Nullable Position load(final @NotNull String path) {
+			return positions.get(path);
+		}
+
+		@Override
+		public void save(final @NotNull String path, final @NotNull Position position) {
+			positions.put(path, position);
+		}
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "FileFollower{" +
+					 "path='" + path + '\'' +
+					 ", offset=" + offset +
+					 '}';
+	}
+}
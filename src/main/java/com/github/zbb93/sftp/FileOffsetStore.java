@@ -0,0 +1,97 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Splitter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * OffsetStore that keeps the positions of every followed file in a single properties file. The file is replaced
+ * atomically on every save, so a crash leaves either the previous or the new positions but never a partial file.
+ */
+public class FileOffsetStore implements OffsetStore {
+
+	private final @NotNull Path file;
+
+	private final @NotNull Properties positions = new Properties();
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(FileOffsetStore.class.getName());
+
+	/**
+	 * @param file properties file that stores the positions. It is created on the first save if it does not exist.
+	 * @throws IOException if the file exists but cannot be read.
+	 */
+	public FileOffsetStore(final @NotNull Path file) throws IOException {
+		this.file = file;
+		if (Files.exists(file)) {
+			try (final InputStream in = Files.newInputStream(file)) {
+				positions.load(in);
+			}
+			LOGGER.info("Loaded positions of " + positions.size() + " files from " + file);
+		}
+	}
+
+	@Override
+	public synchronized @Nullable FileFollower.Position load(final @NotNull String path) throws IOException {
+		final String value = positions.getProperty(path);
+		if (value == null) {
+			return null;
+		}
+		final List<String> fields = Splitter.on(':').splitToList(value);
+		if (fields.size() != 2) {
+			throw new IOException("Malformed position of " + path + " in " + file + ": " + value);
+		}
+		try {
+			return new FileFollower.Position(Long.parseLong(fields.get(0)), Base64.getDecoder().decode(fields.get(1)));
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Malformed position of " + path + " in " + file + ": " + value, e);
+		}
+	}
+
+	@Override
+	public synchronized void save(final @NotNull String path, final @NotNull FileFollower.Position position)
+			throws IOException {
+		positions.setProperty(path, position.getOffset() + ":" +
+																Base64.getEncoder().encodeToString(position.getHead()));
+		final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (final OutputStream out = Files.newOutputStream(temporary)) {
+			positions.store(out, "Positions of followed remote files");
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "FileOffsetStore{" +
+					 "file=" + file +
+					 '}';
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.reactivestreams.Publisher;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Connection that forwards every operation to another Connection. Subclasses override the operations they decorate.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+public abstract class ForwardingConnection implements Connection {
+
+	/**
+	 * @return the Connection that operations are forwarded to.
+	 */
+	protected abstract @NotNull Connection delegate();
+
+	@Override
+	public @NotNull Collection<RemoteFile> ls(final @NotNull String path) throws SSHException, InterruptedException {
+		return delegate().ls(path);
+	}
+
+	@Override
+	public @NotNull CompactListing lsCompact(final @NotNull String path) throws SSHException, InterruptedException {
+		return delegate().lsCompact(path);
+	}
+
+	@Override
+	public void put(final @NotNull Path source, final @NotNull String destination) throws SSHException,
+			InterruptedException {
+		delegate().put(source, destination);
+	}
+
+	@Override
+	public void rm(final @NotNull String path) throws SSHException, InterruptedException {
+		delegate().rm(path);
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> rmAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException {
+		return delegate().rmAll(paths);
+	}
+
+	@Override
+	public @NotNull BatchResult<RemoteFile> statAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException {
+		return delegate().statAll(paths);
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> renameAll(final @NotNull Map<String, String> renames)
+			throws SSHException, InterruptedException {
+		return delegate().renameAll(renames);
+	}
+
+	@Override
+	public void get(final @NotNull String source, final @NotNull OutputStream outputStream) throws SSHException,
+			InterruptedException {
+		delegate().get(source, outputStream);
+	}
+
+	@Override
+	public void copy(final @NotNull String source, final @NotNull String destination) throws SSHException,
+			InterruptedException {
+		delegate().copy(source, destination);
+	}
+
+	@Override
+	public @NotNull SeekableByteChannel openSeekable(final @NotNull String source)
+			throws SSHException, InterruptedException {
+		return delegate().openSeekable(source);
+	}
+
+	@Override
+	public void mkdir(final @NotNull String name) throws SSHException, InterruptedException {
+		delegate().mkdir(name);
+	}
+
+	@Override
+	public void mkdirs(final @NotNull String path) throws SSHException, InterruptedException {
+		delegate().mkdirs(path);
+	}
+
+	@Override
+	public <T> T withChannel(final @NotNull ChannelCallback<T> callback) throws SSHException, InterruptedException {
+		return delegate().withChannel(callback);
+	}
+
+	@Override
+	public @NotNull Publisher<ByteBuffer> download(final @NotNull String source) {
+		return delegate().download(source);
+	}
+
+	@Override
+	public @NotNull UploadSubscriber upload(final @NotNull String destination) {
+		return delegate().upload(destination);
+	}
+
+	@Override
+	public @NotNull BandwidthLimiter getBandwidthLimiter() {
+		return delegate().getBandwidthLimiter();
+	}
+
+	@Override
+	public @NotNull ConnectionStatistics getStatistics() {
+		return delegate().getStatistics();
+	}
+
+	@Override
+	public @NotNull ServerCapabilities getServerCapabilities() {
+		return delegate().getServerCapabilities();
+	}
+
+	@Override
+	public @NotNull String pwd() {
+		return delegate().pwd();
+	}
+
+	@Override
+	public void cd(final @NotNull String targetDirectory) {
+		delegate().cd(targetDirectory);
+	}
+
+	@Override
+	public void close() throws SSHException {
+		delegate().close();
+	}
+}
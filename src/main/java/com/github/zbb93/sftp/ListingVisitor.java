@@ -0,0 +1,39 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the entries of a directory listing one at a time as they are read from the remote server, so that a large
+ * listing does not have to be held in memory as a collection of objects.
+ */
+@FunctionalInterface
+public interface ListingVisitor {
+	/**
+	 * @param name relative name of the file.
+	 * @param owner owner of the file.
+	 * @param group group of the file.
+	 * @param size size of the file in bytes.
+	 * @param modificationTime time of the last modification in seconds since the epoch.
+	 * @param directory whether the file is a directory.
+	 */
+	@SuppressWarnings("MethodWithTooManyParameters")
+	void visit(final @NotNull String name, final @NotNull String owner, final @NotNull String group, final long size,
+						 final long modificationTime, final boolean directory);
+}
@@ -0,0 +1,637 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Connection over several replicated mirrors of the same remote tree. Each operation is routed to the healthy mirror
+ * with the fewest operations in flight. A mirror that fails an operation is considered unhealthy and is avoided for a
+ * backoff period that doubles with every consecutive failure; it is tried again once the backoff expires. A
+ * RemoteFileException, such as a missing file, is an answer from a working mirror and does not count as a failure.
+ *
+ * Read-only operations fail over to the next mirror when a mirror throws. Operations that modify the remote tree are
+ * routed to a single mirror and are not retried since a failed write may have been partially applied; replicating
+ * writes between mirrors is left to the servers.
+ *
+ * Downloads are hedged: if a get has not produced any bytes within the hedge delay a second request for the same file
+ * is started on another mirror. The first request to produce bytes wins and the loser is abandoned the next time it
+ * writes, which aborts its transfer and releases its channel.
+ */
+public class MirroredConnection implements Connection {
+	/**
+	 * Backoff applied to a mirror after its first consecutive failure.
+	 */
+	private static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Upper bound of the backoff applied to a failing mirror.
+	 */
+	private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(MirroredConnection.class.getName());
+
+	/**
+	 * Mirrors in the order they were provided. The first mirror is preferred when mirrors are equally loaded.
+	 */
+	private final @NotNull List<Mirror> mirrors;
+
+	/**
+	 * Time a get may run without producing bytes before a hedged request is started on another mirror.
+	 */
+	private final long hedgeDelayNanos;
+
+	/**
+	 * Runs the individual attempts of hedged downloads.
+	 */
+	private final @NotNull ExecutorService executor;
+
+	/**
+	 * @param connections connections to the mirrors. The MirroredConnection takes ownership and closes them.
+	 * @param hedgeDelay time a get may run without producing bytes before it is hedged.
+	 * @param unit unit of the hedge delay.
+	 */
+	MirroredConnection(final @NotNull List<? extends Connection> connections, final long hedgeDelay,
+										 final @NotNull TimeUnit unit) {
+		Preconditions.checkArgument(!connections.isEmpty(), "At least one mirror is required.");
+		Preconditions.checkArgument(hedgeDelay >= 0, "Hedge delay must not be negative.");
+		final ImmutableList.Builder<Mirror> builder = ImmutableList.builder();
+		for (final Connection connection : connections) {
+			builder.add(new Mirror(connection));
+		}
+		mirrors = builder.build();
+		hedgeDelayNanos = unit.toNanos(hedgeDelay);
+		executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+																																			 .setNameFormat("sftp-mirror-%d")
+																																			 .build());
+	}
+
+	@Override
+	public @NotNull Collection<RemoteFile> ls(final @NotNull String path) throws SSHException, InterruptedException {
+		return executeWithFailover(connection -> connection.ls(path));
+	}
+
+	@Override
+	public @NotNull CompactListing lsCompact(final @NotNull String path) throws SSHException, InterruptedException {
+		return executeWithFailover(connection -> connection.lsCompact(path));
+	}
+
+	@Override
+	public void put(final @NotNull Path source, final @NotNull String destination) throws SSHException,
+			InterruptedException {
+		execute(connection -> {
+			connection.put(source, destination);
+			return null;
+		});
+	}
+
+	@Override
+	public void copy(final @NotNull String source, final @NotNull String destination) throws SSHException,
+			InterruptedException {
+		execute(connection -> {
+			connection.copy(source, destination);
+			return null;
+		});
+	}
+
+	@Override
+	public void rm(final @NotNull String path) throws SSHException, InterruptedException {
+		execute(connection -> {
+			connection.rm(path);
+			return null;
+		});
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> rmAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException {
+		return execute(connection -> connection.rmAll(paths));
+	}
+
+	@Override
+	public @NotNull BatchResult<RemoteFile> statAll(final @NotNull Collection<String> paths)
+			throws SSHException, InterruptedException {
+		return executeWithFailover(connection -> connection.statAll(paths));
+	}
+
+	@Override
+	public @NotNull BatchResult<Void> renameAll(final @NotNull Map<String, String> renames)
+			throws SSHException, InterruptedException {
+		return execute(connection -> connection.renameAll(renames));
+	}
+
+	/**
+	 * Downloads the file from the least loaded mirror, hedging the request on another mirror if it does not produce
+	 * bytes within the hedge delay and failing over to the remaining mirrors if every running attempt fails before
+	 * producing bytes. Once bytes have been written to the OutputStream the download is bound to that mirror.
+	 */
+	@Override
+	public void get(final @NotNull String source, final @NotNull OutputStream outputStream) throws SSHException,
+			InterruptedException {
+		LOGGER.info("Downloading " + source + " from " + mirrors.size() + " mirrors.");
+		new HedgedDownload(source, outputStream).run();
+	}
+
+	/**
+	 * The file is opened on the least loaded mirror that has it and every block is read from that mirror.
+	 */
+	@Override
+	public @NotNull SeekableByteChannel openSeekable(final @NotNull String source)
+			throws SSHException, InterruptedException {
+		return executeWithFailover(connection -> connection.openSeekable(source));
+	}
+
+	@Override
+	public void mkdir(final @NotNull String name) throws SSHException, InterruptedException {
+		execute(connection -> {
+			connection.mkdir(name);
+			return null;
+		});
+	}
+
+	@Override
+	public void mkdirs(final @NotNull String path) throws SSHException, InterruptedException {
+		execute(connection -> {
+			connection.mkdirs(path);
+			return null;
+		});
+	}
+
+	@Override
+	public <T> T withChannel(final @NotNull ChannelCallback<T> callback) throws SSHException, InterruptedException {
+		return execute(connection -> connection.withChannel(callback));
+	}
+
+	/**
+	 * The mirror is chosen when this method is called. The returned Publisher is not hedged and does not fail over.
+	 */
+	@Override
+	public @NotNull Publisher<ByteBuffer> download(final @NotNull String source) {
+		return selectMirror(Collections.emptySet()).connection.download(source);
+	}
+
+	@Override
+	public @NotNull UploadSubscriber upload(final @NotNull String destination) {
+		return selectMirror(Collections.emptySet()).connection.upload(destination);
+	}
+
+	/**
+	 * Each mirror limits its own transfers. This returns the limiter of the first mirror; use
+	 * {@link BandwidthLimiter#getGlobal()} to limit every mirror together.
+	 */
+	@Override
+	public @NotNull BandwidthLimiter getBandwidthLimiter() {
+		return mirrors.get(0).connection.getBandwidthLimiter();
+	}
+
+	/**
+	 * @return the combined statistics of every mirror.
+	 */
+	@Override
+	public @NotNull ConnectionStatistics getStatistics() {
+		ConnectionStatistics statistics = new ConnectionStatistics(0, 0);
+		for (final Mirror mirror : mirrors) {
+			statistics = statistics.plus(mirror.connection.getStatistics());
+		}
+		return statistics;
+	}
+
+	/**
+	 * @return the capabilities every mirror has, since any of them may serve a request.
+	 */
+	@Override
+	public @NotNull ServerCapabilities getServerCapabilities() {
+		ServerCapabilities capabilities = mirrors.get(0).connection.getServerCapabilities();
+		for (final Mirror mirror : mirrors.subList(1, mirrors.size())) {
+			capabilities = capabilities.intersect(mirror.connection.getServerCapabilities());
+		}
+		return capabilities;
+	}
+
+	@Override
+	public @NotNull String pwd() {
+		return mirrors.get(0).connection.pwd();
+	}
+
+	@Override
+	public void cd(final @NotNull String targetDirectory) {
+		for (final Mirror mirror : mirrors) {
+			mirror.connection.cd(targetDirectory);
+		}
+	}
+
+	/**
+	 * Closes every mirror. If closing a mirror fails the remaining mirrors are still closed and the first failure is
+	 * rethrown.
+	 * @throws SSHException if an error occurs disconnecting from one of the mirrors.
+	 */
+	@Override
+	public void close() throws SSHException {
+		executor.shutdown();
+		SSHException failure = null;
+		for (final Mirror mirror : mirrors) {
+			try {
+				mirror.connection.close();
+			} catch (final SSHException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return the number of operations currently running against each mirror, in the order the mirrors were provided.
+	 */
+	@NotNull List<Integer> getInFlight() {
+		final ImmutableList.Builder<Integer> inFlight = ImmutableList.builder();
+		for (final Mirror mirror : mirrors) {
+			inFlight.add(mirror.inFlight.get());
+		}
+		return inFlight.build();
+	}
+
+	private <T> T execute(final @NotNull MirrorOperation<T> operation) throws SSHException, InterruptedException {
+		return execute(selectMirror(Collections.emptySet()), operation);
+	}
+
+	private <T> T executeWithFailover(final @NotNull MirrorOperation<T> operation)
+			throws SSHException, InterruptedException {
+		final Set<Mirror> tried = Sets.newHashSet();
+		while (true) {
+			final Mirror mirror = selectMirror(tried);
+			tried.add(mirror);
+			try {
+				return execute(mirror, operation);
+			} catch (final SSHException e) {
+				if (tried.size() == mirrors.size()) {
+					throw e;
+				}
+				LOGGER.warning("Mirror " + mirror + " failed, trying the next mirror: " + e.getMessage());
+			}
+		}
+	}
+
+	private <T> T execute(final @NotNull Mirror mirror, final @NotNull MirrorOperation<T> operation)
+			throws SSHException, InterruptedException {
+		mirror.inFlight.incrementAndGet();
+		try {
+			final T result = operation.execute(mirror.connection);
+			mirror.recordSuccess();
+			return result;
+		} catch (final RemoteFileException e) {
+			throw e;
+		} catch (final SSHException e) {
+			mirror.recordFailure();
+			throw e;
+		} finally {
+			mirror.inFlight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Selects the mirror that should run the next operation. Healthy mirrors are preferred over unhealthy ones, and
+	 * among healthy mirrors the one with the fewest operations in flight is chosen. If every candidate is unhealthy
+	 * the one whose backoff expires first is chosen.
+	 * @param excluded mirrors that must not be chosen. Must not contain every mirror.
+	 */
+	private @NotNull Mirror selectMirror(final @NotNull Set<Mirror> excluded) {
+		final long now = System.nanoTime();
+		Mirror selected = null;
+		for (final Mirror mirror : mirrors) {
+			if (!excluded.contains(mirror) && (selected == null || mirror.isPreferredOver(selected, now))) {
+				selected = mirror;
+			}
+		}
+		Preconditions.checkState(selected != null, "Every mirror has been excluded.");
+		return selected;
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "MirroredConnection{" +
+					 "mirrors=" + mirrors +
+					 ", hedgeDelayNanos=" + hedgeDelayNanos +
+					 '}';
+	}
+
+	/**
+	 * Operation run against the Connection of a single mirror.
+	 */
+	@FunctionalInterface
+	private interface MirrorOperation<T> {
+		T execute(@NotNull Connection connection) throws SSHException, InterruptedException;
+	}
+
+	/**
+	 * Connection to one mirror along with its load and health.
+	 */
+	private static final class Mirror {
+		private final @NotNull Connection connection;
+
+		private final @NotNull AtomicInteger inFlight = new AtomicInteger();
+
+		/**
+		 * Number of operations that have failed since the last success. Guarded by this.
+		 */
+		private int consecutiveFailures;
+
+		/**
+		 * Value of System.nanoTime() at which an unhealthy mirror may be tried again. Guarded by this.
+		 */
+		private long retryAt;
+
+		private Mirror(final @NotNull Connection connection) {
+			this.connection = connection;
+		}
+
+		private synchronized boolean isHealthy(final long now) {
+			return consecutiveFailures == 0 || now - retryAt >= 0;
+		}
+
+		private synchronized long getRetryAt() {
+			return retryAt;
+		}
+
+		private boolean isPreferredOver(final @NotNull Mirror other, final long now) {
+			final boolean healthy = isHealthy(now);
+			if (healthy != other.isHealthy(now)) {
+				return healthy;
+			}
+			if (healthy) {
+				return inFlight.get() < other.inFlight.get();
+			}
+			return getRetryAt() - other.getRetryAt() < 0;
+		}
+
+		private synchronized void recordSuccess() {
+			consecutiveFailures = 0;
+		}
+
+		private synchronized void recordFailure() {
+			consecutiveFailures++;
+			final long backoff = Math.min(INITIAL_BACKOFF_NANOS << Math.min(consecutiveFailures - 1, 16), MAX_BACKOFF_NANOS);
+			retryAt = System.nanoTime() + backoff;
+		}
+
+		@SuppressWarnings("MagicCharacter")
+		@Override
+		public String toString() {
+			return "Mirror{" +
+						 "connection=" + connection +
+						 ", inFlight=" + inFlight +
+						 '}';
+		}
+	}
+
+	/**
+	 * State of a single get across the mirrors it has been attempted on. Attempts run on the executor and report back
+	 * through a queue so that only the calling thread starts new attempts.
+	 */
+	private final class HedgedDownload {
+		private final @NotNull String source;
+
+		private final @NotNull OutputStream outputStream;
+
+		/**
+		 * The attempt that wrote the first bytes to the OutputStream, or that completed first if the file is empty.
+		 */
+		private final @NotNull AtomicReference<Attempt> winner = new AtomicReference<>();
+
+		private final @NotNull BlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+
+		private final @NotNull Set<Mirror> tried = Sets.newHashSet();
+
+		private final @NotNull Set<Attempt> running = Sets.newHashSet();
+
+		/**
+		 * Set once the caller has stopped waiting. Any attempt that is still writing is aborted.
+		 */
+		private volatile boolean abandoned;
+
+		private HedgedDownload(final @NotNull String source, final @NotNull OutputStream outputStream) {
+			this.source = source;
+			this.outputStream = outputStream;
+		}
+
+		private void run() throws SSHException, InterruptedException {
+			start(selectMirror(tried));
+			try {
+				while (true) {
+					final Attempt attempt = awaitAttempt();
+					if (attempt == null) {
+						if (winner.get() == null) {
+							final Mirror hedge = selectMirror(tried);
+							LOGGER.info("No bytes received for " + source + " within the hedge delay, hedging on " + hedge);
+							start(hedge);
+						}
+						continue;
+					}
+					running.remove(attempt);
+					final SSHException failure = attempt.failure;
+					if (failure == null) {
+						if (claim(attempt)) {
+							return;
+						}
+					} else if (winner.get() == attempt) {
+						throw failure;
+					} else if (running.isEmpty()) {
+						if (tried.size() == mirrors.size()) {
+							throw failure;
+						}
+						final Mirror next = selectMirror(tried);
+						LOGGER.warning("Download of " + source + " failed on " + attempt.mirror + ", failing over to " + next +
+													 ": " + failure.getMessage());
+						start(next);
+					}
+				}
+			} finally {
+				abandoned = true;
+			}
+		}
+
+		/**
+		 * Waits for an attempt to finish. While a single attempt is running without having produced bytes and another
+		 * healthy mirror is available the wait is bounded by the hedge delay.
+		 * @return the attempt that finished or null if the running attempt should be hedged.
+		 */
+		private @Nullable Attempt awaitAttempt() throws InterruptedException {
+			if (winner.get() != null || running.size() != 1 || !canHedge()) {
+				return finished.take();
+			}
+			final Attempt attempt = running.iterator().next();
+			final long remaining = attempt.startNanos + hedgeDelayNanos - System.nanoTime();
+			return finished.poll(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+		}
+
+		private boolean canHedge() {
+			return tried.size() < mirrors.size() && selectMirror(tried).isHealthy(System.nanoTime());
+		}
+
+		private void start(final @NotNull Mirror mirror) {
+			final Attempt attempt = new Attempt(mirror);
+			tried.add(mirror);
+			running.add(attempt);
+			mirror.inFlight.incrementAndGet();
+			executor.execute(attempt);
+		}
+
+		/**
+		 * @return true if the attempt is, or has just become, the winner.
+		 */
+		private boolean claim(final @NotNull Attempt attempt) {
+			return winner.compareAndSet(null, attempt) || winner.get() == attempt;
+		}
+
+		/**
+		 * Downloads the file from one mirror.
+		 */
+		private final class Attempt implements Runnable {
+			private final @NotNull Mirror mirror;
+
+			private final long startNanos = System.nanoTime();
+
+			/**
+			 * Set before the attempt is queued as finished if it failed.
+			 */
+			private volatile @Nullable SSHException failure;
+
+			private Attempt(final @NotNull Mirror mirror) {
+				this.mirror = mirror;
+			}
+
+			@Override
+			public void run() {
+				try {
+					mirror.connection.get(source, new AttemptOutputStream(this));
+					mirror.recordSuccess();
+				} catch (final RemoteFileException e) {
+					failure = e;
+				} catch (final SSHException e) {
+					failure = e;
+					if (!isAborted()) {
+						mirror.recordFailure();
+					}
+				} catch (final InterruptedException e) {
+					failure = new SSHException(e);
+					Thread.currentThread().interrupt();
+				} catch (final RuntimeException e) {
+					failure = new SSHException(e);
+					mirror.recordFailure();
+				} finally {
+					mirror.inFlight.decrementAndGet();
+					finished.add(this);
+				}
+			}
+
+			/**
+			 * @return true if this attempt was stopped because another attempt won or the caller stopped waiting.
+			 */
+			private boolean isAborted() {
+				final Attempt current = winner.get();
+				return (current != null && current != this) || abandoned;
+			}
+
+			@SuppressWarnings("MagicCharacter")
+			@Override
+			public String toString() {
+				return "Attempt{" +
+							 "mirror=" + mirror +
+							 '}';
+			}
+		}
+
+		/**
+		 * Passes the bytes of an attempt to the caller's OutputStream if the attempt is the winner and aborts the attempt
+		 * otherwise. The caller's OutputStream is not closed. Aborting leaves the channel of the attempt usable because a
+		 * channel closes the remote file when the OutputStream of a get fails.
+		 */
+		private final class AttemptOutputStream extends OutputStream {
+			private final @NotNull Attempt attempt;
+
+			private AttemptOutputStream(final @NotNull Attempt attempt) {
+				this.attempt = attempt;
+			}
+
+			@Override
+			public void write(final int b) throws IOException {
+				checkWinner();
+				outputStream.write(b);
+			}
+
+			@Override
+			public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+				checkWinner();
+				outputStream.write(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if (winner.get() == attempt && !abandoned) {
+					outputStream.flush();
+				}
+			}
+
+			private void checkWinner() throws IOException {
+				if (abandoned) {
+					throw new IOException("Download of " + source + " from " + attempt.mirror + " was abandoned.");
+				}
+				if (!claim(attempt)) {
+					throw new IOException("Download of " + source + " is being served by another mirror.");
+				}
+			}
+
+			@SuppressWarnings("MagicCharacter")
+			@Override
+			public String toString() {
+				return "AttemptOutputStream{" +
+							 "attempt=" + attempt +
+							 '}';
+			}
+		}
+	}
+}
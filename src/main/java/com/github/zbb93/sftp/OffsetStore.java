@@ -0,0 +1,47 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Remembers how much of each followed remote file has been delivered, so a FileFollower that is restarted continues
+ * where the previous one stopped instead of delivering the file again.
+ */
+public interface OffsetStore {
+
+	/**
+	 * @param path absolute path of the remote file.
+	 * @return the last position saved for the file or null if none has been saved.
+	 * @throws IOException if the store cannot be read.
+	 */
+	@Nullable FileFollower.Position load(final @NotNull String path) throws IOException;
+
+	/**
+	 * Saves the position of a remote file. Called periodically while the file is delivered and when the
+	 * FileFollower is closed.
+	 *
+	 * @param path absolute path of the remote file.
+	 * @param position position up to which the file has been delivered.
+	 * @throws IOException if the store cannot be written.
+	 */
+	void save(final @NotNull String path, final @NotNull FileFollower.Position position) throws IOException;
+}
@@ -0,0 +1,38 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.reactivestreams.Subscriber;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Subscriber that gives the ByteBuffers it receives back to the pool they were acquired from. Publishers of this
+ * library hand pooled buffers only to subscribers that implement this interface; every other subscriber receives
+ * buffers that are not pooled and may simply be dropped.
+ */
+public interface PooledBufferSubscriber extends Subscriber<ByteBuffer> {
+	/**
+	 * Called by the publisher before onSubscribe. Every buffer received afterwards must be released to the given pool
+	 * exactly once, when it has been consumed or will not be consumed, and must not be used after that.
+	 *
+	 * @param pool pool the published buffers are acquired from.
+	 */
+	void releaseBuffersTo(final @NotNull BufferPool pool);
+}
@@ -0,0 +1,72 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.logging.Logger;
+
+/**
+ * Relays files between two remote servers without staging them on local disk. The source is downloaded through
+ * Connection#download and the destination is uploaded through Connection#upload of the other Connection, so each side
+ * uses the channel pool, executor and bandwidth limit of its own Connection. Reading from the source and writing to
+ * the destination happen at the same time on the executors of the two Connections, so a relay takes about as long as
+ * the slower of the two sides rather than the sum of both. Only the few chunks the upload has requested ahead of the
+ * chunks it has written are held in memory, regardless of the size of the file.
+ */
+public final class Relay {
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(Relay.class.getName());
+
+	private Relay() { }
+
+	/**
+	 * Transfers a file from one remote server to another, replacing the destination if it exists. If both Connections
+	 * are the same, the file is copied with Connection#copy.
+	 *
+	 * @param source Connection to the server the file is read from.
+	 * @param sourcePath path of the file on the source server.
+	 * @param destination Connection to the server the file is written to.
+	 * @param destinationPath path of the file on the destination server.
+	 * @throws SSHException if the source does not exist or cannot be read, or the destination cannot be written.
+	 * @throws InterruptedException if interrupted while waiting for the transfer. Both files are closed and the
+	 * destination is left with whatever was written so far.
+	 */
+	public static void transfer(final @NotNull Connection source, final @NotNull String sourcePath,
+															final @NotNull Connection destination, final @NotNull String destinationPath)
+			throws SSHException, InterruptedException {
+		if (source == destination) {
+			source.copy(sourcePath, destinationPath);
+			return;
+		}
+		// The destination is opened as soon as the upload is subscribed, so a missing source must not get that far.
+		final BatchResult<RemoteFile> stat = source.statAll(Collections.singletonList(sourcePath));
+		final RemoteFile file = stat.getResult(sourcePath);
+		if (file == null || file.isDirectory()) {
+			final SSHException failure = stat.getFailures().get(sourcePath);
+			throw failure == null ? new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No file exists at " + sourcePath) : failure;
+		}
+		LOGGER.info(String.format("Relaying %d bytes. \nSource: %s\nDestination: %s", file.getSize(), sourcePath,
+															destinationPath));
+		final UploadSubscriber subscriber = destination.upload(destinationPath);
+		source.download(sourcePath).subscribe(subscriber);
+		subscriber.await();
+		LOGGER.info("Relay completed successfully.");
+	}
+}
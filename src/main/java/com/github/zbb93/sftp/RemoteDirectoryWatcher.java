@@ -0,0 +1,297 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Polls remote directories on a schedule and reports the entries that were created, modified or deleted between
+ * polls. Unlike comparing the results of Connection#ls, an entry is reported as modified when its size, modification
+ * time or type changes, not only when it is added or removed.
+ *
+ * Every poll lists the directory once into a DirectorySnapshot and compares the name, size, modification time and type
+ * of each entry to the previous snapshot in linear time. Each directory is polled on its own
+ * interval between a minimum and a maximum: a poll that finds changes resets the interval to the minimum and a poll
+ * that finds none grows it by half, so busy directories are polled often and idle directories rarely.
+ *
+ * Modification times have a resolution of one second, so an entry that is rewritten with the same size within the
+ * second it was last observed is not reported as modified.
+ */
+public class RemoteDirectoryWatcher implements AutoCloseable {
+
+	/**
+	 * Number of directories that are polled at the same time.
+	 */
+	private static final int POLL_THREADS = 4;
+
+	/**
+	 * Factor the interval of a directory grows by after a poll that found no changes.
+	 */
+	private static final double BACKOFF_FACTOR = 1.5;
+
+	/**
+	 * Receives the changes detected by the watcher.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called for every change. Events of a single poll are delivered in order of their names, and polls of the same
+		 * directory never overlap.
+		 *
+		 * @param event the change.
+		 */
+		void onEvent(final @NotNull DirectoryEvent event);
+
+		/**
+		 * Called when a scheduled poll fails. The directory is polled again after its current interval.
+		 *
+		 * @param directory absolute path of the directory.
+		 * @param e the failure.
+		 */
+		default void onError(final @NotNull String directory, final @NotNull Exception e) { }
+	}
+
+	private final @NotNull Connection connection;
+
+	private final @NotNull Listener listener;
+
+	private final long minIntervalNanos;
+
+	private final long maxIntervalNanos;
+
+	private final @NotNull ScheduledExecutorService scheduler;
+
+	/**
+	 * Watched directories keyed by absolute path.
+	 */
+	private final @NotNull Map<String, WatchedDirectory> directories = Maps.newConcurrentMap();
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(RemoteDirectoryWatcher.class.getName());
+
+	/**
+	 * @param connection Connection used to list the directories.
+	 * @param listener receives the detected changes.
+	 * @param minInterval shortest interval between two polls of a directory.
+	 * @param maxInterval longest interval between two polls of a directory.
+	 * @param unit unit of the intervals.
+	 */
+	public RemoteDirectoryWatcher(final @NotNull Connection connection, final @NotNull Listener listener,
+																final long minInterval, final long maxInterval, final @NotNull TimeUnit unit) {
+		Preconditions.checkArgument(minInterval > 0, "Minimum interval must be positive.");
+		Preconditions.checkArgument(maxInterval >= minInterval, "Maximum interval must not be below the minimum.");
+		this.connection = connection;
+		this.listener = listener;
+		minIntervalNanos = unit.toNanos(minInterval);
+		maxIntervalNanos = unit.toNanos(maxInterval);
+		scheduler = Executors.newScheduledThreadPool(POLL_THREADS, new ThreadFactoryBuilder().setDaemon(true)
+																																										.setNameFormat("sftp-watch-%d")
+																																										.build());
+	}
+
+	/**
+	 * Starts watching a directory. The first snapshot is taken before this method returns and is the baseline that
+	 * later polls are compared to, so entries that already exist are not reported.
+	 *
+	 * @param directory path of the remote directory.
+	 * @throws SSHException if the directory cannot be listed.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 * @throws IllegalStateException if the directory is already watched or the watcher has been closed.
+	 */
+	public void watch(final @NotNull String directory) throws SSHException, InterruptedException {
+		Preconditions.checkState(!scheduler.isShutdown(), "Watcher has been closed.");
+		final String path = RemotePaths.resolve(connection.pwd(), directory);
+		final WatchedDirectory watched = new WatchedDirectory(path, takeSnapshot(path), minIntervalNanos);
+		Preconditions.checkState(directories.putIfAbsent(path, watched) == null, "%s is already watched.", path);
+		LOGGER.info("Watching " + path + " with " + watched.snapshot.size() + " entries.");
+		schedule(watched);
+	}
+
+	/**
+	 * Stops watching a directory. A poll of the directory that is in progress is allowed to finish.
+	 *
+	 * @param directory path of the remote directory.
+	 */
+	public void unwatch(final @NotNull String directory) {
+		final WatchedDirectory watched = directories.remove(RemotePaths.resolve(connection.pwd(), directory));
+		if (watched != null) {
+			watched.cancel();
+		}
+	}
+
+	/**
+	 * @return absolute paths of the watched directories.
+	 */
+	public @NotNull Set<String> getWatchedDirectories() {
+		return ImmutableSet.copyOf(directories.keySet());
+	}
+
+	/**
+	 * @param directory path of a watched directory.
+	 * @param unit unit of the result.
+	 * @return current interval between polls of the directory.
+	 * @throws IllegalArgumentException if the directory is not watched.
+	 */
+	public long getInterval(final @NotNull String directory, final @NotNull TimeUnit unit) {
+		return unit.convert(getWatchedDirectory(directory).intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Polls a watched directory immediately, reports its changes and adapts its interval.
+	 *
+	 * @return the changes that were reported.
+	 */
+	@NotNull List<DirectoryEvent> poll(final @NotNull String directory) throws SSHException, InterruptedException {
+		return poll(getWatchedDirectory(directory));
+	}
+
+	private @NotNull WatchedDirectory getWatchedDirectory(final @NotNull String directory) {
+		final WatchedDirectory watched = directories.get(RemotePaths.resolve(connection.pwd(), directory));
+		Preconditions.checkArgument(watched != null, "%s is not watched.", directory);
+		return watched;
+	}
+
+	private @NotNull List<DirectoryEvent> poll(final @NotNull WatchedDirectory watched)
+			throws SSHException, InterruptedException {
+		watched.pollLock.lock();
+		try {
+			final DirectorySnapshot snapshot = takeSnapshot(watched.path);
+			final List<DirectoryEvent> events = snapshot.diff(watched.snapshot, watched.path);
+			watched.snapshot = snapshot;
+			if (events.isEmpty()) {
+				watched.intervalNanos = Math.min(maxIntervalNanos, (long) (watched.intervalNanos * BACKOFF_FACTOR));
+			} else {
+				LOGGER.fine(events.size() + " changes in " + watched.path);
+				watched.intervalNanos = minIntervalNanos;
+			}
+			for (final DirectoryEvent event : events) {
+				listener.onEvent(event);
+			}
+			return events;
+		} finally {
+			watched.pollLock.unlock();
+		}
+	}
+
+	private @NotNull DirectorySnapshot takeSnapshot(final @NotNull String path)
+			throws SSHException, InterruptedException {
+		return connection.withChannel(channel -> {
+			final CompactListing.Builder builder = new CompactListing.Builder();
+			channel.ls(path, builder);
+			return new DirectorySnapshot(builder.build());
+		});
+	}
+
+	private void schedule(final @NotNull WatchedDirectory watched) {
+		synchronized (watched) {
+			if (watched.cancelled || scheduler.isShutdown()) {
+				return;
+			}
+			watched.future = scheduler.schedule(() -> pollScheduled(watched), watched.intervalNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void pollScheduled(final @NotNull WatchedDirectory watched) {
+		try {
+			poll(watched);
+		} catch (final SSHException | RuntimeException e) {
+			LOGGER.warning("Unable to poll " + watched.path + ": " + e.getMessage());
+			listener.onError(watched.path, e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		schedule(watched);
+	}
+
+	/**
+	 * Stops polling every directory.
+	 */
+	@Override
+	public void close() {
+		directories.values().forEach(WatchedDirectory::cancel);
+		directories.clear();
+		scheduler.shutdownNow();
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "RemoteDirectoryWatcher{" +
+					 "directories=" + directories.keySet() +
+					 '}';
+	}
+
+	/**
+	 * State of a watched directory. The scheduled poll is guarded by the monitor of the directory and the snapshot by
+	 * pollLock, so cancelling never waits for a poll that is listing the directory.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	private static final class WatchedDirectory {
+		private final @NotNull String path;
+
+		/**
+		 * Held while the directory is polled, so polls of the same directory do not overlap.
+		 */
+		private final @NotNull Lock pollLock = new ReentrantLock();
+
+		private @NotNull DirectorySnapshot snapshot;
+		private volatile long intervalNanos;
+		private @Nullable ScheduledFuture<?> future;
+		private boolean cancelled;
+
+		WatchedDirectory(final @NotNull String path, final @NotNull DirectorySnapshot snapshot, final long intervalNanos) {
+			this.path = path;
+			this.snapshot = snapshot;
+			this.intervalNanos = intervalNanos;
+		}
+
+		/**
+		 * Cancels the next scheduled poll without interrupting a poll that is in progress.
+		 */
+		synchronized void cancel() {
+			cancelled = true;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+
+		@SuppressWarnings("MagicCharacter")
+		@Override
+		public String toString() {
+			return "WatchedDirectory{" +
+						 "path='" + path + '\'' +
+						 '}';
+		}
+	}
+}
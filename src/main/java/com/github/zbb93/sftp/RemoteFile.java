@@ -56,6 +56,11 @@ public class RemoteFile {
 	 */
 	private final boolean directory;
 
+	/**
+	 * Time of the last modification in seconds since the epoch or zero if it is unknown.
+	 */
+	private final long modificationTime;
+
 	/**
 	 * Character used to indicate that a file is a directory in a UNIX file listing.
 	 */
@@ -67,12 +72,13 @@ public class RemoteFile {
 	);
 
 	private RemoteFile(final @NotNull String fileName, final @NotNull String owner, final @NotNull String group,
-										 final long size, final boolean directory) {
+										 final long size, final boolean directory, final long modificationTime) {
 		name = fileName;
 		this.owner = owner;
 		this.group = group;
 		this.size = size;
 		this.directory = directory;
+		this.modificationTime = modificationTime;
 	}
 
 	@SuppressWarnings("WeakerAccess")
@@ -100,6 +106,50 @@ public class RemoteFile {
 		return directory;
 	}
 
+	/**
+	 * @return time of the last modification in seconds since the epoch or zero if it is unknown, which is the case for
+	 * files obtained from a parsed directory listing.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * Creates a RemoteFile from attributes that have already been obtained from the remote server, for example by a
+	 * stat request.
+	 *
+	 * @param fileName relative name of the file.
+	 * @param owner owner of the file.
+	 * @param group group of the file.
+	 * @param size size of the file in bytes.
+	 * @param directory whether the file is a directory.
+	 * @return RemoteFile with the provided attributes.
+	 */
+	public static @NotNull RemoteFile fromAttributes(final @NotNull String fileName, final @NotNull String owner,
+																									 final @NotNull String group, final long size,
+																									 final boolean directory) {
+		return new RemoteFile(fileName, owner, group, size, directory, 0);
+	}
+
+	/**
+	 * Creates a RemoteFile from attributes that have already been obtained from the remote server, including the time
+	 * of the last modification.
+	 *
+	 * @param fileName relative name of the file.
+	 * @param owner owner of the file.
+	 * @param group group of the file.
+	 * @param size size of the file in bytes.
+	 * @param directory whether the file is a directory.
+	 * @param modificationTime time of the last modification in seconds since the epoch.
+	 * @return RemoteFile with the provided attributes.
+	 */
+	public static @NotNull RemoteFile fromAttributes(final @NotNull String fileName, final @NotNull String owner,
+																									 final @NotNull String group, final long size,
+																									 final boolean directory, final long modificationTime) {
+		return new RemoteFile(fileName, owner, group, size, directory, modificationTime);
+	}
+
 	/**
 	 * Convenience method to obtain a Collection of RemoteFiles parsed from the directory listing returned by JSch.
 	 *
@@ -127,7 +177,7 @@ public class RemoteFile {
 		final String group = matcher.group("group");
 		final String fileName = matcher.group("name");
 		final boolean directory = fileListing.charAt(0) == DIRECTORY_FLAG;
-		return new RemoteFile(fileName, owner, group, size, directory);
+		return new RemoteFile(fileName, owner, group, size, directory, 0);
 	}
 
 	@Override
@@ -164,6 +214,7 @@ public class RemoteFile {
 					 ", group='" + group + '\'' +
 					 ", size=" + size +
 					 ", directory=" + directory +
+					 ", modificationTime=" + modificationTime +
 					 '}';
 	}
 }
@@ -0,0 +1,70 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown when the remote server rejects a request because of the file it names, for example because the file does not
+ * exist or permission to it is denied. Unlike other SSHExceptions it says nothing about the health of the connection,
+ * which can still be used.
+ */
+@SuppressWarnings("ClassWithoutLogger") // Exceptions do not need their own loggers.
+public class RemoteFileException extends SSHException {
+	private static final long serialVersionUID = 4417250935853190021L;
+
+	private final @NotNull Reason reason;
+
+	public RemoteFileException(final @NotNull Reason reason, final Throwable cause) {
+		super(cause);
+		this.reason = reason;
+	}
+
+	public RemoteFileException(final @NotNull Reason reason, final String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	/**
+	 * @return why the server rejected the request.
+	 */
+	public @NotNull Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * Why the remote server rejected a request because of the file it names.
+	 */
+	public enum Reason {
+		/**
+		 * The file does not exist.
+		 */
+		NO_SUCH_FILE,
+
+		/**
+		 * The user is not permitted to access the file.
+		 */
+		PERMISSION_DENIED,
+
+		/**
+		 * The file exists but is of the wrong type for the request, for example a directory where a regular file is
+		 * expected.
+		 */
+		WRONG_TYPE
+	}
+}
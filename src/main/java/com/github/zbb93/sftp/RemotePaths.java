@@ -0,0 +1,82 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Utility methods for manipulating UNIX style paths on the remote server. These methods operate purely on Strings and
+ * never communicate with the remote server.
+ */
+@SuppressWarnings("ClassWithoutLogger") // Utility class that does not need logging.
+final class RemotePaths {
+	@SuppressWarnings("HardcodedFileSeparator")
+	private static final char UNIX_FILE_SEPARATOR = '/';
+
+	private static final @NotNull Splitter PATH_SPLITTER = Splitter.on(UNIX_FILE_SEPARATOR).omitEmptyStrings();
+
+	private RemotePaths() { }
+
+	/**
+	 * Resolves a path against a working directory and normalizes the result by removing empty, '.' and '..' segments.
+	 *
+	 * @param workingDirectory absolute directory that relative paths are resolved against.
+	 * @param path absolute or relative path to resolve.
+	 * @return normalized absolute path.
+	 */
+	static @NotNull String resolve(final @NotNull String workingDirectory, final @NotNull String path) {
+		final String absolutePath = !path.isEmpty() && path.charAt(0) == UNIX_FILE_SEPARATOR ? path :
+																workingDirectory + UNIX_FILE_SEPARATOR + path;
+		final Deque<String> segments = Lists.newLinkedList();
+		for (final String segment : PATH_SPLITTER.split(absolutePath)) {
+			if ("..".equals(segment)) {
+				segments.pollLast();
+			} else if (!".".equals(segment)) {
+				segments.addLast(segment);
+			}
+		}
+		final StringBuilder normalized = new StringBuilder(absolutePath.length());
+		for (final String segment : segments) {
+			normalized.append(UNIX_FILE_SEPARATOR).append(segment);
+		}
+		return normalized.length() == 0 ? String.valueOf(UNIX_FILE_SEPARATOR) : normalized.toString();
+	}
+
+	/**
+	 * Lists every directory on the way from the root to the provided path, excluding the root itself. For example
+	 * '/a/b/c' yields '/a', '/a/b' and '/a/b/c'.
+	 *
+	 * @param absolutePath normalized absolute path.
+	 * @return the provided path and all of its ancestors ordered from the shallowest to the deepest.
+	 */
+	static @NotNull List<String> getAncestors(final @NotNull String absolutePath) {
+		final List<String> ancestors = Lists.newArrayList();
+		final StringBuilder ancestor = new StringBuilder(absolutePath.length());
+		for (final String segment : PATH_SPLITTER.split(absolutePath)) {
+			ancestor.append(UNIX_FILE_SEPARATOR).append(segment);
+			ancestors.add(ancestor.toString());
+		}
+		return ancestors;
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Read only SeekableByteChannel over a remote file. The file is read in fixed size blocks, each of which is fetched by
+ * opening a stream at the offset of the block on a channel from the pool of the Connection. The most recently used
+ * blocks are kept in memory so formats that repeatedly read the same headers, footers or indexes only fetch them once.
+ *
+ * Reads that continue where the previous fetch ended are treated as sequential and fetch an increasing number of
+ * blocks at once, up to MAX_READ_AHEAD_BLOCKS, so a sequential scan is not limited by the round trip of every block.
+ * Any other read resets the read-ahead to a single block. The size of the file is obtained when the channel is opened
+ * and is not refreshed.
+ */
+class RemoteSeekableByteChannel implements SeekableByteChannel {
+
+	/**
+	 * Number of bytes fetched for every block.
+	 */
+	static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Number of blocks kept in memory.
+	 */
+	static final int DEFAULT_MAX_CACHED_BLOCKS = 64;
+
+	/**
+	 * Largest number of blocks fetched at once by sequential reads.
+	 */
+	static final int MAX_READ_AHEAD_BLOCKS = 16;
+
+	private final @NotNull Connection connection;
+
+	/**
+	 * Absolute path of the remote file.
+	 */
+	private final @NotNull String path;
+
+	private final long size;
+
+	private final int blockSize;
+
+	private final int maxCachedBlocks;
+
+	private final int maxReadAheadBlocks;
+
+	/**
+	 * Cached blocks keyed by block index in access order, so the eldest entry is the least recently used block. A block
+	 * is shorter than blockSize if it is the last block of the file or the file shrank after the channel was opened.
+	 */
+	private final @NotNull Map<Long, byte[]> blocks;
+
+	private long position;
+
+	/**
+	 * Index of the block after the last block that was fetched. A miss for this block indicates a sequential read.
+	 */
+	private long nextSequentialBlock = -1;
+
+	/**
+	 * Number of blocks fetched by the next sequential miss.
+	 */
+	private int readAheadBlocks = 1;
+
+	private boolean open = true;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(RemoteSeekableByteChannel.class.getName());
+
+	RemoteSeekableByteChannel(final @NotNull Connection connection, final @NotNull String path, final long size) {
+		this(connection, path, size, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_CACHED_BLOCKS, MAX_READ_AHEAD_BLOCKS);
+	}
+
+	/**
+	 * @param connection Connection that provides the channels used to fetch blocks.
+	 * @param path absolute path of the remote file.
+	 * @param size size of the remote file in bytes.
+	 * @param blockSize number of bytes fetched for every block.
+	 * @param maxCachedBlocks number of blocks kept in memory. Must be at least maxReadAheadBlocks.
+	 * @param maxReadAheadBlocks largest number of blocks fetched at once by sequential reads.
+	 */
+	RemoteSeekableByteChannel(final @NotNull Connection connection, final @NotNull String path, final long size,
+														final int blockSize, final int maxCachedBlocks, final int maxReadAheadBlocks) {
+		Preconditions.checkArgument(size >= 0, "Size must not be negative.");
+		Preconditions.checkArgument(blockSize > 0, "Block size must be positive.");
+		Preconditions.checkArgument(maxReadAheadBlocks > 0, "Read-ahead must be at least one block.");
+		Preconditions.checkArgument(maxCachedBlocks >= maxReadAheadBlocks,
+																"The cache must be able to hold the blocks of a single read-ahead.");
+		this.connection = connection;
+		this.path = path;
+		this.size = size;
+		this.blockSize = blockSize;
+		this.maxCachedBlocks = maxCachedBlocks;
+		this.maxReadAheadBlocks = maxReadAheadBlocks;
+		blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+				return size() > maxCachedBlocks;
+			}
+		};
+	}
+
+	@Override
+	public synchronized int read(final @NotNull ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= size) {
+			return -1;
+		}
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		int read = 0;
+		while (dst.hasRemaining() && position < size) {
+			final long index = position / blockSize;
+			final long requestedBlocks = (position + dst.remaining() - 1) / blockSize - index + 1;
+			final byte[] block = getBlock(index, requestedBlocks);
+			final int offset = (int) (position % blockSize);
+			if (offset >= block.length) {
+				// The file shrank after the channel was opened.
+				break;
+			}
+			final int length = Math.min(dst.remaining(), block.length - offset);
+			dst.put(block, offset, length);
+			position += length;
+			read += length;
+		}
+		return read == 0 ? -1 : read;
+	}
+
+	/**
+	 * Obtains a block from the cache or fetches it from the remote server along with any blocks read ahead. A miss
+	 * fetches at least the blocks spanned by the current read, as far as they fit in the cache, so a read that crosses
+	 * block boundaries costs a single round trip.
+	 *
+	 * @param index index of the block.
+	 * @param requestedBlocks number of blocks spanned by the remainder of the current read, starting at index.
+	 */
+	private @NotNull byte[] getBlock(final long index, final long requestedBlocks) throws IOException {
+		final byte[] cached = blocks.get(index);
+		if (cached != null) {
+			return cached;
+		}
+		if (index == nextSequentialBlock) {
+			readAheadBlocks = Math.min(readAheadBlocks * 2, maxReadAheadBlocks);
+		} else {
+			readAheadBlocks = 1;
+		}
+		final long lastBlock = (size - 1) / blockSize;
+		final long wanted = Math.min(Math.max(readAheadBlocks, requestedBlocks), maxCachedBlocks);
+		final int count = (int) Math.min(wanted, lastBlock - index + 1);
+		fetch(index, count);
+		nextSequentialBlock = index + count;
+		final byte[] block = blocks.get(index);
+		return block == null ? new byte[0] : block;
+	}
+
+	/**
+	 * Fetches consecutive blocks using a single stream and places them in the cache. Fewer blocks are cached if the file
+	 * ends early.
+	 */
+	private void fetch(final long firstBlock, final int count) throws IOException {
+		LOGGER.fine(String.format("Fetching %d blocks of %s starting at block %d.", count, path, firstBlock));
+		try {
+			connection.withChannel(channel -> {
+				try (final InputStream in = new ThrottledInputStream(channel.openInputStream(path, firstBlock * blockSize),
+																														 connection.getBandwidthLimiter())) {
+					for (int i = 0; i < count; i++) {
+						final byte[] block = new byte[blockSize];
+						final int read = ByteStreams.read(in, block, 0, blockSize);
+						if (read > 0) {
+							blocks.put(firstBlock + i, read == blockSize ? block : Arrays.copyOf(block, read));
+						}
+						if (read < blockSize) {
+							break;
+						}
+					}
+				} catch (final IOException e) {
+					throw new SSHException(e);
+				}
+				return null;
+			});
+		} catch (final SSHException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to read " + path + ": " + e.getMessage(), e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a channel.");
+		}
+	}
+
+	/**
+	 * @throws NonWritableChannelException always, the channel is read only.
+	 */
+	@Override
+	public int write(final @NotNull ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	/**
+	 * Positions beyond the end of the file are permitted; reads at such a position return -1.
+	 */
+	@Override
+	public synchronized @NotNull SeekableByteChannel position(final long newPosition) throws IOException {
+		Preconditions.checkArgument(newPosition >= 0, "Position must not be negative.");
+		ensureOpen();
+		position = newPosition;
+		return this;
+	}
+
+	/**
+	 * @return size of the remote file when the channel was opened.
+	 */
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	/**
+	 * @throws NonWritableChannelException always, the channel is read only.
+	 */
+	@Override
+	public @NotNull SeekableByteChannel truncate(final long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Discards the cached blocks. Channels are only held while blocks are fetched, so no channel is returned here.
+	 */
+	@Override
+	public synchronized void close() {
+		open = false;
+		blocks.clear();
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "RemoteSeekableByteChannel{" +
+					 "path='" + path + '\'' +
+					 ", size=" + size +
+					 ", blockSize=" + blockSize +
+					 '}';
+	}
+}
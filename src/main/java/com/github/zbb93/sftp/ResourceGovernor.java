@@ -0,0 +1,431 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Limits the number of sessions and channels opened by channel pools, both in total and per host. Every channel pool
+ * holds a Lease on a session for as long as it is open and opens channels only while the governor grants them.
+ *
+ * Capacity is shared fairly: each pool is entitled to an equal share of the channel limits. A pool below its share
+ * may reclaim an idle channel from a pool above its share when no capacity is left, and a pool above its share closes
+ * channels as they are returned while other pools are waiting. This lets idle pools lend their capacity to busy ones
+ * without ever taking a pool's last channel.
+ *
+ * Every limit defaults to UNLIMITED. Limits may be changed at any time; pools that already exceed a lowered limit give
+ * back channels as they become idle.
+ */
+public final class ResourceGovernor {
+
+	/**
+	 * Value of a limit that does not restrict anything.
+	 */
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+
+	private static final @NotNull ResourceGovernor GLOBAL = new ResourceGovernor();
+
+	/**
+	 * Time a pool waits for a session or its first channel before checking whether capacity can be reclaimed again.
+	 */
+	private static final long WAIT_MILLIS = 100;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(ResourceGovernor.class.getName());
+
+	private int maxSessions = UNLIMITED;
+
+	private int maxChannels = UNLIMITED;
+
+	private int maxSessionsPerHost = UNLIMITED;
+
+	private int maxChannelsPerHost = UNLIMITED;
+
+	/**
+	 * Leases of every open pool. Guarded by this.
+	 */
+	private final @NotNull Set<Lease> leases = Sets.newLinkedHashSet();
+
+	/**
+	 * Sessions and channels in use per host. Hosts without leases are removed. Guarded by this.
+	 */
+	private final @NotNull Map<String, Usage> hosts = Maps.newHashMap();
+
+	/**
+	 * Channels in use across every host. Guarded by this.
+	 */
+	private int channels;
+
+	/**
+	 * @return the governor shared by every Connection that does not specify its own.
+	 */
+	public static @NotNull ResourceGovernor getGlobal() {
+		return GLOBAL;
+	}
+
+	/**
+	 * @param maxSessions maximum number of sessions open at once across every host.
+	 */
+	public synchronized void setMaxSessions(final int maxSessions) {
+		Preconditions.checkArgument(maxSessions > 0, "Maximum sessions must be an integer value greater than zero.");
+		this.maxSessions = maxSessions;
+		notifyAll();
+	}
+
+	/**
+	 * @param maxChannels maximum number of channels open at once across every host.
+	 */
+	public synchronized void setMaxChannels(final int maxChannels) {
+		Preconditions.checkArgument(maxChannels > 0, "Maximum channels must be an integer value greater than zero.");
+		this.maxChannels = maxChannels;
+		notifyAll();
+	}
+
+	/**
+	 * @param maxSessionsPerHost maximum number of sessions open at once to a single host and port.
+	 */
+	public synchronized void setMaxSessionsPerHost(final int maxSessionsPerHost) {
+		Preconditions.checkArgument(maxSessionsPerHost > 0,
+																"Maximum sessions per host must be an integer value greater than zero.");
+		this.maxSessionsPerHost = maxSessionsPerHost;
+		notifyAll();
+	}
+
+	/**
+	 * @param maxChannelsPerHost maximum number of channels open at once to a single host and port.
+	 */
+	public synchronized void setMaxChannelsPerHost(final int maxChannelsPerHost) {
+		Preconditions.checkArgument(maxChannelsPerHost > 0,
+																"Maximum channels per host must be an integer value greater than zero.");
+		this.maxChannelsPerHost = maxChannelsPerHost;
+		notifyAll();
+	}
+
+	public synchronized int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public synchronized int getMaxChannels() {
+		return maxChannels;
+	}
+
+	public synchronized int getMaxSessionsPerHost() {
+		return maxSessionsPerHost;
+	}
+
+	public synchronized int getMaxChannelsPerHost() {
+		return maxChannelsPerHost;
+	}
+
+	/**
+	 * @return number of sessions currently open.
+	 */
+	public synchronized int getSessions() {
+		return leases.size();
+	}
+
+	/**
+	 * @return number of channels currently open.
+	 */
+	public synchronized int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * Waits until a session to the host may be opened and reserves it.
+	 *
+	 * @param host host and port of the session.
+	 * @param maxChannels maximum number of channels the pool will open.
+	 * @param reclaimer closes an idle channel of the pool when another pool needs its capacity.
+	 * @return lease that must be closed when the session is closed.
+	 * @throws InterruptedException if interrupted while waiting for a session.
+	 */
+	synchronized @NotNull Lease openSession(final @NotNull String host, final int maxChannels,
+																					final @NotNull Reclaimer reclaimer) throws InterruptedException {
+		while (leases.size() >= maxSessions || getUsage(host).sessions >= maxSessionsPerHost) {
+			LOGGER.info("Session limit reached, waiting for a session to " + host);
+			wait(WAIT_MILLIS);
+		}
+		final Lease lease = new Lease(host, maxChannels, reclaimer);
+		leases.add(lease);
+		getUsage(host).sessions++;
+		return lease;
+	}
+
+	private @NotNull Usage getUsage(final @NotNull String host) {
+		return hosts.computeIfAbsent(host, key -> new Usage());
+	}
+
+	/**
+	 * Grants a channel to the lease if capacity is available or can be reclaimed from a pool above its share.
+	 *
+	 * @param closers receives the actions that close reclaimed channels. They must be run once the governor has been
+	 * unlocked.
+	 */
+	private boolean tryGrant(final @NotNull Lease lease, final @NotNull List<Runnable> closers) {
+		if (lease.closed || lease.channels >= lease.maxChannels) {
+			return false;
+		}
+		if (!hasCapacity(lease)) {
+			if (lease.channels >= getFairShare(lease) || !reclaimFor(lease, closers) || !hasCapacity(lease)) {
+				return false;
+			}
+		}
+		lease.channels++;
+		getUsage(lease.host).channels++;
+		channels++;
+		return true;
+	}
+
+	private boolean hasCapacity(final @NotNull Lease lease) {
+		return channels < maxChannels && getUsage(lease.host).channels < maxChannelsPerHost;
+	}
+
+	/**
+	 * @return the number of channels the lease is entitled to while capacity is contended. Never less than one.
+	 */
+	private int getFairShare(final @NotNull Lease lease) {
+		final int globalShare = Math.max(1, maxChannels / leases.size());
+		final int hostShare = Math.max(1, maxChannelsPerHost / Math.max(1, getUsage(lease.host).sessions));
+		return Math.min(globalShare, hostShare);
+	}
+
+	/**
+	 * Asks pools above their share, largest first, to give up an idle channel. If the host limit is exhausted only
+	 * pools of the same host can free capacity for the lease.
+	 *
+	 * @param closers receives the action that closes the reclaimed channel.
+	 * @return true if a channel was given up.
+	 */
+	private boolean reclaimFor(final @NotNull Lease lease, final @NotNull List<Runnable> closers) {
+		final boolean hostExhausted = getUsage(lease.host).channels >= maxChannelsPerHost;
+		final List<Lease> candidates = Lists.newArrayList();
+		for (final Lease candidate : leases) {
+			if (candidate != lease && candidate.channels > getFairShare(candidate) &&
+					(!hostExhausted || candidate.host.equals(lease.host))) {
+				candidates.add(candidate);
+			}
+		}
+		candidates.sort(Comparator.comparingInt((Lease candidate) -> candidate.channels).reversed());
+		for (final Lease candidate : candidates) {
+			final Runnable closer = candidate.reclaimer.releaseIdleChannel();
+			if (closer != null) {
+				closers.add(closer);
+				LOGGER.info("Reclaimed an idle channel to " + candidate.host + " for a pool connected to " + lease.host);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if a pool other than the lease is waiting for a channel while below its share.
+	 */
+	private boolean isContended(final @NotNull Lease lease) {
+		for (final Lease other : leases) {
+			if (other != lease && other.waiters > 0 && other.channels < getFairShare(other)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public synchronized String toString() {
+		return "ResourceGovernor{" +
+					 "sessions=" + leases.size() +
+					 ", channels=" + channels +
+					 ", maxSessions=" + maxSessions +
+					 ", maxChannels=" + maxChannels +
+					 ", maxSessionsPerHost=" + maxSessionsPerHost +
+					 ", maxChannelsPerHost=" + maxChannelsPerHost +
+					 '}';
+	}
+
+	/**
+	 * Gives up an idle channel of a pool so that its capacity can be used by another pool.
+	 */
+	@FunctionalInterface
+	interface Reclaimer {
+		/**
+		 * Called while the governor is locked. Implementations must remove the channel from the pool and release it
+		 * through their Lease before returning, and must not wait for anything. Closing a channel talks to the remote
+		 * server, so it is left to the returned action, which is run once the governor has been unlocked.
+		 *
+		 * @return action that closes the channel or null if the pool has no idle channel to give up.
+		 */
+		@Nullable Runnable releaseIdleChannel();
+	}
+
+	/**
+	 * Sessions and channels in use for one host.
+	 */
+	private static final class Usage {
+		private int sessions;
+		private int channels;
+	}
+
+	/**
+	 * Session reserved by a channel pool along with the channels granted to it. All fields are guarded by the governor.
+	 */
+	final class Lease implements AutoCloseable {
+		private final @NotNull String host;
+
+		private final int maxChannels;
+
+		private final @NotNull Reclaimer reclaimer;
+
+		private int channels;
+
+		/**
+		 * Number of threads of the pool waiting for a channel.
+		 */
+		private int waiters;
+
+		private boolean closed;
+
+		private Lease(final @NotNull String host, final int maxChannels, final @NotNull Reclaimer reclaimer) {
+			this.host = host;
+			this.maxChannels = maxChannels;
+			this.reclaimer = reclaimer;
+		}
+
+		/**
+		 * Waits until a channel is granted. Used for the first channel of a pool, which it is always entitled to.
+		 *
+		 * @throws InterruptedException if interrupted while waiting.
+		 */
+		void acquireChannel() throws InterruptedException {
+			setWaiting(true);
+			try {
+				boolean granted = false;
+				while (!granted) {
+					final List<Runnable> closers = Lists.newArrayList();
+					synchronized (ResourceGovernor.this) {
+						granted = tryGrant(this, closers);
+						if (!granted && closers.isEmpty()) {
+							Preconditions.checkState(!closed, "Session has been closed.");
+							ResourceGovernor.this.wait(WAIT_MILLIS);
+						}
+					}
+					closers.forEach(Runnable::run);
+				}
+			} finally {
+				setWaiting(false);
+			}
+		}
+
+		/**
+		 * @return true if a channel was granted.
+		 */
+		boolean tryAcquireChannel() {
+			final List<Runnable> closers = Lists.newArrayList();
+			final boolean granted;
+			synchronized (ResourceGovernor.this) {
+				granted = tryGrant(this, closers);
+			}
+			closers.forEach(Runnable::run);
+			return granted;
+		}
+
+		/**
+		 * Gives back a channel that has been closed.
+		 */
+		void releaseChannel() {
+			synchronized (ResourceGovernor.this) {
+				if (closed || channels == 0) {
+					return;
+				}
+				channels--;
+				getUsage(host).channels--;
+				ResourceGovernor.this.channels--;
+				ResourceGovernor.this.notifyAll();
+			}
+		}
+
+		/**
+		 * @return true if a channel that is being returned to the pool should be closed instead, because the pool is
+		 * above its share and another pool is waiting or because the limits have been lowered below the channels in use.
+		 */
+		boolean shouldReleaseChannel() {
+			synchronized (ResourceGovernor.this) {
+				if (channels <= 1) {
+					return false;
+				}
+				final boolean overLimit = ResourceGovernor.this.channels > maxChannels ||
+																	getUsage(host).channels > maxChannelsPerHost;
+				return overLimit || (channels > getFairShare(this) && isContended(this));
+			}
+		}
+
+		/**
+		 * Records that a thread of the pool started or stopped waiting for a channel.
+		 */
+		void setWaiting(final boolean waiting) {
+			synchronized (ResourceGovernor.this) {
+				waiters += waiting ? 1 : -1;
+			}
+		}
+
+		/**
+		 * Releases the session and every channel of the pool.
+		 */
+		@Override
+		public void close() {
+			synchronized (ResourceGovernor.this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				final Usage usage = getUsage(host);
+				usage.channels -= channels;
+				usage.sessions--;
+				ResourceGovernor.this.channels -= channels;
+				channels = 0;
+				leases.remove(this);
+				if (usage.sessions == 0) {
+					hosts.remove(host);
+				}
+				ResourceGovernor.this.notifyAll();
+			}
+		}
+
+		@SuppressWarnings("MagicCharacter")
+		@Override
+		public String toString() {
+			synchronized (ResourceGovernor.this) {
+				return "Lease{" +
+							 "host='" + host + '\'' +
+							 ", channels=" + channels +
+							 ", waiters=" + waiters +
+							 '}';
+			}
+		}
+	}
+}
@@ -27,4 +27,8 @@ public class SSHException extends Exception {
 	public SSHException(final Throwable cause) {
 		super(cause);
 	}
+
+	public SSHException(final String message) {
+		super(message);
+	}
 }
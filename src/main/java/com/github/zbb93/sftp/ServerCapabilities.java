@@ -0,0 +1,168 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SFTP protocol version and extensions announced by a remote server when a channel was opened. The capabilities are
+ * probed once when a ChannelPool is initialized.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+public final class ServerCapabilities {
+	/**
+	 * Atomically replaces an existing file when renaming, with the semantics of rename(2).
+	 */
+	public static final @NotNull String POSIX_RENAME = "posix-rename@openssh.com";
+
+	/**
+	 * Reports the size and free space of the file system containing a path.
+	 */
+	public static final @NotNull String STATVFS = "statvfs@openssh.com";
+
+	public static final @NotNull String FSTATVFS = "fstatvfs@openssh.com";
+
+	public static final @NotNull String HARDLINK = "hardlink@openssh.com";
+
+	/**
+	 * Flushes an open file to stable storage.
+	 */
+	public static final @NotNull String FSYNC = "fsync@openssh.com";
+
+	/**
+	 * Reports the largest read and write requests and the number of open handles the server accepts. Servers offering
+	 * this extension accept requests larger than the 32K every server must support.
+	 */
+	public static final @NotNull String LIMITS = "limits@openssh.com";
+
+	public static final @NotNull String LSETSTAT = "lsetstat@openssh.com";
+
+	public static final @NotNull String EXPAND_PATH = "expand-path@openssh.com";
+
+	/**
+	 * Copies data between two open files on the server without sending it to the client.
+	 */
+	public static final @NotNull String COPY_DATA = "copy-data";
+
+	/**
+	 * Extensions whose availability is probed.
+	 */
+	public static final @NotNull List<String> KNOWN_EXTENSIONS = ImmutableList.of(
+			POSIX_RENAME, STATVFS, FSTATVFS, HARDLINK, FSYNC, LIMITS, LSETSTAT, EXPAND_PATH, COPY_DATA);
+
+	/**
+	 * Capabilities of a server that was not probed: the lowest protocol version and no extensions.
+	 */
+	public static final @NotNull ServerCapabilities NONE = new ServerCapabilities(0, ImmutableMap.of());
+
+	private final int version;
+
+	/**
+	 * Extension names mapped to the version data announced by the server.
+	 */
+	private final @NotNull Map<String, String> extensions;
+
+	/**
+	 * @param version SFTP protocol version negotiated with the server.
+	 * @param extensions names of the extensions announced by the server mapped to their version data.
+	 */
+	public ServerCapabilities(final int version, final @NotNull Map<String, String> extensions) {
+		this.version = version;
+		this.extensions = ImmutableMap.copyOf(extensions);
+	}
+
+	/**
+	 * @return SFTP protocol version negotiated with the server.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return names of the announced extensions mapped to their version data.
+	 */
+	public @NotNull Map<String, String> getExtensions() {
+		return extensions;
+	}
+
+	public boolean hasExtension(final @NotNull String name) {
+		return extensions.containsKey(name);
+	}
+
+	/**
+	 * @return version data the server announced for the extension or null if it was not announced.
+	 */
+	public @Nullable String getExtensionVersion(final @NotNull String name) {
+		return extensions.get(name);
+	}
+
+	/**
+	 * @return true if renaming onto an existing file replaces it atomically instead of failing.
+	 */
+	public boolean supportsPosixRename() {
+		return hasExtension(POSIX_RENAME);
+	}
+
+	public boolean supportsStatVfs() {
+		return hasExtension(STATVFS);
+	}
+
+	public boolean supportsHardlink() {
+		return hasExtension(HARDLINK);
+	}
+
+	public boolean supportsFsync() {
+		return hasExtension(FSYNC);
+	}
+
+	/**
+	 * @return true if the server accepts read and write requests larger than the protocol minimum.
+	 */
+	public boolean supportsLimits() {
+		return hasExtension(LIMITS);
+	}
+
+	/**
+	 * @return the capabilities every one of this and the provided server has: the lower protocol version and the
+	 * extensions both servers announced.
+	 */
+	public @NotNull ServerCapabilities intersect(final @NotNull ServerCapabilities other) {
+		final ImmutableMap.Builder<String, String> common = ImmutableMap.builder();
+		for (final Map.Entry<String, String> extension : extensions.entrySet()) {
+			if (other.hasExtension(extension.getKey())) {
+				common.put(extension);
+			}
+		}
+		return new ServerCapabilities(Math.min(version, other.version), common.build());
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "ServerCapabilities{" +
+					 "version=" + version +
+					 ", extensions=" + extensions.keySet() +
+					 '}';
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Basic attributes of a remote file. SFTP only reports the modification time of a file, so it is also used as the last
+ * access and creation time. Symbolic links are followed by the remote server and never reported as links.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+final class SftpFileAttributes implements BasicFileAttributes {
+
+	/**
+	 * Names of every attribute in the basic view.
+	 */
+	static final @NotNull List<String> NAMES = ImmutableList.of("lastModifiedTime", "lastAccessTime", "creationTime",
+																															"size", "isRegularFile", "isDirectory",
+																															"isSymbolicLink", "isOther", "fileKey");
+
+	private final @NotNull RemoteFile file;
+
+	SftpFileAttributes(final @NotNull RemoteFile file) {
+		this.file = file;
+	}
+
+	@Override
+	public @NotNull FileTime lastModifiedTime() {
+		return FileTime.from(file.getModificationTime(), TimeUnit.SECONDS);
+	}
+
+	@Override
+	public @NotNull FileTime lastAccessTime() {
+		return lastModifiedTime();
+	}
+
+	@Override
+	public @NotNull FileTime creationTime() {
+		return lastModifiedTime();
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return !file.isDirectory();
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return file.isDirectory();
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return false;
+	}
+
+	@Override
+	public boolean isOther() {
+		return false;
+	}
+
+	@Override
+	public long size() {
+		return file.getSize();
+	}
+
+	@Override
+	public @Nullable Object fileKey() {
+		return null;
+	}
+
+	/**
+	 * @param names names of the attributes to obtain.
+	 * @return map from the name of every requested attribute to its value.
+	 * @throws IllegalArgumentException if an attribute is not part of the basic view.
+	 */
+	@NotNull Map<String, Object> toMap(final @NotNull Collection<String> names) {
+		final Map<String, Object> attributes = Maps.newLinkedHashMap();
+		for (final String name : names) {
+			attributes.put(name, get(name));
+		}
+		return attributes;
+	}
+
+	private @Nullable Object get(final @NotNull String name) {
+		switch (name) {
+			case "lastModifiedTime":
+				return lastModifiedTime();
+			case "lastAccessTime":
+				return lastAccessTime();
+			case "creationTime":
+				return creationTime();
+			case "size":
+				return size();
+			case "isRegularFile":
+				return isRegularFile();
+			case "isDirectory":
+				return isDirectory();
+			case "isSymbolicLink":
+				return isSymbolicLink();
+			case "isOther":
+				return isOther();
+			case "fileKey":
+				return fileKey();
+			default:
+				throw new IllegalArgumentException("Unknown attribute " + name);
+		}
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "SftpFileAttributes{" +
+					 "file=" + file +
+					 '}';
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * FileSystem of a single remote server, identified by a URI of the form sftp://user@host:port. Every operation on the
+ * file system borrows a channel from the pool of its Connection for the duration of the operation, or of the stream or
+ * channel it opens, so the file system can be used by many threads at once. Closing the file system closes the
+ * Connection.
+ */
+class SftpFileSystem extends FileSystem {
+
+	private final @NotNull SftpFileSystemProvider provider;
+
+	/**
+	 * URI that identifies the file system, without a path.
+	 */
+	private final @NotNull URI uri;
+
+	private final @NotNull Connection connection;
+
+	private volatile boolean open = true;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(SftpFileSystem.class.getName());
+
+	SftpFileSystem(final @NotNull SftpFileSystemProvider provider, final @NotNull URI uri,
+								 final @NotNull Connection connection) {
+		this.provider = provider;
+		this.uri = uri;
+		this.connection = connection;
+	}
+
+	@NotNull URI getUri() {
+		return uri;
+	}
+
+	/**
+	 * @return Connection used by every operation on the file system.
+	 * @throws ClosedFileSystemException if the file system has been closed.
+	 */
+	@NotNull Connection getConnection() {
+		if (!open) {
+			throw new ClosedFileSystemException();
+		}
+		return connection;
+	}
+
+	@Override
+	public @NotNull SftpFileSystemProvider provider() {
+		return provider;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		provider.removeFileSystem(uri);
+		LOGGER.info("Closing file system " + uri);
+		try {
+			connection.close();
+		} catch (final SSHException e) {
+			throw new IOException("Unable to close the connection of " + uri + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override
+	public @NotNull String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public @NotNull Iterable<Path> getRootDirectories() {
+		return ImmutableList.of(new SftpPath(this, "/"));
+	}
+
+	@Override
+	public @NotNull Iterable<FileStore> getFileStores() {
+		return ImmutableList.of();
+	}
+
+	@Override
+	public @NotNull Set<String> supportedFileAttributeViews() {
+		return ImmutableSet.of("basic");
+	}
+
+	@Override
+	public @NotNull SftpPath getPath(final @NotNull String first, final @NotNull String... more) {
+		final StringBuilder path = new StringBuilder(first);
+		for (final String name : more) {
+			if (!name.isEmpty()) {
+				path.append('/').append(name);
+			}
+		}
+		return new SftpPath(this, path.toString());
+	}
+
+	/**
+	 * Supports the glob and regex syntaxes. Globs support *, **, ?, character classes and groups of alternatives.
+	 */
+	@Override
+	public @NotNull PathMatcher getPathMatcher(final @NotNull String syntaxAndPattern) {
+		final int colon = syntaxAndPattern.indexOf(':');
+		if (colon <= 0) {
+			throw new IllegalArgumentException("Expected syntax:pattern but was " + syntaxAndPattern);
+		}
+		final String syntax = syntaxAndPattern.substring(0, colon).toLowerCase(Locale.ENGLISH);
+		final String pattern = syntaxAndPattern.substring(colon + 1);
+		final Pattern regex;
+		if ("glob".equals(syntax)) {
+			regex = Pattern.compile(globToRegex(pattern));
+		} else if ("regex".equals(syntax)) {
+			regex = Pattern.compile(pattern);
+		} else {
+			throw new UnsupportedOperationException("Unsupported path matcher syntax " + syntax);
+		}
+		return path -> regex.matcher(path.toString()).matches();
+	}
+
+	/**
+	 * Converts a glob to an equivalent regular expression. * and ? do not cross directory boundaries while ** does.
+	 */
+	static @NotNull String globToRegex(final @NotNull String glob) {
+		final StringBuilder regex = new StringBuilder();
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			switch (c) {
+				case '*':
+					if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+						regex.append(".*");
+						i++;
+					} else {
+						regex.append("[^/]*");
+					}
+					break;
+				case '?':
+					regex.append("[^/]");
+					break;
+				case '[':
+					final int end = glob.indexOf(']', i + 1);
+					if (end < 0) {
+						throw new IllegalArgumentException("Unterminated character class in " + glob);
+					}
+					String characters = glob.substring(i + 1, end);
+					if (characters.startsWith("!")) {
+						characters = '^' + characters.substring(1);
+					}
+					regex.append('[').append(characters.replace("\\", "\\\\")).append(']');
+					i = end;
+					break;
+				case '{':
+					if (inGroup) {
+						throw new IllegalArgumentException("Nested groups are not supported in " + glob);
+					}
+					regex.append("(?:");
+					inGroup = true;
+					break;
+				case '}':
+					if (inGroup) {
+						regex.append(')');
+						inGroup = false;
+					} else {
+						regex.append("\\}");
+					}
+					break;
+				case ',':
+					regex.append(inGroup ? "|" : ",");
+					break;
+				case '\\':
+					if (i + 1 < glob.length()) {
+						regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+					}
+					break;
+				default:
+					regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		if (inGroup) {
+			throw new IllegalArgumentException("Unterminated group in " + glob);
+		}
+		return regex.toString();
+	}
+
+	@Override
+	public @NotNull UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException("User principals are not supported by SFTP file systems.");
+	}
+
+	@Override
+	public @NotNull WatchService newWatchService() {
+		throw new UnsupportedOperationException("Watch services are not supported by SFTP file systems.");
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "SftpFileSystem{" +
+					 "uri=" + uri +
+					 ", open=" + open +
+					 '}';
+	}
+}
@@ -0,0 +1,729 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * FileSystemProvider for URIs of the form sftp://user@host:port/path, which allows Files and the other java.nio.file
+ * APIs to be used with remote servers. A file system is created with FileSystems#newFileSystem and its environment
+ * must contain either a CONNECTION_PARAMETERS entry with the ConnectionParameters to connect with, or a PASSWORD entry
+ * used to authenticate the user named in the URI. The port defaults to 22.
+ *
+ * Operations borrow channels from the pool of the Connection of the file system only while they run. Reads are served
+ * by Connection#openSeekable and writes by Connection#upload, so a stream or byte channel only holds a channel while
+ * data is transferred. The attributes of paths obtained from a directory stream are taken from the directory listing,
+ * so walking a directory tree issues one request per directory instead of one per file.
+ *
+ * Existing files that are opened for writing are always replaced; appending and opening a file for reading and writing
+ * at the same time are not supported. Permissions are enforced by the remote server when a file is used, so
+ * checkAccess only checks that the file exists.
+ */
+public class SftpFileSystemProvider extends FileSystemProvider {
+
+	public static final @NotNull String SCHEME = "sftp";
+
+	/**
+	 * Environment key of the password used to authenticate the user named in the URI. The value may be a String, a
+	 * char[] or a byte[].
+	 */
+	public static final @NotNull String PASSWORD = "password";
+
+	/**
+	 * Environment key of the ConnectionParameters used to connect to the remote server. If present, the user info and
+	 * port of the URI are ignored.
+	 */
+	public static final @NotNull String CONNECTION_PARAMETERS = "connectionParameters";
+
+	private static final int DEFAULT_PORT = 22;
+
+	private final @NotNull ConnectionFactory connectionFactory;
+
+	/**
+	 * Open file systems keyed by a URI of the form sftp://user@host:port.
+	 */
+	private final @NotNull Map<URI, SftpFileSystem> fileSystems = Maps.newConcurrentMap();
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(SftpFileSystemProvider.class.getName());
+
+	/**
+	 * Invoked by the java.nio.file.spi.FileSystemProvider service loader.
+	 */
+	public SftpFileSystemProvider() {
+		this(ConnectionFactory.INSTANCE);
+	}
+
+	SftpFileSystemProvider(final @NotNull ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	@Override
+	public @NotNull String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public @NotNull SftpFileSystem newFileSystem(final @NotNull URI uri, final @NotNull Map<String, ?> env)
+			throws IOException {
+		final URI key = getKey(uri);
+		synchronized (fileSystems) {
+			if (fileSystems.containsKey(key)) {
+				throw new FileSystemAlreadyExistsException(key.toString());
+			}
+			LOGGER.info("Creating file system " + key);
+			final Connection connection;
+			try {
+				connection = connectionFactory.getConnection(getConnectionParameters(uri, env));
+			} catch (final SSHException e) {
+				throw new IOException("Unable to connect to " + key + ": " + e.getMessage(), e);
+			}
+			final SftpFileSystem fileSystem = new SftpFileSystem(this, key, connection);
+			fileSystems.put(key, fileSystem);
+			return fileSystem;
+		}
+	}
+
+	/**
+	 * @return URI of the form sftp://user@host:port that identifies the file system of the provided URI.
+	 */
+	private static @NotNull URI getKey(final @NotNull URI uri) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("URI scheme is not " + SCHEME + ": " + uri);
+		}
+		if (uri.getHost() == null) {
+			throw new IllegalArgumentException("URI does not contain a host: " + uri);
+		}
+		try {
+			return new URI(SCHEME, getUser(uri), uri.getHost(), uri.getPort() < 0 ? DEFAULT_PORT : uri.getPort(), null, null,
+										 null);
+		} catch (final URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid URI " + uri, e);
+		}
+	}
+
+	private static @Nullable String getUser(final @NotNull URI uri) {
+		final String userInfo = uri.getUserInfo();
+		if (userInfo == null) {
+			return null;
+		}
+		// A password in the URI is never used, so it is not part of the key either.
+		return Splitter.on(':').limit(2).split(userInfo).iterator().next();
+	}
+
+	private static @NotNull ConnectionParameters getConnectionParameters(final @NotNull URI uri,
+																																			 final @NotNull Map<String, ?> env) {
+		final Object parameters = env.get(CONNECTION_PARAMETERS);
+		if (parameters instanceof ConnectionParameters) {
+			return (ConnectionParameters) parameters;
+		}
+		final String user = getUser(uri);
+		if (user == null) {
+			throw new IllegalArgumentException("URI does not contain a user and no ConnectionParameters were provided: " +
+																				 uri);
+		}
+		final byte[] password = getPassword(env.get(PASSWORD));
+		try {
+			return new ConnectionParameters.Builder(uri.getHost(), user, password,
+																							uri.getPort() < 0 ? DEFAULT_PORT : uri.getPort()).build();
+		} finally {
+			Arrays.fill(password, (byte) 0);
+		}
+	}
+
+	private static @NotNull byte[] getPassword(final @Nullable Object password) {
+		if (password instanceof byte[]) {
+			return ((byte[]) password).clone();
+		}
+		if (password instanceof char[]) {
+			final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap((char[]) password));
+			final byte[] bytes = new byte[encoded.remaining()];
+			encoded.get(bytes);
+			return bytes;
+		}
+		if (password instanceof String) {
+			return ((String) password).getBytes(StandardCharsets.UTF_8);
+		}
+		throw new IllegalArgumentException("The environment must contain " + PASSWORD + " or " + CONNECTION_PARAMETERS);
+	}
+
+	@Override
+	public @NotNull SftpFileSystem getFileSystem(final @NotNull URI uri) {
+		final SftpFileSystem fileSystem = fileSystems.get(getKey(uri));
+		if (fileSystem == null) {
+			throw new FileSystemNotFoundException(uri.toString());
+		}
+		return fileSystem;
+	}
+
+	void removeFileSystem(final @NotNull URI key) {
+		fileSystems.remove(key);
+	}
+
+	@Override
+	public @NotNull Path getPath(final @NotNull URI uri) {
+		final String path = uri.getPath();
+		return getFileSystem(uri).getPath(path == null || path.isEmpty() ? "/" : path);
+	}
+
+	@Override
+	public @NotNull SeekableByteChannel newByteChannel(final @NotNull Path path,
+																										 final @NotNull Set<? extends OpenOption> options,
+																										 final @NotNull FileAttribute<?>... attrs) throws IOException {
+		checkNoAttributes(attrs);
+		final SftpPath file = toSftpPath(path);
+		if (options.contains(StandardOpenOption.APPEND)) {
+			throw new UnsupportedOperationException("Appending to remote files is not supported.");
+		}
+		if (options.contains(StandardOpenOption.WRITE)) {
+			if (options.contains(StandardOpenOption.READ)) {
+				throw new UnsupportedOperationException("Remote files cannot be opened for reading and writing at once.");
+			}
+			return new UploadChannel(openUpload(file, options));
+		}
+		try {
+			return call(file, connection -> connection.openSeekable(getRemotePath(file)));
+		} catch (final IOException e) {
+			throw exists(file) ? e : new NoSuchFileException(file.toString());
+		}
+	}
+
+	@Override
+	public @NotNull OutputStream newOutputStream(final @NotNull Path path, final @NotNull OpenOption... options)
+			throws IOException {
+		final Set<OpenOption> openOptions = Sets.newHashSet(options);
+		if (openOptions.isEmpty()) {
+			openOptions.add(StandardOpenOption.CREATE);
+			openOptions.add(StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		if (openOptions.contains(StandardOpenOption.READ)) {
+			throw new IllegalArgumentException("READ is not allowed for output streams.");
+		}
+		if (openOptions.contains(StandardOpenOption.APPEND)) {
+			throw new UnsupportedOperationException("Appending to remote files is not supported.");
+		}
+		return openUpload(toSftpPath(path), openOptions);
+	}
+
+	/**
+	 * Checks the open options against the current state of the file and starts an upload that replaces it.
+	 */
+	private @NotNull UploadOutputStream openUpload(final @NotNull SftpPath file,
+																								 final @NotNull Set<? extends OpenOption> options) throws IOException {
+		final RemoteFile existing = stat(file);
+		if (existing == null) {
+			if (!options.contains(StandardOpenOption.CREATE) && !options.contains(StandardOpenOption.CREATE_NEW)) {
+				throw new NoSuchFileException(file.toString());
+			}
+		} else if (options.contains(StandardOpenOption.CREATE_NEW)) {
+			throw new FileAlreadyExistsException(file.toString());
+		} else if (existing.isDirectory()) {
+			throw new FileSystemException(file.toString(), null, "Is a directory");
+		}
+		return new UploadOutputStream(file.getFileSystem().getConnection().upload(getRemotePath(file)),
+																	BufferPool.getHeapPool());
+	}
+
+	/**
+	 * Lists the directory with a single request. Filtering happens after the listing has been received, and the
+	 * attributes of every entry are carried by its path. Listing a regular file would return the file itself, so the
+	 * directory is checked first, using the attributes carried by its path if it came from a listing.
+	 */
+	@Override
+	public @NotNull DirectoryStream<Path> newDirectoryStream(final @NotNull Path dir,
+																													 final @NotNull DirectoryStream.Filter<? super Path> filter)
+			throws IOException {
+		final SftpPath directory = toSftpPath(dir);
+		RemoteFile attributes = directory.getListedAttributes();
+		if (attributes == null) {
+			attributes = stat(directory);
+		}
+		if (attributes == null) {
+			throw new NoSuchFileException(directory.toString());
+		}
+		if (!attributes.isDirectory()) {
+			throw new NotDirectoryException(directory.toString());
+		}
+		final CompactListing listing = call(directory, connection -> connection.lsCompact(getRemotePath(directory)));
+		final List<Path> entries = Lists.newArrayListWithCapacity(listing.size());
+		for (final RemoteFile file : listing.asList()) {
+			if (".".equals(file.getName()) || "..".equals(file.getName())) {
+				continue;
+			}
+			final SftpPath entry = directory.resolveListed(file);
+			if (filter.accept(entry)) {
+				entries.add(entry);
+			}
+		}
+		return new ListedDirectoryStream(entries);
+	}
+
+	@Override
+	public void createDirectory(final @NotNull Path dir, final @NotNull FileAttribute<?>... attrs) throws IOException {
+		checkNoAttributes(attrs);
+		final SftpPath directory = toSftpPath(dir);
+		try {
+			call(directory, connection -> {
+				connection.mkdir(getRemotePath(directory));
+				return null;
+			});
+		} catch (final IOException e) {
+			throw exists(directory) ? new FileAlreadyExistsException(directory.toString()) : e;
+		}
+	}
+
+	@Override
+	public void delete(final @NotNull Path path) throws IOException {
+		final SftpPath file = toSftpPath(path);
+		final RemoteFile existing = stat(file);
+		if (existing == null) {
+			throw new NoSuchFileException(file.toString());
+		}
+		final String remotePath = getRemotePath(file);
+		call(file, connection -> {
+			if (existing.isDirectory()) {
+				connection.withChannel(channel -> {
+					channel.rmdir(remotePath);
+					return null;
+				});
+			} else {
+				connection.rm(remotePath);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Files are copied by the Connection if both paths belong to the same file system and otherwise streamed from the
+	 * source to the target without being stored locally. Copying a directory creates an empty directory.
+	 * COPY_ATTRIBUTES is ignored.
+	 */
+	@Override
+	public void copy(final @NotNull Path source, final @NotNull Path target, final @NotNull CopyOption... options)
+			throws IOException {
+		final SftpPath from = toSftpPath(source);
+		final SftpPath to = toSftpPath(target);
+		final RemoteFile file = stat(from);
+		if (file == null) {
+			throw new NoSuchFileException(from.toString());
+		}
+		if (isSameFile(from, to)) {
+			return;
+		}
+		prepareTarget(to, Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING));
+		if (file.isDirectory()) {
+			createDirectory(to);
+			return;
+		}
+		if (from.getFileSystem() == to.getFileSystem()) {
+			// Streaming within one file system would hold a channel for the upload while waiting for another one for the
+			// download, which deadlocks once the upload holds the last channel of the pool.
+			call(from, connection -> {
+				connection.copy(getRemotePath(from), getRemotePath(to));
+				return null;
+			});
+			return;
+		}
+		try (final OutputStream out = newOutputStream(to)) {
+			call(from, connection -> {
+				connection.get(getRemotePath(from), out);
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * Files are renamed on the remote server if both paths belong to the same file system and copied and deleted
+	 * otherwise.
+	 */
+	@Override
+	public void move(final @NotNull Path source, final @NotNull Path target, final @NotNull CopyOption... options)
+			throws IOException {
+		final SftpPath from = toSftpPath(source);
+		final SftpPath to = toSftpPath(target);
+		final List<CopyOption> copyOptions = Arrays.asList(options);
+		if (from.getFileSystem() != to.getFileSystem()) {
+			if (copyOptions.contains(StandardCopyOption.ATOMIC_MOVE)) {
+				throw new AtomicMoveNotSupportedException(from.toString(), to.toString(), "Paths belong to different servers");
+			}
+			copy(from, to, options);
+			delete(from);
+			return;
+		}
+		if (!exists(from)) {
+			throw new NoSuchFileException(from.toString());
+		}
+		if (isSameFile(from, to)) {
+			return;
+		}
+		final RemoteFile existing = stat(to);
+		if (existing != null) {
+			if (!copyOptions.contains(StandardCopyOption.REPLACE_EXISTING)) {
+				throw new FileAlreadyExistsException(to.toString());
+			}
+			// With posix-rename the server replaces a file atomically as part of the rename, saving a round trip. Without it
+			// the rename fails on an existing target, so the target has to be deleted first.
+			if (existing.isDirectory() || !to.getFileSystem().getConnection().getServerCapabilities().supportsPosixRename()) {
+				if (copyOptions.contains(StandardCopyOption.ATOMIC_MOVE)) {
+					throw new AtomicMoveNotSupportedException(from.toString(), to.toString(),
+																										"The server cannot replace the target atomically");
+				}
+				delete(to);
+			}
+		}
+		final String remoteSource = getRemotePath(from);
+		final String remoteTarget = getRemotePath(to);
+		call(from, connection -> {
+			final BatchResult<Void> result = connection.renameAll(Collections.singletonMap(remoteSource, remoteTarget));
+			final SSHException failure = result.getFailures().get(remoteSource);
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Deletes the target of a copy if it exists and may be replaced.
+	 */
+	private void prepareTarget(final @NotNull SftpPath target, final boolean replaceExisting) throws IOException {
+		if (exists(target)) {
+			if (!replaceExisting) {
+				throw new FileAlreadyExistsException(target.toString());
+			}
+			delete(target);
+		}
+	}
+
+	@Override
+	public boolean isSameFile(final @NotNull Path path, final @NotNull Path path2) {
+		if (!(path2 instanceof SftpPath)) {
+			return false;
+		}
+		final SftpPath first = toSftpPath(path);
+		final SftpPath second = (SftpPath) path2;
+		return first.getFileSystem() == second.getFileSystem() &&
+					 first.toAbsolutePath().normalize().equals(second.toAbsolutePath().normalize());
+	}
+
+	@Override
+	public boolean isHidden(final @NotNull Path path) {
+		final Path name = toSftpPath(path).getFileName();
+		return name != null && name.toString().startsWith(".");
+	}
+
+	@Override
+	public @NotNull FileStore getFileStore(final @NotNull Path path) {
+		throw new UnsupportedOperationException("File stores are not supported by SFTP file systems.");
+	}
+
+	@Override
+	public void checkAccess(final @NotNull Path path, final @NotNull AccessMode... modes) throws IOException {
+		final SftpPath file = toSftpPath(path);
+		if (!exists(file)) {
+			throw new NoSuchFileException(file.toString());
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <V extends FileAttributeView> @Nullable V getFileAttributeView(final @NotNull Path path,
+																																			final @NotNull Class<V> type,
+																																			final @NotNull LinkOption... options) {
+		if (type != BasicFileAttributeView.class) {
+			return null;
+		}
+		final SftpPath file = toSftpPath(path);
+		return (V) new BasicFileAttributeView() {
+			@Override
+			public @NotNull String name() {
+				return "basic";
+			}
+
+			@Override
+			public @NotNull BasicFileAttributes readAttributes() throws IOException {
+				return SftpFileSystemProvider.this.readAttributes(file, BasicFileAttributes.class);
+			}
+
+			@Override
+			public void setTimes(final @Nullable FileTime lastModifiedTime, final @Nullable FileTime lastAccessTime,
+													 final @Nullable FileTime createTime) {
+				throw new UnsupportedOperationException("Setting file times is not supported by SFTP file systems.");
+			}
+		};
+	}
+
+	/**
+	 * Attributes of paths obtained from a directory stream are the attributes reported by the directory listing.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A extends BasicFileAttributes> @NotNull A readAttributes(final @NotNull Path path,
+																																	 final @NotNull Class<A> type,
+																																	 final @NotNull LinkOption... options)
+			throws IOException {
+		if (type != BasicFileAttributes.class) {
+			throw new UnsupportedOperationException("Unsupported attributes " + type.getName());
+		}
+		final SftpPath file = toSftpPath(path);
+		RemoteFile attributes = file.getListedAttributes();
+		if (attributes == null) {
+			attributes = stat(file);
+		}
+		if (attributes == null) {
+			throw new NoSuchFileException(file.toString());
+		}
+		return (A) new SftpFileAttributes(attributes);
+	}
+
+	@Override
+	public @NotNull Map<String, Object> readAttributes(final @NotNull Path path, final @NotNull String attributes,
+																										 final @NotNull LinkOption... options) throws IOException {
+		String names = attributes;
+		final int colon = attributes.indexOf(':');
+		if (colon >= 0) {
+			if (!"basic".equals(attributes.substring(0, colon))) {
+				throw new UnsupportedOperationException("Unsupported attribute view " + attributes.substring(0, colon));
+			}
+			names = attributes.substring(colon + 1);
+		}
+		final SftpFileAttributes fileAttributes =
+				(SftpFileAttributes) readAttributes(path, BasicFileAttributes.class, options);
+		return fileAttributes.toMap("*".equals(names) ? SftpFileAttributes.NAMES : Splitter.on(',').splitToList(names));
+	}
+
+	@Override
+	public void setAttribute(final @NotNull Path path, final @NotNull String attribute, final @Nullable Object value,
+													 final @NotNull LinkOption... options) {
+		throw new UnsupportedOperationException("Setting attributes is not supported by SFTP file systems.");
+	}
+
+	boolean exists(final @NotNull SftpPath path) throws IOException {
+		return stat(path) != null;
+	}
+
+	/**
+	 * @return attributes of the file or null if it does not exist.
+	 */
+	private @Nullable RemoteFile stat(final @NotNull SftpPath path) throws IOException {
+		final String remotePath = getRemotePath(path);
+		return call(path, connection -> connection.withChannel(channel -> channel.stat(remotePath)));
+	}
+
+	/**
+	 * An operation performed with the Connection of a file system.
+	 *
+	 * @param <T> type of the value produced by the operation.
+	 */
+	@FunctionalInterface
+	private interface RemoteOperation<T> {
+		T execute(final @NotNull Connection connection) throws SSHException, InterruptedException;
+	}
+
+	/**
+	 * Performs an operation with the Connection of the file system of a path and converts its exceptions to the
+	 * exceptions expected from a FileSystemProvider. A missing file becomes a NoSuchFileException and a denied permission
+	 * an AccessDeniedException, any other failure a FileSystemException.
+	 */
+	private static <T> T call(final @NotNull SftpPath path, final @NotNull RemoteOperation<T> operation)
+			throws IOException {
+		try {
+			return operation.execute(path.getFileSystem().getConnection());
+		} catch (final RemoteFileException e) {
+			switch (e.getReason()) {
+				case NO_SUCH_FILE:
+					throw new NoSuchFileException(path.toString(), null, e.getMessage());
+				case PERMISSION_DENIED:
+					throw new AccessDeniedException(path.toString(), null, e.getMessage());
+				default:
+					throw new FileSystemException(path.toString(), null, e.getMessage());
+			}
+		} catch (final SSHException e) {
+			throw new FileSystemException(path.toString(), null, e.getMessage());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a channel.");
+		}
+	}
+
+	private static @NotNull String getRemotePath(final @NotNull SftpPath path) {
+		return path.toAbsolutePath().toString();
+	}
+
+	private static @NotNull SftpPath toSftpPath(final @NotNull Path path) {
+		if (!(path instanceof SftpPath)) {
+			throw new ProviderMismatchException("Path does not belong to an SFTP file system: " + path);
+		}
+		return (SftpPath) path;
+	}
+
+	private static void checkNoAttributes(final @NotNull FileAttribute<?>... attrs) {
+		if (attrs.length > 0) {
+			throw new UnsupportedOperationException("Initial file attributes are not supported by SFTP file systems.");
+		}
+	}
+
+	/**
+	 * DirectoryStream over the entries of a directory listing that has already been received.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	private static final class ListedDirectoryStream implements DirectoryStream<Path> {
+		private final @NotNull List<Path> entries;
+		private boolean iterated;
+		private boolean closed;
+
+		ListedDirectoryStream(final @NotNull List<Path> entries) {
+			this.entries = ImmutableList.copyOf(entries);
+		}
+
+		@Override
+		public synchronized @NotNull Iterator<Path> iterator() {
+			if (closed) {
+				throw new IllegalStateException("Directory stream is closed.");
+			}
+			if (iterated) {
+				throw new IllegalStateException("Directory stream can only be iterated once.");
+			}
+			iterated = true;
+			return entries.iterator();
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+		}
+	}
+
+	/**
+	 * Write only SeekableByteChannel over an upload. The position can only be moved to where it already is.
+	 */
+	@SuppressWarnings("ClassWithoutLogger")
+	private static final class UploadChannel implements SeekableByteChannel {
+		private final @NotNull WritableByteChannel channel;
+		private long position;
+
+		UploadChannel(final @NotNull OutputStream out) {
+			channel = Channels.newChannel(out);
+		}
+
+		@Override
+		public int read(final @NotNull ByteBuffer dst) {
+			throw new NonReadableChannelException();
+		}
+
+		@Override
+		public synchronized int write(final @NotNull ByteBuffer src) throws IOException {
+			final int written = channel.write(src);
+			position += written;
+			return written;
+		}
+
+		@Override
+		public synchronized long position() throws ClosedChannelException {
+			ensureOpen();
+			return position;
+		}
+
+		@Override
+		public synchronized @NotNull SeekableByteChannel position(final long newPosition) throws ClosedChannelException {
+			ensureOpen();
+			if (newPosition != position) {
+				throw new UnsupportedOperationException("Remote files can only be written sequentially.");
+			}
+			return this;
+		}
+
+		@Override
+		public synchronized long size() throws ClosedChannelException {
+			ensureOpen();
+			return position;
+		}
+
+		@Override
+		public @NotNull SeekableByteChannel truncate(final long size) {
+			throw new UnsupportedOperationException("Remote files can only be written sequentially.");
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Closing the channel closes the upload stream, which waits for the upload to complete.
+			channel.close();
+		}
+
+		private void ensureOpen() throws ClosedChannelException {
+			if (!channel.isOpen()) {
+				throw new ClosedChannelException();
+			}
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Path of a file on the remote server of an SftpFileSystem. Paths use '/' as their separator and are absolute if they
+ * start with it; relative paths are resolved against the working directory of the Connection of the file system.
+ *
+ * Paths produced by a directory stream carry the attributes reported by the directory listing, which are returned
+ * when the attributes of the path are read so walking a directory tree does not stat every file. The attributes are
+ * not part of the identity of the path and are dropped by every operation that derives a new path.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+final class SftpPath implements Path {
+
+	private static final char SEPARATOR = '/';
+
+	private final @NotNull SftpFileSystem fileSystem;
+
+	private final boolean absolute;
+
+	private final @NotNull ImmutableList<String> names;
+
+	/**
+	 * Attributes reported by the directory listing this path was obtained from, or null if it was not obtained from a
+	 * listing.
+	 */
+	private final @Nullable RemoteFile attributes;
+
+	SftpPath(final @NotNull SftpFileSystem fileSystem, final @NotNull String path) {
+		this(fileSystem, !path.isEmpty() && path.charAt(0) == SEPARATOR,
+				 ImmutableList.copyOf(Splitter.on(SEPARATOR).omitEmptyStrings().split(path)), null);
+	}
+
+	private SftpPath(final @NotNull SftpFileSystem fileSystem, final boolean absolute,
+									 final @NotNull List<String> names, final @Nullable RemoteFile attributes) {
+		this.fileSystem = fileSystem;
+		this.absolute = absolute;
+		this.names = ImmutableList.copyOf(names);
+		this.attributes = attributes;
+	}
+
+	/**
+	 * @return a child of this path that carries the attributes reported by a directory listing.
+	 */
+	@NotNull SftpPath resolveListed(final @NotNull RemoteFile file) {
+		return new SftpPath(fileSystem, absolute, ImmutableList.<String>builder().addAll(names).add(file.getName()).build(),
+												file);
+	}
+
+	@Nullable RemoteFile getListedAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public @NotNull SftpFileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return absolute;
+	}
+
+	@Override
+	public @Nullable SftpPath getRoot() {
+		return absolute ? new SftpPath(fileSystem, true, ImmutableList.of(), null) : null;
+	}
+
+	@Override
+	public @Nullable SftpPath getFileName() {
+		return names.isEmpty() ? null : new SftpPath(fileSystem, false, names.subList(names.size() - 1, names.size()), null);
+	}
+
+	@Override
+	public @Nullable SftpPath getParent() {
+		if (names.isEmpty() || (!absolute && names.size() == 1)) {
+			return null;
+		}
+		return new SftpPath(fileSystem, absolute, names.subList(0, names.size() - 1), null);
+	}
+
+	@Override
+	public int getNameCount() {
+		return names.size();
+	}
+
+	@Override
+	public @NotNull SftpPath getName(final int index) {
+		return subpath(index, index + 1);
+	}
+
+	@Override
+	public @NotNull SftpPath subpath(final int beginIndex, final int endIndex) {
+		if (beginIndex < 0 || endIndex > names.size() || beginIndex >= endIndex) {
+			throw new IllegalArgumentException("Invalid subpath [" + beginIndex + ", " + endIndex + ") of " + this);
+		}
+		return new SftpPath(fileSystem, false, names.subList(beginIndex, endIndex), null);
+	}
+
+	@Override
+	public boolean startsWith(final @NotNull Path other) {
+		final SftpPath path = checkPath(other);
+		return absolute == path.absolute && names.size() >= path.names.size() &&
+					 names.subList(0, path.names.size()).equals(path.names);
+	}
+
+	@Override
+	public boolean startsWith(final @NotNull String other) {
+		return startsWith(new SftpPath(fileSystem, other));
+	}
+
+	@Override
+	public boolean endsWith(final @NotNull Path other) {
+		final SftpPath path = checkPath(other);
+		if (path.absolute) {
+			return equals(path);
+		}
+		return names.size() >= path.names.size() &&
+					 names.subList(names.size() - path.names.size(), names.size()).equals(path.names);
+	}
+
+	@Override
+	public boolean endsWith(final @NotNull String other) {
+		return endsWith(new SftpPath(fileSystem, other));
+	}
+
+	@Override
+	public @NotNull SftpPath normalize() {
+		final List<String> normalized = Lists.newArrayList();
+		for (final String name : names) {
+			if (".".equals(name)) {
+				continue;
+			}
+			if ("..".equals(name) && !normalized.isEmpty() && !"..".equals(normalized.get(normalized.size() - 1))) {
+				normalized.remove(normalized.size() - 1);
+			} else if (!("..".equals(name) && absolute)) {
+				normalized.add(name);
+			}
+		}
+		return new SftpPath(fileSystem, absolute, normalized, null);
+	}
+
+	@Override
+	public @NotNull SftpPath resolve(final @NotNull Path other) {
+		final SftpPath path = checkPath(other);
+		if (path.absolute) {
+			return path;
+		}
+		return new SftpPath(fileSystem, absolute, ImmutableList.<String>builder().addAll(names).addAll(path.names).build(),
+												null);
+	}
+
+	@Override
+	public @NotNull SftpPath resolve(final @NotNull String other) {
+		return resolve(new SftpPath(fileSystem, other));
+	}
+
+	@Override
+	public @NotNull Path resolveSibling(final @NotNull Path other) {
+		final SftpPath parent = getParent();
+		return parent == null ? checkPath(other) : parent.resolve(other);
+	}
+
+	@Override
+	public @NotNull Path resolveSibling(final @NotNull String other) {
+		return resolveSibling(new SftpPath(fileSystem, other));
+	}
+
+	@Override
+	public @NotNull SftpPath relativize(final @NotNull Path other) {
+		final SftpPath path = checkPath(other);
+		if (absolute != path.absolute) {
+			throw new IllegalArgumentException("Cannot relativize " + path + " against " + this);
+		}
+		int common = 0;
+		while (common < names.size() && common < path.names.size() && names.get(common).equals(path.names.get(common))) {
+			common++;
+		}
+		final List<String> relative = Lists.newArrayList();
+		for (int i = common; i < names.size(); i++) {
+			relative.add("..");
+		}
+		relative.addAll(path.names.subList(common, path.names.size()));
+		return new SftpPath(fileSystem, false, relative, null);
+	}
+
+	@Override
+	public @NotNull URI toUri() {
+		final URI root = fileSystem.getUri();
+		try {
+			return new URI(root.getScheme(), root.getUserInfo(), root.getHost(), root.getPort(),
+										 toAbsolutePath().toString(), null, null);
+		} catch (final URISyntaxException e) {
+			throw new IllegalStateException("Unable to create a URI for " + this, e);
+		}
+	}
+
+	/**
+	 * Resolves a relative path against the current working directory of the Connection of the file system.
+	 */
+	@Override
+	public @NotNull SftpPath toAbsolutePath() {
+		if (absolute) {
+			return this;
+		}
+		return new SftpPath(fileSystem, fileSystem.getConnection().pwd()).resolve(this);
+	}
+
+	/**
+	 * Symbolic links are not resolved; the real path is the normalized absolute path of an existing file.
+	 */
+	@Override
+	public @NotNull SftpPath toRealPath(final @NotNull LinkOption... options) throws IOException {
+		final SftpPath path = toAbsolutePath().normalize();
+		if (!fileSystem.provider().exists(path)) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return path;
+	}
+
+	@Override
+	public @NotNull File toFile() {
+		throw new UnsupportedOperationException("Remote paths cannot be converted to files.");
+	}
+
+	@Override
+	public @NotNull WatchKey register(final @NotNull WatchService watcher, final @NotNull WatchEvent.Kind<?>[] events,
+																		final @NotNull WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException("Remote paths cannot be watched.");
+	}
+
+	@Override
+	public @NotNull WatchKey register(final @NotNull WatchService watcher, final @NotNull WatchEvent.Kind<?>... events) {
+		throw new UnsupportedOperationException("Remote paths cannot be watched.");
+	}
+
+	@Override
+	public @NotNull Iterator<Path> iterator() {
+		return Iterators.transform(names.iterator(), name -> new SftpPath(fileSystem, false, ImmutableList.of(name), null));
+	}
+
+	@Override
+	public int compareTo(final @NotNull Path other) {
+		return toString().compareTo(checkPath(other).toString());
+	}
+
+	private @NotNull SftpPath checkPath(final @NotNull Path other) {
+		if (!(other instanceof SftpPath) || ((SftpPath) other).fileSystem != fileSystem) {
+			throw new ProviderMismatchException("Path does not belong to " + fileSystem);
+		}
+		return (SftpPath) other;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * fileSystem.hashCode() + toString().hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof SftpPath)) {
+			return false;
+		}
+		final SftpPath other = (SftpPath) o;
+		return fileSystem == other.fileSystem && absolute == other.absolute && names.equals(other.names);
+	}
+
+	@Override
+	public String toString() {
+		final String path = Joiner.on(SEPARATOR).join(names);
+		return absolute ? SEPARATOR + path : path;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a download to the OutputStream of the caller that requested it. Once another caller joins the download a
+ * copy of the contents is kept for it, provided nothing has been written yet; without other callers the contents are
+ * passed straight through. The copy is discarded once it exceeds the maximum size.
+ *
+ * A failure of the caller's OutputStream does not abort the download while the copy is being kept, since the other
+ * callers still need the contents. It is reported by {@link #checkTarget()} once the download has finished.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+class SharedDownloadOutputStream extends OutputStream {
+	private final @NotNull OutputStream target;
+
+	private final int maxSize;
+
+	/**
+	 * Copy of the contents written so far or null if no other caller has joined or the contents exceeded the maximum
+	 * size. Guarded by this.
+	 */
+	private @Nullable ByteArrayOutputStream contents;
+
+	/**
+	 * Whether anything has been written. Guarded by this.
+	 */
+	private boolean written;
+
+	/**
+	 * First failure of the target OutputStream. Nothing more is written to the target once it has failed.
+	 */
+	private @Nullable IOException targetFailure;
+
+	/**
+	 * @param target OutputStream of the caller that requested the download. It is not closed by this stream.
+	 * @param maxSize maximum number of bytes to keep for other callers.
+	 */
+	SharedDownloadOutputStream(final @NotNull OutputStream target, final int maxSize) {
+		this.target = target;
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/**
+	 * Called when another caller joins the download.
+	 *
+	 * @return true if the contents will be kept for the caller, false if bytes have already been written without
+	 * keeping a copy or the copy has been discarded.
+	 */
+	synchronized boolean share() {
+		if (contents == null && !written) {
+			contents = new ByteArrayOutputStream();
+		}
+		return contents != null;
+	}
+
+	@Override
+	public synchronized void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+		written = true;
+		if (targetFailure == null) {
+			try {
+				target.write(b, off, len);
+			} catch (final IOException e) {
+				targetFailure = e;
+			}
+		}
+		if (contents != null && contents.size() + len > maxSize) {
+			contents = null;
+		}
+		if (contents == null) {
+			if (targetFailure != null) {
+				throw targetFailure;
+			}
+		} else {
+			contents.write(b, off, len);
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		if (targetFailure == null) {
+			try {
+				target.flush();
+			} catch (final IOException e) {
+				targetFailure = e;
+			}
+		}
+	}
+
+	/**
+	 * @return the contents written to this stream or null if no other caller joined or they exceeded the maximum size.
+	 */
+	synchronized @Nullable byte[] getContents() {
+		return contents == null ? null : contents.toByteArray();
+	}
+
+	/**
+	 * @throws SSHException if writing to the caller's OutputStream failed.
+	 */
+	void checkTarget() throws SSHException {
+		if (targetFailure != null) {
+			throw new SSHException(targetFailure);
+		}
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "SharedDownloadOutputStream{" +
+					 "target=" + target +
+					 ", maxSize=" + maxSize +
+					 '}';
+	}
+}
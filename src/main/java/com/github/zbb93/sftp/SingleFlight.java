@@ -0,0 +1,153 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Coalesces concurrent identical requests. The first caller for a key runs the request and every caller that arrives
+ * while it is in flight waits for and shares its result instead of sending its own request to the server.
+ *
+ * Failures reported by the server are shared with the waiting callers. If the request fails for any other reason,
+ * for example because the calling thread was interrupted, the waiting callers retry and one of them runs the request.
+ *
+ * The caller running a request can be told when another caller joins it, so that it only prepares a result for
+ * sharing once there is someone to share it with.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+final class SingleFlight<K, V> {
+	private final @NotNull ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of callers that received a result without running the request themselves.
+	 */
+	private final @NotNull AtomicLong sharedCount = new AtomicLong();
+
+	/**
+	 * @param key identifies the request. Requests with equal keys must produce the same result.
+	 * @param loader runs the request if no identical request is in flight.
+	 * @return the result of the request. A null result is returned to the waiting callers but is not counted as shared.
+	 * @throws SSHException if the request fails.
+	 * @throws InterruptedException if the calling thread is interrupted while running or waiting for the request.
+	 */
+	@Nullable V execute(final @NotNull K key, final @NotNull Loader<V> loader) throws SSHException, InterruptedException {
+		return execute(key, loader, () -> true);
+	}
+
+	/**
+	 * @param key identifies the request. Requests with equal keys must produce the same result.
+	 * @param loader runs the request if no identical request is in flight.
+	 * @param join called from each caller that arrives while the request run by this caller is in flight. Returns false
+	 * if the result can no longer be shared, in which case that caller receives null without waiting.
+	 * @return the result of the request. A null result is returned to the waiting callers but is not counted as shared.
+	 * @throws SSHException if the request fails.
+	 * @throws InterruptedException if the calling thread is interrupted while running or waiting for the request.
+	 */
+	@Nullable V execute(final @NotNull K key, final @NotNull Loader<V> loader, final @NotNull BooleanSupplier join)
+			throws SSHException, InterruptedException {
+		while (true) {
+			final Flight<V> flight = new Flight<>(join);
+			final Flight<V> existing = inFlight.putIfAbsent(key, flight);
+			if (existing == null) {
+				return load(key, flight, loader);
+			}
+			if (!existing.join.getAsBoolean()) {
+				return null;
+			}
+			try {
+				final V result = existing.result.get();
+				if (result != null) {
+					sharedCount.incrementAndGet();
+				}
+				return result;
+			} catch (final ExecutionException e) {
+				// The failure is rethrown as is so that its type, such as RemoteFileException, is kept.
+				if (e.getCause() instanceof SSHException) {
+					throw (SSHException) e.getCause();
+				}
+			}
+		}
+	}
+
+	private @Nullable V load(final @NotNull K key, final @NotNull Flight<V> flight,
+													 final @NotNull Loader<V> loader) throws SSHException, InterruptedException {
+		boolean completed = false;
+		try {
+			final V result = loader.load();
+			inFlight.remove(key, flight);
+			flight.result.complete(result);
+			completed = true;
+			return result;
+		} catch (final SSHException e) {
+			inFlight.remove(key, flight);
+			flight.result.completeExceptionally(e);
+			completed = true;
+			throw e;
+		} finally {
+			if (!completed) {
+				inFlight.remove(key, flight);
+				flight.result.completeExceptionally(new IllegalStateException("The coalesced request did not complete."));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of callers that shared the result of another caller's request.
+	 */
+	long getSharedCount() {
+		return sharedCount.get();
+	}
+
+	/**
+	 * A request in flight along with the callback of the caller running it.
+	 */
+	private static final class Flight<V> {
+		private final @NotNull CompletableFuture<V> result = new CompletableFuture<>();
+
+		private final @NotNull BooleanSupplier join;
+
+		private Flight(final @NotNull BooleanSupplier join) {
+			this.join = join;
+		}
+	}
+
+	/**
+	 * Runs a request on behalf of every caller waiting for its key.
+	 */
+	@FunctionalInterface
+	interface Loader<V> {
+		@Nullable V load() throws SSHException, InterruptedException;
+	}
+
+	@SuppressWarnings("MagicCharacter")
+	@Override
+	public String toString() {
+		return "SingleFlight{" +
+					 "inFlight=" + inFlight.keySet() +
+					 ", sharedCount=" + sharedCount +
+					 '}';
+	}
+}
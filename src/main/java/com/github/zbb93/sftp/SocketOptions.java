@@ -0,0 +1,99 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.SocketFactory;
+import java.net.InetAddress;
+
+/**
+ * POJO containing the options applied to the TCP socket of a Connection before it connects to the remote server. A
+ * value of zero for any size leaves the default of the operating system in place. Nagle's algorithm is always disabled
+ * because JSch enables TCP_NODELAY on every session socket. This class is created by ConnectionParameters.Builder.
+ */
+@SuppressWarnings("ClassWithoutLogger") // POJO does not need logger
+public class SocketOptions {
+
+	/**
+	 * Size of the send buffer of the TCP socket.
+	 */
+	private final int sendBufferSize;
+
+	/**
+	 * Size of the receive buffer of the TCP socket.
+	 */
+	private final int receiveBufferSize;
+
+	/**
+	 * Whether TCP keepalive probes are sent on an idle connection.
+	 */
+	private final boolean keepAlive;
+
+	/**
+	 * Local address the socket is bound to or null to let the operating system choose.
+	 */
+	private final @Nullable InetAddress localAddress;
+
+	/**
+	 * Factory used to create the unconnected socket or null to create a plain socket.
+	 */
+	private final @Nullable SocketFactory socketFactory;
+
+	SocketOptions(final int sendBufferSize, final int receiveBufferSize, final boolean keepAlive,
+								final @Nullable InetAddress localAddress, final @Nullable SocketFactory socketFactory) {
+		this.sendBufferSize = sendBufferSize;
+		this.receiveBufferSize = receiveBufferSize;
+		this.keepAlive = keepAlive;
+		this.localAddress = localAddress;
+		this.socketFactory = socketFactory;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public @Nullable InetAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	public @Nullable SocketFactory getSocketFactory() {
+		return socketFactory;
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public @NotNull String toString() {
+		return "SocketOptions{" +
+					 "sendBufferSize=" + sendBufferSize +
+					 ", receiveBufferSize=" + receiveBufferSize +
+					 ", keepAlive=" + keepAlive +
+					 ", localAddress=" + localAddress +
+					 ", socketFactory=" + socketFactory +
+					 '}';
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+
+/**
+ * Opens a stream to or from the remote server. Used by the reactive streams adapters, which open their stream on a
+ * background thread once data is first requested or received.
+ *
+ * @param <S> type of the stream.
+ */
+@FunctionalInterface
+interface StreamOpener<S extends Closeable> {
+	/**
+	 * @return the opened stream. Closing it releases any resources, such as the channel, that it holds.
+	 * @throws SSHException if the stream cannot be opened.
+	 * @throws InterruptedException if interrupted while waiting for an available channel.
+	 */
+	@NotNull S open() throws SSHException, InterruptedException;
+}
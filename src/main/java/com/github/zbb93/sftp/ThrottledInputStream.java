@@ -0,0 +1,66 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * InputStream that limits the rate at which bytes are read from the underlying stream using a BandwidthLimiter.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+class ThrottledInputStream extends FilterInputStream {
+	private final @NotNull BandwidthLimiter limiter;
+
+	ThrottledInputStream(final @NotNull InputStream in, final @NotNull BandwidthLimiter limiter) {
+		super(in);
+		this.limiter = limiter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int value = super.read();
+		if (value >= 0) {
+			acquire(1);
+		}
+		return value;
+	}
+
+	@Override
+	public int read(final @NotNull byte[] b, final int off, final int len) throws IOException {
+		final int read = super.read(b, off, len);
+		if (read > 0) {
+			acquire(read);
+		}
+		return read;
+	}
+
+	private void acquire(final int bytes) throws InterruptedIOException {
+		try {
+			limiter.acquire(bytes);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for bandwidth.");
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that limits the rate at which bytes are written to the underlying stream using a BandwidthLimiter.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+class ThrottledOutputStream extends FilterOutputStream {
+	private final @NotNull BandwidthLimiter limiter;
+
+	ThrottledOutputStream(final @NotNull OutputStream out, final @NotNull BandwidthLimiter limiter) {
+		super(out);
+		this.limiter = limiter;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		acquire(1);
+		out.write(b);
+	}
+
+	@Override
+	public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+		acquire(len);
+		out.write(b, off, len);
+	}
+
+	private void acquire(final int bytes) throws InterruptedIOException {
+		try {
+			limiter.acquire(bytes);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for bandwidth.");
+		}
+	}
+}
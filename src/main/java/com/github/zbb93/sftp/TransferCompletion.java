@@ -0,0 +1,30 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+/**
+ * Notified once a streamed upload or download has finished, whether it succeeded or not.
+ */
+@FunctionalInterface
+interface TransferCompletion {
+	/**
+	 * @param bytes number of bytes transferred.
+	 * @param successful whether the transfer completed without errors.
+	 */
+	void complete(final long bytes, final boolean successful);
+}
@@ -0,0 +1,94 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that counts the bytes read from the underlying stream and notifies a TransferCompletion when it is
+ * closed. The transfer is considered successful if the end of the stream was reached without errors.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+class TransferInputStream extends FilterInputStream {
+	private final @NotNull TransferCompletion completion;
+	private long count;
+	private boolean endOfStream;
+	private boolean failed;
+	private boolean closed;
+
+	TransferInputStream(final @NotNull InputStream in, final @NotNull TransferCompletion completion) {
+		super(in);
+		this.completion = completion;
+	}
+
+	@Override
+	public int read() throws IOException {
+		try {
+			final int value = super.read();
+			if (value == -1) {
+				endOfStream = true;
+			} else {
+				count++;
+			}
+			return value;
+		} catch (final IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public int read(final @NotNull byte[] b, final int off, final int len) throws IOException {
+		try {
+			final int read = super.read(b, off, len);
+			if (read == -1) {
+				endOfStream = true;
+			} else {
+				count += read;
+			}
+			return read;
+		} catch (final IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			super.close();
+		} finally {
+			completion.complete(count, endOfStream && !failed);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * A single upload or download submitted to a TransferScheduler. This class should be instantiated through the Builder
+ * class.
+ */
+@SuppressWarnings("ClassWithoutLogger") // POJO does not need logger
+public class TransferJob {
+
+	/**
+	 * Defines the direction in which a job moves a file.
+	 */
+	public enum Direction {
+		UPLOAD,
+		DOWNLOAD
+	}
+
+	/**
+	 * Name of the queue that jobs are added to unless another queue is specified.
+	 */
+	public static final @NotNull String DEFAULT_QUEUE = "default";
+
+	/**
+	 * Size used for downloads whose size is not provided. Unknown sizes are ordered as if they were very large.
+	 */
+	public static final long UNKNOWN_SIZE = Long.MAX_VALUE;
+
+	private final @NotNull Direction direction;
+
+	/**
+	 * File on the local file system that is uploaded or downloaded to.
+	 */
+	private final @NotNull Path localPath;
+
+	/**
+	 * File on the remote server that is uploaded to or downloaded.
+	 */
+	private final @NotNull String remotePath;
+
+	/**
+	 * Jobs with a higher priority are always started before jobs with a lower priority.
+	 */
+	private final int priority;
+
+	/**
+	 * Time by which the job should be complete or null if the job has no deadline.
+	 */
+	private final @Nullable Instant deadline;
+
+	/**
+	 * Number of bytes the job transfers.
+	 */
+	private final long size;
+
+	/**
+	 * Name of the queue the job belongs to. Progress is reported for each queue.
+	 */
+	private final @NotNull String queue;
+
+	private TransferJob(final @NotNull Builder builder, final long size) {
+		direction = builder.direction;
+		localPath = builder.localPath;
+		remotePath = builder.remotePath;
+		priority = builder.priority;
+		deadline = builder.deadline;
+		queue = builder.queue;
+		this.size = size;
+	}
+
+	public @NotNull Direction getDirection() {
+		return direction;
+	}
+
+	public @NotNull Path getLocalPath() {
+		return localPath;
+	}
+
+	public @NotNull String getRemotePath() {
+		return remotePath;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public @Nullable Instant getDeadline() {
+		return deadline;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public @NotNull String getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Instantiates a TransferJob. Required parameters are set by the constructor and optional parameters are set using
+	 * setter methods after the builder has been instantiated.
+	 */
+	@SuppressWarnings({"ClassHasNoToStringMethod", "WeakerAccess"})
+	public static class Builder {
+		private final @NotNull Direction direction;
+		private final @NotNull Path localPath;
+		private final @NotNull String remotePath;
+		private int priority;
+		private @Nullable Instant deadline;
+		private long size;
+		private @NotNull String queue;
+
+		/**
+		 * @param direction whether the job uploads or downloads a file.
+		 * @param localPath file on the local file system.
+		 * @param remotePath file on the remote server.
+		 */
+		public Builder(final @NotNull Direction direction, final @NotNull Path localPath, final @NotNull String remotePath) {
+			this.direction = direction;
+			this.localPath = localPath;
+			this.remotePath = remotePath;
+			size = -1;
+			queue = DEFAULT_QUEUE;
+		}
+
+		/**
+		 * @param priority jobs with a higher priority are started before jobs with a lower priority. The default is 0.
+		 */
+		public void setPriority(final int priority) {
+			this.priority = priority;
+		}
+
+		/**
+		 * @param deadline time by which the job should be complete.
+		 */
+		public void setDeadline(final @NotNull Instant deadline) {
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Sets the number of bytes the job transfers. Uploads default to the size of the local file. Downloads are treated
+		 * as very large unless their size is provided.
+		 *
+		 * @param size number of bytes the job transfers.
+		 * @throws IllegalArgumentException if size is negative.
+		 */
+		public void setSize(final long size) {
+			Preconditions.checkArgument(size >= 0, "Size must not be negative.");
+			this.size = size;
+		}
+
+		/**
+		 * @param queue name of the queue to report the progress of the job under.
+		 */
+		public void setQueue(final @NotNull String queue) {
+			this.queue = queue;
+		}
+
+		/**
+		 * @return TransferJob created using the instance variables of this Builder object.
+		 * @throws UncheckedIOException if the size of an upload is not set and cannot be read from the local file.
+		 */
+		public @NotNull TransferJob build() {
+			long jobSize = size;
+			if (jobSize < 0) {
+				if (direction == Direction.UPLOAD) {
+					try {
+						jobSize = Files.size(localPath);
+					} catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				} else {
+					jobSize = UNKNOWN_SIZE;
+				}
+			}
+			return new TransferJob(this, jobSize);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "TransferJob{" +
+					 "direction=" + direction +
+					 ", localPath=" + localPath +
+					 ", remotePath='" + remotePath + '\'' +
+					 ", priority=" + priority +
+					 ", deadline=" + deadline +
+					 ", size=" + size +
+					 ", queue='" + queue + '\'' +
+					 '}';
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that counts the bytes written to the underlying stream and notifies a TransferCompletion when it is
+ * closed. The transfer is considered successful if every write and the close succeeded.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+class TransferOutputStream extends FilterOutputStream {
+	private final @NotNull TransferCompletion completion;
+	private long count;
+	private boolean failed;
+	private boolean closed;
+
+	TransferOutputStream(final @NotNull OutputStream out, final @NotNull TransferCompletion completion) {
+		super(out);
+		this.completion = completion;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		try {
+			out.write(b);
+			count++;
+		} catch (final IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+		try {
+			out.write(b, off, len);
+			count += len;
+		} catch (final IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Reports the transfer as unsuccessful once the stream is closed, for example because the data being written ended
+	 * with an error.
+	 */
+	void fail() {
+		failed = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		boolean closedSuccessfully = false;
+		try {
+			out.close();
+			closedSuccessfully = true;
+		} finally {
+			completion.complete(count, closedSuccessfully && !failed);
+		}
+	}
+}
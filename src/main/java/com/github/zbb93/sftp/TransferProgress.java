@@ -0,0 +1,111 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Snapshot of the progress of the jobs in one queue of a TransferScheduler.
+ */
+@SuppressWarnings("ClassWithoutLogger") // POJO that does not need logging.
+public class TransferProgress {
+	private final int queued;
+	private final int running;
+	private final int completed;
+	private final int failed;
+
+	/**
+	 * Number of completed jobs that finished after their deadline.
+	 */
+	private final int missedDeadlines;
+
+	/**
+	 * Bytes of the queued and running jobs whose size is known.
+	 */
+	private final long pendingBytes;
+
+	/**
+	 * Bytes of the completed jobs whose size is known.
+	 */
+	private final long completedBytes;
+
+	@SuppressWarnings("ConstructorWithTooManyParameters")
+	TransferProgress(final int queued, final int running, final int completed, final int failed,
+									 final int missedDeadlines, final long pendingBytes, final long completedBytes) {
+		this.queued = queued;
+		this.running = running;
+		this.completed = completed;
+		this.failed = failed;
+		this.missedDeadlines = missedDeadlines;
+		this.pendingBytes = pendingBytes;
+		this.completedBytes = completedBytes;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+	public int getRunning() {
+		return running;
+	}
+
+	public int getCompleted() {
+		return completed;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	public int getMissedDeadlines() {
+		return missedDeadlines;
+	}
+
+	public long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	public long getCompletedBytes() {
+		return completedBytes;
+	}
+
+	/**
+	 * @param other progress to add to this progress.
+	 * @return progress containing the sum of both progresses.
+	 */
+	@NotNull TransferProgress plus(final @NotNull TransferProgress other) {
+		return new TransferProgress(queued + other.queued, running + other.running, completed + other.completed,
+																failed + other.failed, missedDeadlines + other.missedDeadlines,
+																pendingBytes + other.pendingBytes, completedBytes + other.completedBytes);
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "TransferProgress{" +
+					 "queued=" + queued +
+					 ", running=" + running +
+					 ", completed=" + completed +
+					 ", failed=" + failed +
+					 ", missedDeadlines=" + missedDeadlines +
+					 ", pendingBytes=" + pendingBytes +
+					 ", completedBytes=" + completedBytes +
+					 '}';
+	}
+}
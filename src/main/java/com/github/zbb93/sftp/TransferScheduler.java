@@ -0,0 +1,310 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs uploads and downloads on a Connection in an order determined by their priority, size and deadline instead of
+ * the order in which they were submitted. At most a fixed number of jobs run at the same time, so urgent jobs do not
+ * have to compete with every bulk job for a channel.
+ *
+ * Jobs with a higher priority always start first. Jobs with the same priority are ordered by the scheduling Policy of
+ * the scheduler and then by the order in which they were submitted.
+ */
+public class TransferScheduler implements AutoCloseable {
+
+	/**
+	 * Defines the order in which jobs with the same priority are started.
+	 */
+	public enum Policy {
+		/**
+		 * Smallest jobs first. Minimizes the average time a job waits, which favors latency.
+		 */
+		SMALLEST_FIRST(Comparator.comparingLong(TransferJob::getSize)),
+
+		/**
+		 * Largest jobs first. Minimizes the time until every job is complete.
+		 */
+		LARGEST_FIRST(Comparator.comparingLong(TransferJob::getSize).reversed()),
+
+		/**
+		 * Jobs with the earliest deadline first. Jobs without a deadline run after all jobs with a deadline, smallest
+		 * first.
+		 */
+		EARLIEST_DEADLINE_FIRST(Comparator.comparing(TransferJob::getDeadline,
+																								 Comparator.nullsLast(Comparator.naturalOrder()))
+																			.thenComparingLong(TransferJob::getSize));
+
+		private final @NotNull Comparator<TransferJob> comparator;
+
+		Policy(final @NotNull Comparator<TransferJob> comparator) {
+			this.comparator = comparator;
+		}
+	}
+
+	private final @NotNull Connection connection;
+
+	/**
+	 * Jobs that have been submitted but not started, ordered by the next job to start.
+	 */
+	private final @NotNull PriorityBlockingQueue<ScheduledTransfer> pending;
+
+	/**
+	 * Threads that run the jobs. There is one thread per job that may run concurrently.
+	 */
+	private final @NotNull ExecutorService workers;
+
+	/**
+	 * Progress counters of each queue, keyed by queue name.
+	 */
+	private final @NotNull Map<String, QueueCounters> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * Source of the submission order used to break ties between otherwise equal jobs.
+	 */
+	private final @NotNull AtomicLong sequence = new AtomicLong();
+
+	private volatile boolean closed;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(TransferScheduler.class.getName());
+
+	/**
+	 * @param connection connection used to perform the transfers.
+	 * @param maxConcurrentTransfers maximum number of jobs that run at the same time.
+	 * @param policy order in which jobs with the same priority are started.
+	 * @throws IllegalArgumentException if maxConcurrentTransfers is not greater than zero.
+	 */
+	public TransferScheduler(final @NotNull Connection connection, final int maxConcurrentTransfers,
+													 final @NotNull Policy policy) {
+		Preconditions.checkArgument(maxConcurrentTransfers > 0,
+																"Maximum concurrent transfers must be an integer value greater than zero.");
+		this.connection = connection;
+		final Comparator<ScheduledTransfer> order =
+				Comparator.comparing((ScheduledTransfer transfer) -> transfer.job, Comparator.comparingInt(
+						TransferJob::getPriority).reversed().thenComparing(policy.comparator))
+									.thenComparingLong(transfer -> transfer.sequence);
+		pending = new PriorityBlockingQueue<>(11, order);
+		workers = Executors.newFixedThreadPool(maxConcurrentTransfers,
+																					 new ThreadFactoryBuilder().setDaemon(true)
+																																		 .setNameFormat("sftp-transfer-%d")
+																																		 .build());
+		for (int i = 0; i < maxConcurrentTransfers; i++) {
+			workers.execute(this::runTransfers);
+		}
+	}
+
+	/**
+	 * Adds a job to the scheduler.
+	 *
+	 * @param job job to run.
+	 * @return future that completes when the job completes. Cancelling the future before the job starts prevents it from
+	 * running.
+	 * @throws IllegalStateException if the scheduler has been closed.
+	 */
+	public @NotNull CompletableFuture<Void> submit(final @NotNull TransferJob job) {
+		Preconditions.checkState(!closed, "Transfer scheduler has been closed.");
+		LOGGER.info("Scheduling transfer " + job);
+		final ScheduledTransfer transfer = new ScheduledTransfer(job, sequence.getAndIncrement());
+		getCounters(job.getQueue()).onQueued(job);
+		pending.add(transfer);
+		return transfer.future;
+	}
+
+	/**
+	 * @return names of every queue that a job has been submitted to.
+	 */
+	public @NotNull Set<String> getQueues() {
+		return ImmutableSet.copyOf(queues.keySet());
+	}
+
+	/**
+	 * @param queue name of a queue.
+	 * @return progress of the jobs submitted to the queue.
+	 */
+	public @NotNull TransferProgress getProgress(final @NotNull String queue) {
+		return getCounters(queue).snapshot();
+	}
+
+	/**
+	 * @return combined progress of the jobs submitted to every queue.
+	 */
+	public @NotNull TransferProgress getProgress() {
+		return queues.values().stream()
+								 .map(QueueCounters::snapshot)
+								 .reduce(new TransferProgress(0, 0, 0, 0, 0, 0L, 0L), TransferProgress::plus);
+	}
+
+	private @NotNull QueueCounters getCounters(final @NotNull String queue) {
+		return queues.computeIfAbsent(queue, name -> new QueueCounters());
+	}
+
+	/**
+	 * Body of each worker thread. Takes the next job from the queue and runs it until the scheduler is closed.
+	 */
+	private void runTransfers() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				runTransfer(pending.take());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runTransfer(final @NotNull ScheduledTransfer transfer) throws InterruptedException {
+		final TransferJob job = transfer.job;
+		final QueueCounters counters = getCounters(job.getQueue());
+		if (transfer.future.isDone()) {
+			counters.onCancelled(job);
+			return;
+		}
+		counters.onStarted();
+		try {
+			transfer(job);
+			counters.onCompleted(job);
+			transfer.future.complete(null);
+		} catch (final SSHException | RuntimeException e) {
+			// A RuntimeException must not escape, or the worker would stop taking jobs for good.
+			LOGGER.warning("Transfer failed: " + job + ": " + e);
+			counters.onFailed(job);
+			transfer.future.completeExceptionally(e);
+		} catch (final InterruptedException e) {
+			counters.onFailed(job);
+			transfer.future.cancel(false);
+			throw e;
+		}
+	}
+
+	private void transfer(final @NotNull TransferJob job) throws SSHException, InterruptedException {
+		if (job.getDirection() == TransferJob.Direction.UPLOAD) {
+			connection.put(job.getLocalPath(), job.getRemotePath());
+		} else {
+			try (final OutputStream outputStream = Files.newOutputStream(job.getLocalPath())) {
+				connection.get(job.getRemotePath(), outputStream);
+			} catch (final IOException e) {
+				throw new SSHException(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the scheduler. Jobs that have not started are cancelled and running jobs are interrupted.
+	 */
+	@Override
+	public void close() {
+		LOGGER.info("Closing transfer scheduler...");
+		closed = true;
+		workers.shutdownNow();
+		ScheduledTransfer transfer;
+		while ((transfer = pending.poll()) != null) {
+			getCounters(transfer.job.getQueue()).onCancelled(transfer.job);
+			transfer.future.completeExceptionally(new CancellationException("Transfer scheduler closed."));
+		}
+	}
+
+	/**
+	 * A job waiting in the pending queue along with the future returned to the caller that submitted it.
+	 */
+	private static final class ScheduledTransfer {
+		private final @NotNull TransferJob job;
+		private final long sequence;
+		private final @NotNull CompletableFuture<Void> future = new CompletableFuture<>();
+
+		private ScheduledTransfer(final @NotNull TransferJob job, final long sequence) {
+			this.job = job;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * Live progress counters of a single queue.
+	 */
+	private static final class QueueCounters {
+		private final @NotNull AtomicInteger queued = new AtomicInteger();
+		private final @NotNull AtomicInteger running = new AtomicInteger();
+		private final @NotNull AtomicInteger completed = new AtomicInteger();
+		private final @NotNull AtomicInteger failed = new AtomicInteger();
+		private final @NotNull AtomicInteger missedDeadlines = new AtomicInteger();
+		private final @NotNull AtomicLong pendingBytes = new AtomicLong();
+		private final @NotNull AtomicLong completedBytes = new AtomicLong();
+
+		private void onQueued(final @NotNull TransferJob job) {
+			queued.incrementAndGet();
+			pendingBytes.addAndGet(getKnownSize(job));
+		}
+
+		private void onStarted() {
+			queued.decrementAndGet();
+			running.incrementAndGet();
+		}
+
+		private void onCancelled(final @NotNull TransferJob job) {
+			queued.decrementAndGet();
+			pendingBytes.addAndGet(-getKnownSize(job));
+		}
+
+		private void onCompleted(final @NotNull TransferJob job) {
+			running.decrementAndGet();
+			completed.incrementAndGet();
+			final long size = getKnownSize(job);
+			pendingBytes.addAndGet(-size);
+			completedBytes.addAndGet(size);
+			final Instant deadline = job.getDeadline();
+			if (deadline != null && Instant.now().isAfter(deadline)) {
+				missedDeadlines.incrementAndGet();
+			}
+		}
+
+		private void onFailed(final @NotNull TransferJob job) {
+			running.decrementAndGet();
+			failed.incrementAndGet();
+			pendingBytes.addAndGet(-getKnownSize(job));
+		}
+
+		private static long getKnownSize(final @NotNull TransferJob job) {
+			return job.getSize() == TransferJob.UNKNOWN_SIZE ? 0L : job.getSize();
+		}
+
+		private @NotNull TransferProgress snapshot() {
+			return new TransferProgress(queued.get(), running.get(), completed.get(), failed.get(),
+																	missedDeadlines.get(), pendingBytes.get(), completedBytes.get());
+		}
+	}
+}
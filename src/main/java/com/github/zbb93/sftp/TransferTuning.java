@@ -0,0 +1,81 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+/**
+ * POJO containing the low level settings that determine how much data a Connection keeps in flight. A value of zero
+ * for any size leaves the default of the provider in place. This class is created by ConnectionParameters.Builder.
+ */
+@SuppressWarnings("ClassWithoutLogger") // POJO does not need logger
+public class TransferTuning {
+
+	/**
+	 * Number of bytes the remote server may send on a channel before waiting for the window to be adjusted.
+	 */
+	private final int windowSize;
+
+	/**
+	 * Largest SSH packet the remote server may send on a channel.
+	 */
+	private final int maxPacketSize;
+
+	/**
+	 * Number of read requests a download keeps outstanding at once.
+	 */
+	private final int bulkRequests;
+
+	/**
+	 * Whether the window size and bulk requests are grown to match the measured bandwidth-delay product.
+	 */
+	private final boolean autoTune;
+
+	TransferTuning(final int windowSize, final int maxPacketSize, final int bulkRequests, final boolean autoTune) {
+		this.windowSize = windowSize;
+		this.maxPacketSize = maxPacketSize;
+		this.bulkRequests = bulkRequests;
+		this.autoTune = autoTune;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	public int getMaxPacketSize() {
+		return maxPacketSize;
+	}
+
+	public int getBulkRequests() {
+		return bulkRequests;
+	}
+
+	public boolean isAutoTune() {
+		return autoTune;
+	}
+
+	@Override
+	@SuppressWarnings("MagicCharacter")
+	public String toString() {
+		return "TransferTuning{" +
+					 "windowSize=" + windowSize +
+					 ", maxPacketSize=" + maxPacketSize +
+					 ", bulkRequests=" + bulkRequests +
+					 ", autoTune=" + autoTune +
+					 '}';
+	}
+}
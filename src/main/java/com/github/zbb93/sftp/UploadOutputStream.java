@@ -0,0 +1,213 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OutputStream that feeds the bytes written to it to an UploadSubscriber. Bytes are collected into buffers of
+ * DownloadPublisher#CHUNK_SIZE, and a buffer is only passed to the subscriber once the subscriber has requested it,
+ * so a writer is blocked while the upload is behind instead of buffering the file in memory. The buffers are acquired
+ * from a BufferPool and the subscriber releases them once they have been written. Closing the stream waits for the
+ * upload to complete and reports any failure of the upload.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+class UploadOutputStream extends OutputStream {
+
+	/**
+	 * Interval at which a writer waiting for demand checks whether the upload has failed.
+	 */
+	private static final long FAILURE_CHECK_INTERVAL_MILLIS = 100;
+
+	private final @NotNull UploadSubscriber subscriber;
+
+	private final @NotNull BufferPool bufferPool;
+
+	/**
+	 * Number of buffers requested by the subscriber that have not been passed to it yet.
+	 */
+	private final @NotNull Semaphore demand = new Semaphore(0);
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Buffer being filled or null if it has been passed to the subscriber and no byte has been written since.
+	 */
+	private @Nullable ByteBuffer buffer;
+
+	private int count;
+
+	private boolean closed;
+
+	UploadOutputStream(final @NotNull UploadSubscriber subscriber, final @NotNull BufferPool bufferPool) {
+		this.subscriber = subscriber;
+		this.bufferPool = bufferPool;
+		subscriber.releaseBuffersTo(bufferPool);
+		subscriber.onSubscribe(new Subscription() {
+			@Override
+			public void request(final long n) {
+				demand.release((int) Math.min(n, Integer.MAX_VALUE / 2));
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+				// Wakes a writer that is waiting for demand.
+				demand.release();
+			}
+		});
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		ensureOpen();
+		final ByteBuffer current = getBuffer();
+		current.array()[current.arrayOffset() + count++] = (byte) b;
+	}
+
+	@Override
+	public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+		ensureOpen();
+		int written = 0;
+		while (written < len) {
+			final ByteBuffer current = getBuffer();
+			final int length = Math.min(len - written, current.limit() - count);
+			System.arraycopy(b, off + written, current.array(), current.arrayOffset() + count, length);
+			count += length;
+			written += length;
+		}
+	}
+
+	/**
+	 * Passes the bytes written so far to the subscriber. The subscriber writes them asynchronously, so they are not
+	 * necessarily on the remote server when this method returns.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (count > 0) {
+			send();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		if (count > 0) {
+			send();
+		}
+		releaseBuffer();
+		closed = true;
+		subscriber.onComplete();
+		awaitCompletion();
+	}
+
+	/**
+	 * @return buffer with room for at least one more byte, sending the current buffer first if it is full.
+	 */
+	private @NotNull ByteBuffer getBuffer() throws IOException {
+		ByteBuffer current = buffer;
+		if (current != null && count == current.limit()) {
+			send();
+			current = null;
+		}
+		if (current == null) {
+			current = bufferPool.acquire(DownloadPublisher.CHUNK_SIZE);
+			buffer = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Waits until the subscriber has requested a buffer and passes the current buffer to it. The subscriber owns the
+	 * buffer afterwards and releases it to the pool once it has been written.
+	 */
+	private void send() throws IOException {
+		try {
+			while (!demand.tryAcquire(FAILURE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (subscriber.getCompletion().isDone()) {
+					closed = true;
+					releaseBuffer();
+					awaitCompletion();
+					throw new IOException("Upload finished before the stream was closed.");
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the upload.");
+		}
+		if (cancelled) {
+			closed = true;
+			releaseBuffer();
+			awaitCompletion();
+			throw new IOException("Upload was cancelled.");
+		}
+		final ByteBuffer current = buffer;
+		//noinspection ConstantConditions a buffer is only sent once bytes have been written to it
+		current.limit(count);
+		buffer = null;
+		count = 0;
+		subscriber.onNext(current);
+	}
+
+	/**
+	 * Returns the buffer that will not be sent to the pool.
+	 */
+	private void releaseBuffer() {
+		final ByteBuffer current = buffer;
+		buffer = null;
+		count = 0;
+		if (current != null) {
+			bufferPool.release(current);
+		}
+	}
+
+	private void awaitCompletion() throws IOException {
+		try {
+			subscriber.getCompletion().get();
+		} catch (final ExecutionException e) {
+			closed = true;
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Upload failed: " + cause.getMessage(), cause);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the upload.");
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed.");
+		}
+	}
+}
@@ -0,0 +1,322 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Queues;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Subscriber that uploads the ByteBuffers it receives to a remote file. The remote file is opened, and a channel is
+ * obtained from the pool, once the subscription is received. At most PREFETCH buffers are requested ahead of the
+ * buffers that have been written, so a slow upload slows down the publisher instead of causing data to be buffered.
+ * Writes are performed on an executor and no thread is occupied while there is nothing to write.
+ *
+ * The upload is complete once the publisher completes and all buffers have been written. If the publisher signals an
+ * error the remote file is closed, leaving whatever was written so far, and the transfer is reported as unsuccessful.
+ * A subscriber can only be used once.
+ */
+public class UploadSubscriber implements PooledBufferSubscriber {
+
+	/**
+	 * Number of buffers requested ahead of the buffers that have been written.
+	 */
+	static final int PREFETCH = 4;
+
+	private final @NotNull StreamOpener<TransferOutputStream> opener;
+
+	private final @NotNull Executor executor;
+
+	/**
+	 * Provides the buffer used to copy direct buffers, which have no array, to the stream.
+	 */
+	private final @NotNull BufferPool bufferPool;
+
+	/**
+	 * Pool the received buffers were acquired from or null if they do not belong to a pool. Set by the publisher before
+	 * the subscription is received.
+	 */
+	private volatile @Nullable BufferPool chunkPool;
+
+	private final @NotNull CompletableFuture<Void> completion = new CompletableFuture<>();
+
+	/**
+	 * Buffers received from the publisher that have not been written yet. Bounded by PREFETCH because buffers are only
+	 * requested after earlier buffers have been written.
+	 */
+	private final @NotNull Queue<ByteBuffer> buffers = Queues.newConcurrentLinkedQueue();
+
+	/**
+	 * Number of times drain has been scheduled since it last finished.
+	 */
+	private final @NotNull AtomicInteger pendingDrains = new AtomicInteger();
+
+	private final @NotNull AtomicBoolean subscribed = new AtomicBoolean();
+
+	private volatile @Nullable Subscription subscription;
+
+	private volatile boolean publisherCompleted;
+
+	private volatile @Nullable Throwable publisherError;
+
+	/**
+	 * Reason the upload was cancelled by await or null if it has not been cancelled.
+	 */
+	private volatile @Nullable Exception cancellation;
+
+	/**
+	 * Stream of the remote file. Only accessed by drain.
+	 */
+	private @Nullable TransferOutputStream stream;
+
+	/**
+	 * Whether the upload has finished. Only accessed by drain.
+	 */
+	private boolean done;
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(UploadSubscriber.class.getName());
+
+	UploadSubscriber(final @NotNull StreamOpener<TransferOutputStream> opener, final @NotNull Executor executor,
+									 final @NotNull BufferPool bufferPool) {
+		this.opener = opener;
+		this.executor = executor;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @return future that is completed once the upload has finished, or completed exceptionally if the publisher
+	 * signalled an error or the upload failed.
+	 */
+	public @NotNull CompletableFuture<Void> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * Releases every received buffer to the given pool once it has been written or discarded.
+	 *
+	 * @param pool pool the buffers published to this subscriber are acquired from.
+	 */
+	@Override
+	public void releaseBuffersTo(final @NotNull BufferPool pool) {
+		chunkPool = pool;
+	}
+
+	/**
+	 * Waits until the upload has finished. If interrupted while waiting the upload is cancelled, which cancels the
+	 * subscription and closes the remote file, leaving whatever was written so far.
+	 *
+	 * @throws SSHException if the publisher signalled an error or the upload failed.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	void await() throws SSHException, InterruptedException {
+		try {
+			completion.get();
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			throw cause instanceof SSHException ? (SSHException) cause : new SSHException(cause);
+		} catch (final InterruptedException e) {
+			cancellation = e;
+			scheduleDrain();
+			throw e;
+		}
+	}
+
+	@Override
+	public void onSubscribe(final @NotNull Subscription subscription) {
+		//noinspection ConstantConditions rule 2.13 of the specification requires a NullPointerException
+		if (subscription == null) {
+			throw new NullPointerException("Subscription must not be null.");
+		}
+		if (!subscribed.compareAndSet(false, true)) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		scheduleDrain();
+	}
+
+	@Override
+	public void onNext(final @NotNull ByteBuffer buffer) {
+		//noinspection ConstantConditions rule 2.13 of the specification requires a NullPointerException
+		if (buffer == null) {
+			throw new NullPointerException("Buffer must not be null.");
+		}
+		buffers.add(buffer);
+		scheduleDrain();
+	}
+
+	@Override
+	public void onError(final @NotNull Throwable throwable) {
+		//noinspection ConstantConditions rule 2.13 of the specification requires a NullPointerException
+		if (throwable == null) {
+			throw new NullPointerException("Throwable must not be null.");
+		}
+		publisherError = throwable;
+		scheduleDrain();
+	}
+
+	@Override
+	public void onComplete() {
+		publisherCompleted = true;
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		if (pendingDrains.getAndIncrement() == 0) {
+			executor.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		int missed = 1;
+		do {
+			drainOnce();
+			missed = pendingDrains.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void drainOnce() {
+		final Subscription currentSubscription = subscription;
+		if (done || currentSubscription == null) {
+			return;
+		}
+		final Exception cancelled = cancellation;
+		if (cancelled != null) {
+			currentSubscription.cancel();
+			abort(cancelled);
+			return;
+		}
+		try {
+			if (stream == null) {
+				stream = opener.open();
+				currentSubscription.request(PREFETCH);
+			}
+			ByteBuffer buffer;
+			while ((buffer = buffers.poll()) != null) {
+				try {
+					write(buffer);
+				} finally {
+					releaseChunk(buffer);
+				}
+				currentSubscription.request(1);
+			}
+			final Throwable error = publisherError;
+			if (error != null) {
+				finish(false);
+				completion.completeExceptionally(error);
+			} else if (publisherCompleted && buffers.isEmpty()) {
+				finish(true);
+				completion.complete(null);
+			}
+		} catch (final IOException | SSHException | RuntimeException e) {
+			currentSubscription.cancel();
+			abort(e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			currentSubscription.cancel();
+			abort(e);
+		}
+	}
+
+	private void write(final @NotNull ByteBuffer buffer) throws IOException {
+		//noinspection ConstantConditions the stream is opened before any buffer is written
+		final OutputStream out = stream;
+		if (buffer.hasArray()) {
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			final ByteBuffer chunk = bufferPool.acquire(Math.min(buffer.remaining(), DownloadPublisher.CHUNK_SIZE));
+			try {
+				final byte[] array = chunk.array();
+				while (buffer.hasRemaining()) {
+					final int length = Math.min(buffer.remaining(), chunk.limit());
+					buffer.get(array, chunk.arrayOffset(), length);
+					out.write(array, chunk.arrayOffset(), length);
+				}
+			} finally {
+				bufferPool.release(chunk);
+			}
+		}
+	}
+
+	private void releaseChunk(final @NotNull ByteBuffer buffer) {
+		final BufferPool pool = chunkPool;
+		if (pool != null) {
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Releases the buffers that will no longer be written.
+	 */
+	private void discardBuffers() {
+		ByteBuffer buffer;
+		while ((buffer = buffers.poll()) != null) {
+			releaseChunk(buffer);
+		}
+	}
+
+	/**
+	 * Closes the remote file, which returns its channel to the pool.
+	 *
+	 * @param successful whether the publisher completed, or signalled an error so that the transfer is reported as
+	 *                   unsuccessful.
+	 * @throws IOException if the remote file cannot be closed.
+	 */
+	private void finish(final boolean successful) throws IOException {
+		done = true;
+		discardBuffers();
+		final TransferOutputStream out = stream;
+		stream = null;
+		if (out != null) {
+			if (!successful) {
+				out.fail();
+			}
+			out.close();
+		}
+	}
+
+	private void abort(final @NotNull Exception e) {
+		done = true;
+		discardBuffers();
+		final TransferOutputStream out = stream;
+		stream = null;
+		if (out != null) {
+			out.fail();
+			try {
+				out.close();
+			} catch (final IOException closeException) {
+				LOGGER.warning("Unable to close upload stream: " + closeException.getMessage());
+			}
+		}
+		completion.completeExceptionally(e);
+	}
+}
@@ -18,26 +18,28 @@
 package com.github.zbb93.sftp.jsch;
 
 import com.github.zbb93.sftp.AbstractChannelPool;
+import com.github.zbb93.sftp.AlgorithmPreferences;
 import com.github.zbb93.sftp.Channel;
 import com.github.zbb93.sftp.RemoteHost;
+import com.github.zbb93.sftp.ResourceGovernor;
 import com.github.zbb93.sftp.SSHException;
+import com.github.zbb93.sftp.ServerCapabilities;
+import com.github.zbb93.sftp.SocketOptions;
+import com.github.zbb93.sftp.TransferTuning;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class JschChannelPool extends AbstractChannelPool {
-	// JSch has a static configuration map that is shared amongst all instances of JSch objects.
-	static {
-		final Hashtable<String, String> config = new Hashtable<>(1);
-		// TODO ZB this should be configurable
-		config.put("StrictHostKeyChecking", "no");
-		JSch.setConfig(config);
-	}
 
 	/**
 	 * JSch Session Object. Best thought of as an SSH connection that we can use to obtain an SFTP channel. Before using
@@ -50,25 +52,103 @@ public class JschChannelPool extends AbstractChannelPool {
 	 */
 	private static final @NotNull String SFTP_CHANNEL = "sftp";
 
+	/**
+	 * Compression methods offered when compression is requested. JSch falls back to the next method when the remote
+	 * server does not support one.
+	 */
+	private static final @NotNull String COMPRESSION_METHODS = AlgorithmPreferences.ZLIB_OPENSSH + ",zlib,none";
+
+	/**
+	 * Window, packet and request settings requested for this pool.
+	 */
+	private final @NotNull TransferTuning transferTuning;
+
+	/**
+	 * Every JSch channel opened by this pool. The first one is used to measure the round trip time.
+	 */
+	private final @NotNull List<ChannelSftp> sftpChannels = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Window size of the channels of this pool. Connected channels pick up changes the next time they are handed out.
+	 */
+	private volatile int windowSize;
+
+	/**
+	 * Bulk request count of the channels of this pool. Connected channels pick up changes the next time they are handed
+	 * out.
+	 */
+	private volatile int bulkRequests;
+
+	/**
+	 * Round trip time to the remote server measured while auto-tuning or zero if it has not been measured.
+	 */
+	private volatile long roundTripNanos;
+
+	/**
+	 * Window size JSch uses for SFTP channels.
+	 */
+	private static final int DEFAULT_WINDOW_SIZE = 2 * 1024 * 1024;
+
+	/**
+	 * Bulk request count JSch uses for SFTP channels.
+	 */
+	private static final int DEFAULT_BULK_REQUESTS = 16;
+
+	/**
+	 * Bulk request count used for servers that announce limits@openssh.com. Such servers are recent OpenSSH releases
+	 * that serve large numbers of outstanding requests, which the OpenSSH client keeps 64 of.
+	 */
+	private static final int LIMITS_BULK_REQUESTS = 64;
+
+	/**
+	 * Approximate payload of a single read request made by JSch.
+	 */
+	private static final int REQUEST_SIZE = 32 * 1024;
+
+	/**
+	 * Upper bound of the window size chosen by auto-tuning.
+	 */
+	private static final int MAX_AUTO_TUNED_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * A transfer whose throughput reaches this fraction of the bytes in flight divided by the round trip time is
+	 * considered to be limited by the window or the bulk requests. JSch does not keep every request outstanding all of
+	 * the time, so in practice a limited transfer stays well below the theoretical rate.
+	 */
+	private static final double IN_FLIGHT_LIMITED_RATIO = 0.5;
+
+	/**
+	 * Number of round trips used to measure the round trip time. The shortest one is used.
+	 */
+	private static final int ROUND_TRIP_SAMPLES = 3;
+
 	private static final @NotNull Logger LOGGER = Logger.getLogger(JschChannelPool.class.getName());
 
 	@SuppressWarnings("FeatureEnvy")
 	public JschChannelPool(final @NotNull RemoteHost host, final @NotNull String user, final byte[] password,
-												 final int poolSize) throws SSHException {
-		super(poolSize);
+												 final int poolSize, final @NotNull TransferTuning transferTuning,
+												 final @NotNull AlgorithmPreferences algorithmPreferences,
+												 final @NotNull SocketOptions socketOptions,
+												 final @NotNull ResourceGovernor resourceGovernor) throws SSHException {
+		super(poolSize, host.getUrl() + ':' + host.getPort(), resourceGovernor);
+		this.transferTuning = transferTuning;
+		windowSize = transferTuning.getWindowSize() > 0 ? transferTuning.getWindowSize() : DEFAULT_WINDOW_SIZE;
+		bulkRequests = transferTuning.getBulkRequests() > 0 ? transferTuning.getBulkRequests() : DEFAULT_BULK_REQUESTS;
 		final String url = host.getUrl();
 		final int port = host.getPort();
 		final int timeout = host.getTimeout();
-		session = buildJschSession(url, user, password, port, timeout);
+		session = buildJschSession(url, user, password, port, timeout, socketOptions);
+		configureAlgorithms(algorithmPreferences);
 	}
 
 	private Session buildJschSession(final @NotNull String host, final @NotNull String user, final byte[] password,
-																	 final int port, final int timeout)
+																	 final int port, final int timeout, final @NotNull SocketOptions socketOptions)
 			throws SSHException {
 		final JSch jsch = new JSch();
 		try {
 			final Session session = jsch.getSession(user, host, port);
 			session.setTimeout(timeout);
+			session.setSocketFactory(new JschSocketFactory(timeout, socketOptions));
 			setPassword(session, password);
 			return session;
 		} catch (final JSchException e) {
@@ -77,6 +157,44 @@ public class JschChannelPool extends AbstractChannelPool {
 		}
 	}
 
+	/**
+	 * Applies configuration to the session. JSch also has a static configuration map that is shared amongst all
+	 * instances of JSch objects, but session configuration takes precedence and only affects this pool.
+	 *
+	 * @param algorithmPreferences cipher, MAC, key exchange and compression preferences.
+	 */
+	private void configureAlgorithms(final @NotNull AlgorithmPreferences algorithmPreferences) {
+		final Hashtable<String, String> config = new Hashtable<>();
+		// TODO ZB this should be configurable
+		config.put("StrictHostKeyChecking", "no");
+		final List<String> ciphers = algorithmPreferences.getCiphers();
+		if (!ciphers.isEmpty()) {
+			final String cipherList = String.join(",", ciphers);
+			config.put("cipher.s2c", cipherList);
+			config.put("cipher.c2s", cipherList);
+			// Only offer the configured ciphers that this JVM can actually use.
+			config.put("CheckCiphers", cipherList);
+		}
+		final List<String> macs = algorithmPreferences.getMacs();
+		if (!macs.isEmpty()) {
+			final String macList = String.join(",", macs);
+			config.put("mac.s2c", macList);
+			config.put("mac.c2s", macList);
+		}
+		final List<String> keyExchanges = algorithmPreferences.getKeyExchanges();
+		if (!keyExchanges.isEmpty()) {
+			config.put("kex", String.join(",", keyExchanges));
+		}
+		if (algorithmPreferences.isCompression()) {
+			config.put("compression.s2c", COMPRESSION_METHODS);
+			config.put("compression.c2s", COMPRESSION_METHODS);
+			if (algorithmPreferences.getCompressionLevel() > 0) {
+				config.put("compression_level", Integer.toString(algorithmPreferences.getCompressionLevel()));
+			}
+		}
+		session.setConfig(config);
+	}
+
 	private void setPassword(final @NotNull Session session, final @NotNull byte[] password) {
 		session.setPassword(password);
 		clearByteArray(password);
@@ -106,8 +224,12 @@ public class JschChannelPool extends AbstractChannelPool {
 		LOGGER.info("Obtaining Channel from JSch...");
 		try {
 			final ChannelSftp channel = (ChannelSftp) session.openChannel(SFTP_CHANNEL);
+			applyTuning(channel);
 			final Channel jschSftpChannel = new JschSftpChannel(channel);
 			jschSftpChannel.connect();
+			// Channels closed on behalf of the resource governor are no longer needed here.
+			sftpChannels.removeIf(ChannelSftp::isClosed);
+			sftpChannels.add(channel);
 			LOGGER.info("Successfully obtained Channel from JSch");
 			return jschSftpChannel;
 		} catch (final JSchException e) {
@@ -116,6 +238,130 @@ public class JschChannelPool extends AbstractChannelPool {
 		}
 	}
 
+	/**
+	 * Applies the current tuning to a channel that has not been connected yet.
+	 *
+	 * @param channel channel to tune.
+	 */
+	private void applyTuning(final @NotNull ChannelSftp channel) {
+		if (windowSize != DEFAULT_WINDOW_SIZE) {
+			JschChannelTuning.setWindowSize(channel, windowSize);
+		}
+		if (transferTuning.getMaxPacketSize() > 0) {
+			JschChannelTuning.setMaxPacketSize(channel, transferTuning.getMaxPacketSize());
+		}
+		if (bulkRequests != DEFAULT_BULK_REQUESTS) {
+			JschChannelTuning.setBulkRequests(channel, bulkRequests);
+		}
+	}
+
+	/**
+	 * Applies settings changed since the channel was last handed out. A download reads the bulk request count of its
+	 * channel throughout, so the settings are never changed while a channel is in use.
+	 *
+	 * @param channel channel about to be handed out.
+	 */
+	@Override
+	protected void prepareChannel(final @NotNull Channel channel) {
+		final ChannelSftp sftpChannel = ((JschSftpChannel) channel).getChannelSftp();
+		if (windowSize != DEFAULT_WINDOW_SIZE) {
+			JschChannelTuning.setWindowSize(sftpChannel, windowSize);
+		}
+		if (sftpChannel.getBulkRequests() != bulkRequests) {
+			JschChannelTuning.setBulkRequests(sftpChannel, bulkRequests);
+		}
+	}
+
+	/**
+	 * Initializes the pool, applies the request settings supported by the remote server and, if auto-tuning is enabled,
+	 * measures the round trip time to the remote server.
+	 *
+	 * @throws SSHException if an error occurs connecting to the remote server.
+	 */
+	@Override
+	public void initialize() throws SSHException {
+		super.initialize();
+		if (getServerCapabilities().supportsLimits()) {
+			useServerLimits();
+		}
+		if (transferTuning.isAutoTune()) {
+			measureRoundTripTime();
+		}
+	}
+
+	/**
+	 * JSch always reads and writes 32K per request, so the larger requests a server announcing limits@openssh.com
+	 * accepts cannot be used. Keeping more of those requests outstanding has the same effect on throughput. Bulk
+	 * requests that were configured explicitly are left alone, and the count never exceeds what fits in the window.
+	 */
+	private synchronized void useServerLimits() {
+		final int serverBulkRequests = Math.min(LIMITS_BULK_REQUESTS, windowSize / REQUEST_SIZE);
+		if (transferTuning.getBulkRequests() > 0 || serverBulkRequests <= bulkRequests) {
+			return;
+		}
+		bulkRequests = serverBulkRequests;
+		LOGGER.info(String.format("Server supports %s, bulk requests set to %d.", ServerCapabilities.LIMITS,
+															bulkRequests));
+	}
+
+	/**
+	 * Measures the round trip time using stat requests on a channel. The pool has not been handed out yet, so the
+	 * channel is not in use by anyone else.
+	 *
+	 * @throws SSHException if an error occurs communicating with the remote server.
+	 */
+	private void measureRoundTripTime() throws SSHException {
+		final ChannelSftp channel = sftpChannels.get(0);
+		long shortest = Long.MAX_VALUE;
+		try {
+			for (int i = 0; i < ROUND_TRIP_SAMPLES; i++) {
+				final long start = System.nanoTime();
+				channel.stat(".");
+				shortest = Math.min(shortest, System.nanoTime() - start);
+			}
+		} catch (final SftpException e) {
+			throw new SSHException(e);
+		}
+		roundTripNanos = shortest;
+		LOGGER.info(String.format("Measured round trip time of %d microseconds.", TimeUnit.NANOSECONDS.toMicros(shortest)));
+	}
+
+	/**
+	 * When auto-tuning, checks whether the transfer was limited by the amount of data JSch keeps in flight. JSch only
+	 * adjusts the window once half of it has been consumed and only keeps a fixed number of read requests outstanding,
+	 * so the amount in flight is the smaller of half the window size and the bulk requests times the request size. A
+	 * single download cannot be faster than that amount divided by the round trip time, so a transfer that comes close
+	 * to that rate indicates that it is smaller than the bandwidth-delay product. In that case the window size and the
+	 * bulk requests are doubled. Connected channels pick them up the next time they are handed out.
+	 *
+	 * @param bytes number of bytes transferred.
+	 * @param nanos time the transfer took in nanoseconds.
+	 */
+	@Override
+	public void reportTransfer(final long bytes, final long nanos) {
+		final long roundTrip = roundTripNanos;
+		final long inFlight = getBytesInFlight();
+		if (!transferTuning.isAutoTune() || roundTrip == 0 || nanos == 0 || bytes < inFlight) {
+			return;
+		}
+		final double throughput = bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+		final double inFlightLimit = inFlight * (double) TimeUnit.SECONDS.toNanos(1) / roundTrip;
+		if (throughput >= IN_FLIGHT_LIMITED_RATIO * inFlightLimit && windowSize < MAX_AUTO_TUNED_WINDOW_SIZE) {
+			growBytesInFlight();
+		}
+	}
+
+	private long getBytesInFlight() {
+		return Math.min(windowSize / 2, (long) bulkRequests * REQUEST_SIZE);
+	}
+
+	private synchronized void growBytesInFlight() {
+		windowSize = Math.min(MAX_AUTO_TUNED_WINDOW_SIZE, windowSize * 2);
+		bulkRequests = Math.min(windowSize / REQUEST_SIZE, bulkRequests * 2);
+		LOGGER.info(String.format("Transfers are limited by the amount of data in flight. Window size set to %d bytes, " +
+															"bulk requests set to %d.", windowSize, bulkRequests));
+	}
+
 	/**
 	 * Disconnects the JSch channel from the SSH server
 	 */
@@ -133,7 +379,9 @@ public class JschChannelPool extends AbstractChannelPool {
 		return "JschChannelPool{" +
 					 "user=" + session.getUserName() + ',' +
 					 "host=" + session.getHost() + ',' +
-					 "poolSize=" + getPoolSize() +
+					 "poolSize=" + getPoolSize() + ',' +
+					 "windowSize=" + windowSize + ',' +
+					 "bulkRequests=" + bulkRequests +
 					 '}';
 	}
 }
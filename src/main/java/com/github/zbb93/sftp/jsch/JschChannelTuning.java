@@ -0,0 +1,99 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp.jsch;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Method;
+import java.util.logging.Logger;
+
+/**
+ * Adjusts the flow control settings of JSch channels. JSch only exposes the bulk request count publicly, so the
+ * window and packet size setters of com.jcraft.jsch.Channel are invoked reflectively. If they cannot be accessed the
+ * JSch defaults remain in place and a warning is logged.
+ */
+final class JschChannelTuning {
+	private static final Method SET_LOCAL_WINDOW_SIZE_MAX = findChannelMethod("setLocalWindowSizeMax");
+	private static final Method SET_LOCAL_WINDOW_SIZE = findChannelMethod("setLocalWindowSize");
+	private static final Method SET_LOCAL_PACKET_SIZE = findChannelMethod("setLocalPacketSize");
+
+	private static final @NotNull Logger LOGGER = Logger.getLogger(JschChannelTuning.class.getName());
+
+	private JschChannelTuning() { }
+
+	private static Method findChannelMethod(final @NotNull String name) {
+		try {
+			final Method method = com.jcraft.jsch.Channel.class.getDeclaredMethod(name, int.class);
+			method.setAccessible(true);
+			return method;
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			Logger.getLogger(JschChannelTuning.class.getName()).warning("JSch channel tuning unavailable: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the window size of a channel. The initial window is only sent to the server when the channel is opened, but
+	 * the maximum is consulted every time JSch adjusts the window so it also takes effect on connected channels.
+	 *
+	 * @param channel channel to tune.
+	 * @param windowSize window size in bytes.
+	 */
+	static void setWindowSize(final @NotNull ChannelSftp channel, final int windowSize) {
+		invoke(SET_LOCAL_WINDOW_SIZE_MAX, channel, windowSize);
+		if (!channel.isConnected()) {
+			invoke(SET_LOCAL_WINDOW_SIZE, channel, windowSize);
+		}
+	}
+
+	/**
+	 * Sets the maximum packet size of a channel. Must be called before the channel is connected.
+	 *
+	 * @param channel channel to tune.
+	 * @param maxPacketSize maximum packet size in bytes.
+	 */
+	static void setMaxPacketSize(final @NotNull ChannelSftp channel, final int maxPacketSize) {
+		invoke(SET_LOCAL_PACKET_SIZE, channel, maxPacketSize);
+	}
+
+	/**
+	 * @param channel channel to tune.
+	 * @param bulkRequests number of outstanding read requests per download.
+	 */
+	static void setBulkRequests(final @NotNull ChannelSftp channel, final int bulkRequests) {
+		try {
+			channel.setBulkRequests(bulkRequests);
+		} catch (final JSchException e) {
+			LOGGER.warning("Unable to set bulk requests: " + e.getMessage());
+		}
+	}
+
+	private static void invoke(final Method method, final @NotNull ChannelSftp channel, final int value) {
+		if (method == null) {
+			return;
+		}
+		try {
+			method.invoke(channel, value);
+		} catch (final ReflectiveOperationException e) {
+			LOGGER.warning("Unable to invoke " + method.getName() + ": " + e);
+		}
+	}
+}
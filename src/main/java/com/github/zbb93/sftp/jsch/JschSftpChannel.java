@@ -19,17 +19,28 @@
 package com.github.zbb93.sftp.jsch;
 
 import com.github.zbb93.sftp.Channel;
+import com.github.zbb93.sftp.ListingVisitor;
 import com.github.zbb93.sftp.RemoteFile;
+import com.github.zbb93.sftp.RemoteFileException;
 import com.github.zbb93.sftp.SSHException;
+import com.github.zbb93.sftp.ServerCapabilities;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class JschSftpChannel implements Channel {
@@ -41,6 +52,13 @@ public class JschSftpChannel implements Channel {
 		this.channel = channel;
 	}
 
+	/**
+	 * @return JSch channel wrapped by this channel.
+	 */
+	@NotNull com.jcraft.jsch.ChannelSftp getChannelSftp() {
+		return channel;
+	}
+
 	@Override
 	public void connect() throws SSHException {
 		LOGGER.info("Opening JSch SFTP channel...");
@@ -67,7 +85,24 @@ public class JschSftpChannel implements Channel {
 			return RemoteFile.getRemoteFilesForDirectory(directoryListing);
 		} catch (final SftpException e) {
 			LOGGER.severe("Encountered an error obtaining the directory listing: " + e.getMessage());
-			throw new SSHException(e);
+			throw toSSHException(e);
+		}
+	}
+
+	@Override
+	public void ls(final @NotNull String path, final @NotNull ListingVisitor visitor) throws SSHException {
+		LOGGER.info("Using JSch ChannelSftp to visit listing of directory: " + path);
+		Preconditions.checkArgument(!path.isEmpty(), "Empty string provided as path");
+		try {
+			channel.ls(path, entry -> {
+				final SftpATTRS attributes = entry.getAttrs();
+				visitor.visit(entry.getFilename(), String.valueOf(attributes.getUId()), String.valueOf(attributes.getGId()),
+											attributes.getSize(), Integer.toUnsignedLong(attributes.getMTime()), attributes.isDir());
+				return ChannelSftp.LsEntrySelector.CONTINUE;
+			});
+		} catch (final SftpException e) {
+			LOGGER.severe("Encountered an error obtaining the directory listing: " + e.getMessage());
+			throw toSSHException(e);
 		}
 	}
 
@@ -80,7 +115,19 @@ public class JschSftpChannel implements Channel {
 			LOGGER.info("File transferred successfully.");
 		} catch (final SftpException e) {
 			LOGGER.severe("An error occurred while uploading the file: " + e.getMessage());
-			throw new SSHException(e);
+			throw toSSHException(e);
+		}
+	}
+
+	@Override
+	public void put(final @NotNull InputStream source, final @NotNull String dest) throws SSHException {
+		LOGGER.info("Using JSch ChannelSftp to upload stream to " + dest);
+		try {
+			channel.put(source, dest);
+			LOGGER.info("Stream transferred successfully.");
+		} catch (final SftpException e) {
+			LOGGER.severe("An error occurred while uploading the stream: " + e.getMessage());
+			throw toSSHException(e);
 		}
 	}
 
@@ -89,22 +136,55 @@ public class JschSftpChannel implements Channel {
 		try {
 			channel.rm(path);
 		} catch (final SftpException e) {
-			throw new SSHException(e);
+			throw toSSHException(e);
+		}
+	}
+
+	@Override
+	public void rename(final @NotNull String source, final @NotNull String destination) throws SSHException {
+		try {
+			channel.rename(source, destination);
+		} catch (final SftpException e) {
+			throw toSSHException(e);
 		}
 	}
 
 	@Override
 	public void get(final @NotNull String source, final @NotNull OutputStream outputStream) throws SSHException {
 		LOGGER.info(String.format("Using JSch ChannelSftp to download file %s", source));
-		try {
-			channel.get(source, outputStream);
+		// ChannelSftp#get(String, OutputStream) neither reads the outstanding responses nor closes the file when the
+		// OutputStream throws, which leaves the channel unusable. Closing the InputStream does both.
+		try (final InputStream inputStream = openInputStream(source, 0)) {
+			ByteStreams.copy(inputStream, outputStream);
 			LOGGER.info("File download successfully initialized");
-		} catch (final SftpException e) {
+		} catch (final IOException e) {
 			LOGGER.severe("An error occurred while downloading the file: " + e.getMessage());
 			throw new SSHException(e);
 		}
 	}
 
+	@Override
+	public @NotNull InputStream openInputStream(final @NotNull String path, final long offset) throws SSHException {
+		LOGGER.info(String.format("Using JSch ChannelSftp to open %s for reading at offset %d", path, offset));
+		try {
+			return channel.get(path, null, offset);
+		} catch (final SftpException e) {
+			LOGGER.severe("An error occurred while opening the file: " + e.getMessage());
+			throw toSSHException(e);
+		}
+	}
+
+	@Override
+	public @NotNull OutputStream openOutputStream(final @NotNull String path) throws SSHException {
+		LOGGER.info("Using JSch ChannelSftp to open " + path + " for writing");
+		try {
+			return channel.put(path);
+		} catch (final SftpException e) {
+			LOGGER.severe("An error occurred while opening the file: " + e.getMessage());
+			throw toSSHException(e);
+		}
+	}
+
 	@Override
 	public void mkdir(final @NotNull String path) throws SSHException {
 		LOGGER.info("Using JSch ChannelSftp to create directory " + path);
@@ -113,7 +193,59 @@ public class JschSftpChannel implements Channel {
 			LOGGER.info("Directory created successfully");
 		} catch (final SftpException e) {
 			LOGGER.severe("An error occurred while creating the directory: " + e.getMessage());
-			throw new SSHException(e);
+			throw toSSHException(e);
+		}
+	}
+
+	@Override
+	public void rmdir(final @NotNull String path) throws SSHException {
+		LOGGER.info("Using JSch ChannelSftp to remove directory " + path);
+		try {
+			channel.rmdir(path);
+		} catch (final SftpException e) {
+			LOGGER.severe("An error occurred while removing the directory: " + e.getMessage());
+			throw toSSHException(e);
+		}
+	}
+
+	@Override
+	public @Nullable RemoteFile stat(final @NotNull String path) throws SSHException {
+		LOGGER.info("Using JSch ChannelSftp to obtain attributes of " + path);
+		try {
+			final SftpATTRS attributes = channel.stat(path);
+			final String owner = String.valueOf(attributes.getUId());
+			final String group = String.valueOf(attributes.getGId());
+			return RemoteFile.fromAttributes(getFileName(path), owner, group, attributes.getSize(), attributes.isDir(),
+																			 Integer.toUnsignedLong(attributes.getMTime()));
+		} catch (final SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				LOGGER.info("No file exists at " + path);
+				return null;
+			}
+			LOGGER.severe("An error occurred while obtaining file attributes: " + e.getMessage());
+			throw toSSHException(e);
+		}
+	}
+
+	private static @NotNull String getFileName(final @NotNull String path) {
+		final int separatorIndex = path.lastIndexOf('/');
+		return separatorIndex < 0 ? path : path.substring(separatorIndex + 1);
+	}
+
+	@Override
+	public @NotNull ServerCapabilities getServerCapabilities() throws SSHException {
+		LOGGER.info("Using JSch ChannelSftp to obtain the capabilities of the server.");
+		try {
+			final Map<String, String> extensions = Maps.newLinkedHashMap();
+			for (final String name : ServerCapabilities.KNOWN_EXTENSIONS) {
+				final String version = channel.getExtension(name);
+				if (version != null) {
+					extensions.put(name, version);
+				}
+			}
+			return new ServerCapabilities(channel.getServerVersion(), extensions);
+		} catch (final SftpException e) {
+			throw toSSHException(e);
 		}
 	}
 
@@ -125,7 +257,7 @@ public class JschSftpChannel implements Channel {
 			LOGGER.info("Successfully obtained working directory.");
 			return workingDirectory;
 		} catch (final SftpException e) {
-			throw new SSHException(e);
+			throw toSSHException(e);
 		}
 	}
 
@@ -136,7 +268,22 @@ public class JschSftpChannel implements Channel {
 			channel.cd(targetDirectory);
 		} catch (final SftpException e) {
 			LOGGER.severe("Error occurred while attempting to change directories: " + e.getMessage());
-			throw new SSHException(e);
+			throw toSSHException(e);
+		}
+	}
+
+	/**
+	 * Wraps an SftpException. Status codes with which the server rejects a request because of the file it names become
+	 * RemoteFileExceptions, anything else may be a problem with the channel.
+	 */
+	private static @NotNull SSHException toSSHException(final @NotNull SftpException e) {
+		switch (e.id) {
+			case ChannelSftp.SSH_FX_NO_SUCH_FILE:
+				return new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, e);
+			case ChannelSftp.SSH_FX_PERMISSION_DENIED:
+				return new RemoteFileException(RemoteFileException.Reason.PERMISSION_DENIED, e);
+			default:
+				return new SSHException(e);
 		}
 	}
 
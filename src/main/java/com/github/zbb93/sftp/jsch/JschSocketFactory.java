@@ -0,0 +1,91 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp.jsch;
+
+import com.github.zbb93.sftp.SocketOptions;
+import org.jetbrains.annotations.NotNull;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * JSch SocketFactory that applies socket options before connecting to the remote server. Buffer sizes must be set
+ * before the socket is connected for the TCP window scale to be negotiated accordingly.
+ */
+@SuppressWarnings("ClassWithoutLogger")
+class JschSocketFactory implements com.jcraft.jsch.SocketFactory {
+	/**
+	 * Connect timeout in milliseconds.
+	 */
+	private final int timeout;
+	private final @NotNull SocketOptions socketOptions;
+
+	/**
+	 * @param timeout connect timeout in milliseconds or zero to wait indefinitely.
+	 * @param socketOptions options to apply to every socket created by this factory.
+	 */
+	JschSocketFactory(final int timeout, final @NotNull SocketOptions socketOptions) {
+		this.timeout = timeout;
+		this.socketOptions = socketOptions;
+	}
+
+	@Override
+	public Socket createSocket(final @NotNull String host, final int port) throws IOException {
+		final SocketFactory socketFactory = socketOptions.getSocketFactory();
+		final Socket socket = socketFactory == null ? new Socket() : socketFactory.createSocket();
+		try {
+			if (socketOptions.getSendBufferSize() > 0) {
+				socket.setSendBufferSize(socketOptions.getSendBufferSize());
+			}
+			if (socketOptions.getReceiveBufferSize() > 0) {
+				socket.setReceiveBufferSize(socketOptions.getReceiveBufferSize());
+			}
+			socket.setKeepAlive(socketOptions.isKeepAlive());
+			final InetAddress localAddress = socketOptions.getLocalAddress();
+			if (localAddress != null) {
+				socket.bind(new InetSocketAddress(localAddress, 0));
+			}
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			return socket;
+		} catch (final SocketTimeoutException e) {
+			socket.close();
+			// Same message JSch uses when it creates the socket itself.
+			throw new SocketTimeoutException("timeout: socket is not established");
+		} catch (final IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public InputStream getInputStream(final @NotNull Socket socket) throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream(final @NotNull Socket socket) throws IOException {
+		return socket.getOutputStream();
+	}
+}
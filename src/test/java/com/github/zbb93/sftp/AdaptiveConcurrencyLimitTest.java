@@ -0,0 +1,102 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Ticker;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates a link whose aggregate throughput stops growing once a fixed number of transfers run concurrently and
+ * verifies that the adaptive limit settles at that number.
+ */
+public class AdaptiveConcurrencyLimitTest {
+
+	private static final int KNEE = 6;
+	private static final long BYTES_PER_TRANSFER_SECOND = 1024 * 1024;
+
+	@Test
+	public void testLimitSettlesAtKnee() throws Exception {
+		final ManualTicker ticker = new ManualTicker();
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 16, ticker);
+		simulate(limit, ticker, 40, false);
+		Assert.assertThat("Limit did not settle at the knee: " + limit.getLimit(),
+											limit.getLimit() >= KNEE && limit.getLimit() <= KNEE + 1, CoreMatchers.is(true));
+	}
+
+	@Test
+	public void testFailuresReduceLimit() throws Exception {
+		final ManualTicker ticker = new ManualTicker();
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 16, ticker);
+		simulate(limit, ticker, 40, false);
+		final int settled = limit.getLimit();
+		simulate(limit, ticker, 2, true);
+		Assert.assertThat("Failures did not reduce the limit.", limit.getLimit() < settled, CoreMatchers.is(true));
+	}
+
+	@Test
+	public void testLimitStaysWithinBounds() throws Exception {
+		final ManualTicker ticker = new ManualTicker();
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 4, ticker);
+		simulate(limit, ticker, 40, false);
+		Assert.assertThat(limit.getLimit(), CoreMatchers.is(4));
+		simulate(limit, ticker, 10, true);
+		Assert.assertThat(limit.getLimit(), CoreMatchers.is(2));
+	}
+
+	/**
+	 * Keeps the limit saturated for the provided number of one second windows. Each transfer takes one second and the
+	 * bytes it moves are its share of the throughput of the link at the current concurrency.
+	 */
+	private static void simulate(final AdaptiveConcurrencyLimit limit, final ManualTicker ticker, final int windows,
+															 final boolean failing) throws InterruptedException {
+		int inFlight = 0;
+		for (int window = 0; window < windows; window++) {
+			final int concurrency = limit.getLimit();
+			while (inFlight < concurrency) {
+				limit.acquire();
+				inFlight++;
+			}
+			final long bytes = BYTES_PER_TRANSFER_SECOND * Math.min(concurrency, KNEE) / concurrency;
+			final long windowStart = ticker.read();
+			for (int i = 0; i < concurrency; i++) {
+				// Completions are spread evenly so that the last one ends the window exactly.
+				ticker.set(windowStart + TimeUnit.SECONDS.toNanos(1) * (i + 1) / concurrency);
+				limit.release(bytes, TimeUnit.SECONDS.toNanos(1), !failing);
+				inFlight--;
+			}
+		}
+	}
+
+	private static final class ManualTicker extends Ticker {
+		private long nanos;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+
+		private void set(final long nanos) {
+			this.nanos = nanos;
+		}
+	}
+}
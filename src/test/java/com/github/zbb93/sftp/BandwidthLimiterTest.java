@@ -0,0 +1,110 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BandwidthLimiterTest {
+
+	@Test
+	public void testUnlimitedDoesNotBlock() throws Exception {
+		final BandwidthLimiter limiter = new BandwidthLimiter(0, null);
+		final long start = System.nanoTime();
+		limiter.acquire(Integer.MAX_VALUE / 2);
+		Assert.assertThat("Unlimited limiter blocked.", elapsedMillis(start) < 1000, CoreMatchers.is(true));
+	}
+
+	@Test
+	public void testRateIsEnforced() throws Exception {
+		final BandwidthLimiter limiter = new BandwidthLimiter(512 * 1024, null);
+		final long start = System.nanoTime();
+		limiter.acquire(512 * 1024);
+		// The bucket starts empty so the full second worth of bytes must be waited for.
+		Assert.assertThat("Rate was not enforced.", elapsedMillis(start) >= 800, CoreMatchers.is(true));
+	}
+
+	@Test
+	public void testParentRateIsEnforced() throws Exception {
+		final BandwidthLimiter parent = new BandwidthLimiter(256 * 1024, null);
+		final BandwidthLimiter limiter = new BandwidthLimiter(0, parent);
+		final long start = System.nanoTime();
+		limiter.acquire(128 * 1024);
+		Assert.assertThat("Parent rate was not enforced.", elapsedMillis(start) >= 400, CoreMatchers.is(true));
+	}
+
+	@Test
+	public void testDisablingLimitWakesWaitingTransfer() throws Exception {
+		// At one byte per second the quantum alone would take hours.
+		final BandwidthLimiter limiter = new BandwidthLimiter(1, null);
+		final long start = System.nanoTime();
+		final Thread transfer = new Thread(() -> {
+			try {
+				limiter.acquire(16 * 1024);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		transfer.start();
+		Thread.sleep(200);
+		limiter.setBytesPerSecond(0);
+		transfer.join(5000);
+		Assert.assertThat("Waiting transfer did not see the new rate.", transfer.isAlive(), CoreMatchers.is(false));
+		Assert.assertThat("Waiting transfer was not woken.", elapsedMillis(start) < 2000, CoreMatchers.is(true));
+	}
+
+	@Test
+	public void testConcurrentTransfersShareBandwidth() throws Exception {
+		final BandwidthLimiter limiter = new BandwidthLimiter(1024 * 1024, null);
+		final AtomicLong first = new AtomicLong();
+		final AtomicLong second = new AtomicLong();
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000);
+		final Thread firstTransfer = startTransfer(limiter, first, deadline);
+		final Thread secondTransfer = startTransfer(limiter, second, deadline);
+		firstTransfer.join();
+		secondTransfer.join();
+		final double ratio = (double) first.get() / second.get();
+		Assert.assertThat("Bandwidth was not shared fairly: " + first + " vs " + second, ratio > 0.5 && ratio < 2.0,
+											CoreMatchers.is(true));
+	}
+
+	private static Thread startTransfer(final BandwidthLimiter limiter, final AtomicLong transferred,
+																			final long deadline) {
+		final Thread transfer = new Thread(() -> {
+			try {
+				while (System.nanoTime() < deadline) {
+					limiter.acquire(64 * 1024);
+					transferred.addAndGet(64 * 1024);
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		transfer.start();
+		return transfer;
+	}
+
+	private static long elapsedMillis(final long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that batch operations report the outcome of every item and spread large batches over several channels.
+ */
+public class BatchOperationTest {
+
+	private ChannelPool pool;
+	private Channel channel;
+	private Connection connection;
+
+	@Before
+	public void setup() throws Exception {
+		channel = mock(Channel.class);
+		pool = mock(ChannelPool.class);
+		when(pool.getNextAvailableChannel()).thenReturn(channel);
+		final ChannelPoolFactory factory = mock(ChannelPoolFactory.class);
+		when(factory.getChannelPool(any(ConnectionParameters.class))).thenReturn(pool);
+		final ConnectionParameters parameters = mock(ConnectionParameters.class);
+		when(parameters.getChannelPoolSize()).thenReturn(10);
+		connection = new ConnectionImpl(parameters, factory);
+	}
+
+	@Test
+	public void testFailureDoesNotAbortBatch() throws Exception {
+		doThrow(new SSHException("No such file")).when(channel).rm("missing");
+		final BatchResult<Void> result = connection.rmAll(Lists.newArrayList("first", "missing", "last"));
+		Assert.assertThat("Batch reported as successful.", result.isSuccessful(), CoreMatchers.is(false));
+		Assert.assertThat("Unexpected items succeeded.", Lists.newArrayList(result.getSucceeded()),
+											CoreMatchers.is(Lists.newArrayList("first", "last")));
+		Assert.assertThat("Failure not reported.", result.getFailures().containsKey("missing"),
+											CoreMatchers.is(true));
+	}
+
+	@Test
+	public void testLargeBatchUsesMultipleChannels() throws Exception {
+		final List<String> paths = Lists.newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			paths.add("file" + i);
+		}
+		final CountDownLatch secondChannel = new CountDownLatch(2);
+		when(pool.getNextAvailableChannel()).thenAnswer(invocation -> {
+			secondChannel.countDown();
+			return channel;
+		});
+		// Hold back the first worker until a second worker has obtained a channel, so it cannot drain the whole batch.
+		final AtomicBoolean first = new AtomicBoolean(true);
+		doAnswer(invocation -> {
+			if (first.getAndSet(false)) {
+				secondChannel.await(5, TimeUnit.SECONDS);
+			}
+			return null;
+		}).when(channel).rm(anyString());
+		final BatchResult<Void> result = connection.rmAll(paths);
+		Assert.assertThat("Not every item succeeded.", result.getSucceeded().size(), CoreMatchers.is(1000));
+		Assert.assertThat("Batch used a single channel.", secondChannel.getCount(), CoreMatchers.is(0L));
+		verify(channel, times(1000)).rm(anyString());
+		verify(pool, atLeast(2)).getNextAvailableChannel();
+		verify(pool, atMost(4)).getNextAvailableChannel();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeIsRoundedUpToSizeClass() {
+		final BufferPool pool = new BufferPool(false, 1024 * 1024);
+		final ByteBuffer buffer = pool.acquire(5000);
+		Assert.assertThat("Unexpected capacity.", buffer.capacity(), is(8 * 1024));
+		Assert.assertThat("Unexpected limit.", buffer.limit(), is(5000));
+		Assert.assertThat("Unexpected position.", buffer.position(), is(0));
+	}
+
+	@Test
+	public void testReleasedBufferIsReused() {
+		final BufferPool pool = new BufferPool(false, 1024 * 1024);
+		final ByteBuffer first = pool.acquire(16 * 1024);
+		first.position(100);
+		pool.release(first);
+		final ByteBuffer second = pool.acquire(10 * 1024);
+		Assert.assertThat("Buffer was not reused.", second, sameInstance(first));
+		Assert.assertThat("Reused buffer was not cleared.", second.position(), is(0));
+		final BufferPool.Statistics statistics = pool.getStatistics();
+		Assert.assertThat("Unexpected hits.", statistics.getHits(), is(1L));
+		Assert.assertThat("Unexpected misses.", statistics.getMisses(), is(1L));
+		Assert.assertThat("Unexpected hit rate.", statistics.getHitRate(), is(0.5));
+		Assert.assertThat("Unexpected outstanding buffers.", statistics.getOutstanding(), is(1L));
+	}
+
+	@Test
+	public void testRetainedBytesAreBounded() {
+		final BufferPool pool = new BufferPool(false, 8 * 1024);
+		final ByteBuffer first = pool.acquire(8 * 1024);
+		final ByteBuffer second = pool.acquire(8 * 1024);
+		pool.release(first);
+		pool.release(second);
+		Assert.assertThat("Pool retained too much.", pool.getStatistics().getRetainedBytes(), is(8L * 1024));
+		Assert.assertThat("Unexpected outstanding buffers.", pool.getStatistics().getOutstanding(), is(0L));
+	}
+
+	@Test
+	public void testOversizedBuffersAreNotPooled() {
+		final BufferPool pool = new BufferPool(false, 16 * 1024 * 1024);
+		final ByteBuffer buffer = pool.acquire(BufferPool.MAX_BUFFER_SIZE + 1);
+		Assert.assertThat("Unexpected capacity.", buffer.capacity(), is(BufferPool.MAX_BUFFER_SIZE + 1));
+		pool.release(buffer);
+		Assert.assertThat("Oversized buffer retained.", pool.getStatistics().getRetainedBytes(), is(0L));
+	}
+
+	@Test
+	public void testDirectPoolRejectsHeapBuffers() {
+		final BufferPool pool = new BufferPool(true, 1024 * 1024);
+		final ByteBuffer direct = pool.acquire(4 * 1024);
+		Assert.assertThat("Buffer is not direct.", direct.isDirect(), is(true));
+		try {
+			pool.release(ByteBuffer.allocate(4 * 1024));
+			Assert.fail("A heap buffer was accepted by a direct pool.");
+		} catch (final IllegalArgumentException expected) {
+			Assert.assertThat("Heap buffer retained.", pool.getStatistics().getRetainedBytes(), is(0L));
+		}
+		pool.release(direct);
+		Assert.assertThat("Direct buffer not retained.", pool.getStatistics().getRetainedBytes(), is(4L * 1024));
+		Assert.assertThat("Heap buffer reused.", pool.acquire(4 * 1024).isDirect(), is(true));
+	}
+
+	@Test
+	public void testDoubleReleaseIsRejected() {
+		final BufferPool pool = new BufferPool(false, 1024 * 1024);
+		final ByteBuffer buffer = pool.acquire(4 * 1024);
+		pool.release(buffer);
+		try {
+			pool.release(buffer);
+			Assert.fail("A buffer was released twice.");
+		} catch (final IllegalArgumentException expected) {
+			Assert.assertThat("Unexpected outstanding buffers.", pool.getStatistics().getOutstanding(), is(0L));
+			Assert.assertThat("Released buffer was queued twice.", pool.getStatistics().getRetainedBytes(), is(4L * 1024));
+		}
+	}
+
+	@Test
+	public void testReleasedBufferOnlyServesItsSizeClass() {
+		final BufferPool pool = new BufferPool(false, 1024 * 1024);
+		final ByteBuffer small = pool.acquire(4 * 1024);
+		pool.release(small);
+		Assert.assertThat("Small buffer served a large request.", pool.acquire(64 * 1024), not(sameInstance(small)));
+	}
+}
@@ -19,20 +19,28 @@
 package com.github.zbb93.sftp;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Method;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -56,7 +64,7 @@ public class ChannelReturnTest {
 	private MockChannelPoolFactory channelPoolFactory;
 
 	private static final @NotNull Set<String> EXCLUDED_METHODS = Sets.newHashSet(
-			"cd", "pwd", "close"
+			"cd", "pwd", "close", "getBandwidthLimiter", "getStatistics", "getServerCapabilities"
 	);
 
 	@Before
@@ -68,6 +76,7 @@ public class ChannelReturnTest {
 	private ConnectionFactory mockConnectionFactory() throws Exception {
 		ConnectionFactory factory = mock(ConnectionFactory.class);
 		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		when(parameters.getChannelPoolSize()).thenReturn(2);
 		Connection connection = new ConnectionImpl(parameters, channelPoolFactory.getChannelPoolFactory());
 		when(factory.getConnection(any(ConnectionParameters.class))).thenReturn(connection);
 		return factory;
@@ -85,6 +94,14 @@ public class ChannelReturnTest {
 		channelPoolFactory.assertChannelReturned();
 	}
 
+	@Test
+	public void testLsCompact() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		connection.lsCompact(".");
+		channelPoolFactory.assertChannelReturned();
+	}
+
 	@Test
 	public void testGet() throws Exception {
 		ConnectionParameters parameters = mock(ConnectionParameters.class);
@@ -94,13 +111,60 @@ public class ChannelReturnTest {
 	}
 
 	@Test
-	public void testPut() throws Exception {
+	public void testCopy() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		final Channel channel = channelPoolFactory.getChannel();
+		final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		when(channel.stat("/source")).thenReturn(RemoteFile.fromAttributes("source", "0", "0", 4, false, 0));
+		when(channel.openInputStream("/source", 0)).thenReturn(new ByteArrayInputStream("test".getBytes()));
+		when(channel.openOutputStream("/destination")).thenReturn(copy);
+		connection.copy("/source", "/destination");
+		Assert.assertThat(new String(copy.toByteArray()), is("test"));
+		// One channel for the stat of the source and one for each direction of the copy.
+		channelPoolFactory.assertChannelReturned(3);
+	}
+
+	@Test
+	public void testCopyWithoutSecondChannel() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		final Channel channel = channelPoolFactory.getChannel();
+		when(channel.stat("/source")).thenReturn(RemoteFile.fromAttributes("source", "0", "0", 4, false, 0));
+		when(channelPoolFactory.pool.getNextAvailableChannel(anyLong(), any(TimeUnit.class))).thenReturn(null);
+		try {
+			connection.copy("/source", "/destination");
+			Assert.fail("The copy should have failed without a second channel.");
+		} catch (final SSHException e) {
+			verify(channel, never()).openInputStream(anyString(), anyLong());
+			// One channel for the stat of the source and the one taken for the source of the copy.
+			channelPoolFactory.assertChannelReturned(2);
+		}
+	}
+
+	@Test
+	public void testOpenSeekable() throws Exception {
 		ConnectionParameters parameters = mock(ConnectionParameters.class);
 		final Connection connection = factory.getConnection(parameters);
-		connection.put(Paths.get(""), "test.txt");
+		when(channelPoolFactory.getChannel().stat(anyString()))
+				.thenReturn(RemoteFile.fromAttributes("test", "0", "0", 4, false, 0));
+		connection.openSeekable("test").close();
 		channelPoolFactory.assertChannelReturned();
 	}
 
+	@Test
+	public void testPut() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		final Path source = Files.createTempFile("test", ".txt");
+		try {
+			connection.put(source, "test.txt");
+			channelPoolFactory.assertChannelReturned();
+		} finally {
+			Files.delete(source);
+		}
+	}
+
 	@Test
 	public void testMkdir() throws Exception {
 		ConnectionParameters parameters = mock(ConnectionParameters.class);
@@ -109,6 +173,14 @@ public class ChannelReturnTest {
 		channelPoolFactory.assertChannelReturned();
 	}
 
+	@Test
+	public void testMkdirs() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		connection.mkdirs("/test/nested");
+		channelPoolFactory.assertChannelReturned();
+	}
+
 	@Test
 	public void testRm() throws Exception {
 		ConnectionParameters parameters = mock(ConnectionParameters.class);
@@ -117,6 +189,99 @@ public class ChannelReturnTest {
 		channelPoolFactory.assertChannelReturned();
 	}
 
+	@Test
+	public void testRmAll() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		connection.rmAll(Lists.newArrayList("test1", "test2"));
+		channelPoolFactory.assertChannelReturned();
+	}
+
+	@Test
+	public void testStatAll() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		connection.statAll(Lists.newArrayList("test1", "test2"));
+		channelPoolFactory.assertChannelReturned();
+	}
+
+	@Test
+	public void testRenameAll() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		connection.renameAll(ImmutableMap.of("test1", "test3", "test2", "test4"));
+		channelPoolFactory.assertChannelReturned();
+	}
+
+	@Test
+	public void testDownload() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		when(channelPoolFactory.getChannel().openInputStream(anyString(), anyLong()))
+				.thenReturn(new ByteArrayInputStream("test".getBytes()));
+		final CountDownLatch completed = new CountDownLatch(1);
+		connection.download("test").subscribe(new Subscriber<ByteBuffer>() {
+			@Override
+			public void onSubscribe(final Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(final ByteBuffer buffer) { }
+
+			@Override
+			public void onError(final Throwable throwable) {
+				completed.countDown();
+			}
+
+			@Override
+			public void onComplete() {
+				completed.countDown();
+			}
+		});
+		Assert.assertThat("Download did not finish.", completed.await(5, TimeUnit.SECONDS), is(true));
+		channelPoolFactory.assertChannelReturned();
+	}
+
+	@Test
+	public void testUpload() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		when(channelPoolFactory.getChannel().openOutputStream(anyString())).thenReturn(new ByteArrayOutputStream());
+		final UploadSubscriber subscriber = connection.upload("test");
+		subscriber.onSubscribe(mock(Subscription.class));
+		subscriber.onNext(ByteBuffer.wrap("test".getBytes()));
+		subscriber.onComplete();
+		subscriber.getCompletion().get(5, TimeUnit.SECONDS);
+		channelPoolFactory.assertChannelReturned();
+	}
+
+	@Test
+	public void testWithChannel() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		connection.withChannel(channel -> {
+			channel.ls(".");
+			channel.rm("test");
+			return null;
+		});
+		channelPoolFactory.assertChannelReturned();
+	}
+
+	@Test
+	public void testChannelReturnedWhenOperationFails() throws Exception {
+		ConnectionParameters parameters = mock(ConnectionParameters.class);
+		final Connection connection = factory.getConnection(parameters);
+		try {
+			connection.withChannel(channel -> {
+				throw new SSHException("Simulated failure");
+			});
+			Assert.fail("Exception thrown by callback was not propagated.");
+		} catch (final SSHException e) {
+			channelPoolFactory.assertChannelReturned();
+		}
+	}
+
 	@Test
 	public void testTestExistsForEveryMethodUsingChannel() {
 		final Collection<Method> connectionMethods = Lists.newArrayList(Connection.class.getMethods());
@@ -132,10 +297,10 @@ public class ChannelReturnTest {
 																										Preconditions.checkState(matcher.matches(), "Regex is broken.");
 																										return matcher.group("methodName").toLowerCase(Locale.ENGLISH);
 																									}).collect(Collectors.toList());
-		testedMethods.addAll(EXCLUDED_METHODS);
+		EXCLUDED_METHODS.forEach(method -> testedMethods.add(method.toLowerCase(Locale.ENGLISH)));
 
 		final List<Method> missingMethods = connectionMethods.stream().filter(method ->
-			!(testedMethods.contains(method.getName()))
+			!(testedMethods.contains(method.getName().toLowerCase(Locale.ENGLISH)))
 		).collect(Collectors.toList());
 		final String missingMethodNames = missingMethods.stream().map(Method::toString).collect(Collectors.joining(", "));
 		Assert.assertThat("The following methods are missing tests: " + missingMethodNames,
@@ -149,15 +314,17 @@ public class ChannelReturnTest {
 	private static class MockChannelPoolFactory {
 		private final ChannelPoolFactory factory;
 		private final ChannelPool pool;
+		private final Channel channel;
 		MockChannelPoolFactory() throws Exception {
+			channel = mock(Channel.class);
 			pool = buildChannelPool();
 			factory = buildChannelPoolFactory();
 		}
 
 		private ChannelPool buildChannelPool() throws Exception {
 			ChannelPool pool = mock(ChannelPool.class);
-			Channel channel = mock(Channel.class);
 			when(pool.getNextAvailableChannel()).thenReturn(channel);
+			when(pool.getNextAvailableChannel(anyLong(), any(TimeUnit.class))).thenReturn(channel);
 			return pool;
 		}
 
@@ -171,8 +338,16 @@ public class ChannelReturnTest {
 			return factory;
 		}
 
+		Channel getChannel() {
+			return channel;
+		}
+
 		void assertChannelReturned() {
-			verify(pool, times(1)).returnChannel(any(Channel.class));
+			assertChannelReturned(1);
+		}
+
+		void assertChannelReturned(final int times) {
+			verify(pool, times(times)).returnChannel(any(Channel.class));
 		}
 	}
 }
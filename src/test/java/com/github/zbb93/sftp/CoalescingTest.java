@@ -0,0 +1,232 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that concurrent identical listings and downloads performed by a ConnectionImpl share a single request to
+ * the remote server. The first request blocks until a second caller is waiting for it.
+ */
+public class CoalescingTest {
+
+	private Channel channel;
+	private Connection connection;
+	private CountDownLatch started;
+	private CountDownLatch release;
+
+	@Before
+	public void setup() throws Exception {
+		channel = mock(Channel.class);
+		final ChannelPool pool = mock(ChannelPool.class);
+		when(pool.getNextAvailableChannel()).thenReturn(channel);
+		when(pool.getWorkingDirectory()).thenReturn("/home/test");
+		final ChannelPoolFactory factory = mock(ChannelPoolFactory.class);
+		when(factory.getChannelPool(any(ConnectionParameters.class))).thenReturn(pool);
+		connection = new ConnectionImpl(mock(ConnectionParameters.class), factory);
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@Test
+	public void testConcurrentListingsShareRequest() throws Exception {
+		final Collection<RemoteFile> listing = Lists.newArrayList(RemoteFile.fromAttributes("file", "0", "0", 1L, false));
+		when(channel.ls("dir")).thenAnswer(invocation -> {
+			block();
+			return listing;
+		});
+		final CompletableFuture<Collection<RemoteFile>> first = async(() -> connection.ls("dir"));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<Collection<RemoteFile>> second = asyncWaiting(() -> connection.ls("/home/test/dir"));
+		release.countDown();
+		Assert.assertEquals(listing, first.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(listing, second.get(5, TimeUnit.SECONDS));
+		Assert.assertNotSame(first.get(), second.get());
+		verify(channel, times(1)).ls(anyString());
+		Assert.assertEquals(1, connection.getStatistics().getCoalescedListings());
+	}
+
+	@Test
+	public void testSequentialListingsAreNotShared() throws Exception {
+		connection.ls("dir");
+		connection.ls("dir");
+		verify(channel, times(2)).ls("dir");
+		Assert.assertEquals(0, connection.getStatistics().getSavedRequests());
+	}
+
+	@Test
+	public void testListingFailureIsShared() throws Exception {
+		when(channel.ls("dir")).thenAnswer(invocation -> {
+			block();
+			throw new SSHException("No such file.");
+		});
+		final CompletableFuture<Collection<RemoteFile>> first = async(() -> connection.ls("dir"));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<Collection<RemoteFile>> second = asyncWaiting(() -> connection.ls("dir"));
+		release.countDown();
+		assertFails(first);
+		assertFails(second);
+		verify(channel, times(1)).ls(anyString());
+	}
+
+	@Test
+	public void testSharedFailureKeepsItsType() throws Exception {
+		when(channel.ls("dir")).thenAnswer(invocation -> {
+			block();
+			throw new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No such file.");
+		});
+		final CompletableFuture<Collection<RemoteFile>> first = async(() -> connection.ls("dir"));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<Collection<RemoteFile>> second = asyncWaiting(() -> connection.ls("dir"));
+		release.countDown();
+		assertFails(first, RemoteFileException.class);
+		assertFails(second, RemoteFileException.class);
+		verify(channel, times(1)).ls(anyString());
+	}
+
+	@Test
+	public void testConcurrentDownloadsShareContents() throws Exception {
+		doAnswer(invocation -> {
+			block();
+			((OutputStream) invocation.getArguments()[1]).write("contents".getBytes(StandardCharsets.UTF_8));
+			return null;
+		}).when(channel).get(eq("file"), any(OutputStream.class));
+		final CompletableFuture<String> first = async(() -> download("file"));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<String> second = asyncWaiting(() -> download("file"));
+		release.countDown();
+		Assert.assertEquals("contents", first.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals("contents", second.get(5, TimeUnit.SECONDS));
+		verify(channel, times(1)).get(anyString(), any(OutputStream.class));
+		Assert.assertEquals(1, connection.getStatistics().getCoalescedDownloads());
+	}
+
+	@Test
+	public void testLargeDownloadIsNotShared() throws Exception {
+		final byte[] contents = new byte[4 * 1024 * 1024 + 1];
+		doAnswer(invocation -> {
+			block();
+			((OutputStream) invocation.getArguments()[1]).write(contents);
+			return null;
+		}).when(channel).get(eq("file"), any(OutputStream.class));
+		final CompletableFuture<String> first = async(() -> download("file"));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<String> second = asyncWaiting(() -> download("file"));
+		release.countDown();
+		Assert.assertEquals(contents.length, first.get(5, TimeUnit.SECONDS).length());
+		Assert.assertEquals(contents.length, second.get(5, TimeUnit.SECONDS).length());
+		verify(channel, times(2)).get(anyString(), any(OutputStream.class));
+		Assert.assertEquals(0, connection.getStatistics().getCoalescedDownloads());
+	}
+
+	@Test
+	public void testDownloadIsNotBufferedWithoutWaiters() throws Exception {
+		doAnswer(invocation -> {
+			((OutputStream) invocation.getArguments()[1]).write("contents".getBytes(StandardCharsets.UTF_8));
+			block();
+			return null;
+		}).when(channel).get(eq("file"), any(OutputStream.class));
+		final CompletableFuture<String> first = async(() -> download("file"));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		// The first download streamed its bytes without keeping a copy, so the second does not wait for it.
+		Assert.assertEquals("contents", download("file"));
+		release.countDown();
+		Assert.assertEquals("contents", first.get(5, TimeUnit.SECONDS));
+		verify(channel, times(2)).get(anyString(), any(OutputStream.class));
+		Assert.assertEquals(0, connection.getStatistics().getCoalescedDownloads());
+	}
+
+	private String download(final String source) throws SSHException, InterruptedException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		connection.get(source, outputStream);
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Blocks the first request until it is released. Requests that are not coalesced do not block.
+	 */
+	private void block() throws InterruptedException {
+		if (started.getCount() > 0) {
+			started.countDown();
+			Assert.assertTrue(release.await(5, TimeUnit.SECONDS));
+		}
+	}
+
+	private static <T> CompletableFuture<T> async(final Operation<T> operation) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Thread thread = new Thread(() -> complete(future, operation));
+		thread.start();
+		return future;
+	}
+
+	/**
+	 * Runs the operation on a new thread and returns once that thread is waiting for the in-flight request.
+	 */
+	private static <T> CompletableFuture<T> asyncWaiting(final Operation<T> operation) throws InterruptedException {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Thread thread = new Thread(() -> complete(future, operation));
+		thread.start();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		Assert.assertEquals(Thread.State.WAITING, thread.getState());
+		return future;
+	}
+
+	private static <T> void complete(final CompletableFuture<T> future, final Operation<T> operation) {
+		try {
+			future.complete(operation.run());
+		} catch (final Exception e) {
+			future.completeExceptionally(e);
+		}
+	}
+
+	private static void assertFails(final CompletableFuture<?> future) throws Exception {
+		assertFails(future, SSHException.class);
+	}
+
+	private static void assertFails(final CompletableFuture<?> future, final Class<? extends SSHException> type)
+			throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("The failure of the shared request should have been propagated.");
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(type.isInstance(e.getCause()));
+		}
+	}
+
+	@FunctionalInterface
+	private interface Operation<T> {
+		T run() throws Exception;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+
+public class CompactListingTest {
+
+	@Test
+	public void testEntriesAreStored() {
+		final CompactListing.Builder builder = new CompactListing.Builder();
+		builder.visit("file.txt", "1000", "100", 695, 1526341860L, false);
+		builder.visit("src", "1000", "100", 4096, 1524691860L, true);
+		builder.visit("r\u00e9sum\u00e9.pdf", "0", "0", 3_000_000_000L, 4_000_000_000L, false);
+		final CompactListing listing = builder.build();
+
+		Assert.assertThat("Unexpected size.", listing.size(), is(3));
+		Assert.assertThat("Name not stored.", listing.getName(0), is("file.txt"));
+		Assert.assertThat("Size not stored.", listing.getSize(0), is(695L));
+		Assert.assertThat("Directory flag not stored.", listing.isDirectory(0), is(false));
+		Assert.assertThat("Directory flag not stored.", listing.isDirectory(1), is(true));
+		Assert.assertThat("Owner not stored.", listing.getOwner(1), is("1000"));
+		Assert.assertThat("Group not stored.", listing.getGroup(1), is("100"));
+		Assert.assertThat("Non-ASCII name not stored.", listing.getName(2), is("r\u00e9sum\u00e9.pdf"));
+		Assert.assertThat("Large size not stored.", listing.getSize(2), is(3_000_000_000L));
+		Assert.assertThat("Modification time beyond 2038 not stored.", listing.getModificationTime(2),
+											is(4_000_000_000L));
+	}
+
+	@Test
+	public void testOwnersAndGroupsAreShared() {
+		final CompactListing.Builder builder = new CompactListing.Builder();
+		builder.visit("a", new String("1000"), new String("100"), 1, 0, false);
+		builder.visit("b", new String("1000"), new String("100"), 1, 0, false);
+		final CompactListing listing = builder.build();
+		Assert.assertThat("Owner not shared.", listing.getOwner(1), sameInstance(listing.getOwner(0)));
+		Assert.assertThat("Group not shared.", listing.getGroup(1), sameInstance(listing.getGroup(0)));
+	}
+
+	@Test
+	public void testRemoteFileViews() {
+		final CompactListing.Builder builder = new CompactListing.Builder();
+		builder.visit("file.txt", "1000", "100", 695, 1526341860L, false);
+		final List<RemoteFile> files = builder.build().asList();
+		Assert.assertThat("Unexpected size.", files.size(), is(1));
+		final RemoteFile file = files.get(0);
+		Assert.assertThat("Name not viewed.", file.getName(), is("file.txt"));
+		Assert.assertThat("Size not viewed.", file.getSize(), is(695L));
+		Assert.assertThat("Modification time not viewed.", file.getModificationTime(), is(1526341860L));
+	}
+
+	@Test
+	public void testLargeListingIsCompact() {
+		final CompactListing.Builder builder = new CompactListing.Builder();
+		final int entries = 100_000;
+		for (int i = 0; i < entries; i++) {
+			builder.visit("file-" + i + ".log", "1000", "100", i, 1526341860L + i, false);
+		}
+		final CompactListing listing = builder.build();
+		Assert.assertThat("Unexpected size.", listing.size(), is(entries));
+		Assert.assertThat("Entry not stored.", listing.getName(entries - 1), is("file-99999.log"));
+		// Names take 14 bytes on average, the remaining columns 25 bytes per entry.
+		Assert.assertThat("Listing is not compact.", listing.getEstimatedSize() < entries * 40L, is(true));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testIndexIsChecked() {
+		new CompactListing.Builder().build().getName(0);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a ConnectionRegistry shares Connections between identical parameters and closes them once they are
+ * no longer referenced. The opened Connections are mocks.
+ */
+public class ConnectionRegistryTest {
+
+	private final List<Connection> opened = Lists.newArrayList();
+
+	private ConnectionRegistry registry;
+
+	@Before
+	public void setup() {
+		registry = new ConnectionRegistry(connectionParameters -> {
+			final Connection connection = mock(Connection.class);
+			opened.add(connection);
+			return connection;
+		});
+	}
+
+	@Test
+	public void testIdenticalParametersShareConnection() throws Exception {
+		final Connection first = registry.acquire(parameters("host", "user", "secret"));
+		final Connection second = registry.acquire(parameters("host", "user", "secret"));
+		first.ls("dir");
+		second.ls("dir");
+		Assert.assertThat(opened.size(), is(1));
+		verify(opened.get(0), times(2)).ls("dir");
+	}
+
+	@Test
+	public void testDifferentAccountsDoNotShareConnection() throws Exception {
+		registry.acquire(parameters("host", "user", "secret"));
+		registry.acquire(parameters("host", "other", "secret"));
+		registry.acquire(parameters("host", "user", "wrong"));
+		registry.acquire(parameters("other-host", "user", "secret"));
+		Assert.assertThat(opened.size(), is(4));
+	}
+
+	@Test
+	public void testConnectionClosedWhenLastReferenceReleased() throws Exception {
+		final Connection first = registry.acquire(parameters("host", "user", "secret"));
+		final Connection second = registry.acquire(parameters("host", "user", "secret"));
+		first.close();
+		first.close();
+		verify(opened.get(0), never()).close();
+		second.close();
+		verify(opened.get(0)).close();
+		Assert.assertThat(registry.size(), is(0));
+		registry.acquire(parameters("host", "user", "secret"));
+		Assert.assertThat("A closed connection should not be reused.", opened.size(), is(2));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testReleasedReferenceCannotBeUsed() throws Exception {
+		final Connection connection = registry.acquire(parameters("host", "user", "secret"));
+		connection.close();
+		connection.ls("dir");
+	}
+
+	@Test
+	public void testGracePeriodKeepsConnectionOpen() throws Exception {
+		registry.setGracePeriod(1, TimeUnit.HOURS);
+		registry.acquire(parameters("host", "user", "secret")).close();
+		registry.acquire(parameters("host", "user", "secret")).close();
+		Assert.assertThat(opened.size(), is(1));
+		verify(opened.get(0), never()).close();
+
+		registry.setGracePeriod(10, TimeUnit.MILLISECONDS);
+		registry.acquire(parameters("host", "user", "secret")).close();
+		verify(opened.get(0), timeout(5000)).close();
+		Assert.assertThat(registry.size(), is(0));
+	}
+
+	@Test
+	public void testFailedOpenIsNotShared() throws Exception {
+		final ConnectionRegistry failing = new ConnectionRegistry(connectionParameters -> {
+			throw new SSHException("Connection refused.");
+		});
+		try {
+			failing.acquire(parameters("host", "user", "secret"));
+			Assert.fail("The failure to open the connection should have been propagated.");
+		} catch (final SSHException e) {
+			Assert.assertThat(failing.size(), is(0));
+		}
+	}
+
+	private static ConnectionParameters parameters(final String host, final String user, final String password) {
+		return new ConnectionParameters.Builder(host, user, password.getBytes(), 22).build();
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a CachingConnection serves unchanged files from its DownloadCache and that the cache evicts the least
+ * recently used files. The remote server is a mocked Connection whose files are held in memory.
+ */
+public class DownloadCacheTest {
+
+	private Path directory;
+	private Connection remote;
+
+	/**
+	 * Contents of the remote files keyed by absolute path.
+	 */
+	private final Map<String, String> files = Maps.newConcurrentMap();
+
+	/**
+	 * Modification times of the remote files keyed by absolute path.
+	 */
+	private final Map<String, Long> modificationTimes = Maps.newConcurrentMap();
+
+	@Before
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("download-cache");
+		remote = mock(Connection.class);
+		when(remote.pwd()).thenReturn("/home/test");
+		when(remote.statAll(anyCollectionOf(String.class))).thenAnswer(invocation -> {
+			final String path = ((Collection<?>) invocation.getArguments()[0]).iterator().next().toString();
+			final String content = files.get(path);
+			if (content == null) {
+				return new BatchResult<RemoteFile>(ImmutableMap.of(),
+																					 ImmutableMap.of(path, new SSHException("No file exists at " + path)));
+			}
+			final RemoteFile file = RemoteFile.fromAttributes(path, "0", "0", content.length(), false,
+																												modificationTimes.get(path));
+			return new BatchResult<>(ImmutableMap.of(path, file), ImmutableMap.of());
+		});
+		doAnswer(invocation -> {
+			final String content = files.get((String) invocation.getArguments()[0]);
+			((OutputStream) invocation.getArguments()[1]).write(content.getBytes(StandardCharsets.UTF_8));
+			return null;
+		}).when(remote).get(anyString(), any(OutputStream.class));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (final Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testRepeatedDownloadIsServedFromCache() throws Exception {
+		remoteFile("/home/test/a", "alpha", 1);
+		final DownloadCache cache = new DownloadCache(directory, 1024);
+		final Connection connection = new CachingConnection(remote, cache);
+		Assert.assertThat(download(connection, "a"), is("alpha"));
+		Assert.assertThat(download(connection, "/home/test/a"), is("alpha"));
+		verify(remote, times(1)).get(anyString(), any(OutputStream.class));
+		verify(remote, times(2)).statAll(anyCollectionOf(String.class));
+		Assert.assertThat(cache.getHitCount(), is(1L));
+		Assert.assertThat(cache.getMissCount(), is(1L));
+		Assert.assertThat(cache.getSize(), is(5L));
+	}
+
+	@Test
+	public void testModifiedFileIsDownloadedAgain() throws Exception {
+		remoteFile("/home/test/a", "alpha", 1);
+		final Connection connection = new CachingConnection(remote, new DownloadCache(directory, 1024));
+		download(connection, "a");
+		remoteFile("/home/test/a", "alpha", 2);
+		download(connection, "a");
+		remoteFile("/home/test/a", "omega!", 2);
+		Assert.assertThat(download(connection, "a"), is("omega!"));
+		verify(remote, times(3)).get(anyString(), any(OutputStream.class));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedFileIsEvicted() throws Exception {
+		remoteFile("/home/test/a", "aaaa", 1);
+		remoteFile("/home/test/b", "bbbb", 1);
+		remoteFile("/home/test/c", "cccc", 1);
+		final DownloadCache cache = new DownloadCache(directory, 10);
+		final Connection connection = new CachingConnection(remote, cache);
+		download(connection, "a");
+		download(connection, "b");
+		download(connection, "a");
+		download(connection, "c");
+		Assert.assertThat(cache.getSize(), is(8L));
+		download(connection, "c");
+		verify(remote, times(1)).get(eq("/home/test/c"), any(OutputStream.class));
+		download(connection, "b");
+		verify(remote, times(2)).get(eq("/home/test/b"), any(OutputStream.class));
+	}
+
+	@Test
+	public void testCacheSurvivesRestart() throws Exception {
+		remoteFile("/home/test/a", "alpha", 1);
+		download(new CachingConnection(remote, new DownloadCache(directory, 1024)), "a");
+		final DownloadCache restarted = new DownloadCache(directory, 1024);
+		Assert.assertThat(download(new CachingConnection(remote, restarted), "a"), is("alpha"));
+		verify(remote, times(1)).get(anyString(), any(OutputStream.class));
+		Assert.assertThat(restarted.getHitCount(), is(1L));
+	}
+
+	@Test
+	public void testUploadInvalidatesCachedFile() throws Exception {
+		remoteFile("/home/test/a", "alpha", 1);
+		final DownloadCache cache = new DownloadCache(directory, 1024);
+		final Connection connection = new CachingConnection(remote, cache);
+		download(connection, "a");
+		connection.put(Paths.get("a"), "a");
+		Assert.assertThat(cache.getSize(), is(0L));
+	}
+
+	@Test(expected = SSHException.class)
+	public void testMissingRemoteFile() throws Exception {
+		download(new CachingConnection(remote, new DownloadCache(directory, 1024)), "missing");
+	}
+
+	@Test(timeout = 10000)
+	public void testCachedFileIsServedWhileNewVersionDownloads() throws Exception {
+		final DownloadCache cache = new DownloadCache(directory, 1024);
+		cache.get("/home/test/a", 5, 1, out -> write(out, "alpha"), new ByteArrayOutputStream());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<?> download = executor.submit(() -> {
+				cache.get("/home/test/a", 6, 2, out -> {
+					started.countDown();
+					release.await();
+					write(out, "omega!");
+				}, new ByteArrayOutputStream());
+				return null;
+			});
+			started.await();
+			final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			cache.get("/home/test/a", 5, 1, out -> Assert.fail("Cached file was downloaded."), outputStream);
+			Assert.assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), is("alpha"));
+			release.countDown();
+			download.get();
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertThat(cache.getSize(), is(6L));
+	}
+
+	@Test(timeout = 10000)
+	public void testConcurrentMissesShareDownload() throws Exception {
+		final DownloadCache cache = new DownloadCache(directory, 1024);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final DownloadCache.Loader loader = out -> {
+			loads.incrementAndGet();
+			release.await();
+			write(out, "alpha");
+		};
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final List<Future<String>> downloads = new ArrayList<>();
+			for (int i = 0; i < 2; i++) {
+				downloads.add(executor.submit(() -> {
+					final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+					cache.get("/home/test/a", 5, 1, loader, outputStream);
+					return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+				}));
+			}
+			while (loads.get() == 0) {
+				Thread.sleep(10);
+			}
+			// Give the second caller time to join the download in flight.
+			Thread.sleep(100);
+			release.countDown();
+			for (final Future<String> download : downloads) {
+				Assert.assertThat(download.get(), is("alpha"));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertThat(loads.get(), is(1));
+		Assert.assertThat(cache.getMissCount(), is(1L));
+		Assert.assertThat(cache.getHitCount(), is(1L));
+	}
+
+	private static void write(final OutputStream outputStream, final String content) throws SSHException {
+		try {
+			outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+		} catch (final IOException e) {
+			throw new SSHException(e);
+		}
+	}
+
+	private void remoteFile(final String path, final String content, final long modificationTime) {
+		files.put(path, content);
+		modificationTimes.put(path, modificationTime);
+	}
+
+	private static String download(final Connection connection, final String path)
+			throws SSHException, InterruptedException, IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		connection.get(path, outputStream);
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+
+public class DownloadPublisherTest {
+
+	private final BufferPool bufferPool = new BufferPool(false, 1024 * 1024);
+
+	private static final int FILE_SIZE = DownloadPublisher.CHUNK_SIZE * 10 + 100;
+
+	@Test
+	public void testPublishesWholeFile() throws Exception {
+		final byte[] content = buildContent();
+		final CountingStream stream = new CountingStream(content);
+		final DownloadPublisher publisher = new DownloadPublisher(() -> stream, Runnable::run, bufferPool);
+		final RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertThat("Download did not complete.", subscriber.completed.await(5, TimeUnit.SECONDS), is(true));
+		Assert.assertThat("Content differs.", subscriber.received.toByteArray(), is(content));
+		Assert.assertThat("Stream not closed.", stream.closed, is(true));
+	}
+
+	@Test
+	public void testReadsOnlyWhatIsRequested() throws Exception {
+		final CountingStream stream = new CountingStream(buildContent());
+		final DownloadPublisher publisher = new DownloadPublisher(() -> stream, Runnable::run, bufferPool);
+		final RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		Assert.assertThat("Stream opened without demand.", stream.bytesRead.get(), is(0));
+		subscriber.subscription.request(2);
+		Assert.assertThat("Unexpected chunk count.", subscriber.chunks.get(), is(2));
+		Assert.assertThat("Read beyond demand.", stream.bytesRead.get(), is(2 * DownloadPublisher.CHUNK_SIZE));
+		subscriber.subscription.request(1);
+		Assert.assertThat("Unexpected chunk count.", subscriber.chunks.get(), is(3));
+		Assert.assertThat("Read beyond demand.", stream.bytesRead.get(), is(3 * DownloadPublisher.CHUNK_SIZE));
+	}
+
+	@Test
+	public void testReleasedChunksAreReused() throws Exception {
+		final DownloadPublisher publisher = new DownloadPublisher(() -> new CountingStream(buildContent()), Runnable::run,
+																															bufferPool);
+		final ReleasingSubscriber releasing = new ReleasingSubscriber();
+		final RecordingSubscriber subscriber = releasing;
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertThat("Download did not complete.", subscriber.completed.await(5, TimeUnit.SECONDS), is(true));
+		Assert.assertThat("Pool not passed to subscriber.", releasing.pool, sameInstance(bufferPool));
+		final BufferPool.Statistics statistics = bufferPool.getStatistics();
+		Assert.assertThat("Only the first chunk should allocate.", statistics.getMisses(), is(1L));
+		Assert.assertThat("Buffers leaked.", statistics.getOutstanding(), is(0L));
+	}
+
+	@Test
+	public void testOtherSubscribersReceiveUnpooledChunks() throws Exception {
+		final DownloadPublisher publisher = new DownloadPublisher(() -> new CountingStream(buildContent()), Runnable::run,
+																															bufferPool);
+		final RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertThat("Download did not complete.", subscriber.completed.await(5, TimeUnit.SECONDS), is(true));
+		final BufferPool.Statistics statistics = bufferPool.getStatistics();
+		Assert.assertThat("Chunks acquired from the pool.", statistics.getMisses() + statistics.getHits(), is(0L));
+		Assert.assertThat("Buffers outstanding.", statistics.getOutstanding(), is(0L));
+	}
+
+	@Test
+	public void testCancelClosesStream() throws Exception {
+		final CountingStream stream = new CountingStream(buildContent());
+		final DownloadPublisher publisher = new DownloadPublisher(() -> stream, Runnable::run, bufferPool);
+		final RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(1);
+		subscriber.subscription.cancel();
+		Assert.assertThat("Stream not closed.", stream.closed, is(true));
+		Assert.assertThat("Completed after cancel.", subscriber.completed.getCount(), is(1L));
+	}
+
+	@Test
+	public void testOpenFailureIsSignalled() throws Exception {
+		final DownloadPublisher publisher = new DownloadPublisher(() -> {
+			throw new SSHException("Simulated failure");
+		}, Runnable::run, bufferPool);
+		final RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(1);
+		Assert.assertThat("Error not signalled.", subscriber.error.get(), instanceOf(SSHException.class));
+	}
+
+	@Test
+	public void testNonPositiveRequestIsSignalled() throws Exception {
+		final CountingStream stream = new CountingStream(buildContent());
+		final DownloadPublisher publisher = new DownloadPublisher(() -> stream, Runnable::run, bufferPool);
+		final RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(0);
+		Assert.assertThat("Error not signalled.", subscriber.error.get(), instanceOf(IllegalArgumentException.class));
+	}
+
+	private static byte[] buildContent() {
+		final byte[] content = new byte[FILE_SIZE];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		return content;
+	}
+
+	private static class CountingStream extends FilterInputStream {
+		private final AtomicInteger bytesRead = new AtomicInteger();
+		private volatile boolean closed;
+
+		CountingStream(final byte[] content) {
+			super(new ByteArrayInputStream(content));
+		}
+
+		@Override
+		public int read(final @NotNull byte[] b, final int off, final int len) throws IOException {
+			final int read = super.read(b, off, len);
+			if (read > 0) {
+				bytesRead.addAndGet(read);
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+
+	private static class RecordingSubscriber implements Subscriber<ByteBuffer> {
+		private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		private final AtomicInteger chunks = new AtomicInteger();
+		private final CountDownLatch completed = new CountDownLatch(1);
+		private final AtomicReference<Throwable> error = new AtomicReference<>();
+		private Subscription subscription;
+
+		@Override
+		public void onSubscribe(final Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(final ByteBuffer buffer) {
+			chunks.incrementAndGet();
+			final byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			received.write(bytes, 0, bytes.length);
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			error.set(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+	}
+
+	private static class ReleasingSubscriber extends RecordingSubscriber implements PooledBufferSubscriber {
+		private volatile BufferPool pool;
+
+		@Override
+		public void releaseBuffersTo(final @NotNull BufferPool pool) {
+			this.pool = pool;
+		}
+
+		@Override
+		public void onNext(final ByteBuffer buffer) {
+			super.onNext(buffer);
+			pool.release(buffer);
+		}
+	}
+}
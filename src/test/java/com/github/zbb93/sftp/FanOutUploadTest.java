@@ -0,0 +1,163 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a FanOutUpload delivers the complete file to every destination, reports failing destinations and
+ * respects its concurrency limit. The destinations are mocked Connections whose uploads write to memory.
+ */
+public class FanOutUploadTest {
+
+	private final BufferPool bufferPool = new BufferPool(false, 1024 * 1024);
+
+	private ExecutorService executor;
+	private Path source;
+	private byte[] content;
+
+	/**
+	 * Number of remote files that are currently open.
+	 */
+	private final AtomicInteger open = new AtomicInteger();
+
+	/**
+	 * Largest number of remote files that were open at the same time.
+	 */
+	private final AtomicInteger maxOpen = new AtomicInteger();
+
+	@Before
+	public void setup() throws Exception {
+		executor = Executors.newCachedThreadPool();
+		// Spans several chunks and ends with a partial chunk.
+		content = new byte[FanOutUpload.CHUNK_SIZE * 3 + 1234];
+		new Random(42).nextBytes(content);
+		source = Files.createTempFile("fan-out", ".bin");
+		Files.write(source, content);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		Files.deleteIfExists(source);
+	}
+
+	@Test
+	public void testEveryHostReceivesFile() throws Exception {
+		final Map<String, ByteArrayOutputStream> streams = Maps.newLinkedHashMap();
+		final Map<String, Connection> hosts = Maps.newLinkedHashMap();
+		for (int i = 0; i < 5; i++) {
+			final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			streams.put("host" + i, stream);
+			hosts.put("host" + i, connection(stream));
+		}
+		try (final FanOutUpload upload = new FanOutUpload(source, "bundle.bin", 2)) {
+			final BatchResult<Void> result = upload.uploadTo(hosts);
+			Assert.assertTrue("Every upload should succeed.", result.isSuccessful());
+			for (final Map.Entry<String, ByteArrayOutputStream> stream : streams.entrySet()) {
+				Assert.assertThat("Content differs for " + stream.getKey(), stream.getValue().toByteArray(), is(content));
+				Assert.assertThat(upload.getUploadedBytes(stream.getKey()), is((long) content.length));
+			}
+			Assert.assertThat("Regions still mapped.", upload.getMappedRegionCount(), is(0));
+		}
+		Assert.assertTrue("Concurrency limit exceeded.", maxOpen.get() <= 2);
+	}
+
+	@Test
+	public void testFailingHostIsReported() throws Exception {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final Connection failing = mock(Connection.class);
+		when(failing.upload(anyString())).thenReturn(new UploadSubscriber(() -> {
+			throw new SSHException("Permission denied.");
+		}, executor, bufferPool));
+		final Map<String, Connection> hosts = Maps.newLinkedHashMap();
+		hosts.put("failing", failing);
+		hosts.put("working", connection(stream));
+		try (final FanOutUpload upload = new FanOutUpload(source, "bundle.bin", 4)) {
+			final BatchResult<Void> result = upload.uploadTo(hosts);
+			Assert.assertThat(result.getFailures().keySet().iterator().next(), is("failing"));
+			Assert.assertThat(result.getSucceeded().iterator().next(), is("working"));
+			Assert.assertThat(stream.toByteArray(), is(content));
+			Assert.assertThat("Regions still mapped.", upload.getMappedRegionCount(), is(0));
+		}
+	}
+
+	@Test
+	public void testEmptyFile() throws Exception {
+		Files.write(source, new byte[0]);
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final Map<String, Connection> hosts = Maps.newLinkedHashMap();
+		hosts.put("host", connection(stream));
+		try (final FanOutUpload upload = new FanOutUpload(source, "bundle.bin", 1)) {
+			Assert.assertTrue(upload.uploadTo(hosts).isSuccessful());
+			Assert.assertThat(upload.getSize(), is(0L));
+			Assert.assertThat(stream.size(), is(0));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConcurrencyMustBePositive() throws Exception {
+		new FanOutUpload(source, "bundle.bin", 0);
+	}
+
+	private Connection connection(final ByteArrayOutputStream stream) {
+		final Connection connection = mock(Connection.class);
+		when(connection.upload("bundle.bin")).thenAnswer(invocation -> new UploadSubscriber(() -> {
+			maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+			return new TransferOutputStream(new TrackingStream(stream), (bytes, successful) -> {});
+		}, executor, bufferPool));
+		return connection;
+	}
+
+	/**
+	 * Writes to a shared in-memory stream and tracks when the remote file is closed.
+	 */
+	private final class TrackingStream extends FilterOutputStream {
+		private TrackingStream(final ByteArrayOutputStream stream) {
+			super(stream);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			open.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a FileFollower only delivers appended bytes and restarts from the beginning of a truncated or rotated
+ * file. The remote file is held in memory and served by a mocked Channel.
+ */
+public class FileFollowerTest {
+
+	private static final String PATH = "/logs/app.log";
+
+	private volatile byte[] contents = new byte[0];
+	private volatile long modificationTime;
+	private Connection connection;
+	private Channel channel;
+	private final StringBuilder delivered = new StringBuilder();
+	private final List<Long> offsets = Lists.newArrayList();
+	private final List<Long> resets = Lists.newArrayList();
+
+	@Before
+	public void setup() throws Exception {
+		channel = mock(Channel.class);
+		when(channel.stat(PATH)).thenAnswer(invocation -> contents == null ? null :
+				RemoteFile.fromAttributes("app.log", "0", "0", contents.length, false, modificationTime));
+		when(channel.openInputStream(eq(PATH), anyLong())).thenAnswer(invocation -> {
+			final int offset = (int) (long) (Long) invocation.getArguments()[1];
+			return new ByteArrayInputStream(contents, offset, contents.length - offset);
+		});
+		connection = mock(Connection.class);
+		when(connection.pwd()).thenReturn("/home/test");
+		when(connection.getBandwidthLimiter()).thenReturn(new BandwidthLimiter(0, null));
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+	}
+
+	@Test
+	public void testOnlyAppendedBytesAreDelivered() throws Exception {
+		final FileFollower follower = new FileFollower(connection, PATH, 0, new RecordingHandler());
+		write("hello");
+		Assert.assertThat(follower.poll(), is(5L));
+		write("hello world");
+		Assert.assertThat(follower.poll(), is(6L));
+		Assert.assertThat(delivered.toString(), is("hello world"));
+		Assert.assertThat(offsets, is(Arrays.asList(0L, 5L)));
+
+		// The first poll reads the data, the second verifies the head of the file and reads the appended data.
+		verify(channel, times(3)).openInputStream(anyString(), anyLong());
+		Assert.assertThat(follower.poll(), is(0L));
+		verify(channel, times(3)).openInputStream(anyString(), anyLong());
+	}
+
+	@Test
+	public void testFollowFromOffset() throws Exception {
+		write("hello world");
+		final FileFollower follower = new FileFollower(connection, PATH, 6, new RecordingHandler());
+		follower.poll();
+		write("hello world!");
+		follower.poll();
+		Assert.assertThat(delivered.toString(), is("world!"));
+		Assert.assertThat(follower.getOffset(), is(12L));
+	}
+
+	@Test
+	public void testTruncatedFileIsDeliveredFromStart() throws Exception {
+		final FileFollower follower = new FileFollower(connection, PATH, 0, new RecordingHandler());
+		write("hello world");
+		follower.poll();
+		write("new");
+		follower.poll();
+		Assert.assertThat(resets, is(Arrays.asList(11L)));
+		Assert.assertThat(delivered.toString(), is("hello worldnew"));
+		Assert.assertThat(offsets, is(Arrays.asList(0L, 0L)));
+	}
+
+	@Test
+	public void testRotatedFileIsDetectedByItsHead() throws Exception {
+		final FileFollower follower = new FileFollower(connection, PATH, 0, new RecordingHandler());
+		write("first file");
+		follower.poll();
+		write("second, longer file");
+		follower.poll();
+		Assert.assertThat(resets, is(Arrays.asList(10L)));
+		Assert.assertThat(delivered.toString(), is("first filesecond, longer file"));
+	}
+
+	@Test
+	public void testRotatedFileIsDetectedByItsModificationTime() throws Exception {
+		final FileFollower follower = new FileFollower(connection, PATH, 0, new RecordingHandler());
+		write("first file");
+		follower.poll();
+		// The older file starts with the same bytes, so only its modification time shows that it replaced the first.
+		contents = "first file, older and longer".getBytes(StandardCharsets.UTF_8);
+		modificationTime -= 10;
+		follower.poll();
+		Assert.assertThat(resets, is(Arrays.asList(10L)));
+		Assert.assertThat(delivered.toString(), is("first filefirst file, older and longer"));
+	}
+
+	@Test
+	public void testMissingFileIsSkipped() throws Exception {
+		contents = null;
+		final FileFollower follower = new FileFollower(connection, PATH, 0, new RecordingHandler());
+		Assert.assertThat(follower.poll(), is(0L));
+	}
+
+	@Test
+	public void testLargeAppendIsDeliveredInChunks() throws Exception {
+		final FileFollower follower = new FileFollower(connection, PATH, 0, new RecordingHandler());
+		final byte[] large = new byte[FileFollower.CHUNK_SIZE * 20 + 10];
+		Arrays.fill(large, (byte) 'x');
+		contents = large;
+		modificationTime++;
+		Assert.assertThat(follower.poll(), is((long) large.length));
+		Assert.assertThat(offsets.size(), is(21));
+		Assert.assertThat(offsets.get(20), is(FileFollower.CHUNK_SIZE * 20L));
+	}
+
+	@Test
+	public void testFailedChunkIsDeliveredAgain() throws Exception {
+		final RecordingHandler handler = new RecordingHandler();
+		final FileFollower follower = new FileFollower(connection, PATH, 0, handler);
+		write("hello");
+		handler.fail = true;
+		try {
+			follower.poll();
+			Assert.fail("Failure of the handler was not reported.");
+		} catch (final IOException expected) {
+			// The chunk is delivered again by the next poll.
+		}
+		handler.fail = false;
+		follower.poll();
+		Assert.assertThat(delivered.toString(), is("hello"));
+	}
+
+	@Test
+	public void testPositionIsRestoredFromStore() throws Exception {
+		final Path file = Files.createTempFile("offsets", ".properties");
+		try {
+			write("hello");
+			final FileFollower follower = new FileFollower(connection, PATH, 0, new FileOffsetStore(file),
+																										 new RecordingHandler());
+			follower.poll();
+			follower.close();
+			write("hello world");
+			final FileFollower restarted = new FileFollower(connection, PATH, 0, new FileOffsetStore(file),
+																											new RecordingHandler());
+			Assert.assertThat(restarted.getOffset(), is(5L));
+			restarted.poll();
+			Assert.assertThat(delivered.toString(), is("hello world"));
+			Assert.assertThat(resets.isEmpty(), is(true));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testPositionIsSavedPeriodicallyAndOnClose() throws Exception {
+		final Map<String, FileFollower.Position> saved = Maps.newHashMap();
+		final OffsetStore store = new OffsetStore() {
+			@Override
+			public FileFollower.Position load(final String path) {
+				return saved.get(path);
+			}
+
+			@Override
+			public void save(final String path, final FileFollower.Position position) {
+				saved.put(path, position);
+			}
+		};
+		final ManualTicker ticker = new ManualTicker();
+		final FileFollower follower = new FileFollower(connection, PATH, 0, store, new RecordingHandler(), ticker);
+		write("hello");
+		follower.poll();
+		Assert.assertThat(saved.isEmpty(), is(true));
+
+		ticker.nanos += FileFollower.SAVE_INTERVAL_NANOS;
+		write("hello world");
+		follower.poll();
+		Assert.assertThat(saved.get(PATH).getOffset(), is(11L));
+
+		final byte[] large = new byte[(int) FileFollower.SAVE_INTERVAL_BYTES + 21];
+		Arrays.fill(large, (byte) 'x');
+		System.arraycopy(contents, 0, large, 0, contents.length);
+		contents = large;
+		modificationTime++;
+		follower.poll();
+		Assert.assertThat(saved.get(PATH).getOffset(), is(FileFollower.SAVE_INTERVAL_BYTES + 11));
+
+		follower.close();
+		Assert.assertThat(saved.get(PATH).getOffset(), is((long) large.length));
+	}
+
+	private void write(final String content) {
+		contents = content.getBytes(StandardCharsets.UTF_8);
+		modificationTime++;
+	}
+
+	private static final class ManualTicker extends Ticker {
+		private long nanos;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+	}
+
+	private class RecordingHandler implements FileFollower.Handler {
+		volatile boolean fail;
+
+		@Override
+		public void onData(final ByteBuffer chunk, final long offset) throws IOException {
+			if (fail) {
+				throw new IOException("Simulated failure");
+			}
+			delivered.append(StandardCharsets.UTF_8.decode(chunk));
+			offsets.add(offset);
+		}
+
+		@Override
+		public void onReset(final long previousOffset) {
+			resets.add(previousOffset);
+		}
+	}
+}
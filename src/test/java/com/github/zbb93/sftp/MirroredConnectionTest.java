@@ -0,0 +1,231 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies routing, failover and hedging of a MirroredConnection using mocked mirrors.
+ */
+public class MirroredConnectionTest {
+
+	private Connection first;
+	private Connection second;
+	private MirroredConnection connection;
+
+	@Before
+	public void setup() {
+		first = mock(Connection.class);
+		second = mock(Connection.class);
+		connection = new MirroredConnection(ImmutableList.of(first, second), 50, TimeUnit.MILLISECONDS);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection.close();
+	}
+
+	@Test
+	public void testRoutesToLeastLoadedMirror() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Collection<RemoteFile> firstListing = Lists.newArrayList();
+		final Collection<RemoteFile> secondListing = Lists.newArrayList();
+		when(first.ls("dir")).thenAnswer(invocation -> {
+			started.countDown();
+			release.await();
+			return firstListing;
+		});
+		when(second.ls("dir")).thenReturn(secondListing);
+		final CompletableFuture<Collection<RemoteFile>> blocked = CompletableFuture.supplyAsync(() -> {
+			try {
+				return connection.ls("dir");
+			} catch (final SSHException | InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Assert.assertThat(connection.getInFlight(), CoreMatchers.is(ImmutableList.of(1, 0)));
+		Assert.assertSame(secondListing, connection.ls("dir"));
+		release.countDown();
+		Assert.assertSame(firstListing, blocked.get(5, TimeUnit.SECONDS));
+		Assert.assertThat(connection.getInFlight(), CoreMatchers.is(ImmutableList.of(0, 0)));
+	}
+
+	@Test
+	public void testReadsFailOverAndAvoidUnhealthyMirror() throws Exception {
+		final Collection<RemoteFile> listing = Lists.newArrayList();
+		when(first.ls("dir")).thenThrow(new SSHException("Mirror is down."));
+		when(second.ls("dir")).thenReturn(listing);
+		Assert.assertSame(listing, connection.ls("dir"));
+		Assert.assertSame(listing, connection.ls("dir"));
+		verify(first, times(1)).ls("dir");
+		verify(second, times(2)).ls("dir");
+	}
+
+	@Test
+	public void testMissingFileDoesNotMakeMirrorUnhealthy() throws Exception {
+		final Collection<RemoteFile> listing = Lists.newArrayList();
+		when(first.ls("dir")).thenThrow(new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No such file."));
+		when(second.ls("dir")).thenReturn(listing);
+		Assert.assertSame(listing, connection.ls("dir"));
+		Assert.assertSame(listing, connection.ls("dir"));
+		verify(first, times(2)).ls("dir");
+	}
+
+	@Test
+	public void testMissingFileDuringGetDoesNotMakeMirrorUnhealthy() throws Exception {
+		doThrow(new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No such file.")).when(first).get(eq("file"), any(OutputStream.class));
+		doAnswer(invocation -> {
+			write(invocation.getArguments()[1], "contents");
+			return null;
+		}).when(second).get(eq("file"), any(OutputStream.class));
+		connection.get("file", new ByteArrayOutputStream());
+		awaitIdle();
+		connection.get("file", new ByteArrayOutputStream());
+		verify(first, times(2)).get(eq("file"), any(OutputStream.class));
+	}
+
+	@Test(expected = SSHException.class)
+	public void testReadFailsWhenEveryMirrorFails() throws Exception {
+		when(first.ls("dir")).thenThrow(new SSHException("Mirror is down."));
+		when(second.ls("dir")).thenThrow(new SSHException("Mirror is down."));
+		connection.ls("dir");
+	}
+
+	@Test
+	public void testWritesDoNotFailOver() throws Exception {
+		doThrow(new SSHException("Mirror is down.")).when(first).rm("file");
+		try {
+			connection.rm("file");
+			Assert.fail("The failure of the first mirror should have been propagated.");
+		} catch (final SSHException e) {
+			verify(second, never()).rm(anyString());
+		}
+	}
+
+	@Test
+	public void testSlowGetIsHedged() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CompletableFuture<IOException> loserFailure = new CompletableFuture<>();
+		doAnswer(invocation -> {
+			release.await();
+			try {
+				write(invocation.getArguments()[1], "slow");
+				loserFailure.complete(null);
+			} catch (final IOException e) {
+				loserFailure.complete(e);
+				throw new SSHException(e);
+			}
+			return null;
+		}).when(first).get(eq("file"), any(OutputStream.class));
+		doAnswer(invocation -> {
+			write(invocation.getArguments()[1], "fast");
+			return null;
+		}).when(second).get(eq("file"), any(OutputStream.class));
+
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		connection.get("file", outputStream);
+		Assert.assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), CoreMatchers.is("fast"));
+
+		release.countDown();
+		Assert.assertNotNull("The loser should have been aborted.", loserFailure.get(5, TimeUnit.SECONDS));
+		Assert.assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), CoreMatchers.is("fast"));
+		awaitIdle();
+		when(first.ls("dir")).thenReturn(Collections.emptyList());
+		connection.ls("dir");
+		verify(first).ls("dir");
+	}
+
+	@Test
+	public void testGetFailsOverBeforeBytes() throws Exception {
+		doThrow(new SSHException("Mirror is down.")).when(first).get(eq("file"), any(OutputStream.class));
+		doAnswer(invocation -> {
+			write(invocation.getArguments()[1], "contents");
+			return null;
+		}).when(second).get(eq("file"), any(OutputStream.class));
+
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		connection.get("file", outputStream);
+		Assert.assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), CoreMatchers.is("contents"));
+	}
+
+	@Test
+	public void testGetIsNotRetriedAfterBytes() throws Exception {
+		connection.close();
+		connection = new MirroredConnection(ImmutableList.of(first, second), 10, TimeUnit.SECONDS);
+		doAnswer(invocation -> {
+			write(invocation.getArguments()[1], "partial");
+			throw new SSHException("Connection reset.");
+		}).when(first).get(eq("file"), any(OutputStream.class));
+
+		try {
+			connection.get("file", new ByteArrayOutputStream());
+			Assert.fail("A failure after bytes were written should have been propagated.");
+		} catch (final SSHException e) {
+			verify(second, never()).get(anyString(), any(OutputStream.class));
+		}
+	}
+
+	@Test
+	public void testServerCapabilitiesAreCommonToEveryMirror() {
+		when(first.getServerCapabilities()).thenReturn(new ServerCapabilities(3, ImmutableMap.of(
+				ServerCapabilities.POSIX_RENAME, "1", ServerCapabilities.LIMITS, "1")));
+		when(second.getServerCapabilities()).thenReturn(new ServerCapabilities(3, ImmutableMap.of(
+				ServerCapabilities.POSIX_RENAME, "1", ServerCapabilities.STATVFS, "2")));
+		final ServerCapabilities capabilities = connection.getServerCapabilities();
+		Assert.assertThat(capabilities.getVersion(), CoreMatchers.is(3));
+		Assert.assertThat(capabilities.getExtensions(),
+											CoreMatchers.is(ImmutableMap.of(ServerCapabilities.POSIX_RENAME, "1")));
+		Assert.assertFalse(capabilities.supportsLimits());
+	}
+
+	/**
+	 * Waits for abandoned attempts to finish so that they no longer count towards the load of their mirror.
+	 */
+	private void awaitIdle() throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!connection.getInFlight().equals(ImmutableList.of(0, 0)) && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		Assert.assertThat(connection.getInFlight(), CoreMatchers.is(ImmutableList.of(0, 0)));
+	}
+
+	private static void write(final Object outputStream, final String contents) throws IOException {
+		((OutputStream) outputStream).write(contents.getBytes(StandardCharsets.UTF_8));
+	}
+}
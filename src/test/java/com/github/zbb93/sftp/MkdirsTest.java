@@ -0,0 +1,85 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that Connection#mkdirs only communicates with the remote server for directories it has not already
+ * confirmed.
+ */
+public class MkdirsTest {
+
+	private ChannelPool pool;
+	private Channel channel;
+	private Connection connection;
+
+	@Before
+	public void setup() throws Exception {
+		channel = mock(Channel.class);
+		pool = mock(ChannelPool.class);
+		when(pool.getNextAvailableChannel()).thenReturn(channel);
+		when(pool.getWorkingDirectory()).thenReturn("/home/test");
+		final ChannelPoolFactory factory = mock(ChannelPoolFactory.class);
+		when(factory.getChannelPool(any(ConnectionParameters.class))).thenReturn(pool);
+		connection = new ConnectionImpl(mock(ConnectionParameters.class), factory);
+	}
+
+	@Test
+	public void testMissingDirectoriesAreCreated() throws Exception {
+		when(channel.stat("/in")).thenReturn(directory("in"));
+		when(channel.stat("/in/2026")).thenReturn(directory("2026"));
+		when(channel.stat("/in/2026/10")).thenReturn(directory("10"));
+		connection.mkdirs("/in/2026/10/16/hh");
+		verify(channel, never()).mkdir("/in/2026/10");
+		verify(channel).mkdir("/in/2026/10/16");
+		verify(channel).mkdir("/in/2026/10/16/hh");
+	}
+
+	@Test
+	public void testRepeatedCallsDoNotUseChannel() throws Exception {
+		connection.mkdirs("/in/2026/10/16/hh");
+		connection.mkdirs("/in/2026/10/16/hh");
+		connection.mkdirs("/in/2026/10/16");
+		verify(pool, times(1)).getNextAvailableChannel();
+		verify(pool, times(1)).returnChannel(channel);
+	}
+
+	@Test
+	public void testExistingDirectoryIsCheckedOnce() throws Exception {
+		when(channel.stat("/home/test/existing/dir")).thenReturn(directory("dir"));
+		connection.mkdirs("existing/dir");
+		verify(channel, times(1)).stat(anyString());
+		verify(channel, never()).mkdir(anyString());
+	}
+
+	@Test(expected = SSHException.class)
+	public void testFileInPathIsRejected() throws Exception {
+		when(channel.stat("/in")).thenReturn(RemoteFile.fromAttributes("in", "0", "0", 0L, false));
+		connection.mkdirs("/in/2026");
+	}
+
+	private static RemoteFile directory(final String name) {
+		return RemoteFile.fromAttributes(name, "0", "0", 0L, true);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that Relay streams a file from one mocked Connection to another.
+ */
+public class RelayTest {
+
+	private final BufferPool bufferPool = new BufferPool(false, 1024 * 1024);
+
+	private ExecutorService sourceExecutor;
+	private ExecutorService destinationExecutor;
+	private Connection source;
+	private Connection destination;
+
+	@Before
+	public void setup() {
+		sourceExecutor = Executors.newCachedThreadPool();
+		destinationExecutor = Executors.newCachedThreadPool();
+		source = mock(Connection.class);
+		destination = mock(Connection.class);
+	}
+
+	@After
+	public void tearDown() {
+		sourceExecutor.shutdownNow();
+		destinationExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testReadsAndWritesOverlap() throws Exception {
+		final byte[] content = new byte[4 * DownloadPublisher.CHUNK_SIZE];
+		new Random(7).nextBytes(content);
+		stat("/source/file", content.length);
+		final CountDownLatch firstChunkWritten = new CountDownLatch(1);
+		// The source does not deliver more than its first chunk until the destination has written that chunk, which
+		// only completes if reading and writing happen at the same time.
+		when(source.download("/source/file")).thenReturn(new DownloadPublisher(
+				() -> new FilterInputStream(new ByteArrayInputStream(content)) {
+					private int read;
+
+					@Override
+					public int read(final byte[] b, final int off, final int len) throws IOException {
+						if (read >= DownloadPublisher.CHUNK_SIZE) {
+							try {
+								if (!firstChunkWritten.await(5, TimeUnit.SECONDS)) {
+									throw new IOException("The first chunk was not written while the source was read.");
+								}
+							} catch (final InterruptedException e) {
+								throw new InterruptedIOException();
+							}
+						}
+						final int count = super.read(b, off, len);
+						read += Math.max(count, 0);
+						return count;
+					}
+				}, sourceExecutor, bufferPool));
+		final ByteArrayOutputStream written = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(final byte[] b, final int off, final int len) {
+				super.write(b, off, len);
+				firstChunkWritten.countDown();
+			}
+		};
+		when(destination.upload("/destination/file")).thenReturn(
+				new UploadSubscriber(() -> new TransferOutputStream(written, (bytes, successful) -> {}), destinationExecutor,
+														 bufferPool));
+
+		Relay.transfer(source, "/source/file", destination, "/destination/file");
+		Assert.assertThat(Arrays.equals(written.toByteArray(), content), is(true));
+	}
+
+	@Test
+	public void testMissingSourceDoesNotOpenDestination() throws Exception {
+		when(source.statAll(Collections.singletonList("/missing"))).thenReturn(
+				new BatchResult<>(ImmutableMap.of(), ImmutableMap.of("/missing", new SSHException("No such file"))));
+		try {
+			Relay.transfer(source, "/missing", destination, "/destination/file");
+			Assert.fail("Missing source was not reported.");
+		} catch (final SSHException expected) {
+			verify(destination, never()).upload(anyString());
+		}
+	}
+
+	@Test
+	public void testSameConnectionCopies() throws Exception {
+		Relay.transfer(source, "/a", source, "/b");
+		verify(source).copy("/a", "/b");
+		verify(source, never()).download(anyString());
+	}
+
+	private void stat(final String path, final long size) throws Exception {
+		final RemoteFile file = RemoteFile.fromAttributes("file", "0", "0", size, false, 0);
+		when(source.statAll(Collections.singletonList(path))).thenReturn(
+				new BatchResult<>(ImmutableMap.of(path, file), ImmutableMap.of()));
+	}
+}
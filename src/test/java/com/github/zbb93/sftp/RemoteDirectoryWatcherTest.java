@@ -0,0 +1,172 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a RemoteDirectoryWatcher reports created, modified and deleted entries and adapts its polling interval.
+ * The remote directory is held in memory and listed by a mocked Channel in a shuffled order.
+ */
+public class RemoteDirectoryWatcherTest {
+
+	private static final String DIRECTORY = "/inbound";
+
+	/**
+	 * Entries of the remote directory, each mapped to its size and modification time.
+	 */
+	private final Map<String, long[]> entries = Maps.newConcurrentMap();
+	private final List<DirectoryEvent> events = Collections.synchronizedList(Lists.newArrayList());
+	private Connection connection;
+	private RemoteDirectoryWatcher watcher;
+
+	@Before
+	public void setup() throws Exception {
+		final Channel channel = mock(Channel.class);
+		doAnswer(invocation -> {
+			final ListingVisitor visitor = (ListingVisitor) invocation.getArguments()[1];
+			visitor.visit(".", "0", "0", 0, 0, true);
+			visitor.visit("..", "0", "0", 0, 0, true);
+			final List<String> names = Lists.newArrayList(entries.keySet());
+			Collections.shuffle(names);
+			for (final String name : names) {
+				final long[] attributes = entries.get(name);
+				visitor.visit(name, "0", "0", attributes[0], attributes[1], false);
+			}
+			return null;
+		}).when(channel).ls(eq(DIRECTORY), any(ListingVisitor.class));
+		connection = mock(Connection.class);
+		when(connection.pwd()).thenReturn("/");
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+	}
+
+	@After
+	public void tearDown() {
+		if (watcher != null) {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void testChangesAreReported() throws Exception {
+		entries.put("unchanged.csv", new long[] {10, 100});
+		entries.put("modified.csv", new long[] {10, 100});
+		entries.put("deleted.csv", new long[] {10, 100});
+		watcher = new RemoteDirectoryWatcher(connection, events::add, 1, 1, TimeUnit.HOURS);
+		watcher.watch(DIRECTORY);
+		Assert.assertThat(watcher.poll(DIRECTORY).isEmpty(), is(true));
+
+		entries.put("modified.csv", new long[] {10, 101});
+		entries.remove("deleted.csv");
+		entries.put("created.csv", new long[] {5, 102});
+		watcher.poll(DIRECTORY);
+		Assert.assertThat(describe(events), is("[CREATED /inbound/created.csv, DELETED /inbound/deleted.csv, " +
+																					 "MODIFIED /inbound/modified.csv]"));
+		Assert.assertThat(events.get(0).getSize(), is(5L));
+		Assert.assertThat(events.get(2).getModificationTime(), is(101L));
+	}
+
+	@Test
+	public void testLargeDirectory() throws Exception {
+		for (int i = 0; i < 10000; i++) {
+			entries.put("file" + i, new long[] {i, 100});
+		}
+		watcher = new RemoteDirectoryWatcher(connection, events::add, 1, 1, TimeUnit.HOURS);
+		watcher.watch(DIRECTORY);
+		entries.put("file5000", new long[] {1, 100});
+		entries.remove("file9999");
+		entries.put("file\u00e9", new long[] {1, 100});
+		watcher.poll(DIRECTORY);
+		Assert.assertThat(describe(events), is("[MODIFIED /inbound/file5000, DELETED /inbound/file9999, " +
+																					 "CREATED /inbound/file\u00e9]"));
+	}
+
+	@Test
+	public void testIntervalAdaptsToChanges() throws Exception {
+		watcher = new RemoteDirectoryWatcher(connection, events::add, 2, 5, TimeUnit.HOURS);
+		watcher.watch(DIRECTORY);
+		watcher.poll(DIRECTORY);
+		Assert.assertThat(watcher.getInterval(DIRECTORY, TimeUnit.MINUTES), is(180L));
+		watcher.poll(DIRECTORY);
+		watcher.poll(DIRECTORY);
+		Assert.assertThat(watcher.getInterval(DIRECTORY, TimeUnit.HOURS), is(5L));
+		entries.put("new.csv", new long[] {1, 1});
+		watcher.poll(DIRECTORY);
+		Assert.assertThat(watcher.getInterval(DIRECTORY, TimeUnit.HOURS), is(2L));
+	}
+
+	@Test
+	public void testScheduledPollsReportChanges() throws Exception {
+		final CountDownLatch created = new CountDownLatch(1);
+		watcher = new RemoteDirectoryWatcher(connection, event -> created.countDown(), 10, 20, TimeUnit.MILLISECONDS);
+		watcher.watch("inbound");
+		Assert.assertThat(watcher.getWatchedDirectories().contains(DIRECTORY), is(true));
+		entries.put("new.csv", new long[] {1, 1});
+		Assert.assertThat("Change was not reported.", created.await(5, TimeUnit.SECONDS), is(true));
+		watcher.unwatch(DIRECTORY);
+		Assert.assertThat(watcher.getWatchedDirectories().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testUnwatchDoesNotWaitForPoll() throws Exception {
+		final CountDownLatch polling = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		watcher = new RemoteDirectoryWatcher(connection, event -> {
+			polling.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, 10, 20, TimeUnit.MILLISECONDS);
+		watcher.watch(DIRECTORY);
+		entries.put("new.csv", new long[] {1, 1});
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Assert.assertThat("Change was not reported.", polling.await(5, TimeUnit.SECONDS), is(true));
+			executor.submit(() -> watcher.unwatch(DIRECTORY)).get(5, TimeUnit.SECONDS);
+			Assert.assertThat(watcher.getWatchedDirectories().isEmpty(), is(true));
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	private static String describe(final List<DirectoryEvent> events) {
+		return events.stream().map(event -> event.getKind() + " " + event.getPath()).collect(Collectors.toList())
+								 .toString();
+	}
+}
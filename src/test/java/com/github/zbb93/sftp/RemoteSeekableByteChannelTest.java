@@ -0,0 +1,169 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a RemoteSeekableByteChannel reads the correct regions of a remote file, caches the blocks it fetched
+ * and reads ahead when the file is read sequentially. The remote file is served by a mocked Channel.
+ */
+public class RemoteSeekableByteChannelTest {
+
+	private static final int FILE_SIZE = 100;
+	private static final int BLOCK_SIZE = 4;
+
+	private final byte[] contents = new byte[FILE_SIZE];
+	private Connection connection;
+	private Channel channel;
+
+	@Before
+	public void setup() throws Exception {
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = (byte) i;
+		}
+		channel = mock(Channel.class);
+		when(channel.openInputStream(anyString(), anyLong())).thenAnswer(invocation -> {
+			final int offset = (int) (long) (Long) invocation.getArguments()[1];
+			return new ByteArrayInputStream(contents, offset, contents.length - offset);
+		});
+		connection = mock(Connection.class);
+		when(connection.getBandwidthLimiter()).thenReturn(new BandwidthLimiter(0, null));
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+	}
+
+	@Test
+	public void testFooterAndHeaderAreFetchedOnce() throws Exception {
+		try (final SeekableByteChannel seekable = open(FILE_SIZE, 8, 4)) {
+			Assert.assertThat(read(seekable, FILE_SIZE - 8, 8), is(range(FILE_SIZE - 8, 8)));
+			Assert.assertThat(read(seekable, 0, 6), is(range(0, 6)));
+			Assert.assertThat(read(seekable, FILE_SIZE - 6, 6), is(range(FILE_SIZE - 6, 6)));
+			Assert.assertThat(read(seekable, 2, 2), is(range(2, 2)));
+			Assert.assertThat(seekable.position(), is(4L));
+		}
+		verify(channel, times(1)).openInputStream("/file", FILE_SIZE - 8);
+		verify(channel, times(1)).openInputStream("/file", 0);
+		verify(channel, times(2)).openInputStream(anyString(), anyLong());
+	}
+
+	@Test
+	public void testSequentialReadFetchesIncreasingNumberOfBlocks() throws Exception {
+		final ByteBuffer file = ByteBuffer.allocate(FILE_SIZE);
+		try (final SeekableByteChannel seekable = open(FILE_SIZE, 8, 4)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+			while (seekable.read(buffer) >= 0) {
+				buffer.flip();
+				file.put(buffer);
+				buffer.clear();
+			}
+		}
+		Assert.assertThat(file.array(), is(contents));
+		// Blocks 0, 1-2, 3-6, 7-10, 11-14, 15-18, 19-22 and 23-24.
+		verify(channel, times(8)).openInputStream(anyString(), anyLong());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedBlockIsEvicted() throws Exception {
+		try (final SeekableByteChannel seekable = open(FILE_SIZE, 2, 1)) {
+			read(seekable, 0, 1);
+			read(seekable, 40, 1);
+			read(seekable, 0, 1);
+			read(seekable, 80, 1);
+			read(seekable, 0, 1);
+			read(seekable, 40, 1);
+		}
+		verify(channel, times(1)).openInputStream("/file", 0);
+		verify(channel, times(2)).openInputStream("/file", 40);
+	}
+
+	@Test
+	public void testReadAtEndOfFile() throws Exception {
+		try (final SeekableByteChannel seekable = open(FILE_SIZE, 8, 4)) {
+			seekable.position(FILE_SIZE + 10);
+			Assert.assertThat(seekable.read(ByteBuffer.allocate(1)), is(-1));
+			seekable.position(FILE_SIZE - 1);
+			final ByteBuffer buffer = ByteBuffer.allocate(10);
+			Assert.assertThat(seekable.read(buffer), is(1));
+			Assert.assertThat(seekable.read(buffer), is(-1));
+		}
+	}
+
+	@Test
+	public void testReadIntoFullBufferReturnsZero() throws Exception {
+		try (final SeekableByteChannel seekable = open(FILE_SIZE, 8, 4)) {
+			Assert.assertThat(seekable.read(ByteBuffer.allocate(0)), is(0));
+			Assert.assertThat(seekable.position(), is(0L));
+		}
+		verify(channel, never()).openInputStream(anyString(), anyLong());
+	}
+
+	@Test
+	public void testFileShrankAfterOpening() throws Exception {
+		try (final SeekableByteChannel seekable = open(FILE_SIZE + 10, 8, 4)) {
+			seekable.position(FILE_SIZE - 2);
+			final ByteBuffer buffer = ByteBuffer.allocate(10);
+			Assert.assertThat(seekable.read(buffer), is(2));
+			Assert.assertThat(seekable.read(buffer), is(-1));
+		}
+	}
+
+	@Test(expected = NonWritableChannelException.class)
+	public void testWriteIsRejected() throws Exception {
+		try (final SeekableByteChannel seekable = open(FILE_SIZE, 8, 4)) {
+			seekable.write(ByteBuffer.allocate(1));
+		}
+	}
+
+	@Test(expected = ClosedChannelException.class)
+	public void testReadAfterClose() throws Exception {
+		final SeekableByteChannel seekable = open(FILE_SIZE, 8, 4);
+		seekable.close();
+		seekable.read(ByteBuffer.allocate(1));
+	}
+
+	private SeekableByteChannel open(final long size, final int maxCachedBlocks, final int maxReadAheadBlocks) {
+		return new RemoteSeekableByteChannel(connection, "/file", size, BLOCK_SIZE, maxCachedBlocks, maxReadAheadBlocks);
+	}
+
+	private static byte[] read(final SeekableByteChannel seekable, final long position, final int length)
+			throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		seekable.position(position);
+		while (buffer.hasRemaining() && seekable.read(buffer) >= 0) {
+			// Keep reading until the buffer is full.
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	private byte[] range(final int offset, final int length) {
+		return Arrays.copyOfRange(contents, offset, offset + length);
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that channel pools open sessions and channels only as granted by a ResourceGovernor and that capacity is
+ * shared fairly between pools. The pools open mocked channels.
+ */
+public class ResourceGovernorTest {
+
+	private ResourceGovernor governor;
+
+	@Before
+	public void setup() {
+		governor = new ResourceGovernor();
+	}
+
+	@Test
+	public void testUnlimitedPoolOpensEveryChannel() throws Exception {
+		final TestPool pool = pool("host", 4);
+		Assert.assertThat(pool.opened.size(), is(4));
+		Assert.assertThat(governor.getSessions(), is(1));
+		Assert.assertThat(governor.getChannels(), is(4));
+		pool.close();
+		Assert.assertThat(governor.getSessions(), is(0));
+		Assert.assertThat(governor.getChannels(), is(0));
+	}
+
+	@Test
+	public void testIdlePoolLendsCapacity() throws Exception {
+		governor.setMaxChannels(4);
+		final TestPool idle = pool("host", 4);
+		Assert.assertThat(idle.opened.size(), is(4));
+		final TestPool busy = pool("other-host", 4);
+		Assert.assertThat("Fair share not granted.", busy.opened.size(), is(2));
+		Assert.assertThat(governor.getChannels(), is(4));
+		Assert.assertThat("Idle pool should keep its share.", closedCount(idle), is(2));
+	}
+
+	@Test
+	public void testReclaimedChannelIsClosedAfterUnlocking() throws Exception {
+		governor.setMaxChannels(4);
+		final TestPool idle = pool("host", 4);
+		pool("other-host", 4);
+		Assert.assertThat(closedCount(idle), is(2));
+		Assert.assertThat("Channel closed while the governor was locked.", idle.closedWhileLocked.get(), is(false));
+	}
+
+	@Test
+	public void testPerHostLimit() throws Exception {
+		governor.setMaxChannelsPerHost(3);
+		final TestPool first = pool("host", 4);
+		Assert.assertThat(first.opened.size(), is(3));
+		final TestPool second = pool("host", 4);
+		Assert.assertThat("Reclaimed channel not granted.", second.opened.size(), is(1));
+		Assert.assertThat(closedCount(first), is(1));
+		final TestPool other = pool("other-host", 4);
+		Assert.assertThat(other.opened.size(), is(3));
+		Assert.assertThat(governor.getChannels(), is(6));
+	}
+
+	@Test
+	public void testBusyPoolReleasesChannelWhenReturned() throws Exception {
+		governor.setMaxChannels(2);
+		final TestPool busy = pool("host", 2);
+		final Channel first = busy.getNextAvailableChannel();
+		final Channel second = busy.getNextAvailableChannel();
+		final CompletableFuture<TestPool> waiting = CompletableFuture.supplyAsync(() -> {
+			try {
+				return pool("other-host", 2);
+			} catch (final SSHException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		try {
+			waiting.get(300, TimeUnit.MILLISECONDS);
+			Assert.fail("Pool opened a channel while every channel was in use.");
+		} catch (final TimeoutException expected) {
+			// Every channel of the busy pool is in use.
+		}
+		busy.returnChannel(second);
+		verify(second).close();
+		final TestPool other = waiting.get(5, TimeUnit.SECONDS);
+		Assert.assertThat(other.opened.size(), is(1));
+		busy.returnChannel(first);
+		verify(first, never()).close();
+		Assert.assertThat(governor.getChannels(), is(2));
+	}
+
+	@Test
+	public void testSessionLimitWaitsForClose() throws Exception {
+		governor.setMaxSessionsPerHost(1);
+		final TestPool first = pool("host", 1);
+		final CompletableFuture<TestPool> waiting = CompletableFuture.supplyAsync(() -> {
+			try {
+				return pool("host", 1);
+			} catch (final SSHException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		try {
+			waiting.get(300, TimeUnit.MILLISECONDS);
+			Assert.fail("Session opened beyond the per-host limit.");
+		} catch (final TimeoutException expected) {
+			// The first pool holds the only session to the host.
+		}
+		first.close();
+		waiting.get(5, TimeUnit.SECONDS);
+		Assert.assertThat(governor.getSessions(), is(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLimitMustBePositive() {
+		governor.setMaxChannels(0);
+	}
+
+	private static int closedCount(final TestPool pool) {
+		int closed = 0;
+		for (final Channel channel : pool.opened) {
+			if (mockingDetails(channel).getInvocations().stream()
+																 .anyMatch(invocation -> "close".equals(invocation.getMethod().getName()))) {
+				closed++;
+			}
+		}
+		return closed;
+	}
+
+	private TestPool pool(final String host, final int poolSize) throws SSHException {
+		final TestPool pool = new TestPool(poolSize, host, governor);
+		pool.initialize();
+		return pool;
+	}
+
+	/**
+	 * Pool that opens mocked channels.
+	 */
+	private static final class TestPool extends AbstractChannelPool {
+		private final List<Channel> opened = Lists.newCopyOnWriteArrayList();
+
+		private final AtomicBoolean closedWhileLocked = new AtomicBoolean();
+
+		private final ResourceGovernor governor;
+
+		private TestPool(final int poolSize, final String host, final ResourceGovernor governor) {
+			super(poolSize, host, governor);
+			this.governor = governor;
+		}
+
+		@Override
+		protected void connect() { }
+
+		@Override
+		protected Channel getChannel() throws SSHException {
+			final Channel channel = mock(Channel.class);
+			when(channel.pwd()).thenReturn("/home/test");
+			doAnswer(invocation -> {
+				if (Thread.holdsLock(governor)) {
+					closedWhileLocked.set(true);
+				}
+				return null;
+			}).when(channel).close();
+			opened.add(channel);
+			return channel;
+		}
+	}
+}
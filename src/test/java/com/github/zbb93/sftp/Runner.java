@@ -23,8 +23,28 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+		AdaptiveConcurrencyLimitTest.class,
+		BandwidthLimiterTest.class,
+		BatchOperationTest.class,
+		BufferPoolTest.class,
 		ChannelReturnTest.class,
+		CoalescingTest.class,
+		CompactListingTest.class,
+		ConnectionRegistryTest.class,
+		DownloadCacheTest.class,
+		DownloadPublisherTest.class,
+		FanOutUploadTest.class,
+		FileFollowerTest.class,
+		MirroredConnectionTest.class,
+		MkdirsTest.class,
+		RelayTest.class,
+		RemoteDirectoryWatcherTest.class,
 		RemoteFileTest.class,
+		RemoteSeekableByteChannelTest.class,
+		ResourceGovernorTest.class,
+		SftpFileSystemTest.class,
+		TransferSchedulerTest.class,
+		UploadSubscriberTest.class,
 		SshServerIT.class
 })
 public class Runner { }
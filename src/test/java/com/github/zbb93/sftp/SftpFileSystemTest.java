@@ -0,0 +1,265 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies the paths and file operations of the SFTP FileSystemProvider against a mocked Connection.
+ */
+public class SftpFileSystemTest {
+
+	private static final URI SERVER = URI.create("sftp://test@example.com");
+
+	private Connection connection;
+	private SftpFileSystemProvider provider;
+	private FileSystem fileSystem;
+
+	@Before
+	public void setup() throws Exception {
+		connection = mock(Connection.class);
+		when(connection.pwd()).thenReturn("/home/test");
+		final ConnectionFactory factory = mock(ConnectionFactory.class);
+		when(factory.getConnection(any(ConnectionParameters.class))).thenReturn(connection);
+		provider = new SftpFileSystemProvider(factory);
+		fileSystem = provider.newFileSystem(SERVER, ImmutableMap.of(SftpFileSystemProvider.PASSWORD, "secret"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fileSystem.close();
+	}
+
+	@Test
+	public void testFileSystemIsRegisteredUntilClosed() throws Exception {
+		Assert.assertThat(provider.getFileSystem(URI.create("sftp://test@example.com:22/tmp")), is(fileSystem));
+		try {
+			provider.newFileSystem(SERVER, ImmutableMap.of(SftpFileSystemProvider.PASSWORD, "secret"));
+			Assert.fail("A second file system was created for the same server.");
+		} catch (final FileSystemAlreadyExistsException expected) {
+			// The first file system is still open.
+		}
+		fileSystem.close();
+		verify(connection).close();
+		try {
+			provider.getFileSystem(SERVER);
+			Assert.fail("Closed file system was returned.");
+		} catch (final FileSystemNotFoundException expected) {
+			// The file system was removed when it was closed.
+		}
+	}
+
+	@Test
+	public void testPathOperations() {
+		final Path path = fileSystem.getPath("/home", "test", "..", "other", ".", "file.txt");
+		Assert.assertThat(path.toString(), is("/home/test/../other/./file.txt"));
+		Assert.assertThat(path.normalize().toString(), is("/home/other/file.txt"));
+		Assert.assertThat(path.normalize().getParent().toString(), is("/home/other"));
+		Assert.assertThat(path.getFileName().toString(), is("file.txt"));
+		Assert.assertThat(path.getRoot().toString(), is("/"));
+		Assert.assertThat(path.getNameCount(), is(6));
+		Assert.assertThat(path.subpath(1, 3).toString(), is("test/.."));
+		Assert.assertThat(path.startsWith("/home/test"), is(true));
+		Assert.assertThat(path.endsWith("other/./file.txt"), is(true));
+		Assert.assertThat(fileSystem.getPath("/a/b").relativize(fileSystem.getPath("/a/c/d")).toString(), is("../c/d"));
+		Assert.assertThat(fileSystem.getPath("/a").resolve("b/c").toString(), is("/a/b/c"));
+		Assert.assertThat(fileSystem.getPath("/a").resolve("/b").toString(), is("/b"));
+		Assert.assertThat(fileSystem.getPath("a").getParent(), is(nullValue()));
+		Assert.assertThat(fileSystem.getPath("file.txt").toAbsolutePath().toString(), is("/home/test/file.txt"));
+		Assert.assertThat(fileSystem.getPath("file.txt").toUri(),
+											is(URI.create("sftp://test@example.com:22/home/test/file.txt")));
+		Assert.assertThat(provider.getPath(URI.create("sftp://test@example.com/tmp/x")),
+											is(fileSystem.getPath("/tmp/x")));
+	}
+
+	@Test
+	public void testGlobPathMatcher() {
+		final PathMatcher matcher = fileSystem.getPathMatcher("glob:/data/*.{csv,txt}");
+		Assert.assertThat(matcher.matches(fileSystem.getPath("/data/a.csv")), is(true));
+		Assert.assertThat(matcher.matches(fileSystem.getPath("/data/b.txt")), is(true));
+		Assert.assertThat(matcher.matches(fileSystem.getPath("/data/nested/a.csv")), is(false));
+		Assert.assertThat(fileSystem.getPathMatcher("glob:/data/**.csv").matches(fileSystem.getPath("/data/nested/a.csv")),
+											is(true));
+		Assert.assertThat(fileSystem.getPathMatcher("glob:file?.[!a]").matches(fileSystem.getPath("file1.b")), is(true));
+		Assert.assertThat(fileSystem.getPathMatcher("glob:file?.[!a]").matches(fileSystem.getPath("file1.a")), is(false));
+	}
+
+	@Test
+	public void testWalkUsesListingAttributes() throws Exception {
+		final Channel channel = mock(Channel.class);
+		when(channel.stat("/data")).thenReturn(RemoteFile.fromAttributes("data", "0", "0", 0, true, 0));
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+		when(connection.lsCompact("/data")).thenReturn(listing("a.txt", false, "nested", true));
+		when(connection.lsCompact("/data/nested")).thenReturn(listing("b.txt", false));
+
+		final List<String> files;
+		try (final Stream<Path> walk = Files.walk(fileSystem.getPath("/data"))) {
+			files = walk.filter(Files::isRegularFile).map(Path::toString).sorted().collect(Collectors.toList());
+		}
+		Assert.assertThat(files.toString(), is("[/data/a.txt, /data/nested/b.txt]"));
+		// The start of the walk is the only path that is not part of a listing; the walk, its directory stream and the
+		// filter each stat it.
+		verify(channel, times(3)).stat("/data");
+		verify(channel, times(3)).stat(anyString());
+		verify(connection, times(2)).lsCompact(anyString());
+	}
+
+	@Test
+	public void testWriteUploadsFile() throws Exception {
+		final Channel channel = mock(Channel.class);
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+		final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+		when(connection.upload("/home/test/file.txt")).thenReturn(
+				new UploadSubscriber(() -> new TransferOutputStream(uploaded, (bytes, successful) -> {}),
+														 MoreExecutors.directExecutor(), BufferPool.getHeapPool()));
+		Files.write(fileSystem.getPath("file.txt"), "hello".getBytes());
+		Assert.assertThat(new String(uploaded.toByteArray()), is("hello"));
+	}
+
+	@Test
+	public void testMoveReplacesWithPosixRename() throws Exception {
+		final Channel channel = moveChannel();
+		when(connection.getServerCapabilities()).thenReturn(
+				new ServerCapabilities(3, ImmutableMap.of(ServerCapabilities.POSIX_RENAME, "1")));
+		Files.move(fileSystem.getPath("/data/a.txt"), fileSystem.getPath("/data/b.txt"),
+							 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		verify(connection).renameAll(ImmutableMap.of("/data/a.txt", "/data/b.txt"));
+		verify(connection, never()).rm(anyString());
+	}
+
+	@Test
+	public void testMoveDeletesTargetWithoutPosixRename() throws Exception {
+		final Channel channel = moveChannel();
+		when(connection.getServerCapabilities()).thenReturn(ServerCapabilities.NONE);
+		try {
+			Files.move(fileSystem.getPath("/data/a.txt"), fileSystem.getPath("/data/b.txt"),
+								 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Assert.fail("Target was replaced without the server being able to do so atomically.");
+		} catch (final AtomicMoveNotSupportedException expected) {
+			verify(connection, never()).rm(anyString());
+		}
+		Files.move(fileSystem.getPath("/data/a.txt"), fileSystem.getPath("/data/b.txt"),
+							 StandardCopyOption.REPLACE_EXISTING);
+		verify(connection).rm("/data/b.txt");
+		verify(connection).renameAll(ImmutableMap.of("/data/a.txt", "/data/b.txt"));
+	}
+
+	@Test
+	public void testDirectoryStreamOfRegularFile() throws Exception {
+		final Channel channel = mock(Channel.class);
+		when(channel.stat("/data/a.txt")).thenReturn(RemoteFile.fromAttributes("a.txt", "0", "0", 1, false, 0));
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+		try {
+			Files.newDirectoryStream(fileSystem.getPath("/data/a.txt")).close();
+			Assert.fail("A regular file was listed as a directory.");
+		} catch (final NotDirectoryException expected) {
+			verify(connection, never()).lsCompact(anyString());
+		}
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testReadAttributesOfMissingFile() throws Exception {
+		final Channel channel = mock(Channel.class);
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+		Files.size(fileSystem.getPath("/missing"));
+	}
+
+	@Test
+	public void testCopyWithinFileSystemIsDoneByConnection() throws Exception {
+		moveChannel();
+		Files.copy(fileSystem.getPath("/data/a.txt"), fileSystem.getPath("/data/c.txt"));
+		verify(connection).copy("/data/a.txt", "/data/c.txt");
+		verify(connection, never()).upload(anyString());
+		verify(connection, never()).get(anyString(), any(OutputStream.class));
+	}
+
+	@Test(expected = AccessDeniedException.class)
+	public void testReadAttributesWithoutPermission() throws Exception {
+		final Channel channel = mock(Channel.class);
+		when(channel.stat("/secret")).thenThrow(
+				new RemoteFileException(RemoteFileException.Reason.PERMISSION_DENIED, "Permission denied"));
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+		Files.size(fileSystem.getPath("/secret"));
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testFileDeletedConcurrently() throws Exception {
+		final Channel channel = mock(Channel.class);
+		when(channel.stat("/data/a.txt")).thenReturn(RemoteFile.fromAttributes("a.txt", "0", "0", 1, false, 0));
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+		doThrow(new RemoteFileException(RemoteFileException.Reason.NO_SUCH_FILE, "No such file"))
+				.when(connection).rm("/data/a.txt");
+		Files.delete(fileSystem.getPath("/data/a.txt"));
+	}
+
+	/**
+	 * @return channel on which /data/a.txt and /data/b.txt exist, used by the Connection for every operation.
+	 */
+	private Channel moveChannel() throws Exception {
+		final Channel channel = mock(Channel.class);
+		when(channel.stat("/data/a.txt")).thenReturn(RemoteFile.fromAttributes("a.txt", "0", "0", 1, false, 0));
+		when(channel.stat("/data/b.txt")).thenReturn(RemoteFile.fromAttributes("b.txt", "0", "0", 1, false, 0));
+		when(connection.withChannel(any())).thenAnswer(
+				invocation -> ((ChannelCallback<?>) invocation.getArguments()[0]).doWithChannel(channel));
+		when(connection.renameAll(any())).thenReturn(new BatchResult<>(ImmutableMap.of(), ImmutableMap.of()));
+		return channel;
+	}
+
+	private static CompactListing listing(final Object... entries) {
+		final CompactListing.Builder builder = new CompactListing.Builder();
+		builder.visit(".", "0", "0", 0, 0, true);
+		builder.visit("..", "0", "0", 0, 0, true);
+		for (int i = 0; i < entries.length; i += 2) {
+			builder.visit((String) entries[i], "0", "0", 1, 0, (Boolean) entries[i + 1]);
+		}
+		return builder.build();
+	}
+}
@@ -17,7 +17,9 @@
  */
 package com.github.zbb93.sftp;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.sshd.client.SshClient;
 import org.apache.sshd.client.future.AuthFuture;
 import org.apache.sshd.client.future.ConnectFuture;
@@ -32,15 +34,38 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import javax.net.SocketFactory;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
@@ -144,6 +169,15 @@ public final class SshServerIT {
 		}
 	}
 
+	@Test
+	public void testServerCapabilities() throws Exception {
+		try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters())) {
+			final ServerCapabilities capabilities = connection.getServerCapabilities();
+			Assert.assertThat("Unexpected SFTP version", capabilities.getVersion(), is(3));
+			Assert.assertThat("hardlink was not announced", capabilities.supportsHardlink(), is(true));
+		}
+	}
+
 	@Test
 	public void testFileTransfer() throws Exception {
 		final byte[] content = "hello, world!".getBytes();
@@ -198,6 +232,24 @@ public final class SshServerIT {
 		}
 	}
 
+	@Test
+	public void testUploadIntoDirectory() throws Exception {
+		final Path tmp = Paths.get("tmp.txt").toAbsolutePath();
+		final Path directory = Paths.get("uploads");
+		try {
+			Files.write(tmp, "hello, world!".getBytes());
+			Files.createDirectory(directory);
+			try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters())) {
+				connection.put(tmp, "uploads");
+			}
+			Assert.assertThat("File not uploaded into directory", Files.exists(directory.resolve("tmp.txt")), is(true));
+		} finally {
+			Files.deleteIfExists(tmp);
+			Files.deleteIfExists(directory.resolve("tmp.txt"));
+			Files.deleteIfExists(directory);
+		}
+	}
+
 	@Test
 	public void testRemoteDirectoryCreation() throws Exception {
 		final ConnectionParameters params = buildConnectionParameters();
@@ -232,6 +284,413 @@ public final class SshServerIT {
 		}
 	}
 
+	@Test
+	public void testCompressedConnectionWithPreferredCipher() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 10000).getBytes();
+		final Path tmp = Paths.get("tmp.txt").toAbsolutePath();
+		try {
+			Files.write(tmp, content);
+			final ConnectionParameters.Builder builder = new ConnectionParameters.Builder(HOST, USERNAME, PASSWORD, PORT);
+			builder.setTimeout(DEFAULT_TIMEOUT);
+			builder.setCiphers("aes128-ctr");
+			builder.setMacs("hmac-sha1");
+			builder.setCompression(true);
+			try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(builder.build())) {
+				connection.put(tmp, "test1.txt");
+				try (final ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+					connection.get("test1.txt", out);
+					Assert.assertThat("File not transferred correctly", out.toByteArray(), is(content));
+				}
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+			Files.deleteIfExists(Paths.get("test1.txt"));
+		}
+	}
+
+	@Test
+	public void testAlgorithmProbe() throws Exception {
+		final Path sample = Paths.get("sample.txt").toAbsolutePath();
+		try {
+			Files.write(sample, Strings.repeat("hello, world!\n", 10000).getBytes());
+			final AlgorithmProbe probe = new AlgorithmProbe(() -> {
+				final ConnectionParameters.Builder builder = new ConnectionParameters.Builder(HOST, USERNAME, PASSWORD, PORT);
+				builder.setTimeout(DEFAULT_TIMEOUT);
+				return builder;
+			}, sample, "probe.txt");
+			final AlgorithmProbe.Result result = probe.probe();
+			Assert.assertThat("Recommended cipher was not probed", result.getCipherThroughput()
+					.containsKey(result.getRecommendedCipher()), is(true));
+			Assert.assertThat("Recommended MAC was not probed", result.getMacThroughput()
+					.containsKey(result.getRecommendedMac()), is(true));
+			Assert.assertThat("Probe file was not removed", Files.exists(Paths.get("probe.txt")), is(false));
+		} finally {
+			Files.deleteIfExists(sample);
+			Files.deleteIfExists(Paths.get("probe.txt"));
+		}
+	}
+
+	@Test
+	public void testSocketOptions() throws Exception {
+		final AtomicInteger socketsCreated = new AtomicInteger();
+		final SocketFactory socketFactory = new SocketFactory() {
+			@Override
+			public Socket createSocket() {
+				socketsCreated.incrementAndGet();
+				return new Socket();
+			}
+
+			@Override
+			public Socket createSocket(final String host, final int port) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Socket createSocket(final InetAddress host, final int port) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress,
+																 final int localPort) {
+				throw new UnsupportedOperationException();
+			}
+		};
+		final ConnectionParameters.Builder builder = new ConnectionParameters.Builder(HOST, USERNAME, PASSWORD, PORT);
+		builder.setTimeout(DEFAULT_TIMEOUT);
+		builder.setSocketBufferSizes(1024 * 1024, 1024 * 1024);
+		builder.setKeepAlive(true);
+		builder.setLocalAddress(InetAddress.getLoopbackAddress());
+		builder.setSocketFactory(socketFactory);
+		try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(builder.build())) {
+			Assert.assertThat("Connection unusable", connection.ls(".").isEmpty(), is(false));
+		}
+		Assert.assertThat("Socket factory not used", socketsCreated.get(), is(1));
+	}
+
+	@Test
+	public void testCompactDirectoryListing() throws Exception {
+		final ConnectionParameters params = buildConnectionParameters();
+		try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(params)) {
+			final CompactListing listing = connection.lsCompact(".");
+			final int workingDirFileCount = (int) Files.list(Paths.get("")).count();
+			// The listing contains entries for '.' and '..'
+			Assert.assertThat("Incorrect file count in working directory", listing.size(), is(workingDirFileCount + 2));
+		}
+	}
+
+	@Test
+	public void testReactiveCopy() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 100000).getBytes();
+		final Path source = Paths.get("source.txt");
+		final Path copy = Paths.get("copy.txt");
+		try {
+			Files.write(source, content);
+			final ConnectionParameters params = buildConnectionParameters();
+			try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(params)) {
+				final UploadSubscriber upload = connection.upload("copy.txt");
+				connection.download("source.txt").subscribe(upload);
+				upload.getCompletion().get(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+			Assert.assertThat("File not copied correctly", Files.readAllBytes(copy), is(content));
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(copy);
+		}
+	}
+
+	@Test
+	public void testMirroredGet() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 10000).getBytes();
+		final Path source = Paths.get("source.txt");
+		try {
+			Files.write(source, content);
+			final List<ConnectionParameters> mirrors = Lists.newArrayList(buildConnectionParameters(),
+																																		buildConnectionParameters());
+			try (final Connection connection = ConnectionFactory.INSTANCE.getMirroredConnection(mirrors, 0,
+																																												 TimeUnit.MILLISECONDS)) {
+				final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				connection.get("source.txt", outputStream);
+				Assert.assertThat("File not downloaded correctly", outputStream.toByteArray(), is(content));
+			}
+		} finally {
+			Files.deleteIfExists(source);
+		}
+	}
+
+	/**
+	 * The losing attempt of a hedged get is aborted by its OutputStream once the other mirror has won. The channel of the
+	 * loser is returned to its pool and must remain usable, which is checked with a pool of a single channel.
+	 */
+	@Test
+	public void testMirroredGetLoserChannelRemainsUsable() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 100000).getBytes();
+		final Path source = Paths.get("source.txt");
+		final ConnectionParameters.Builder builder = new ConnectionParameters.Builder(HOST, USERNAME, PASSWORD, PORT);
+		builder.setTimeout(DEFAULT_TIMEOUT);
+		builder.setChannelPoolSize(1);
+		final CountDownLatch loserWriting = new CountDownLatch(1);
+		final CountDownLatch winnerClaimed = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Files.write(source, content);
+			final Connection loser = ConnectionFactory.INSTANCE.getConnection(builder.build());
+			// Holds back the bytes of the real mirror until the other mirror has claimed the download, so that the real
+			// mirror is aborted part way through the file.
+			final Connection delayed = new ForwardingConnection() {
+				@Override
+				protected @NotNull Connection delegate() {
+					return loser;
+				}
+
+				@Override
+				public void get(final @NotNull String path, final @NotNull OutputStream outputStream) throws SSHException,
+						InterruptedException {
+					final ByteArrayOutputStream held = new ByteArrayOutputStream();
+					loser.get(path, new FilterOutputStream(outputStream) {
+						@Override
+						public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+							held.write(b, off, len);
+							if (held.size() < content.length / 4) {
+								return;
+							}
+							loserWriting.countDown();
+							try {
+								Assert.assertTrue(winnerClaimed.await(10, TimeUnit.SECONDS));
+							} catch (final InterruptedException e) {
+								throw new InterruptedIOException();
+							}
+							out.write(held.toByteArray());
+						}
+					});
+				}
+			};
+			final Connection winner = new ForwardingConnection() {
+				@Override
+				protected @NotNull Connection delegate() {
+					return loser;
+				}
+
+				@Override
+				public void get(final @NotNull String path, final @NotNull OutputStream outputStream) throws SSHException,
+						InterruptedException {
+					Assert.assertTrue(loserWriting.await(10, TimeUnit.SECONDS));
+					try {
+						outputStream.write(content);
+					} catch (final IOException e) {
+						throw new SSHException(e);
+					}
+					winnerClaimed.countDown();
+				}
+
+				@Override
+				public void close() {
+					// The delegate is closed by the other mirror.
+				}
+			};
+			try (final Connection connection = new MirroredConnection(Lists.newArrayList(delayed, winner), 0,
+																																 TimeUnit.MILLISECONDS)) {
+				final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				connection.get("source.txt", outputStream);
+				Assert.assertThat("File not downloaded correctly", outputStream.toByteArray(), is(content));
+				final Future<byte[]> download = executor.submit(() -> {
+					final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+					loser.get("source.txt", copy);
+					loser.ls(".");
+					return copy.toByteArray();
+				});
+				Assert.assertThat("Channel of the losing mirror is broken", download.get(10, TimeUnit.SECONDS), is(content));
+			}
+		} finally {
+			executor.shutdownNow();
+			Files.deleteIfExists(source);
+		}
+	}
+
+	@Test
+	public void testFanOutUpload() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 100000).getBytes();
+		final Path source = Paths.get("source.txt");
+		final Path copy = Paths.get("copy.txt");
+		final Map<String, Connection> hosts = Maps.newLinkedHashMap();
+		try {
+			Files.write(source, content);
+			for (int i = 0; i < 3; i++) {
+				hosts.put("host" + i, ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters()));
+			}
+			try (final FanOutUpload upload = new FanOutUpload(source, "copy.txt", 2)) {
+				final BatchResult<Void> result = upload.uploadTo(hosts);
+				Assert.assertThat("Upload failed: " + result, result.isSuccessful(), is(true));
+				Assert.assertThat("File not copied correctly", Files.readAllBytes(copy), is(content));
+				Assert.assertThat(upload.getProgress().get("host2"), is((long) content.length));
+			}
+		} finally {
+			for (final Connection connection : hosts.values()) {
+				connection.close();
+			}
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(copy);
+		}
+	}
+
+	@Test
+	public void testSharedConnection() throws Exception {
+		final int workingDirFileCount;
+		try (final Stream<Path> files = Files.list(Paths.get(""))) {
+			workingDirFileCount = (int) files.count();
+		}
+		final Connection first = ConnectionFactory.INSTANCE.getSharedConnection(buildConnectionParameters());
+		try (final Connection second = ConnectionFactory.INSTANCE.getSharedConnection(buildConnectionParameters())) {
+			try {
+				Assert.assertThat(first.ls(".").size(), is(workingDirFileCount + 2));
+			} finally {
+				first.close();
+			}
+			Assert.assertThat("Connection closed while still referenced", second.ls(".").size(),
+												is(workingDirFileCount + 2));
+		}
+	}
+
+	@Test
+	public void testOpenSeekable() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 100000).getBytes();
+		final Path source = Paths.get("source.txt");
+		try {
+			Files.write(source, content);
+			try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters());
+					 final SeekableByteChannel channel = connection.openSeekable("source.txt")) {
+				Assert.assertThat(channel.size(), is((long) content.length));
+				final ByteBuffer footer = ByteBuffer.allocate(100);
+				channel.position(content.length - footer.capacity());
+				while (footer.hasRemaining() && channel.read(footer) >= 0) {
+					// Keep reading until the footer has been read.
+				}
+				Assert.assertThat(footer.array(),
+													is(Arrays.copyOfRange(content, content.length - footer.capacity(), content.length)));
+				final ByteBuffer header = ByteBuffer.allocate(14);
+				channel.position(0);
+				channel.read(header);
+				Assert.assertThat(new String(header.array()), is("hello, world!\n"));
+			}
+		} finally {
+			Files.deleteIfExists(source);
+		}
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 100000).getBytes();
+		final Path source = Paths.get("source.txt");
+		final Path copy = Paths.get("copy.txt");
+		try {
+			Files.write(source, content);
+			try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters())) {
+				connection.copy("source.txt", "copy.txt");
+			}
+			Assert.assertThat("File not copied correctly", Files.readAllBytes(copy), is(content));
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(copy);
+		}
+	}
+
+	@Test
+	public void testRelay() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 100000).getBytes();
+		final Path source = Paths.get("source.txt");
+		final Path relayed = Paths.get("relayed.txt");
+		try {
+			Files.write(source, content);
+			try (final Connection vendor = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters());
+					 final Connection internal = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters())) {
+				Relay.transfer(vendor, "source.txt", internal, "relayed.txt");
+			}
+			Assert.assertThat("File not relayed correctly", Files.readAllBytes(relayed), is(content));
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(relayed);
+		}
+	}
+
+	@Test
+	public void testFileSystem() throws Exception {
+		final byte[] content = Strings.repeat("hello, world!\n", 10000).getBytes();
+		final Map<String, Object> env = Maps.newHashMap();
+		env.put(SftpFileSystemProvider.CONNECTION_PARAMETERS, buildConnectionParameters());
+		final URI uri = URI.create(SftpFileSystemProvider.SCHEME + "://" + USERNAME + '@' + HOST + ':' + PORT);
+		final Path localDirectory = Paths.get("fs-test");
+		try (final FileSystem fileSystem = FileSystems.newFileSystem(uri, env)) {
+			final Path directory = fileSystem.getPath("fs-test");
+			Files.createDirectory(directory);
+			Files.write(directory.resolve("a.txt"), content);
+			Files.copy(directory.resolve("a.txt"), directory.resolve("b.txt"));
+			Files.move(directory.resolve("b.txt"), directory.resolve("c.txt"));
+			Assert.assertThat(Files.readAllBytes(directory.resolve("c.txt")), is(content));
+			try (final Stream<Path> walk = Files.walk(directory)) {
+				Assert.assertThat(walk.filter(Files::isRegularFile).map(Path::toString).sorted().collect(Collectors.toList()),
+													is(Arrays.asList("fs-test/a.txt", "fs-test/c.txt")));
+			}
+			try (final Stream<Path> walk = Files.walk(directory)) {
+				for (final Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(path);
+				}
+			}
+			Assert.assertThat(Files.exists(localDirectory), is(false));
+		} finally {
+			if (Files.exists(localDirectory)) {
+				try (final Stream<Path> walk = Files.walk(localDirectory)) {
+					walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFollow() throws Exception {
+		final Path log = Paths.get("follow.log");
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters());
+				 final FileFollower follower = new FileFollower(connection, "follow.log", 0,
+																												FileFollower.toOutputStream(outputStream))) {
+			Files.write(log, "first line\n".getBytes());
+			follower.poll();
+			Files.write(log, "second line\n".getBytes(), StandardOpenOption.APPEND);
+			Assert.assertThat(follower.poll(), is(12L));
+			Assert.assertThat(new String(outputStream.toByteArray()), is("first line\nsecond line\n"));
+		} finally {
+			Files.deleteIfExists(log);
+		}
+	}
+
+	@Test
+	public void testDirectoryWatcher() throws Exception {
+		final Path directory = Files.createDirectory(Paths.get("watched"));
+		final List<DirectoryEvent> events = Lists.newArrayList();
+		try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(buildConnectionParameters());
+				 final RemoteDirectoryWatcher watcher = new RemoteDirectoryWatcher(connection, events::add, 1, 1,
+																																					 TimeUnit.HOURS)) {
+			Files.write(directory.resolve("existing.txt"), "existing".getBytes());
+			watcher.watch("watched");
+			Files.write(directory.resolve("created.txt"), "created".getBytes());
+			Files.write(directory.resolve("existing.txt"), "modified".getBytes(), StandardOpenOption.APPEND);
+			watcher.poll("watched");
+			Assert.assertThat(events.size(), is(2));
+			Assert.assertThat(events.get(0).getKind(), is(DirectoryEvent.Kind.CREATED));
+			Assert.assertThat(events.get(0).getName(), is("created.txt"));
+			Assert.assertThat(events.get(1).getKind(), is(DirectoryEvent.Kind.MODIFIED));
+			Assert.assertThat(events.get(1).getSize(), is(16L));
+		} finally {
+			Files.deleteIfExists(directory.resolve("existing.txt"));
+			Files.deleteIfExists(directory.resolve("created.txt"));
+			Files.delete(directory);
+		}
+	}
+
 	/**
 	 * Constructs a ConnectionParameters object to be used to connect to the test SSH server.
 	 *
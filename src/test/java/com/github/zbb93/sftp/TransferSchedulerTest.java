@@ -0,0 +1,169 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies the order in which a TransferScheduler starts jobs. A single worker is used and the first job blocks until
+ * every other job has been submitted so that the order is determined by the scheduler alone.
+ */
+public class TransferSchedulerTest {
+
+	private Connection connection;
+	private List<String> started;
+	private CountDownLatch release;
+
+	@Before
+	public void setup() throws Exception {
+		connection = mock(Connection.class);
+		started = Collections.synchronizedList(Lists.newArrayList());
+		release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			final String destination = (String) invocation.getArguments()[1];
+			started.add(destination);
+			if ("blocker".equals(destination)) {
+				release.await();
+			}
+			return null;
+		}).when(connection).put(any(Path.class), anyString());
+	}
+
+	@Test
+	public void testSmallestFirst() throws Exception {
+		final List<String> order = runJobs(TransferScheduler.Policy.SMALLEST_FIRST,
+																			 upload("large", 1000, 0, null),
+																			 upload("small", 10, 0, null),
+																			 upload("medium", 100, 0, null));
+		Assert.assertThat(order, CoreMatchers.is(Lists.newArrayList("blocker", "small", "medium", "large")));
+	}
+
+	@Test
+	public void testLargestFirst() throws Exception {
+		final List<String> order = runJobs(TransferScheduler.Policy.LARGEST_FIRST,
+																			 upload("small", 10, 0, null),
+																			 upload("large", 1000, 0, null),
+																			 upload("medium", 100, 0, null));
+		Assert.assertThat(order, CoreMatchers.is(Lists.newArrayList("blocker", "large", "medium", "small")));
+	}
+
+	@Test
+	public void testPriorityBeforePolicy() throws Exception {
+		final List<String> order = runJobs(TransferScheduler.Policy.SMALLEST_FIRST,
+																			 upload("small", 10, 0, null),
+																			 upload("urgent", 1000, 1, null));
+		Assert.assertThat(order, CoreMatchers.is(Lists.newArrayList("blocker", "urgent", "small")));
+	}
+
+	@Test
+	public void testEarliestDeadlineFirst() throws Exception {
+		final Instant now = Instant.now();
+		final List<String> order = runJobs(TransferScheduler.Policy.EARLIEST_DEADLINE_FIRST,
+																			 upload("none", 10, 0, null),
+																			 upload("later", 10, 0, now.plusSeconds(60)),
+																			 upload("sooner", 1000, 0, now.plusSeconds(30)));
+		Assert.assertThat(order, CoreMatchers.is(Lists.newArrayList("blocker", "sooner", "later", "none")));
+	}
+
+	@Test
+	public void testProgressIsReportedPerQueue() throws Exception {
+		try (final TransferScheduler scheduler = new TransferScheduler(connection, 1,
+																																	 TransferScheduler.Policy.SMALLEST_FIRST)) {
+			final TransferJob.Builder builder = new TransferJob.Builder(TransferJob.Direction.UPLOAD, Paths.get("x"),
+																																	 "bulk");
+			builder.setSize(50);
+			builder.setQueue("bulk");
+			scheduler.submit(upload("blocker", 1, 0, null));
+			final CompletableFuture<Void> bulk = scheduler.submit(builder.build());
+			Assert.assertThat(scheduler.getProgress("bulk").getPendingBytes(), CoreMatchers.is(50L));
+			release.countDown();
+			bulk.get(10, TimeUnit.SECONDS);
+			final TransferProgress progress = scheduler.getProgress("bulk");
+			Assert.assertThat(progress.getCompleted(), CoreMatchers.is(1));
+			Assert.assertThat(progress.getCompletedBytes(), CoreMatchers.is(50L));
+			Assert.assertThat(scheduler.getProgress().getCompleted(), CoreMatchers.is(2));
+		}
+	}
+
+	@Test
+	public void testRuntimeExceptionFailsJobAndKeepsWorker() throws Exception {
+		doThrow(new IllegalStateException("Simulated failure")).when(connection).put(any(Path.class), eq("broken"));
+		try (final TransferScheduler scheduler = new TransferScheduler(connection, 1,
+																																	 TransferScheduler.Policy.SMALLEST_FIRST)) {
+			release.countDown();
+			final CompletableFuture<Void> broken = scheduler.submit(upload("broken", 10, 0, null));
+			try {
+				broken.get(10, TimeUnit.SECONDS);
+				Assert.fail("The job should have failed.");
+			} catch (final ExecutionException e) {
+				Assert.assertThat(e.getCause(), CoreMatchers.instanceOf(IllegalStateException.class));
+			}
+			scheduler.submit(upload("next", 10, 0, null)).get(10, TimeUnit.SECONDS);
+			Assert.assertThat(started, CoreMatchers.is(Lists.newArrayList("next")));
+			Assert.assertThat(scheduler.getProgress().getFailed(), CoreMatchers.is(1));
+		}
+	}
+
+	private List<String> runJobs(final TransferScheduler.Policy policy, final TransferJob... jobs) throws Exception {
+		try (final TransferScheduler scheduler = new TransferScheduler(connection, 1, policy)) {
+			final List<CompletableFuture<Void>> futures = Lists.newArrayList(scheduler.submit(upload("blocker", 1, 0,
+																																															 null)));
+			// Wait for the blocking job to start so that the remaining jobs are queued together.
+			while (started.isEmpty()) {
+				Thread.sleep(5);
+			}
+			for (final TransferJob job : jobs) {
+				futures.add(scheduler.submit(job));
+			}
+			release.countDown();
+			for (final CompletableFuture<Void> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		}
+		return started;
+	}
+
+	private static TransferJob upload(final String destination, final long size, final int priority,
+																		final Instant deadline) {
+		final TransferJob.Builder builder = new TransferJob.Builder(TransferJob.Direction.UPLOAD, Paths.get(destination),
+																																 destination);
+		builder.setSize(size);
+		builder.setPriority(priority);
+		if (deadline != null) {
+			builder.setDeadline(deadline);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+
+public class UploadSubscriberTest {
+
+	private final BufferPool bufferPool = new BufferPool(false, 1024 * 1024);
+
+	@Test
+	public void testWritesBuffersAndCompletes() throws Exception {
+		final RecordingStream stream = new RecordingStream();
+		final UploadSubscriber subscriber = new UploadSubscriber(() -> transfer(stream), Runnable::run, bufferPool);
+		final RecordingSubscription subscription = new RecordingSubscription();
+		subscriber.onSubscribe(subscription);
+		subscriber.onNext(ByteBuffer.wrap("hello, ".getBytes()));
+		final ByteBuffer direct = ByteBuffer.allocateDirect(6);
+		direct.put("world!".getBytes());
+		direct.flip();
+		subscriber.onNext(direct);
+		subscriber.onComplete();
+		subscriber.getCompletion().get(5, TimeUnit.SECONDS);
+		Assert.assertThat("Content differs.", stream.toString(), is("hello, world!"));
+		Assert.assertThat("Stream not closed.", stream.closed, is(true));
+	}
+
+	@Test
+	public void testDemandIsBounded() throws Exception {
+		final UploadSubscriber subscriber = new UploadSubscriber(() -> transfer(new RecordingStream()), Runnable::run, bufferPool);
+		final RecordingSubscription subscription = new RecordingSubscription();
+		subscriber.onSubscribe(subscription);
+		Assert.assertThat("Unexpected initial demand.", subscription.requested.get(), is((long) UploadSubscriber.PREFETCH));
+		subscriber.onNext(ByteBuffer.wrap(new byte[10]));
+		Assert.assertThat("Demand not replenished.", subscription.requested.get(),
+											is((long) UploadSubscriber.PREFETCH + 1));
+	}
+
+	@Test
+	public void testPublisherErrorFailsCompletion() throws Exception {
+		final RecordingStream stream = new RecordingStream();
+		final UploadSubscriber subscriber = new UploadSubscriber(() -> transfer(stream), Runnable::run, bufferPool);
+		subscriber.onSubscribe(new RecordingSubscription());
+		subscriber.onError(new IllegalStateException("Simulated failure"));
+		try {
+			subscriber.getCompletion().get(5, TimeUnit.SECONDS);
+			Assert.fail("Completion did not fail.");
+		} catch (final ExecutionException e) {
+			Assert.assertThat("Unexpected cause.", e.getCause(), instanceOf(IllegalStateException.class));
+		}
+		Assert.assertThat("Stream not closed.", stream.closed, is(true));
+	}
+
+	@Test
+	public void testPublisherErrorReportsUnsuccessfulTransfer() throws Exception {
+		final AtomicBoolean successful = new AtomicBoolean(true);
+		final UploadSubscriber subscriber = new UploadSubscriber(
+				() -> new TransferOutputStream(new RecordingStream(), (bytes, result) -> successful.set(result)), Runnable::run,
+				bufferPool);
+		subscriber.onSubscribe(new RecordingSubscription());
+		subscriber.onNext(ByteBuffer.wrap(new byte[10]));
+		subscriber.onError(new IllegalStateException("Simulated failure"));
+		Assert.assertThat("Completion did not fail.", subscriber.getCompletion().isCompletedExceptionally(), is(true));
+		Assert.assertThat("Failed transfer reported as successful.", successful.get(), is(false));
+	}
+
+	@Test
+	public void testWriteFailureCancelsSubscription() throws Exception {
+		final UploadSubscriber subscriber = new UploadSubscriber(() -> transfer(new OutputStream() {
+			@Override
+			public void write(final int b) throws IOException {
+				throw new IOException("Simulated failure");
+			}
+		}), Runnable::run, bufferPool);
+		final RecordingSubscription subscription = new RecordingSubscription();
+		subscriber.onSubscribe(subscription);
+		subscriber.onNext(ByteBuffer.wrap(new byte[10]));
+		Assert.assertThat("Subscription not cancelled.", subscription.cancelled.get(), is(true));
+		Assert.assertThat("Completion did not fail.", subscriber.getCompletion().isCompletedExceptionally(), is(true));
+	}
+
+	@Test
+	public void testInterruptedAwaitCancelsUpload() throws Exception {
+		final RecordingStream stream = new RecordingStream();
+		final UploadSubscriber subscriber = new UploadSubscriber(() -> transfer(stream), Runnable::run, bufferPool);
+		final RecordingSubscription subscription = new RecordingSubscription();
+		subscriber.onSubscribe(subscription);
+		Thread.currentThread().interrupt();
+		try {
+			subscriber.await();
+			Assert.fail("Await was not interrupted.");
+		} catch (final InterruptedException expected) {
+			Assert.assertThat("Subscription not cancelled.", subscription.cancelled.get(), is(true));
+			Assert.assertThat("Stream not closed.", stream.closed, is(true));
+			Assert.assertThat("Completion did not fail.", subscriber.getCompletion().isCompletedExceptionally(), is(true));
+		}
+	}
+
+	@Test
+	public void testReleasesChunksOfDownloadPublisher() throws Exception {
+		final BufferPool chunkPool = new BufferPool(false, 1024 * 1024);
+		final byte[] content = new byte[DownloadPublisher.CHUNK_SIZE * 10 + 100];
+		final RecordingStream stream = new RecordingStream();
+		final UploadSubscriber subscriber = new UploadSubscriber(() -> transfer(stream), Runnable::run, bufferPool);
+		new DownloadPublisher(() -> new ByteArrayInputStream(content), Runnable::run, chunkPool).subscribe(subscriber);
+		subscriber.getCompletion().get(5, TimeUnit.SECONDS);
+		Assert.assertThat("Content differs.", stream.toByteArray(), is(content));
+		Assert.assertThat("Chunks not released.", chunkPool.getStatistics().getOutstanding(), is(0L));
+		Assert.assertThat("Chunks not reused.", chunkPool.getStatistics().getHits() > 0, is(true));
+	}
+
+	@Test
+	public void testSecondSubscriptionIsCancelled() {
+		final UploadSubscriber subscriber = new UploadSubscriber(() -> transfer(new RecordingStream()), Runnable::run, bufferPool);
+		subscriber.onSubscribe(new RecordingSubscription());
+		final RecordingSubscription second = new RecordingSubscription();
+		subscriber.onSubscribe(second);
+		Assert.assertThat("Second subscription not cancelled.", second.cancelled.get(), is(true));
+	}
+
+	private static TransferOutputStream transfer(final OutputStream stream) {
+		return new TransferOutputStream(stream, (bytes, successful) -> {});
+	}
+
+	private static class RecordingStream extends ByteArrayOutputStream {
+		private volatile boolean closed;
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+
+	private static class RecordingSubscription implements Subscription {
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicBoolean cancelled = new AtomicBoolean();
+
+		@Override
+		public void request(final long n) {
+			requested.addAndGet(n);
+		}
+
+		@Override
+		public void cancel() {
+			cancelled.set(true);
+		}
+	}
+}
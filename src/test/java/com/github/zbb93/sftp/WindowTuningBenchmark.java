@@ -0,0 +1,212 @@
+/*
+ * sftp - sftp for java
+ * Copyright (C) 2018  Zac Bowen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.zbb93.sftp;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Downloads a file through a loopback proxy that adds latency to every packet, once with the default JSch settings,
+ * once with a manually sized window and once with auto-tuning. The throughput of each run is printed. This is not a
+ * unit test and is not run as part of the build; run it with sshd-core on the classpath.
+ */
+public final class WindowTuningBenchmark {
+
+	private static final @NotNull String HOST = "localhost";
+
+	private static final int SERVER_PORT = 4001;
+
+	private static final int PROXY_PORT = 4002;
+
+	private static final @NotNull String USERNAME = "test";
+
+	private static final @NotNull byte[] PASSWORD = "test".getBytes();
+
+	/**
+	 * Latency added in each direction by the proxy.
+	 */
+	private static final long ONE_WAY_DELAY_MILLIS = 25;
+
+	private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+	private static final int AUTO_TUNE_ROUNDS = 6;
+
+	private static final int TIMEOUT = 20000;
+
+	private static final @NotNull String FILE_NAME = "window-tuning-benchmark.bin";
+
+	public static void main(final String[] args) throws Exception {
+		final SshServer server = SshServer.setUpDefaultServer();
+		server.setHost(HOST);
+		server.setPort(SERVER_PORT);
+		server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+		server.setPasswordAuthenticator((username, password, session) ->
+																				username.equals(USERNAME) && password.equals(new String(PASSWORD)));
+		server.setSubsystemFactories(Lists.newArrayList(new SftpSubsystemFactory()));
+		server.start();
+		final Path file = Paths.get(FILE_NAME).toAbsolutePath();
+		final byte[] content = new byte[FILE_SIZE];
+		Arrays.fill(content, (byte) 'x');
+		Files.write(file, content);
+		final LatencyProxy proxy = new LatencyProxy(PROXY_PORT, SERVER_PORT, ONE_WAY_DELAY_MILLIS);
+		try {
+			download("default", 1, builder -> { });
+			download("window 16MB, 512 requests", 1, builder -> {
+				builder.setWindowSize(16 * 1024 * 1024);
+				builder.setBulkRequests(512);
+			});
+			download("auto-tune", AUTO_TUNE_ROUNDS, builder -> builder.setAutoTune(true));
+		} finally {
+			proxy.close();
+			Files.deleteIfExists(file);
+			server.stop();
+		}
+	}
+
+	/**
+	 * Downloads the benchmark file over a single connection the given number of times and prints the throughput of each
+	 * round. Auto-tuning adjusts the window between rounds.
+	 */
+	private static void download(final @NotNull String label, final int rounds,
+															 final @NotNull Consumer<ConnectionParameters.Builder> tuning) throws Exception {
+		final ConnectionParameters.Builder builder = new ConnectionParameters.Builder(HOST, USERNAME, PASSWORD, PROXY_PORT);
+		builder.setTimeout(TIMEOUT);
+		builder.setChannelPoolSize(1);
+		tuning.accept(builder);
+		try (final Connection connection = ConnectionFactory.INSTANCE.getConnection(builder.build())) {
+			for (int round = 1; round <= rounds; round++) {
+				final long start = System.nanoTime();
+				connection.get(FILE_NAME, ByteStreams.nullOutputStream());
+				final long nanos = System.nanoTime() - start;
+				final double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+				final double megabytesPerSecond = FILE_SIZE / (1024.0 * 1024.0) / seconds;
+				System.out.println(String.format("%-30s round %d %8.2f MB/s", label, round, megabytesPerSecond));
+			}
+		}
+	}
+
+	/**
+	 * Forwards connections on a local port to another local port, delaying every chunk of data by a fixed amount of time
+	 * without limiting the bandwidth.
+	 */
+	private static final class LatencyProxy implements AutoCloseable {
+
+		private final @NotNull ServerSocket serverSocket;
+
+		private final int targetPort;
+
+		private final long delayNanos;
+
+		LatencyProxy(final int port, final int targetPort, final long delayMillis) throws IOException {
+			serverSocket = new ServerSocket(port);
+			this.targetPort = targetPort;
+			delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+			startDaemon(this::accept);
+		}
+
+		private void accept() {
+			try {
+				while (!serverSocket.isClosed()) {
+					final Socket client = serverSocket.accept();
+					final Socket target = new Socket(HOST, targetPort);
+					relay(client, target);
+					relay(target, client);
+				}
+			} catch (final IOException ignored) {
+				// The proxy was closed.
+			}
+		}
+
+		/**
+		 * Copies data from one socket to the other. A reader thread timestamps each chunk and a writer thread sends it once
+		 * the delay has elapsed.
+		 */
+		private void relay(final @NotNull Socket from, final @NotNull Socket to) {
+			final BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+			startDaemon(() -> {
+				try (final InputStream in = from.getInputStream()) {
+					final byte[] buffer = new byte[64 * 1024];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						chunks.put(new Chunk(Arrays.copyOf(buffer, read), System.nanoTime() + delayNanos));
+					}
+				} catch (final IOException | InterruptedException ignored) {
+					// Connection closed.
+				}
+				chunks.add(Chunk.END);
+			});
+			startDaemon(() -> {
+				try (final OutputStream out = to.getOutputStream()) {
+					Chunk chunk;
+					while ((chunk = chunks.take()) != Chunk.END) {
+						final long wait = chunk.deliverAt - System.nanoTime();
+						if (wait > 0) {
+							TimeUnit.NANOSECONDS.sleep(wait);
+						}
+						out.write(chunk.data);
+					}
+				} catch (final IOException | InterruptedException ignored) {
+					// Connection closed.
+				}
+			});
+		}
+
+		private static void startDaemon(final @NotNull Runnable runnable) {
+			final Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+
+	private static final class Chunk {
+
+		static final @NotNull Chunk END = new Chunk(new byte[0], 0);
+
+		final @NotNull byte[] data;
+
+		final long deliverAt;
+
+		Chunk(final @NotNull byte[] data, final long deliverAt) {
+			this.data = data;
+			this.deliverAt = deliverAt;
+		}
+	}
+}